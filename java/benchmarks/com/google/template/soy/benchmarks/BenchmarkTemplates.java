@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.template.soy.data.SoyRecord;
+import com.google.template.soy.data.SoyValueHelper;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The representative Soy templates and data used by the benchmarks.
+ */
+final class BenchmarkTemplates {
+
+
+  /** The namespace of the templates. */
+  static final String NAMESPACE = "soy.benchmarks";
+
+  /** The number of items in the data. */
+  static final int NUM_ITEMS = 100;
+
+  /** The number of Soy files in the file set used to benchmark the compiler. */
+  static final int NUM_FILES = 20;
+
+
+  private BenchmarkTemplates() {}
+
+
+  /**
+   * Returns the content of a Soy file with the representative templates:
+   * <ul>
+   *   <li>{@code .foreach}: loops, conditionals and prints (foreach-heavy),
+   *   <li>{@code .call}: a call per item, each doing another call (call-heavy),
+   *   <li>{@code .msg}: messages with placeholders and plurals (msg-heavy).
+   * </ul>
+   *
+   * @param namespace The namespace of the file.
+   * @param autoescapeMode The autoescape mode of the namespace, e.g. "true" or "strict".
+   */
+  static String getSoyFileContent(String namespace, String autoescapeMode) {
+    return "" +
+        "{namespace " + namespace + " autoescape=\"" + autoescapeMode + "\"}\n" +
+        "\n" +
+        "/** @param items */\n" +
+        "{template .foreach}\n" +
+        "  <table>\n" +
+        "  {foreach $item in $items}\n" +
+        "    <tr class=\"{if isFirst($item)}first{elseif isLast($item)}last{else}row{/if}\">\n" +
+        "      <td>{index($item) + 1}</td>\n" +
+        "      <td><a href=\"{$item.url}\">{$item.name}</a></td>\n" +
+        "      <td>{$item.price}</td>\n" +
+        "      <td>\n" +
+        "        {foreach $tag in $item.tags}{$tag}{if not isLast($tag)}, {/if}{/foreach}\n" +
+        "      </td>\n" +
+        "    </tr>\n" +
+        "  {ifempty}\n" +
+        "    <tr><td>Nothing</td></tr>\n" +
+        "  {/foreach}\n" +
+        "  </table>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param items */\n" +
+        "{template .call}\n" +
+        "  <ul>\n" +
+        "  {foreach $item in $items}\n" +
+        "    {call .item}\n" +
+        "      {param name: $item.name /}\n" +
+        "      {param url: $item.url /}\n" +
+        "    {/call}\n" +
+        "  {/foreach}\n" +
+        "  </ul>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param name\n" +
+        " * @param url\n" +
+        " */\n" +
+        "{template .item}\n" +
+        "  <li>{call .link data=\"all\" /}</li>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param name\n" +
+        " * @param url\n" +
+        " */\n" +
+        "{template .link}\n" +
+        "  <a href=\"{$url}\">{$name}</a>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param items */\n" +
+        "{template .msg}\n" +
+        "  {foreach $item in $items}\n" +
+        "    {msg desc=\"Describes an item.\"}\n" +
+        "      <b>{$item.name}</b> costs {$item.price}.\n" +
+        "    {/msg}\n" +
+        "    {msg desc=\"Counts the tags of an item.\"}\n" +
+        "      {plural $item.numTags}\n" +
+        "        {case 0}No tags\n" +
+        "        {case 1}One tag\n" +
+        "        {default}{$item.numTags} tags\n" +
+        "      {/plural}\n" +
+        "    {/msg}\n" +
+        "  {/foreach}\n" +
+        "{/template}\n";
+  }
+
+
+  /**
+   * Returns the data for the templates, converted once so that the benchmarks don't measure the
+   * conversion.
+   */
+  static SoyRecord getData() {
+
+    List<Map<String, ?>> items = Lists.newArrayList();
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      List<String> tags = Lists.newArrayList();
+      for (int j = 0; j < i % 4; j++) {
+        tags.add("tag" + j + (j % 2 == 0 ? "" : " & <more>"));
+      }
+      items.add(ImmutableMap.of(
+          "name", "Item #" + i + (i % 10 == 0 ? " <new>" : ""),
+          "url", "http://www.example.com/items?id=" + i + "&view=full",
+          "price", i * 1.25,
+          "tags", ImmutableList.copyOf(tags),
+          "numTags", tags.size()));
+    }
+    return (SoyRecord) SoyValueHelper.UNCUSTOMIZED_INSTANCE.convert(
+        ImmutableMap.of("items", items));
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.benchmarks;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Guice;
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.SoyModule;
+import com.google.template.soy.base.internal.SoyFileKind;
+import com.google.template.soy.base.internal.SoyFileSupplier;
+import com.google.template.soy.basetree.SyntaxVersion;
+import com.google.template.soy.jssrc.SoyJsSrcOptions;
+import com.google.template.soy.parsepasses.contextautoesc.ContextualAutoescaper;
+import com.google.template.soy.soyparse.SoyFileSetParser;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.types.SoyTypeRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for the compiler: parsing ({@link SoyFileSetParser#parse}), contextual autoescaping
+ * ({@link ContextualAutoescaper#rewrite}) and generating JS ({@link SoyFileSet#compileToJsSrc}),
+ * on a file set of {@link BenchmarkTemplates#NUM_FILES} strict Soy files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+
+
+  private List<SoyFileSupplier> soyFileSuppliers;
+
+  private SoyFileSet soyFileSet;
+
+  private SoyJsSrcOptions jsSrcOptions;
+
+  private ContextualAutoescaper contextualAutoescaper;
+
+
+  @Setup public void setUp() {
+
+    soyFileSuppliers = Lists.newArrayList();
+    SoyFileSet.Builder sfsBuilder = SoyFileSet.builder();
+    for (int i = 0; i < BenchmarkTemplates.NUM_FILES; i++) {
+      String namespace = BenchmarkTemplates.NAMESPACE + i;
+      String filePath = "benchmark" + i + ".soy";
+      String soyFileContent = BenchmarkTemplates.getSoyFileContent(namespace, "strict");
+      soyFileSuppliers.add(
+          SoyFileSupplier.Factory.create(soyFileContent, SoyFileKind.SRC, filePath));
+      sfsBuilder.add(soyFileContent, filePath);
+    }
+    soyFileSet = sfsBuilder.build();
+
+    jsSrcOptions = new SoyJsSrcOptions();
+    // Needed for plural messages.
+    jsSrcOptions.setShouldGenerateGoogMsgDefs(true);
+    jsSrcOptions.setShouldProvideRequireSoyNamespaces(true);
+    jsSrcOptions.setBidiGlobalDir(1);
+
+    contextualAutoescaper =
+        Guice.createInjector(new SoyModule()).getInstance(ContextualAutoescaper.class);
+  }
+
+
+  @Benchmark public SoyFileSetNode parse() {
+    return parseSoyFiles();
+  }
+
+
+  @Benchmark public List<TemplateNode> rewrite(ParsedTree parsedTree) {
+    return contextualAutoescaper.rewrite(parsedTree.soyTree);
+  }
+
+
+  @Benchmark public List<String> compileToJsSrc() {
+    return soyFileSet.compileToJsSrc(jsSrcOptions, null);
+  }
+
+
+  /**
+   * Private helper to parse the benchmark's Soy files.
+   */
+  private SoyFileSetNode parseSoyFiles() {
+    return (new SoyFileSetParser(
+        new SoyTypeRegistry(), null, SyntaxVersion.V2_0, soyFileSuppliers)).parse();
+  }
+
+
+  /**
+   * A freshly parsed tree for each call to {@code rewrite()}, since it modifies the tree.
+   */
+  @State(Scope.Thread)
+  public static class ParsedTree {
+
+    SoyFileSetNode soyTree;
+
+    @Setup(Level.Invocation) public void setUp(CompilerBenchmark benchmark) {
+      soyTree = benchmark.parseSoyFiles();
+    }
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.benchmarks;
+
+import com.google.template.soy.data.Dir;
+import com.google.template.soy.data.SoyValue;
+import com.google.template.soy.data.restricted.StringData;
+import com.google.template.soy.internal.i18n.BidiUtils;
+import com.google.template.soy.shared.restricted.Sanitizers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Benchmarks for each {@link Sanitizers} escaper, and for {@link BidiUtils#estimateDirection}, on
+ * typical printed values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapingBenchmark {
+
+
+  /**
+   * The kind of value: "clean" needs no escaping (the common case), "dirty" has a few characters
+   * to escape, "rtl" is right-to-left text with a few characters to escape.
+   */
+  @Param({"clean", "dirty", "rtl"})
+  public String input;
+
+
+  private SoyValue value;
+
+  private String string;
+
+  /** The logger of Sanitizers, kept so that its level stays set. */
+  private Logger sanitizersLogger;
+
+
+  @Setup public void setUp() {
+    if (input.equals("clean")) {
+      string = "The quick brown fox jumps over the lazy dog 1234567890";
+    } else if (input.equals("dirty")) {
+      string = "The \"quick\" <b>brown</b> fox jumps over the lazy dog & cat's 1234567890";
+    } else if (input.equals("rtl")) {
+      string = "\u05e9\u05dc\u05d5\u05dd <b>\u05e2\u05d5\u05dc\u05dd</b> & '\u05d0' 1234567890";
+    } else {
+      throw new IllegalArgumentException("Unknown input: " + input);
+    }
+    value = StringData.forValue(string);
+
+    // The filters log every value they reject, which would dominate the measurements.
+    sanitizersLogger = Logger.getLogger(Sanitizers.class.getName());
+    sanitizersLogger.setLevel(Level.OFF);
+  }
+
+
+  @Benchmark public String escapeHtml() {
+    return Sanitizers.escapeHtml(value);
+  }
+
+
+  @Benchmark public String escapeHtmlRcdata() {
+    return Sanitizers.escapeHtmlRcdata(value);
+  }
+
+
+  @Benchmark public String normalizeHtml() {
+    return Sanitizers.normalizeHtml(value);
+  }
+
+
+  @Benchmark public String normalizeHtmlNospace() {
+    return Sanitizers.normalizeHtmlNospace(value);
+  }
+
+
+  @Benchmark public String escapeHtmlAttribute() {
+    return Sanitizers.escapeHtmlAttribute(value);
+  }
+
+
+  @Benchmark public String escapeHtmlAttributeNospace() {
+    return Sanitizers.escapeHtmlAttributeNospace(value);
+  }
+
+
+  @Benchmark public String escapeJsString() {
+    return Sanitizers.escapeJsString(value);
+  }
+
+
+  @Benchmark public String escapeJsValue() {
+    return Sanitizers.escapeJsValue(value);
+  }
+
+
+  @Benchmark public String escapeJsRegex() {
+    return Sanitizers.escapeJsRegex(value);
+  }
+
+
+  @Benchmark public String escapeCssString() {
+    return Sanitizers.escapeCssString(value);
+  }
+
+
+  @Benchmark public String filterCssValue() {
+    return Sanitizers.filterCssValue(value);
+  }
+
+
+  @Benchmark public String escapeUri() {
+    return Sanitizers.escapeUri(value);
+  }
+
+
+  @Benchmark public String normalizeUri() {
+    return Sanitizers.normalizeUri(value);
+  }
+
+
+  @Benchmark public String filterNormalizeUri() {
+    return Sanitizers.filterNormalizeUri(value);
+  }
+
+
+  @Benchmark public String filterHtmlAttributes() {
+    return Sanitizers.filterHtmlAttributes(value);
+  }
+
+
+  @Benchmark public String filterHtmlElementName() {
+    return Sanitizers.filterHtmlElementName(value);
+  }
+
+
+  @Benchmark public Dir estimateDirection() {
+    return BidiUtils.estimateDirection(string);
+  }
+
+
+  @Benchmark public Dir estimateDirectionHtml() {
+    return BidiUtils.estimateDirection(string, true);
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.benchmarks;
+
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.data.SoyRecord;
+import com.google.template.soy.tofu.SoyTofu;
+import com.google.template.soy.tofu.SoyTofuOptions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for rendering representative templates with {@link SoyTofu.Renderer#render}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+
+  /** The template to render (see {@link BenchmarkTemplates#getSoyFileContent}). */
+  @Param({"foreach", "call", "msg"})
+  public String template;
+
+  /** The autoescape mode of the templates: non-strict or strict. */
+  @Param({"true", "strict"})
+  public String autoescapeMode;
+
+  /** Whether the tofu renders the templates' precompiled bodies. */
+  @Param({"false", "true"})
+  public boolean useCompiledTemplates;
+
+
+  private SoyTofu tofu;
+
+  private SoyRecord data;
+
+
+  @Setup public void setUp() {
+    SoyFileSet.Builder sfsBuilder = SoyFileSet.builder();
+    sfsBuilder.add(
+        BenchmarkTemplates.getSoyFileContent(BenchmarkTemplates.NAMESPACE, autoescapeMode),
+        "benchmark.soy");
+    SoyTofuOptions tofuOptions = new SoyTofuOptions();
+    tofuOptions.setUseCompiledTemplates(useCompiledTemplates);
+    tofu = sfsBuilder.build().compileToTofu(tofuOptions);
+    data = BenchmarkTemplates.getData();
+  }
+
+
+  @Benchmark public String render() {
+    return tofu.newRenderer(BenchmarkTemplates.NAMESPACE + "." + template)
+        .setData(data)
+        .render();
+  }
+
+}
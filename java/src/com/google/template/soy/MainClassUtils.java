@@ -17,17 +17,21 @@
 package com.google.template.soy;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Function;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.template.soy.SoyFileSet.Builder;
+import com.google.template.soy.base.SoySyntaxException;
 import com.google.template.soy.base.internal.SoyFileKind;
+import com.google.template.soy.shared.SoyAstCache;
 
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -36,9 +40,15 @@ import org.kohsuke.args4j.spi.OptionHandler;
 import org.kohsuke.args4j.spi.Parameters;
 import org.kohsuke.args4j.spi.Setter;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -50,9 +60,125 @@ import javax.annotation.Nullable;
  */
 class MainClassUtils {
 
+
+  /** The flag that makes a main class run as a persistent worker (must be the first arg). */
+  private static final String PERSISTENT_WORKER_FLAG = "--persistentWorker";
+
+  /** The persistent worker flag that makes the worker cache the parsed Soy files. */
+  private static final String CACHE_ASTS_FLAG = "--cacheAsts";
+
+
+  /** Whether this JVM is running as a persistent worker. */
+  private static boolean isPersistentWorker = false;
+
+  /** The injectors created by the persistent worker, by the plugin module names they include. */
+  private static final Map<List<String>, Injector> workerInjectors = Maps.newHashMap();
+
+  /** The AST caches of the persistent worker, by injector and declared syntax version, or null if
+   *  the worker doesn't cache the parsed Soy files. */
+  private static Map<Injector, Map<String, SoyAstCache>> workerAstCaches = null;
+
+
   private MainClassUtils() {}
 
 
+  /**
+   * The execution of a main class for given command-line args, which can be run many times in the
+   * same JVM by a persistent worker.
+   */
+  interface Main {
+
+    /**
+     * @param args The command-line args.
+     * @throws IOException If there are problems reading the input files or writing the output
+     *     files.
+     * @throws SoySyntaxException If a syntax error is detected.
+     */
+    void main(String[] args) throws IOException, SoySyntaxException;
+  }
+
+
+  /**
+   * Thrown by exitWithError() in a persistent worker, which fails the current request instead of
+   * exiting.
+   */
+  private static final class ExitException extends RuntimeException {}
+
+
+  /**
+   * Runs a main class, either once for the given args, or as a persistent worker if the first arg
+   * is {@code --persistentWorker}.
+   *
+   * <p> A persistent worker serves many requests, so that they don't each pay for the JVM startup,
+   * the creation of the Guice injector and the JIT compilation. Each line read from stdin is a
+   * request, holding the command-line args of one execution separated by tabs. For each request,
+   * the worker writes the exit code (0 for success, 1 for failure) on a line to stdout, and any
+   * other output to stderr. The worker exits at the end of stdin. The injectors are reused by the
+   * requests that include the same plugin modules.
+   *
+   * <p> If the {@code --cacheAsts} flag follows {@code --persistentWorker}, then the worker also
+   * keeps the parsed Soy files (typically the deps shared by many requests), and only reparses
+   * those whose modification time changed. The nodes of the files get new ids for each request,
+   * so the generated code (e.g. the names of local variables) doesn't depend on the previous
+   * requests.
+   *
+   * @param main The execution of the main class.
+   * @param args The command-line args.
+   * @throws IOException If there are problems reading the input files or writing the output
+   *     files, or reading the requests.
+   * @throws SoySyntaxException If a syntax error is detected.
+   */
+  public static void runMain(Main main, String[] args) throws IOException, SoySyntaxException {
+
+    if (args.length == 0 || !args[0].equals(PERSISTENT_WORKER_FLAG)) {
+      main.main(args);
+      return;
+    }
+
+    if (args.length > 2 || (args.length == 2 && !args[1].equals(CACHE_ASTS_FLAG))) {
+      System.err.println(
+          "\nError: " + PERSISTENT_WORKER_FLAG + " may only be followed by " + CACHE_ASTS_FLAG +
+          " (the args of each execution are read from stdin).\n");
+      System.exit(1);
+    }
+
+    isPersistentWorker = true;
+    if (args.length == 2) {
+      workerAstCaches = Maps.newHashMap();
+    }
+
+    // Note: Anything printed to System.out during a request goes to stderr instead, so that stdout
+    // only has the exit codes.
+    PrintStream out = System.out;
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+    try {
+      String request;
+      while ((request = in.readLine()) != null) {
+        String[] requestArgs = request.isEmpty() ? new String[0] : request.split("\t", -1);
+        int exitCode = 0;
+        System.setOut(System.err);
+        try {
+          main.main(requestArgs);
+        } catch (ExitException e) {
+          exitCode = 1;
+        } catch (Exception e) {
+          e.printStackTrace();
+          exitCode = 1;
+        } finally {
+          System.setOut(out);
+        }
+        out.println(exitCode);
+        out.flush();
+      }
+
+    } finally {
+      isPersistentWorker = false;
+      workerInjectors.clear();
+      workerAstCaches = null;
+    }
+  }
+
+
 
   /**
    * OptionHandler for args4j that handles a boolean.
@@ -176,7 +302,8 @@ class MainClassUtils {
 
 
   /**
-   * Prints an error message and the usage string, and then exits.
+   * Prints an error message and the usage string, and then exits (or fails the current request, in
+   * a persistent worker).
    *
    * @param errorMsg The error message to print.
    * @param cmdLineParser The CmdLineParser used to print usage text for flags.
@@ -189,6 +316,9 @@ class MainClassUtils {
     System.err.println(usagePrefix);
     cmdLineParser.printUsage(System.err);
 
+    if (isPersistentWorker) {
+      throw new ExitException();
+    }
     System.exit(1);
   }
 
@@ -205,6 +335,11 @@ class MainClassUtils {
   public static Injector createInjector(
       String msgPluginModuleName, @Nullable String pluginModuleNames) {
 
+    List<String> workerInjectorKey = Arrays.asList(msgPluginModuleName, pluginModuleNames);
+    if (isPersistentWorker && workerInjectors.containsKey(workerInjectorKey)) {
+      return workerInjectors.get(workerInjectorKey);
+    }
+
     List<Module> guiceModules = Lists.newArrayListWithCapacity(2);
 
     guiceModules.add(new SoyModule());
@@ -218,7 +353,7 @@ class MainClassUtils {
       }
     }
 
-    return Guice.createInjector(guiceModules);
+    return maybeKeepWorkerInjector(workerInjectorKey, Guice.createInjector(guiceModules));
   }
 
   /**
@@ -232,6 +367,11 @@ class MainClassUtils {
    */
   public static Injector createInjector(@Nullable String pluginModuleNames) {
 
+    List<String> workerInjectorKey = Arrays.asList((String) null, pluginModuleNames);
+    if (isPersistentWorker && workerInjectors.containsKey(workerInjectorKey)) {
+      return workerInjectors.get(workerInjectorKey);
+    }
+
     List<Module> guiceModules = Lists.newArrayListWithCapacity(2);
 
     guiceModules.add(new SoyModule());
@@ -242,7 +382,54 @@ class MainClassUtils {
       }
     }
 
-    return Guice.createInjector(guiceModules);
+    return maybeKeepWorkerInjector(workerInjectorKey, Guice.createInjector(guiceModules));
+  }
+
+  /**
+   * Private helper for createInjector() to keep the injector for the next requests, in a
+   * persistent worker.
+   *
+   * @param workerInjectorKey The plugin module names that the injector includes.
+   * @param injector The injector.
+   * @return The given injector.
+   */
+  private static Injector maybeKeepWorkerInjector(
+      List<String> workerInjectorKey, Injector injector) {
+    if (isPersistentWorker) {
+      workerInjectors.put(workerInjectorKey, injector);
+    }
+    return injector;
+  }
+
+  /**
+   * Creates a SoyFileSet builder from the given injector. In a persistent worker that caches the
+   * parsed Soy files, the builder uses the AST cache of the injector and declared syntax version.
+   *
+   * @param injector The Guice injector.
+   * @param declaredSyntaxVersionName The declared syntax version name that will be set on the
+   *     builder, or empty string if none.
+   * @return The new SoyFileSet builder.
+   */
+  public static Builder createSoyFileSetBuilder(
+      Injector injector, String declaredSyntaxVersionName) {
+
+    Builder sfsBuilder = injector.getInstance(Builder.class);
+
+    if (workerAstCaches != null) {
+      Map<String, SoyAstCache> astCaches = workerAstCaches.get(injector);
+      if (astCaches == null) {
+        astCaches = Maps.newHashMap();
+        workerAstCaches.put(injector, astCaches);
+      }
+      SoyAstCache astCache = astCaches.get(declaredSyntaxVersionName);
+      if (astCache == null) {
+        astCache = new SoyAstCache();
+        astCaches.put(declaredSyntaxVersionName, astCache);
+      }
+      sfsBuilder.setSoyAstCache(astCache);
+    }
+
+    return sfsBuilder;
   }
 
   /**
@@ -299,13 +486,27 @@ class MainClassUtils {
         Sets.union(srcsSet, depsSet));
 
     for (String src : srcsSet) {
-      sfsBuilder.addWithKind(new File(inputPrefix + src), SoyFileKind.SRC);
+      addSoyFileToBuilder(sfsBuilder, new File(inputPrefix + src), SoyFileKind.SRC);
     }
     for (String dep : depsSet) {
-      sfsBuilder.addWithKind(new File(inputPrefix + dep), SoyFileKind.DEP);
+      addSoyFileToBuilder(sfsBuilder, new File(inputPrefix + dep), SoyFileKind.DEP);
     }
     for (String dep : indirectDepsSet) {
-      sfsBuilder.addWithKind(new File(inputPrefix + dep), SoyFileKind.INDIRECT_DEP);
+      addSoyFileToBuilder(sfsBuilder, new File(inputPrefix + dep), SoyFileKind.INDIRECT_DEP);
+    }
+  }
+
+
+  /**
+   * Private helper for addSoyFilesToBuilder() to add one Soy file. In a persistent worker that
+   * caches the parsed Soy files, the file is added as volatile, so that the cached version is only
+   * used while the file is unchanged.
+   */
+  private static void addSoyFileToBuilder(Builder sfsBuilder, File file, SoyFileKind soyFileKind) {
+    if (workerAstCaches != null) {
+      sfsBuilder.addVolatileWithKind(file, soyFileKind);
+    } else {
+      sfsBuilder.addWithKind(file, soyFileKind);
     }
   }
 
@@ -18,12 +18,15 @@ package com.google.template.soy;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -34,6 +37,7 @@ import com.google.template.soy.base.internal.SoyFileKind;
 import com.google.template.soy.base.internal.SoyFileSupplier;
 import com.google.template.soy.base.internal.VolatileSoyFileSupplier;
 import com.google.template.soy.basetree.SyntaxVersion;
+import com.google.template.soy.internal.base.Pair;
 import com.google.template.soy.jssrc.SoyJsSrcOptions;
 import com.google.template.soy.jssrc.internal.JsSrcMain;
 import com.google.template.soy.msgs.SoyMsgBundle;
@@ -66,8 +70,10 @@ import com.google.template.soy.soytree.SoyFileNode;
 import com.google.template.soy.soytree.SoyFileSetNode;
 import com.google.template.soy.soytree.TemplateDelegateNode;
 import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.TemplateRegistry;
 import com.google.template.soy.tofu.SoyTofu;
 import com.google.template.soy.tofu.SoyTofuOptions;
+import com.google.template.soy.tofu.internal.BaseTofu;
 import com.google.template.soy.tofu.internal.BaseTofu.BaseTofuFactory;
 import com.google.template.soy.types.SoyType;
 import com.google.template.soy.types.SoyTypeProvider;
@@ -81,6 +87,11 @@ import java.io.Reader;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -140,6 +151,9 @@ public final class SoyFileSet {
     /** Type registry for this fileset only. */
     private SoyTypeRegistry localTypeRegistry;
 
+    /** Optional executor on which to parse the files in parallel. */
+    private Executor parsingExecutor;
+
     /**
      * Constructs a builder using a statically-injected configuration.
      *
@@ -154,6 +168,7 @@ public final class SoyFileSet {
       this.setBuilder = ImmutableSet.builder();
       this.cache = null;
       this.lazyGeneralOptions = null;
+      this.parsingExecutor = null;
     }
 
     @Inject(optional = true)
@@ -200,7 +215,8 @@ public final class SoyFileSet {
         factory = GuiceInitializer.getHackySoyFileSetFactory();
       }
       return factory.create(
-          ImmutableList.copyOf(setBuilder.build()), cache, getGeneralOptions(), localTypeRegistry);
+          ImmutableList.copyOf(setBuilder.build()), cache, getGeneralOptions(), localTypeRegistry,
+          parsingExecutor);
     }
 
 
@@ -395,6 +411,23 @@ public final class SoyFileSet {
     }
 
 
+    /**
+     * Configures to parse the input files in parallel, on the given executor.
+     *
+     * <p> Each file is parsed, and checked on its own, in a separate task. The checks that need the
+     * whole file set still run on the calling thread once all files are parsed. The result is the
+     * same as when parsing sequentially. If a local type registry is set, it must be thread-safe.
+     *
+     * @param parsingExecutor The executor to use, whose lifecycle is managed by the caller. Null
+     *     indicates to parse the files sequentially, on the calling thread.
+     * @return This builder.
+     */
+    public Builder setParsingExecutor(Executor parsingExecutor) {
+      this.parsingExecutor = parsingExecutor;
+      return this;
+    }
+
+
     /**
      * Sets the user-declared syntax version name for the Soy file bundle.
      * @param versionName The syntax version name, e.g. "1.0", "2.0", "2.3".
@@ -528,12 +561,14 @@ public final class SoyFileSet {
      * @param soyFileSuppliers The suppliers for the input Soy files.
      * @param cache Optional (nullable) AST cache for faster recompile times.
      * @param options The general compiler options.
+     * @param parsingExecutor Optional (nullable) executor on which to parse the files in parallel.
      */
     public SoyFileSet create(
         List<SoyFileSupplier> soyFileSuppliers,
         SoyAstCache cache,
         SoyGeneralOptions options,
-        @Assisted("localTypeRegistry") SoyTypeRegistry localTypeRegistry);
+        @Assisted("localTypeRegistry") SoyTypeRegistry localTypeRegistry,
+        Executor parsingExecutor);
   }
 
 
@@ -575,6 +610,9 @@ public final class SoyFileSet {
   /** The general compiler options. */
   private final SoyGeneralOptions generalOptions;
 
+  /** Optional executor on which to parse the files in parallel. */
+  private final Executor parsingExecutor;
+
   /** For private use by pruneTranslatedMsgs(). */
   private ImmutableSet<Long> memoizedExtractedMsgIdsForPruning;
 
@@ -594,6 +632,7 @@ public final class SoyFileSet {
    *        of the typeRegistry param which is a global singleton.
    *        (Unfortunately because of the way assisted injection works, we need
    *        the global and local registries to be separate parameters).
+   * @param parsingExecutor If non-null, the executor on which to parse the files in parallel.
    */
   @Inject
   SoyFileSet(
@@ -607,7 +646,8 @@ public final class SoyFileSet {
       @Assisted List<SoyFileSupplier> soyFileSuppliers,
       @Assisted SoyGeneralOptions generalOptions,
       @Assisted @Nullable SoyAstCache cache,
-      @Assisted("localTypeRegistry") @Nullable SoyTypeRegistry localTypeRegistry) {
+      @Assisted("localTypeRegistry") @Nullable SoyTypeRegistry localTypeRegistry,
+      @Assisted @Nullable Executor parsingExecutor) {
 
     // Default value is optionally replaced using method injection.
     this.msgBundleHandlerProvider = DEFAULT_SOY_MSG_BUNDLE_HANDLER_PROVIDER;
@@ -625,6 +665,7 @@ public final class SoyFileSet {
     this.soyFileSuppliers = soyFileSuppliers;
     this.cache = cache;
     this.generalOptions = generalOptions.clone();
+    this.parsingExecutor = parsingExecutor;
   }
 
 
@@ -663,6 +704,7 @@ public final class SoyFileSet {
         generalOptions.getDeclaredSyntaxVersion(SyntaxVersion.V2_0);
     SoyFileSetNode soyTree =
         (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+            .setExecutor(parsingExecutor)
             .parse();
 
     return (new GenerateParseInfoVisitor(javaPackage, javaClassNameSource)).exec(soyTree);
@@ -685,6 +727,7 @@ public final class SoyFileSet {
     SoyTypeRegistry typeRegistry = createDummyTypeRegistry();
     SoyFileSetNode soyTree =
         (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+            .setExecutor(parsingExecutor)
             .setDoCheckOverrides(false)
             .parse();
 
@@ -718,6 +761,7 @@ public final class SoyFileSet {
       SoyTypeRegistry typeRegistry = createDummyTypeRegistry();
       SoyFileSetNode soyTree =
           (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+              .setExecutor(parsingExecutor)
               .setDoCheckOverrides(false)
               .parse();
 
@@ -789,9 +833,101 @@ public final class SoyFileSet {
     SyntaxVersion declaredSyntaxVersion =
         generalOptions.getDeclaredSyntaxVersion(SyntaxVersion.V2_0);
 
-    SoyFileSetNode soyTree =
+    Pair<SoyFileSetNode, List<SoyFileSupplier.Version>> soyTreeAndVersions =
         (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
-            .parse();
+            .setExecutor(parsingExecutor)
+            .parseWithVersions();
+    SoyFileSetNode soyTree = soyTreeAndVersions.first;
+    runTofuPasses(soyTree, declaredSyntaxVersion);
+
+    return baseTofuFactory.create(
+        soyTree, getFileVersions(soyTreeAndVersions.second), tofuOptions);
+  }
+
+
+  /**
+   * Recompiles the files of this Soy file set that changed since the given SoyTofu was compiled
+   * (or last recompiled), and swaps their new versions into it, so that later renders use them.
+   * This is meant for servers that reload the templates when their source changes during
+   * development (see {@link Builder#addVolatile}).
+   *
+   * <p> Only the changed files and the files of the templates that transitively call templates in
+   * them go through the middleend passes (e.g. contextual autoescaping) again, along with the files
+   * of the templates that they transitively call (which these passes need). The checking passes
+   * that require the whole file set still run on all the files; set a {@link SoyAstCache} so that
+   * the unchanged files are not reparsed. If files were added or removed, then all the files are
+   * recompiled.
+   *
+   * @param tofu A SoyTofu returned by {@link #compileToTofu} for this Soy file set.
+   * @return Whether any file had changed (in which case the SoyTofu was updated).
+   * @throws SoySyntaxException If a syntax error is found. The SoyTofu is then left unchanged.
+   */
+  public boolean recompileChangedFiles(SoyTofu tofu) throws SoySyntaxException {
+
+    Preconditions.checkArgument(
+        tofu instanceof BaseTofu, "The SoyTofu must be one returned by compileToTofu().");
+    BaseTofu baseTofu = (BaseTofu) tofu;
+
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+    synchronized (baseTofu) {  // Recompile into the same SoyTofu in one thread at a time.
+
+      // Cheap check first: most of the time, nothing changed.
+      Map<String, SoyFileSupplier.Version> oldFileVersions = baseTofu.getFileVersions();
+      boolean hasChanged = oldFileVersions.size() != soyFileSuppliers.size();
+      for (SoyFileSupplier soyFileSupplier : soyFileSuppliers) {
+        SoyFileSupplier.Version oldVersion = oldFileVersions.get(soyFileSupplier.getFilePath());
+        if (oldVersion == null || soyFileSupplier.hasChangedSince(oldVersion)) {
+          hasChanged = true;
+          break;
+        }
+      }
+      if (!hasChanged) {
+        return false;
+      }
+
+      SyntaxVersion declaredSyntaxVersion =
+          generalOptions.getDeclaredSyntaxVersion(SyntaxVersion.V2_0);
+      Pair<SoyFileSetNode, List<SoyFileSupplier.Version>> soyTreeAndVersions =
+          (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+              .setExecutor(parsingExecutor)
+              .parseWithVersions();
+      SoyFileSetNode soyTree = soyTreeAndVersions.first;
+      Map<String, SoyFileSupplier.Version> fileVersions =
+          getFileVersions(soyTreeAndVersions.second);
+
+      Set<String> changedFilePaths = Sets.newHashSet();
+      boolean isSameFiles = fileVersions.keySet().equals(oldFileVersions.keySet());
+      for (Map.Entry<String, SoyFileSupplier.Version> entry : fileVersions.entrySet()) {
+        if (!isSameFiles || !entry.getValue().equals(oldFileVersions.get(entry.getKey()))) {
+          changedFilePaths.add(entry.getKey());
+        }
+      }
+
+      // Move the files to recompile into their own tree.
+      Set<String> filePathsToRecompile = findFilePathsToRecompile(soyTree, changedFilePaths);
+      SoyFileSetNode soyTreeToRecompile =
+          new SoyFileSetNode(soyTree.getId(), soyTree.getNodeIdGenerator());
+      for (SoyFileNode soyFile : ImmutableList.copyOf(soyTree.getChildren())) {
+        if (filePathsToRecompile.contains(soyFile.getFilePath())) {
+          soyTree.removeChild(soyFile);
+          soyTreeToRecompile.addChild(soyFile);
+        }
+      }
+      runTofuPasses(soyTreeToRecompile, declaredSyntaxVersion);
+
+      baseTofu.replaceFiles(soyTreeToRecompile, fileVersions, changedFilePaths);
+      return true;
+    }
+  }
+
+
+  /**
+   * Private helper for {@code compileToTofu()} and {@code recompileChangedFiles()} to run the
+   * passes that prepare a Soy tree for the Tofu backend.
+   */
+  private void runTofuPasses(SoyFileSetNode soyTree, SyntaxVersion declaredSyntaxVersion)
+      throws SoySyntaxException {
+
     runMiddleendPasses(soyTree, declaredSyntaxVersion);
 
     // If allowExternalCalls is not explicitly set, then disallow by default for Tofu backend.
@@ -806,8 +942,63 @@ public final class SoyFileSet {
 
     // Clear the SoyDoc strings because they use unnecessary memory.
     (new ClearSoyDocStringsVisitor()).exec(soyTree);
+  }
+
+
+  /**
+   * Private helper for {@code recompileChangedFiles()} to find the files to recompile: the changed
+   * files, the files of the templates that transitively call templates in them, and the files of
+   * the templates transitively called by all of these.
+   *
+   * @param soyTree The Soy tree of all the files.
+   * @param changedFilePaths The paths of the changed files.
+   * @return The paths of the files to recompile.
+   */
+  private static Set<String> findFilePathsToRecompile(
+      SoyFileSetNode soyTree, Set<String> changedFilePaths) {
+
+    ImmutableMap<TemplateNode, TransitiveDepTemplatesInfo> templateToDepsInfoMap =
+        (new FindTransitiveDepTemplatesVisitor(new TemplateRegistry(soyTree)))
+            .execOnAllTemplates(soyTree);
+
+    Set<String> affectedFilePaths = Sets.newHashSet(changedFilePaths);
+    for (Map.Entry<TemplateNode, TransitiveDepTemplatesInfo> entry :
+         templateToDepsInfoMap.entrySet()) {
+      for (TemplateNode depTemplate : entry.getValue().depTemplateSet) {
+        if (changedFilePaths.contains(depTemplate.getParent().getFilePath())) {
+          affectedFilePaths.add(entry.getKey().getParent().getFilePath());
+          break;
+        }
+      }
+    }
 
-    return baseTofuFactory.create(soyTree, tofuOptions.useCaching());
+    Set<String> filePathsToRecompile = Sets.newHashSet(affectedFilePaths);
+    for (Map.Entry<TemplateNode, TransitiveDepTemplatesInfo> entry :
+         templateToDepsInfoMap.entrySet()) {
+      if (affectedFilePaths.contains(entry.getKey().getParent().getFilePath())) {
+        for (TemplateNode depTemplate : entry.getValue().depTemplateSet) {
+          filePathsToRecompile.add(depTemplate.getParent().getFilePath());
+        }
+      }
+    }
+    return filePathsToRecompile;
+  }
+
+
+  /**
+   * Private helper to map the paths of the files of this Soy file set to their given versions.
+   * @param versions The versions of the files, in the order of the files.
+   * @return Map from file path to file version, in the order of the files.
+   */
+  private ImmutableMap<String, SoyFileSupplier.Version> getFileVersions(
+      List<SoyFileSupplier.Version> versions) {
+
+    ImmutableMap.Builder<String, SoyFileSupplier.Version> fileVersionsBuilder =
+        ImmutableMap.builder();
+    for (int i = 0; i < soyFileSuppliers.size(); i++) {
+      fileVersionsBuilder.put(soyFileSuppliers.get(i).getFilePath(), versions.get(i));
+    }
+    return fileVersionsBuilder.build();
   }
 
 
@@ -885,6 +1076,7 @@ public final class SoyFileSet {
 
     SoyFileSetNode soyTree =
         (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+            .setExecutor(parsingExecutor)
             .parse();
     runMiddleendPasses(soyTree, declaredSyntaxVersion);
 
@@ -905,11 +1097,48 @@ public final class SoyFileSet {
    * @throws IOException If there is an error in opening/reading a message file or opening/writing
    *     an output JS file.
    */
-  @SuppressWarnings("deprecation")
   void compileToJsSrcFiles(
       String outputPathFormat, String inputFilePathPrefix, SoyJsSrcOptions jsSrcOptions,
       List<String> locales, @Nullable String messageFilePathFormat)
       throws SoySyntaxException, IOException {
+    compileToJsSrcFiles(
+        outputPathFormat, inputFilePathPrefix, jsSrcOptions, locales, messageFilePathFormat, null);
+  }
+
+
+  /**
+   * Compiles this Soy file set into JS source code files and writes these JS files to disk.
+   *
+   * <p> If an executor is given, then the locales are generated in parallel on it. Each locale is
+   * generated from its own clone of the tree, in its own task (which loads the locale's message
+   * file and then generates the JS files), so loading the message files of some locales overlaps
+   * generating the JS of others. The output is the same as when generating sequentially.
+   *
+   * <p> If the options enable shouldSpliceLocalizedMsgs (and not shouldGenerateGoogMsgDefs), then
+   * the JS code is instead generated once for each bidi global directionality of the locales, and
+   * the JS of each locale is produced by splicing its messages into it. The locales' tasks (on the
+   * executor, if given) then load and splice one message file each, so only the bundles of the
+   * locales being generated are held in memory.
+   *
+   * @param outputPathFormat The format string defining how to build the output file path
+   *     corresponding to an input file path.
+   * @param inputFilePathPrefix The prefix prepended to all input file paths (can be empty string).
+   * @param jsSrcOptions The compilation options for the JS Src output target. Must not be modified
+   *     while compiling.
+   * @param locales The list of locales. Can be an empty list if not applicable.
+   * @param messageFilePathFormat The message file path format, or null if not applicable.
+   * @param localesExecutor The executor on which to generate the locales in parallel, whose
+   *     lifecycle is managed by the caller, or null to generate them sequentially.
+   * @throws SoySyntaxException If a syntax error is found.
+   * @throws IOException If there is an error in opening/reading a message file or opening/writing
+   *     an output JS file.
+   */
+  @SuppressWarnings("deprecation")
+  void compileToJsSrcFiles(
+      final String outputPathFormat, final String inputFilePathPrefix,
+      final SoyJsSrcOptions jsSrcOptions, List<String> locales,
+      @Nullable final String messageFilePathFormat, @Nullable Executor localesExecutor)
+      throws SoySyntaxException, IOException {
 
     // Synchronize old and new ways to declare syntax version V1.
     if (jsSrcOptions.shouldAllowDeprecatedSyntax()) {
@@ -918,40 +1147,126 @@ public final class SoyFileSet {
     SyntaxVersion declaredSyntaxVersion =
         generalOptions.getDeclaredSyntaxVersion(SyntaxVersion.V2_0);
 
-    SoyFileSetNode soyTree =
+    final SoyFileSetNode soyTree =
         (new SoyFileSetParser(typeRegistry, cache, declaredSyntaxVersion, soyFileSuppliers))
+            .setExecutor(parsingExecutor)
             .parse();
     runMiddleendPasses(soyTree, declaredSyntaxVersion);
 
+    // If splicing, each locale's messages are spliced into code generated once (for each bidi
+    // global directionality), instead of each locale being generated from its own clone.
+    final JsSrcMain.MsgSplicer msgSplicer =
+        (locales.size() > 0 && jsSrcOptions.shouldSpliceLocalizedMsgs() &&
+            !jsSrcOptions.shouldGenerateGoogMsgDefs())
+            ? jsSrcMainProvider.get().newMsgSplicer(soyTree, jsSrcOptions) : null;
+
     if (locales.size() == 0) {
       // Not generating localized JS.
       jsSrcMainProvider.get().genJsFiles(
           soyTree, jsSrcOptions, null, null, outputPathFormat, inputFilePathPrefix);
 
-    } else {
-      // Generating localized JS.
+    } else if (localesExecutor == null || locales.size() == 1) {
+      // Generating localized JS, one locale after another.
       for (String locale : locales) {
+        genLocalizedJsFiles(
+            soyTree, outputPathFormat, inputFilePathPrefix, jsSrcOptions, locale,
+            messageFilePathFormat, msgSplicer);
+      }
 
-        SoyFileSetNode soyTreeClone = soyTree.clone();
+    } else {
+      // Generating localized JS, in parallel.
+      List<FutureTask<Void>> localeTasks = Lists.newArrayListWithCapacity(locales.size());
+      try {
+        for (final String locale : locales) {
+          FutureTask<Void> localeTask = new FutureTask<Void>(new Callable<Void>() {
+            @Override public Void call() throws IOException {
+              genLocalizedJsFiles(
+                  soyTree, outputPathFormat, inputFilePathPrefix, jsSrcOptions, locale,
+                  messageFilePathFormat, msgSplicer);
+              return null;
+            }
+          });
+          localeTasks.add(localeTask);
+          localesExecutor.execute(localeTask);
+        }
+        for (FutureTask<Void> localeTask : localeTasks) {
+          Uninterruptibles.getUninterruptibly(localeTask);
+        }
+      } catch (ExecutionException e) {
+        cancelAll(localeTasks);
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      } catch (RuntimeException e) {
+        cancelAll(localeTasks);
+        throw e;
+      }
+    }
+  }
 
-        String msgFilePath = MainEntryPointUtils.buildFilePath(
-            messageFilePathFormat, locale, null, inputFilePathPrefix);
 
-        SoyMsgBundle msgBundle =
-            msgBundleHandlerProvider.get().createFromFile(new File(msgFilePath));
-        if (msgBundle.getLocaleString() == null) {
-          // TODO: Remove this check (but make sure no projects depend on this behavior).
-          // There was an error reading the message file. We continue processing only if the locale
-          // begins with "en", because falling back to the Soy source will probably be fine.
-          if (!locale.startsWith("en")) {
-            throw new IOException("Error opening or reading message file " + msgFilePath);
-          }
-        }
+  /**
+   * Private helper for compileToJsSrcFiles() to generate the JS files of one locale, by splicing
+   * its messages if a splicer is given, otherwise from a clone of the given tree. Only this
+   * locale's message bundle is loaded, so it can be released once the locale is done.
+   */
+  private void genLocalizedJsFiles(
+      SoyFileSetNode soyTree, String outputPathFormat, String inputFilePathPrefix,
+      SoyJsSrcOptions jsSrcOptions, String locale, @Nullable String messageFilePathFormat,
+      @Nullable JsSrcMain.MsgSplicer msgSplicer)
+      throws IOException {
+
+    if (msgSplicer != null) {
+      msgSplicer.genJsFiles(
+          locale, loadMsgBundle(locale, messageFilePathFormat, inputFilePathPrefix),
+          outputPathFormat, inputFilePathPrefix);
+      return;
+    }
 
-        jsSrcMainProvider.get().genJsFiles(
-            soyTreeClone, jsSrcOptions, locale, msgBundle, outputPathFormat, inputFilePathPrefix);
+    // Note: Only one clone is made at a time, since the locales may be generated in parallel.
+    SoyFileSetNode soyTreeClone;
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+    synchronized (soyTree) {
+      soyTreeClone = soyTree.clone();
+    }
+
+    SoyMsgBundle msgBundle = loadMsgBundle(locale, messageFilePathFormat, inputFilePathPrefix);
+    jsSrcMainProvider.get().genJsFiles(
+        soyTreeClone, jsSrcOptions, locale, msgBundle, outputPathFormat, inputFilePathPrefix);
+  }
+
+
+  /**
+   * Private helper for compileToJsSrcFiles() to load the message bundle of one locale.
+   */
+  private SoyMsgBundle loadMsgBundle(
+      String locale, @Nullable String messageFilePathFormat, String inputFilePathPrefix)
+      throws IOException {
+
+    String msgFilePath = MainEntryPointUtils.buildFilePath(
+        messageFilePathFormat, locale, null, inputFilePathPrefix);
+
+    SoyMsgBundle msgBundle =
+        msgBundleHandlerProvider.get().createFromFile(new File(msgFilePath));
+    if (msgBundle.getLocaleString() == null) {
+      // TODO: Remove this check (but make sure no projects depend on this behavior).
+      // There was an error reading the message file. We continue processing only if the locale
+      // begins with "en", because falling back to the Soy source will probably be fine.
+      if (!locale.startsWith("en")) {
+        throw new IOException("Error opening or reading message file " + msgFilePath);
       }
     }
+    return msgBundle;
+  }
+
+
+  /**
+   * Private helper for compileToJsSrcFiles() to cancel the tasks of the locales (those already done
+   * are not affected).
+   */
+  private static void cancelAll(List<FutureTask<Void>> localeTasks) {
+    for (FutureTask<Void> localeTask : localeTasks) {
+      localeTask.cancel(false);
+    }
   }
 
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Injector;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.SoyMsgBundleHandler;
+import com.google.template.soy.shared.internal.MainEntryPointUtils;
+import com.google.template.soy.xliffmsgplugin.XliffMsgPluginModule;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * Executable for converting translated messages files to Soy's binary message bundle format, which
+ * {@link SoyMsgBundleHandler#createFromFile} memory-maps instead of parsing.
+ */
+public final class SoyMsgBundleBinaryWriter {
+
+
+  /** The string to prepend to the usage message. */
+  private static final String USAGE_PREFIX = "" +
+      "Usage:\n" +
+      "java com.google.template.soy.SoyMsgBundleBinaryWriter  \\\n" +
+      "             [<flag_1> <flag_2> ...]  \\\n" +
+      "             --inputMsgFilePathFormat <formatString>  \\\n" +
+      "             --outputMsgFilePathFormat <formatString>  \\\n" +
+      "             --locales <locale>,...\n";
+
+
+  @Option(
+      name = "--inputPrefix",
+      usage = "If provided, this path prefix will be prepended to each input file path. This is a" +
+          " literal string prefix, so you'll need to include a trailing slash if necessary.")
+  private String inputPrefix = "";
+
+  @Option(
+      name = "--locales",
+      usage = "[Required] Comma-delimited list of locales.",
+      handler = MainClassUtils.StringListOptionHandler.class)
+  private List<String> locales = Lists.newArrayList();
+
+  @Option(
+      name = "--inputMsgFilePathFormat",
+      usage = "[Required] A format string that specifies how to build the path to each translated" +
+          " messages file. The format string can include literal characters as well as the" +
+          " placeholders {INPUT_PREFIX}, {LOCALE}, and {LOCALE_LOWER_CASE}. Note" +
+          " {LOCALE_LOWER_CASE} also turns dash into underscore, e.g. pt-BR becomes pt_br.")
+  private String inputMsgFilePathFormat = "";
+
+  @Option(
+      name = "--outputMsgFilePathFormat",
+      usage = "[Required] A format string that specifies how to build the path to each output" +
+          " binary messages file. The format string can include literal characters as well as" +
+          " the placeholders {INPUT_PREFIX}, {INPUT_DIRECTORY}, {INPUT_FILE_NAME}," +
+          " {INPUT_FILE_NAME_NO_EXT}, {LOCALE}, and {LOCALE_LOWER_CASE}, where the input file" +
+          " is the translated messages file.")
+  private String outputMsgFilePathFormat = "";
+
+  @Option(
+      name = "--messagePluginModule",
+      usage = "Specifies the full class name of a Guice module that binds a SoyMsgPlugin." +
+          " If not specified, the default is" +
+          " com.google.template.soy.xliffmsgplugin.XliffMsgPluginModule, which binds" +
+          " the XliffMsgPlugin.")
+  private String messagePluginModule = XliffMsgPluginModule.class.getName();
+
+  /** The remaining arguments after parsing command-line flags. */
+  @Argument
+  private List<String> arguments = Lists.newArrayList();
+
+
+  /**
+   * Converts translated messages files to Soy's binary message bundle format.
+   *
+   * @param args Should contain command-line flags.
+   * @throws IOException If there are problems reading the input files or writing the output files.
+   */
+  public static void main(String[] args) throws IOException {
+    (new SoyMsgBundleBinaryWriter()).execMain(args);
+  }
+
+
+  private SoyMsgBundleBinaryWriter() {}
+
+
+  private void execMain(String[] args) throws IOException {
+
+    CmdLineParser cmdLineParser = MainClassUtils.parseFlags(this, args, USAGE_PREFIX);
+
+    if (arguments.size() > 0) {
+      MainClassUtils.exitWithError(
+          "Unrecognized args left on command line: \"" + arguments + "\".",
+          cmdLineParser, USAGE_PREFIX);
+    }
+    if (locales.isEmpty() || inputMsgFilePathFormat.length() == 0 ||
+        outputMsgFilePathFormat.length() == 0) {
+      MainClassUtils.exitWithError(
+          "Must provide --locales, --inputMsgFilePathFormat and --outputMsgFilePathFormat.",
+          cmdLineParser, USAGE_PREFIX);
+    }
+
+    Injector injector = MainClassUtils.createInjector(messagePluginModule, null);
+    SoyMsgBundleHandler msgBundleHandler = injector.getInstance(SoyMsgBundleHandler.class);
+
+    for (String locale : locales) {
+
+      String inputMsgFilePath = MainEntryPointUtils.buildFilePath(
+          inputMsgFilePathFormat, locale, null, inputPrefix);
+      SoyMsgBundle msgBundle = msgBundleHandler.createFromFile(new File(inputMsgFilePath));
+      if (msgBundle.getLocaleString() == null) {
+        throw new IOException("Error opening or parsing message file " + inputMsgFilePath);
+      }
+
+      String outputMsgFilePath = MainEntryPointUtils.buildFilePath(
+          outputMsgFilePathFormat, locale, inputMsgFilePath, inputPrefix);
+      msgBundleHandler.writeToBinaryMsgsFile(msgBundle, new File(outputMsgFilePath));
+    }
+  }
+
+}
@@ -51,7 +51,9 @@ public final class SoyMsgExtractor {
       "Usage:\n" +
       "java com.google.template.soy.SoyMsgExtractor  \\\n" +
       "     [<flag1> <flag2> ...] --outputFile <path>  \\\n" +
-      "     --srcs <soyFilePath>,...\n";
+      "     --srcs <soyFilePath>,...\n" +
+      "or, to run a persistent worker that reads the args of each execution from stdin:\n" +
+      "java com.google.template.soy.SoyMsgExtractor --persistentWorker [--cacheAsts]\n";
 
 
   @Option(name = "--inputPrefix",
@@ -117,7 +119,11 @@ public final class SoyMsgExtractor {
    * @throws SoySyntaxException If a syntax error is detected.
    */
   public static void main(String... args) throws IOException {
-    (new SoyMsgExtractor()).execMain(args);
+    MainClassUtils.runMain(new MainClassUtils.Main() {
+      @Override public void main(String[] args) throws IOException, SoySyntaxException {
+        (new SoyMsgExtractor()).execMain(args);
+      }
+    }, args);
   }
 
 
@@ -137,7 +143,7 @@ public final class SoyMsgExtractor {
 
     Injector injector = MainClassUtils.createInjector(messagePluginModule, null);
 
-    SoyFileSet.Builder sfsBuilder = injector.getInstance(SoyFileSet.Builder.class);
+    SoyFileSet.Builder sfsBuilder = MainClassUtils.createSoyFileSetBuilder(injector, "");
     MainClassUtils.addSoyFilesToBuilder(sfsBuilder, inputPrefix, srcs, arguments,
         ImmutableList.<String>of(), ImmutableList.<String>of(), exitWithErrorFn);
     sfsBuilder.setAllowExternalCalls(allowExternalCalls);
@@ -22,7 +22,6 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
-import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.template.soy.base.SoySyntaxException;
 import com.google.template.soy.base.internal.BaseUtils;
@@ -53,7 +52,9 @@ public final class SoyParseInfoGenerator {
       "java com.google.template.soy.SoyParseInfoGenerator  \\\n" +
       "     [<flag1> <flag2> ...] --outputDirectory <path>  \\\n" +
       "     --javaPackage <package> --javaClassNameSource <source>  \\\n" +
-      "     --srcs <soyFilePath>,... [--deps <soyFilePath>,...]\n";
+      "     --srcs <soyFilePath>,... [--deps <soyFilePath>,...]\n" +
+      "or, to run a persistent worker that reads the args of each execution from stdin:\n" +
+      "java com.google.template.soy.SoyParseInfoGenerator --persistentWorker [--cacheAsts]\n";
 
 
   @Option(name = "--inputPrefix",
@@ -120,7 +121,11 @@ public final class SoyParseInfoGenerator {
    * @throws SoySyntaxException If a syntax error is detected.
    */
   public static void main(String[] args) throws IOException {
-    (new SoyParseInfoGenerator()).execMain(args);
+    MainClassUtils.runMain(new MainClassUtils.Main() {
+      @Override public void main(String[] args) throws IOException, SoySyntaxException {
+        (new SoyParseInfoGenerator()).execMain(args);
+      }
+    }, args);
   }
 
 
@@ -149,9 +154,9 @@ public final class SoyParseInfoGenerator {
           "Must provide Java class name source.", cmdLineParser, USAGE_PREFIX);
     }
 
-    Injector injector = Guice.createInjector(new SoyModule());
+    Injector injector = MainClassUtils.createInjector((String) null);
 
-    SoyFileSet.Builder sfsBuilder = injector.getInstance(SoyFileSet.Builder.class);
+    SoyFileSet.Builder sfsBuilder = MainClassUtils.createSoyFileSetBuilder(injector, "");
     // ImmutableSet.copyOf() removes any duplicate filenames that were provided.
     // This is so the builder doesn't get confused by multiple identical
     // definitions.
@@ -32,6 +32,8 @@ import org.kohsuke.args4j.Option;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Executable for compiling a set of Soy files into corresponding JS source files.
@@ -46,7 +48,9 @@ public final class SoyToJsSrcCompiler {
       "Usage:\n" +
       "java com.google.template.soy.SoyToJsSrcCompiler  \\\n" +
       "     [<flag1> <flag2> ...] --outputPathFormat <formatString>  \\\n" +
-      "     --srcs <soyFilePath>,... [--deps <soyFilePath>,...]\n";
+      "     --srcs <soyFilePath>,... [--deps <soyFilePath>,...]\n" +
+      "or, to run a persistent worker that reads the args of each execution from stdin:\n" +
+      "java com.google.template.soy.SoyToJsSrcCompiler --persistentWorker [--cacheAsts]\n";
 
 
   @Option(name = "--inputPrefix",
@@ -172,6 +176,15 @@ public final class SoyToJsSrcCompiler {
                   " for your messages.")
   private boolean googMsgsAreExternal = false;
 
+  @Option(name = "--shouldSpliceLocalizedMsgs",
+          usage = "[Only applicable if generating localized JS and --shouldGenerateGoogMsgDefs is" +
+                  " false] When this option is used, the JS code is generated once for each bidi" +
+                  " global directionality of the locales (instead of once per locale), and the" +
+                  " JS of each locale is produced by splicing its translated messages into it." +
+                  " Each message is then defined in a \"var msg_s<uniquefier> = ...;\"." +
+                  " Plural/select messages are not supported.")
+  private boolean shouldSpliceLocalizedMsgs = false;
+
   @Option(name = "--bidiGlobalDir",
           usage = "The bidi global directionality (ltr=1, rtl=-1). Only applicable if your Soy" +
                   " code uses bidi functions/directives. Also note that this flag is usually not" +
@@ -227,6 +240,13 @@ public final class SoyToJsSrcCompiler {
           handler = MainClassUtils.BooleanOptionHandler.class)
   private boolean supportContentSecurityPolicy = false;
 
+  @Option(name = "--numThreads",
+          usage = "The number of threads to use for parsing the Soy files and for generating the" +
+                  " localized JS of the different locales in parallel (also when splicing" +
+                  " messages, in which case each thread loads and splices one message file at a" +
+                  " time). Defaults to 1 (no parallelism).")
+  private int numThreads = 1;
+
   /** The remaining arguments after parsing command-line flags. */
   @Argument
   private List<String> arguments = Lists.newArrayList();
@@ -240,7 +260,11 @@ public final class SoyToJsSrcCompiler {
    * @throws SoySyntaxException If a syntax error is detected.
    */
   public static void main(String[] args) throws IOException, SoySyntaxException {
-    (new SoyToJsSrcCompiler()).execMain(args);
+    MainClassUtils.runMain(new MainClassUtils.Main() {
+      @Override public void main(String[] args) throws IOException, SoySyntaxException {
+        (new SoyToJsSrcCompiler()).execMain(args);
+      }
+    }, args);
   }
 
 
@@ -261,11 +285,14 @@ public final class SoyToJsSrcCompiler {
     if (outputPathFormat.length() == 0) {
       exitWithErrorFn.apply("Must provide the output path format.");
     }
+    if (numThreads < 1) {
+      exitWithErrorFn.apply("The number of threads must be at least 1.");
+    }
 
     Injector injector = MainClassUtils.createInjector(messagePluginModule, pluginModules);
 
     // Create SoyFileSet.
-    SoyFileSet.Builder sfsBuilder = injector.getInstance(SoyFileSet.Builder.class);
+    SoyFileSet.Builder sfsBuilder = MainClassUtils.createSoyFileSetBuilder(injector, syntaxVersion);
     MainClassUtils.addSoyFilesToBuilder(
         sfsBuilder, inputPrefix, srcs, arguments, deps, indirectDeps, exitWithErrorFn);
     if (syntaxVersion.length() > 0) {
@@ -283,6 +310,8 @@ public final class SoyToJsSrcCompiler {
       sfsBuilder.setCompileTimeGlobals(new File(compileTimeGlobalsFile));
     }
     sfsBuilder.setSupportContentSecurityPolicy(supportContentSecurityPolicy);
+    ExecutorService executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null;
+    sfsBuilder.setParsingExecutor(executor);
     SoyFileSet sfs = sfsBuilder.build();
 
     // Create SoyJsSrcOptions.
@@ -294,18 +323,26 @@ public final class SoyToJsSrcCompiler {
     jsSrcOptions.setShouldDeclareTopLevelNamespaces(shouldDeclareTopLevelNamespaces);
     jsSrcOptions.setShouldGenerateGoogMsgDefs(shouldGenerateGoogMsgDefs);
     jsSrcOptions.setGoogMsgsAreExternal(googMsgsAreExternal);
+    jsSrcOptions.setShouldSpliceLocalizedMsgs(shouldSpliceLocalizedMsgs);
     jsSrcOptions.setBidiGlobalDir(bidiGlobalDir);
     jsSrcOptions.setUseGoogIsRtlForBidiGlobalDir(useGoogIsRtlForBidiGlobalDir);
 
     // Compile.
-    if (locales.size() == 0) {
-      // Not generating localized JS.
-      sfs.compileToJsSrcFiles(outputPathFormat, inputPrefix, jsSrcOptions, locales, null);
-
-    } else {
-      // Generating localized JS.
-      sfs.compileToJsSrcFiles(
-          outputPathFormat, inputPrefix, jsSrcOptions, locales, messageFilePathFormat);
+    try {
+      if (locales.size() == 0) {
+        // Not generating localized JS.
+        sfs.compileToJsSrcFiles(outputPathFormat, inputPrefix, jsSrcOptions, locales, null);
+
+      } else {
+        // Generating localized JS.
+        sfs.compileToJsSrcFiles(
+            outputPathFormat, inputPrefix, jsSrcOptions, locales, messageFilePathFormat,
+            executor);
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
     }
   }
 
@@ -18,6 +18,8 @@ package com.google.template.soy.base;
 
 import com.google.common.base.CharMatcher;
 
+import java.io.Serializable;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -28,7 +30,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * @author Mike Samuel
  */
 @ParametersAreNonnullByDefault
-public final class SourceLocation {
+public final class SourceLocation implements Serializable {
 
 
   /** A file path or URI useful for error messages. */
@@ -16,10 +16,15 @@
 
 package com.google.template.soy.base.internal;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
  * A generator of incrementing unique integer ids, starting from 0.
  *
+ * <p> This class is thread-safe: concurrent calls to {@link #genId()} generate distinct ids (though
+ * the ids generated by one thread are then not necessarily consecutive).
+ *
  * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
  *
  * @author Kai Huang
@@ -27,23 +32,21 @@ package com.google.template.soy.base.internal;
 public final class IncrementingIdGenerator implements IdGenerator {
 
   /** The current next id value to generate. */
-  private int currId;
+  private final AtomicInteger currId;
 
   public IncrementingIdGenerator() {
-    currId = 0;
+    currId = new AtomicInteger(0);
   }
 
   protected IncrementingIdGenerator(IncrementingIdGenerator orig) {
-    this.currId = orig.currId;
+    this.currId = new AtomicInteger(orig.currId.get());
   }
 
   @Override public int genId() {
-    return currId++;
+    return currId.getAndIncrement();
   }
 
   @Override public IncrementingIdGenerator clone() {
-    IncrementingIdGenerator clone = new IncrementingIdGenerator();
-    clone.currId = this.currId;
-    return clone;
+    return new IncrementingIdGenerator(this);
   }
 }
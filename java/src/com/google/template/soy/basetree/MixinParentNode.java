@@ -18,6 +18,7 @@ package com.google.template.soy.basetree;
 
 import com.google.common.collect.Lists;
 
+import java.io.Serializable;
 import java.util.List;
 
 
@@ -34,7 +35,7 @@ import java.util.List;
  *
  * @author Kai Huang
  */
-public final class MixinParentNode<N extends Node> {
+public final class MixinParentNode<N extends Node> implements Serializable {
 
 
   /** Just spaces. */
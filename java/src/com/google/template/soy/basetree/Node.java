@@ -16,6 +16,8 @@
 
 package com.google.template.soy.basetree;
 
+import java.io.Serializable;
+
 import javax.annotation.Nullable;
 
 
@@ -26,11 +28,14 @@ import javax.annotation.Nullable;
  *
  * The top level definition is the base node interface.
  *
+ * <p> Nodes are serializable, so that the parse trees of files can be cached on disk (see
+ * SoyAstCache). Serializing a node serializes the whole tree it belongs to.
+ *
  * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
  *
  * @author Kai Huang
  */
-public interface Node {
+public interface Node extends Serializable {
 
 
   /**
@@ -16,6 +16,8 @@
 
 package com.google.template.soy.basetree;
 
+import java.io.Serializable;
+
 import javax.annotation.Nullable;
 
 
@@ -23,7 +25,7 @@ import javax.annotation.Nullable;
  * Value class representing a known upper bound for the syntax version of a node.
  * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
  */
-public final class SyntaxVersionBound {
+public final class SyntaxVersionBound implements Serializable {
 
 
   /**
@@ -17,17 +17,20 @@
 package com.google.template.soy.basicdirectives;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.template.soy.data.SanitizedContent.ContentKind;
 import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.data.restricted.StringData;
 import com.google.template.soy.jssrc.restricted.JsExpr;
 import com.google.template.soy.jssrc.restricted.SoyJsSrcPrintDirective;
+import com.google.template.soy.shared.restricted.EscapingConventions;
 import com.google.template.soy.shared.restricted.Sanitizers;
-import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyJavaStreamingPrintDirective;
 import com.google.template.soy.shared.restricted.SoyPurePrintDirective;
 
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 
 
@@ -40,7 +43,7 @@ import javax.inject.Singleton;
  * @author Mike Samuel
  */
 public abstract class BasicEscapeDirective
-    implements SoyJavaPrintDirective, SoyJsSrcPrintDirective {
+    implements SoyJavaStreamingPrintDirective, SoyJsSrcPrintDirective {
 
 
   /** The directive name, including the leading vertical bar ("|"). */
@@ -85,6 +88,18 @@ public abstract class BasicEscapeDirective
   }
 
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p> By default, escaping directives can only be applied to the whole content. Subclasses whose
+   * escaping is done one char at a time override this.
+   */
+  @Override @Nullable public Appendable applyForJavaStreaming(
+      Appendable out, @Nullable ContentKind contentKind) {
+    return null;
+  }
+
+
   @Override public JsExpr applyForJsSrc(JsExpr value, List<JsExpr> args) {
     return new JsExpr(
         "soy.$$" + name.substring(1) + "(" + value.getText() + ")", Integer.MAX_VALUE);
@@ -109,6 +124,11 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeCssString(value);
     }
+
+    @Override public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      return EscapingConventions.EscapeCssString.INSTANCE.escape(out);
+    }
   }
 
 
@@ -143,6 +163,13 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeHtmlRcdata(value);
     }
+
+    @Override public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      return (contentKind == ContentKind.HTML) ?
+          EscapingConventions.NormalizeHtml.INSTANCE.escape(out) :
+          EscapingConventions.EscapeHtml.INSTANCE.escape(out);
+    }
   }
 
 
@@ -160,6 +187,13 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeHtmlAttribute(value);
     }
+
+    @Override @Nullable public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      // Note: Tags are stripped from HTML content, which needs the whole content.
+      return (contentKind == ContentKind.HTML) ?
+          null : EscapingConventions.EscapeHtml.INSTANCE.escape(out);
+    }
   }
 
 
@@ -177,6 +211,13 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeHtmlAttributeNospace(value);
     }
+
+    @Override @Nullable public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      // Note: Tags are stripped from HTML content, which needs the whole content.
+      return (contentKind == ContentKind.HTML) ?
+          null : EscapingConventions.EscapeHtmlNospace.INSTANCE.escape(out);
+    }
   }
 
 
@@ -228,6 +269,11 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeJsRegex(value);
     }
+
+    @Override public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      return EscapingConventions.EscapeJsRegex.INSTANCE.escape(out);
+    }
   }
 
 
@@ -245,6 +291,12 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeJsString(value);
     }
+
+    @Override public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      return (contentKind == ContentKind.JS_STR_CHARS) ?
+          out : EscapingConventions.EscapeJsString.INSTANCE.escape(out);
+    }
   }
 
 
@@ -296,6 +348,11 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.normalizeUri(value);
     }
+
+    @Override public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      return EscapingConventions.NormalizeUri.INSTANCE.escape(out);
+    }
   }
 
 
@@ -313,6 +370,13 @@ public abstract class BasicEscapeDirective
     @Override protected String escape(SoyValue value) {
       return Sanitizers.escapeUri(value);
     }
+
+    @Override @Nullable public Appendable applyForJavaStreaming(
+        Appendable out, @Nullable ContentKind contentKind) {
+      // Note: Plain text is percent encoded as UTF-8, which needs whole code points.
+      return (contentKind == ContentKind.URI) ?
+          EscapingConventions.NormalizeUri.INSTANCE.escape(out) : null;
+    }
   }
 
 }
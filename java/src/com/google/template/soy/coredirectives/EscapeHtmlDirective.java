@@ -27,12 +27,14 @@ import com.google.template.soy.data.UnsafeSanitizedContentOrdainer;
 import com.google.template.soy.jssrc.restricted.JsExpr;
 import com.google.template.soy.jssrc.restricted.SoyJsSrcPrintDirective;
 import com.google.template.soy.shared.restricted.EscapingConventions;
-import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyJavaStreamingPrintDirective;
 import com.google.template.soy.shared.restricted.SoyPurePrintDirective;
 
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 
 /**
  * A directive that HTML-escapes the output.
@@ -41,7 +43,8 @@ import java.util.Set;
  */
 @Singleton
 @SoyPurePrintDirective
-public class EscapeHtmlDirective implements SoyJavaPrintDirective, SoyJsSrcPrintDirective {
+public class EscapeHtmlDirective
+    implements SoyJavaStreamingPrintDirective, SoyJsSrcPrintDirective {
 
 
   public static final String NAME = "|escapeHtml";
@@ -82,6 +85,13 @@ public class EscapeHtmlDirective implements SoyJavaPrintDirective, SoyJsSrcPrint
   }
 
 
+  @Override public Appendable applyForJavaStreaming(
+      Appendable out, @Nullable ContentKind contentKind) {
+    return (contentKind == ContentKind.HTML) ?
+        out : EscapingConventions.EscapeHtml.INSTANCE.escape(out);
+  }
+
+
   @Override public JsExpr applyForJsSrc(JsExpr value, List<JsExpr> args) {
     return new JsExpr("soy.$$escapeHtml(" + value.getText() + ")", Integer.MAX_VALUE);
   }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.data;
+
+import java.io.Flushable;
+
+
+/**
+ * An Appendable that can advise the renderer writing to it that enough output has accumulated to
+ * be worth flushing.
+ *
+ * <p> When rendering into an AdvisingAppendable, the renderer checks {@link #softLimitReached()}
+ * at safe points (after each statement that renders directly into the output, e.g. a print, a
+ * block of raw text, a loop iteration or a template call) and calls {@link #flush()} if it returns
+ * true. This lets the beginning of a large page be sent to
+ * the client before the rest of the page has finished rendering.
+ *
+ * @see Utf8StreamAppendable
+ */
+public interface AdvisingAppendable extends Appendable, Flushable {
+
+
+  /**
+   * Returns whether enough output has accumulated since the last flush that the renderer should
+   * flush at its next opportunity. This is only advice: the output must still accept all appended
+   * text when the soft limit has been reached.
+   */
+  public boolean softLimitReached();
+
+}
@@ -33,6 +33,32 @@ import javax.annotation.Nonnull;
 public final class SoyFutureValueProvider extends SoyAbstractCachingValueProvider {
 
 
+  /**
+   * Whether resolving a provider whose future is not yet done throws FutureNotDoneException on the
+   * current thread (instead of blocking until the future is done).
+   */
+  private static final ThreadLocal<Boolean> isNonBlocking = new ThreadLocal<Boolean>() {
+    @Override protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+
+  /**
+   * Sets whether resolving a provider whose future is not yet done throws
+   * {@link FutureNotDoneException} on the current thread, instead of blocking until the future is
+   * done. Used by renderers that can suspend a render until its data arrives.
+   *
+   * @param nonBlocking Whether resolving should be non-blocking on the current thread.
+   * @return The previous setting, to be restored by the caller.
+   */
+  public static boolean setNonBlockingForCurrentThread(boolean nonBlocking) {
+    boolean prevNonBlocking = isNonBlocking.get();
+    isNonBlocking.set(nonBlocking);
+    return prevNonBlocking;
+  }
+
+
   /** The instance of SoyValueHelper to use for converting the future value (after retrieval). */
   private final SoyValueHelper valueHelper;
 
@@ -54,9 +80,14 @@ public final class SoyFutureValueProvider extends SoyAbstractCachingValueProvide
   /**
    * Calls Future.get() and then converts the result to SoyValue. Note that
    * this result can never return {@code null}, since null converts to
-   * {@code NullData.INSTANCE}.
+   * {@code NullData.INSTANCE}. If resolving is non-blocking on the current thread (see
+   * {@link #setNonBlockingForCurrentThread}) and the future is not yet done, throws
+   * {@link FutureNotDoneException} instead.
    */
   @Override @Nonnull protected final SoyValue compute() {
+    if (!future.isDone() && isNonBlocking.get()) {
+      throw new FutureNotDoneException(future);
+    }
     try {
       return valueHelper.convert(future.get()).resolve();
     } catch (ExecutionException e) {
@@ -65,4 +96,31 @@ public final class SoyFutureValueProvider extends SoyAbstractCachingValueProvide
       throw new SoyDataException("Error dereferencing future", e);
     }
   }
+
+
+  /**
+   * Thrown when resolving a provider whose future is not yet done, if resolving has been made
+   * non-blocking on the current thread.
+   */
+  public static final class FutureNotDoneException extends RuntimeException {
+
+    /** The future that is not yet done. */
+    private final Future<?> future;
+
+    private FutureNotDoneException(Future<?> future) {
+      super("Future is not yet done.");
+      this.future = future;
+    }
+
+    /** Returns the future that is not yet done. */
+    public Future<?> getFuture() {
+      return future;
+    }
+
+    @Override public synchronized Throwable fillInStackTrace() {
+      // This exception is used for control flow, so don't pay for a stack trace.
+      return this;
+    }
+  }
+
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.data;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * AdvisingAppendable that encodes the appended text as UTF-8 and writes it to an OutputStream in
+ * chunks.
+ *
+ * <p> Encoded bytes are collected in a buffer taken from a shared pool and written to the stream
+ * whenever the buffer fills up. The stream itself is only flushed by {@link #flush()}, which the
+ * renderer calls once at least {@code softLimit} bytes have been appended since the last flush.
+ * Closing this appendable flushes it, returns its buffer to the pool, and closes the stream.
+ *
+ * <p> Unpaired surrogates are encoded as '?', like {@link String#getBytes(String)} does. A high
+ * surrogate at the end of one append is paired with a low surrogate at the start of the next.
+ *
+ * <p> Instances are not thread-safe.
+ */
+public final class Utf8StreamAppendable implements AdvisingAppendable, Closeable {
+
+
+  /** The default number of bytes after which the renderer is advised to flush. */
+  public static final int DEFAULT_SOFT_LIMIT = 8 * 1024;
+
+  /** The size of the pooled buffers. */
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** The maximum number of idle buffers kept in the pool. */
+  private static final int MAX_POOLED_BUFFERS = 64;
+
+  /** The pool of idle buffers. */
+  private static final BlockingQueue<byte[]> bufferPool =
+      new ArrayBlockingQueue<byte[]>(MAX_POOLED_BUFFERS);
+
+
+  /** The stream to write the encoded output to. */
+  private final OutputStream out;
+
+  /** The number of bytes after which the renderer is advised to flush. */
+  private final int softLimit;
+
+  /** The buffer of encoded bytes not yet written to the stream, or null once closed. */
+  private byte[] buffer;
+
+  /** The number of bytes in the buffer. */
+  private int count;
+
+  /** The number of bytes written to the stream since the last flush. */
+  private long numBytesWrittenSinceFlush;
+
+  /** A high surrogate waiting for its low surrogate, or 0 if none. */
+  private char pendingHighSurrogate;
+
+
+  /**
+   * @param out The stream to write the encoded output to.
+   */
+  public Utf8StreamAppendable(OutputStream out) {
+    this(out, DEFAULT_SOFT_LIMIT);
+  }
+
+
+  /**
+   * @param out The stream to write the encoded output to.
+   * @param softLimit The number of bytes after which the renderer is advised to flush.
+   */
+  public Utf8StreamAppendable(OutputStream out, int softLimit) {
+    Preconditions.checkArgument(softLimit > 0);
+    this.out = Preconditions.checkNotNull(out);
+    this.softLimit = softLimit;
+    byte[] pooledBuffer = bufferPool.poll();
+    this.buffer = (pooledBuffer != null) ? pooledBuffer : new byte[BUFFER_SIZE];
+  }
+
+
+  /**
+   * Creates an instance that writes the encoded output to the given channel.
+   * @param channel The channel to write the encoded output to.
+   */
+  public static Utf8StreamAppendable forChannel(WritableByteChannel channel) {
+    return new Utf8StreamAppendable(Channels.newOutputStream(channel));
+  }
+
+
+  @Override public Utf8StreamAppendable append(CharSequence csq) throws IOException {
+    if (csq == null) {
+      csq = "null";
+    }
+    return append(csq, 0, csq.length());
+  }
+
+
+  @Override public Utf8StreamAppendable append(CharSequence csq, int start, int end)
+      throws IOException {
+    if (csq == null) {
+      csq = "null";
+    }
+    checkOpen();
+    for (int i = start; i < end; i++) {
+      char c = csq.charAt(i);
+      if (c < 0x80 && pendingHighSurrogate == 0 && count < buffer.length) {
+        // Fast path for ASCII.
+        buffer[count++] = (byte) c;
+      } else {
+        encode(c);
+      }
+    }
+    return this;
+  }
+
+
+  @Override public Utf8StreamAppendable append(char c) throws IOException {
+    checkOpen();
+    encode(c);
+    return this;
+  }
+
+
+  @Override public boolean softLimitReached() {
+    return numBytesWrittenSinceFlush + count >= softLimit;
+  }
+
+
+  /**
+   * Writes all buffered bytes to the stream and flushes the stream. A trailing unpaired high
+   * surrogate stays buffered, in case its low surrogate is appended next.
+   */
+  @Override public void flush() throws IOException {
+    checkOpen();
+    writeBuffer();
+    out.flush();
+    numBytesWrittenSinceFlush = 0;
+  }
+
+
+  @Override public void close() throws IOException {
+
+    if (buffer == null) {
+      return;
+    }
+
+    try {
+      if (pendingHighSurrogate != 0) {
+        pendingHighSurrogate = 0;
+        writeByte('?');
+      }
+      flush();
+    } finally {
+      byte[] closedBuffer = buffer;
+      buffer = null;
+      bufferPool.offer(closedBuffer);
+      out.close();
+    }
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Private helpers.
+
+
+  private void checkOpen() throws IOException {
+    if (buffer == null) {
+      throw new IOException("Appendable is closed.");
+    }
+  }
+
+
+  /**
+   * Encodes one UTF-16 char, pairing surrogates across calls.
+   */
+  private void encode(char c) throws IOException {
+
+    if (pendingHighSurrogate != 0) {
+      char highSurrogate = pendingHighSurrogate;
+      pendingHighSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(highSurrogate, c);
+        writeByte(0xF0 | (codePoint >> 18));
+        writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+        writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+        writeByte(0x80 | (codePoint & 0x3F));
+        return;
+      }
+      writeByte('?');
+    }
+
+    if (c < 0x80) {
+      writeByte(c);
+    } else if (c < 0x800) {
+      writeByte(0xC0 | (c >> 6));
+      writeByte(0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      pendingHighSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      writeByte('?');
+    } else {
+      writeByte(0xE0 | (c >> 12));
+      writeByte(0x80 | ((c >> 6) & 0x3F));
+      writeByte(0x80 | (c & 0x3F));
+    }
+  }
+
+
+  private void writeByte(int b) throws IOException {
+    if (count == buffer.length) {
+      writeBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+
+  private void writeBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      numBytesWrittenSinceFlush += count;
+      count = 0;
+    }
+  }
+
+}
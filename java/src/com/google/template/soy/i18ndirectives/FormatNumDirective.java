@@ -18,6 +18,7 @@ package com.google.template.soy.i18ndirectives;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.template.soy.base.SoySyntaxException;
@@ -28,15 +29,20 @@ import com.google.template.soy.jssrc.restricted.JsExpr;
 import com.google.template.soy.jssrc.restricted.SoyLibraryAssistedJsSrcPrintDirective;
 import com.google.template.soy.shared.restricted.ApiCallScopeBindingAnnotations.LocaleString;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyPureForLocalePrintDirective;
 
 import com.ibm.icu.text.CompactDecimalFormat;
 import com.ibm.icu.text.CompactDecimalFormat.CompactStyle;
 import com.ibm.icu.text.NumberFormat;
 import com.ibm.icu.util.ULocale;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 
 /**
  * A directive that formats an input number based on Locale of the current SoyMsgBundle.
@@ -56,6 +62,7 @@ import java.util.Set;
  *
  * @author Jeff Craig
  */
+@SoyPureForLocalePrintDirective
 class FormatNumDirective implements SoyJavaPrintDirective, SoyLibraryAssistedJsSrcPrintDirective {
 
 
@@ -78,6 +85,15 @@ class FormatNumDirective implements SoyJavaPrintDirective, SoyLibraryAssistedJsS
   private static final ImmutableSet<String> REQUIRED_JS_LIBS =
       ImmutableSet.of("goog.i18n.NumberFormat");
 
+  // Each thread's NumberFormats, keyed by (locale string, format type, numbers keyword). ICU
+  // NumberFormats are costly to create and not thread-safe, so each thread reuses its own.
+  private static final ThreadLocal<Map<List<String>, NumberFormat>> NUMBER_FORMATS_TL =
+      new ThreadLocal<Map<List<String>, NumberFormat>>() {
+        @Override protected Map<List<String>, NumberFormat> initialValue() {
+          return Maps.newHashMap();
+        }
+      };
+
 
   /**
    * Provide the current Locale string.
@@ -110,14 +126,45 @@ class FormatNumDirective implements SoyJavaPrintDirective, SoyLibraryAssistedJsS
 
 
   @Override public SoyValue applyForJava(SoyValue value, List<SoyValue> args) {
-    ULocale uLocale = I18nUtils.parseULocale(localeStringProvider.get());
-    if (args.size() > 1) {
+    String formatType = args.isEmpty() ? "decimal" : args.get(0).stringValue();
+    String numbersKeyword = (args.size() > 1) ? args.get(1).stringValue() : null;
+    NumberFormat numberFormat =
+        getNumberFormat(localeStringProvider.get(), formatType, numbersKeyword);
+    return StringData.forValue(numberFormat.format(((NumberData) value).toFloat()));
+  }
+
+
+  /**
+   * Gets this thread's NumberFormat for the given locale, format type and numbers keyword, creating
+   * it the first time (creating ICU formatters is costly, and they aren't thread-safe).
+   */
+  private static NumberFormat getNumberFormat(
+      String localeString, String formatType, @Nullable String numbersKeyword) {
+
+    Map<List<String>, NumberFormat> numberFormats = NUMBER_FORMATS_TL.get();
+    List<String> key = Arrays.asList(localeString, formatType, numbersKeyword);
+    NumberFormat numberFormat = numberFormats.get(key);
+    if (numberFormat == null) {
+      numberFormat = createNumberFormat(localeString, formatType, numbersKeyword);
+      numberFormats.put(key, numberFormat);
+    }
+    return numberFormat;
+  }
+
+
+  /**
+   * Private helper for getNumberFormat() to create a NumberFormat.
+   */
+  private static NumberFormat createNumberFormat(
+      String localeString, String formatType, @Nullable String numbersKeyword) {
+
+    ULocale uLocale = I18nUtils.parseULocale(localeString);
+    if (numbersKeyword != null) {
       // A keyword for ULocale was passed (like 'native', for instance, to use native characters).
-      uLocale = uLocale.setKeywordValue("numbers", args.get(1).stringValue());
+      uLocale = uLocale.setKeywordValue("numbers", numbersKeyword);
     }
 
     NumberFormat numberFormat;
-    String formatType = args.isEmpty() ? "decimal" : args.get(0).stringValue();
     if ("decimal".equals(formatType)) {
       numberFormat = NumberFormat.getInstance(uLocale);
     } else if ("percent".equals(formatType)) {
@@ -141,8 +188,7 @@ class FormatNumDirective implements SoyJavaPrintDirective, SoyLibraryAssistedJsS
           + "constant, and one of: 'decimal', 'currency', 'percent', 'scientific', "
           + "'compact_short', or 'compact_long'.");
     }
-
-    return StringData.forValue(numberFormat.format(((NumberData) value).toFloat()));
+    return numberFormat;
   }
 
 
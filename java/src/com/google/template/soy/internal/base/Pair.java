@@ -18,6 +18,8 @@ package com.google.template.soy.internal.base;
 
 import com.google.common.base.Objects;
 
+import java.io.Serializable;
+
 import javax.annotation.Nullable;
 
 /**
@@ -44,7 +46,7 @@ import javax.annotation.Nullable;
  *
  * @author Kevin Bourrillion
  */
-public class Pair<A, B> {
+public class Pair<A, B> implements Serializable {
 
   /**
    * Creates a new pair containing the given elements in order.
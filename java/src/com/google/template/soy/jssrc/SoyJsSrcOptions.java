@@ -65,6 +65,13 @@ public class SoyJsSrcOptions implements Cloneable {
   /** Whether the Closure Library messages are external, i.e. "MSG_EXTERNAL_[soyGeneratedMsgId]". */
   private boolean googMsgsAreExternal;
 
+  /**
+   * Whether to generate the localized JS of several locales from a single code generation, by
+   * splicing each locale's messages into the generated code (only applicable if
+   * shouldGenerateGoogMsgDefs is false).
+   */
+  private boolean shouldSpliceLocalizedMsgs;
+
   /**
    * The bidi global directionality as a static value, 1: ltr, -1: rtl, 0: unspecified. If 0, and
    * useGoogIsRtlForBidiGlobalDir is false, the bidi global directionality will actually be inferred
@@ -92,6 +99,7 @@ public class SoyJsSrcOptions implements Cloneable {
     shouldDeclareTopLevelNamespaces = true;
     shouldGenerateGoogMsgDefs = false;
     googMsgsAreExternal = false;
+    shouldSpliceLocalizedMsgs = false;
     bidiGlobalDir = 0;
     useGoogIsRtlForBidiGlobalDir = false;
   }
@@ -302,6 +310,33 @@ public class SoyJsSrcOptions implements Cloneable {
   }
 
 
+  /**
+   * Sets whether to generate the localized JS of several locales from a single code generation
+   * (only applicable if shouldGenerateGoogMsgDefs is false).
+   *
+   * If this option is true, then the JS code is generated once per bidi global directionality
+   * (instead of once per locale), with a slot for each message, i.e.
+   *     var msg_s[uniquefier] = [slot];
+   * and the JS of each locale is produced by splicing the code for its translations into the
+   * slots. Plural/select messages are not supported, and plugins must not generate JS code that
+   * depends on the locale (other than through the bidi global directionality).
+   *
+   * @param shouldSpliceLocalizedMsgs The value to set.
+   */
+  public void setShouldSpliceLocalizedMsgs(boolean shouldSpliceLocalizedMsgs) {
+    this.shouldSpliceLocalizedMsgs = shouldSpliceLocalizedMsgs;
+  }
+
+
+  /**
+   * Returns whether to generate the localized JS of several locales from a single code generation
+   * (only applicable if shouldGenerateGoogMsgDefs is false).
+   */
+  public boolean shouldSpliceLocalizedMsgs() {
+    return shouldSpliceLocalizedMsgs;
+  }
+
+
   /**
    * Sets the bidi global directionality to a static value, 1: ltr, -1: rtl, 0: unspecified. If 0,
    * and useGoogIsRtlForBidiGlobalDir is false, the bidi global directionality will actually be
@@ -165,6 +165,10 @@ class GenJsCodeVisitor extends AbstractSoyNodeVisitor<List<String>> {
   /** The assistant visitor for msgs used for the current template (lazily initialized). */
   @VisibleForTesting protected GenJsCodeVisitorAssistantForMsgs assistantForMsgs;
 
+  /** The JS source code to add message slots to (during a run), or null if not generating message
+   *  slots. */
+  private JsSrcWithMsgSlots jsSrcWithMsgSlots;
+
   /** The GenDirectivePluginRequiresVisitor for the current template. */
   private GenDirectivePluginRequiresVisitor genDirectivePluginRequiresVisitor;
 
@@ -220,6 +224,26 @@ class GenJsCodeVisitor extends AbstractSoyNodeVisitor<List<String>> {
     return jsFilesContents;
   }
 
+  /**
+   * Generates JS source code with a slot in place of the content of each message, instead of
+   * goog.getMsg calls. The generated code is set on the given JsSrcWithMsgSlots, from which the
+   * JS source code of any locale can then be produced.
+   *
+   * <p> Precondition: MsgFallbackGroupNodes should have been replaced with GoogMsgDefNodes and
+   * GoogMsgRefNodes.
+   *
+   * @param node The full parse tree.
+   * @param jsSrcWithMsgSlots The JS source code to add the message slots to.
+   */
+  void execWithMsgSlots(SoyNode node, JsSrcWithMsgSlots jsSrcWithMsgSlots) {
+    this.jsSrcWithMsgSlots = jsSrcWithMsgSlots;
+    try {
+      jsSrcWithMsgSlots.setJsFilesContents(exec(node));
+    } finally {
+      this.jsSrcWithMsgSlots = null;
+    }
+  }
+
   /**
    * This method must only be called by assistant visitors, in particular
    * GenJsCodeVisitorAssistantForMsgs.
@@ -729,7 +753,7 @@ class GenJsCodeVisitor extends AbstractSoyNodeVisitor<List<String>> {
     if (assistantForMsgs == null) {
       assistantForMsgs = new GenJsCodeVisitorAssistantForMsgs(
           this, jsSrcOptions, jsExprTranslator, genCallCodeUtils, isComputableAsJsExprsVisitor,
-          jsCodeBuilder, localVarTranslations, genJsExprsVisitor);
+          jsCodeBuilder, localVarTranslations, genJsExprsVisitor, jsSrcWithMsgSlots);
     }
     assistantForMsgs.visitForUseByMaster(node);
   }
@@ -19,6 +19,7 @@ package com.google.template.soy.jssrc.internal;
 import com.google.common.base.CaseFormat;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.template.soy.base.SoySyntaxException;
 import com.google.template.soy.base.internal.BaseUtils;
@@ -46,6 +47,7 @@ import com.google.template.soy.soytree.SoyNode;
 import com.google.template.soy.soytree.SoyNode.BlockNode;
 import com.google.template.soy.soytree.SoyNode.CommandNode;
 import com.google.template.soy.soytree.SoyNode.StandaloneNode;
+import com.google.template.soy.soytree.SoySyntaxExceptionUtils;
 import com.google.template.soy.soytree.jssrc.GoogMsgDefNode;
 
 import java.util.Deque;
@@ -55,6 +57,8 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 
 /**
  * Assistant visitor for GenJsCodeVisitor to handle messages.
@@ -95,6 +99,10 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
    *  special functions) current in scope. */
   private final Deque<Map<String, JsExpr>> localVarTranslations;
 
+  /** The JS source code to add message slots to instead of generating goog.getMsg calls, or null
+   *  if not generating message slots. */
+  private final JsSrcWithMsgSlots jsSrcWithMsgSlots;
+
 
   /**
    * @param master The master GenJsCodeVisitor instance.
@@ -104,12 +112,14 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
    * @param jsCodeBuilder The current JsCodeBuilder.
    * @param localVarTranslations The current local var translations.
    * @param genJsExprsVisitor The current GenJsExprsVisitor.
+   * @param jsSrcWithMsgSlots The JS source code to add message slots to instead of generating
+   *     goog.getMsg calls, or null if not generating message slots.
    */
   GenJsCodeVisitorAssistantForMsgs(
       GenJsCodeVisitor master, SoyJsSrcOptions jsSrcOptions, JsExprTranslator jsExprTranslator,
       GenCallCodeUtils genCallCodeUtils, IsComputableAsJsExprsVisitor isComputableAsJsExprsVisitor,
       JsCodeBuilder jsCodeBuilder, Deque<Map<String, JsExpr>> localVarTranslations,
-      GenJsExprsVisitor genJsExprsVisitor) {
+      GenJsExprsVisitor genJsExprsVisitor, @Nullable JsSrcWithMsgSlots jsSrcWithMsgSlots) {
     this.master = master;
     this.jsSrcOptions = jsSrcOptions;
     this.jsExprTranslator = jsExprTranslator;
@@ -118,6 +128,7 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
     this.jsCodeBuilder = jsCodeBuilder;
     this.localVarTranslations = localVarTranslations;
     this.genJsExprsVisitor = genJsExprsVisitor;
+    this.jsSrcWithMsgSlots = jsSrcWithMsgSlots;
   }
 
 
@@ -163,6 +174,11 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
    */
   @Override protected void visitGoogMsgDefNode(GoogMsgDefNode node) {
 
+    if (jsSrcWithMsgSlots != null) {
+      genMsgSlotHelper(node);
+      return;
+    }
+
     if (node.numChildren() == 1) {
 
       MsgNode msgNode = node.getChild(0);
@@ -230,6 +246,57 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Private helper for visitGoogMsgDefNode() to generate a message slot instead of the goog.getMsg
+   * calls, when generating JS source code for several locales at once. The code for the message
+   * content of each locale is later spliced into the slot by JsSrcWithMsgSlots.
+   *
+   * Example:
+   * <xmp>
+   *   {msg desc="Says hello to a person."}Hello {$name}!{/msg}
+   * </xmp>
+   * might generate
+   * <xmp>
+   *   var msg_s9 = [slot];
+   * </xmp>
+   * where the slot becomes {@code 'Hello ' + opt_data.name + '!'} in the English JS file.
+   *
+   * @param node The GoogMsgDefNode to generate a message slot for.
+   */
+  private void genMsgSlotHelper(GoogMsgDefNode node) {
+
+    List<Map<String, List<JsExpr>>> childPlaceholderJsExprs =
+        Lists.newArrayListWithCapacity(node.numChildren());
+
+    // Generate the code for the placeholders of all children (also defining the 'htmlTag<n>' and
+    // 'param<n>' variables they need, if any).
+    for (MsgNode msgNode : node.getChildren()) {
+      if (msgNode.isPlrselMsg()) {
+        throw SoySyntaxExceptionUtils.createWithNode(
+            "JS code generation currently only supports plural/select messages when" +
+                " shouldGenerateGoogMsgDefs is true.",
+            msgNode);
+      }
+      Map<String, List<JsExpr>> placeholderJsExprs = Maps.newHashMap();
+      for (StandaloneNode child : msgNode.getChildren()) {
+        if (child instanceof MsgPlaceholderNode) {
+          MsgPlaceholderNode msgPhNode = (MsgPlaceholderNode) child;
+          String placeholderName = msgNode.getPlaceholderName(msgPhNode);
+          if (!placeholderJsExprs.containsKey(placeholderName)) {
+            placeholderJsExprs.put(
+                placeholderName, genGoogMsgPlaceholderContentJsExprs(msgPhNode));
+          }
+        }
+      }
+      childPlaceholderJsExprs.add(placeholderJsExprs);
+    }
+
+    jsCodeBuilder.appendLine(
+        "var ", node.getRenderedGoogMsgVarName(), " = ",
+        jsSrcWithMsgSlots.addMsgSlot(node, childPlaceholderJsExprs), ";");
+  }
+
+
   /**
    * Private helper for visitGoogMsgDefNode() to build the googMsgVarName for a child MsgNode.
    * @param googMsgDefNode The current GoogMsgDefNode being visited.
@@ -602,6 +669,18 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
    * @return The JS expr for the given placeholder.
    */
   private JsExpr genGoogMsgPlaceholderExpr(MsgPlaceholderNode msgPhNode) {
+    return JsExprUtils.concatJsExprs(genGoogMsgPlaceholderContentJsExprs(msgPhNode));
+  }
+
+
+  /**
+   * Private helper for genGoogMsgPlaceholderExpr() and genMsgSlotHelper().
+   * Generates the JS exprs for the content of a given placeholder.
+   *
+   * @param msgPhNode The placeholder to generate the JS exprs for.
+   * @return The JS exprs for the content of the given placeholder.
+   */
+  private List<JsExpr> genGoogMsgPlaceholderContentJsExprs(MsgPlaceholderNode msgPhNode) {
 
     List<JsExpr> contentJsExprs = Lists.newArrayList();
 
@@ -632,7 +711,7 @@ class GenJsCodeVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
       }
     }
 
-    return JsExprUtils.concatJsExprs(contentJsExprs);
+    return contentJsExprs;
   }
 
 
@@ -19,9 +19,12 @@ package com.google.template.soy.jssrc.internal;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
@@ -50,6 +53,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -187,6 +191,166 @@ public class JsSrcMain {
       throws SoySyntaxException, IOException {
 
     List<String> jsFileContents = genJsSrc(soyTree, jsSrcOptions, msgBundle);
+    writeJsFiles(soyTree, jsFileContents, locale, outputPathFormat, inputPathsPrefix);
+  }
+
+  /**
+   * Creates a splicer that generates the localized JS source files of several locales given a Soy
+   * parse tree and an options object.
+   *
+   * <p> Unlike calling {@link #genJsFiles} for each locale, this doesn't generate the JS code for
+   * each locale. The code is generated once for each bidi global directionality of the locales
+   * (usually once or twice), with a slot in place of the content of each message. Then the JS
+   * source code of each locale is produced by splicing the code for its translations into the
+   * slots. The messages are defined in vars (i.e. "var msg_s[uniquefier] = ...;") instead of being
+   * inlined in the code, but the output is otherwise the same as that of genJsFiles.
+   *
+   * <p> Plural/select messages are not supported. The JS code generated by plugins must not depend
+   * on the locale, other than through the bidi global directionality (which is true of the
+   * plugins that come with Soy).
+   *
+   * @param soyTree The Soy parse tree to generate JS source code for. It is not modified (the code
+   *     is generated from clones of it).
+   * @param jsSrcOptions The compilation options relevant to this backend. Must not enable
+   *     shouldGenerateGoogMsgDefs.
+   * @return The splicer.
+   */
+  public MsgSplicer newMsgSplicer(SoyFileSetNode soyTree, SoyJsSrcOptions jsSrcOptions) {
+
+    Preconditions.checkArgument(
+        !jsSrcOptions.shouldGenerateGoogMsgDefs(),
+        "Splicing localized messages does not apply when shouldGenerateGoogMsgDefs is true.");
+    return new MsgSplicer(soyTree, jsSrcOptions);
+  }
+
+
+  /**
+   * Generates the localized JS source files of locales by splicing their messages into JS code
+   * generated once for each bidi global directionality (see {@link #newMsgSplicer}).
+   *
+   * <p> The locales may be generated in parallel (the code for a bidi global directionality is
+   * generated by the first locale that needs it). Only the message bundle of the locale being
+   * generated is needed, so each bundle can be released once its locale is done.
+   */
+  public final class MsgSplicer {
+
+    /** The Soy parse tree to generate JS source code for. */
+    private final SoyFileSetNode soyTree;
+
+    /** The compilation options relevant to this backend. */
+    private final SoyJsSrcOptions jsSrcOptions;
+
+    /** The JS source code with message slots (computed on first use), by bidi global dir. */
+    private final Map<Integer, Supplier<JsSrcWithMsgSlots>> jsSrcsWithMsgSlots =
+        Maps.newHashMap();
+
+    private MsgSplicer(SoyFileSetNode soyTree, SoyJsSrcOptions jsSrcOptions) {
+      this.soyTree = soyTree;
+      this.jsSrcOptions = jsSrcOptions;
+    }
+
+    /**
+     * Generates the localized JS source files of one locale given the bundle of its translated
+     * messages, and information on where to put the output files.
+     *
+     * @param locale The current locale that we're generating JS for.
+     * @param msgBundle The bundle of translated messages, or null to use the messages from the
+     *     Soy source.
+     * @param outputPathFormat The format string defining how to build the output file path
+     *     corresponding to an input file path.
+     * @param inputPathsPrefix The input path prefix, or empty string if none.
+     * @throws SoySyntaxException If a syntax error is found.
+     * @throws IOException If there is an error in opening/writing an output JS file.
+     */
+    public void genJsFiles(
+        String locale, @Nullable SoyMsgBundle msgBundle, String outputPathFormat,
+        String inputPathsPrefix)
+        throws SoySyntaxException, IOException {
+
+      // Determine the bidi global directionality the same way as genJsSrc().
+      BidiGlobalDir bidiGlobalDir = SoyBidiUtils.decodeBidiGlobalDirFromOptions(
+          jsSrcOptions.getBidiGlobalDir(), jsSrcOptions.getUseGoogIsRtlForBidiGlobalDir());
+      if (bidiGlobalDir == null) {
+        bidiGlobalDir = BidiGlobalDir.forStaticLocale(
+            (msgBundle != null) ? msgBundle.getLocaleString() : null);
+      }
+
+      JsSrcWithMsgSlots jsSrcWithMsgSlots = getJsSrcWithMsgSlots(bidiGlobalDir).get();
+      writeJsFiles(
+          soyTree, jsSrcWithMsgSlots.spliceMsgs(msgBundle), locale, outputPathFormat,
+          inputPathsPrefix);
+    }
+
+    /**
+     * Private helper for genJsFiles() to get the (memoized) JS source code with message slots for
+     * one bidi global directionality. The code itself is generated outside of this lock, so the
+     * locales of another directionality aren't held up.
+     */
+    private synchronized Supplier<JsSrcWithMsgSlots> getJsSrcWithMsgSlots(
+        final BidiGlobalDir bidiGlobalDir) {
+
+      Supplier<JsSrcWithMsgSlots> jsSrcWithMsgSlots =
+          jsSrcsWithMsgSlots.get(bidiGlobalDir.getStaticValue());
+      if (jsSrcWithMsgSlots == null) {
+        jsSrcWithMsgSlots = Suppliers.memoize(new Supplier<JsSrcWithMsgSlots>() {
+          @Override public JsSrcWithMsgSlots get() {
+            // Note: Only one clone is made at a time, since the locales may be generated in
+            // parallel.
+            SoyFileSetNode soyTreeClone;
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+            synchronized (soyTree) {
+              soyTreeClone = soyTree.clone();
+            }
+            return genJsSrcWithMsgSlots(soyTreeClone, jsSrcOptions, bidiGlobalDir);
+          }
+        });
+        jsSrcsWithMsgSlots.put(bidiGlobalDir.getStaticValue(), jsSrcWithMsgSlots);
+      }
+      return jsSrcWithMsgSlots;
+    }
+  }
+
+  /**
+   * Private helper for MsgSplicer to generate the JS source code with message slots
+   * for one bidi global directionality.
+   */
+  private JsSrcWithMsgSlots genJsSrcWithMsgSlots(
+      SoyFileSetNode soyTree, SoyJsSrcOptions jsSrcOptions, BidiGlobalDir bidiGlobalDir) {
+
+    boolean isUsingIjData =
+        jsSrcOptions.isUsingIjData() || (new IsUsingIjDataVisitor()).exec(soyTree);
+
+    apiCallScope.enter();
+    try {
+      // Seed the scoped parameters (no message bundle, since the code is for all locales).
+      apiCallScope.seed(SoyJsSrcOptions.class, jsSrcOptions);
+      apiCallScope.seed(Key.get(Boolean.class, IsUsingIjData.class), isUsingIjData);
+      ApiCallScopeUtils.seedSharedParams(apiCallScope, null, bidiGlobalDir);
+
+      // Replace MsgNodes (the GoogMsgDefNodes become the message slots).
+      (new ReplaceMsgsWithGoogMsgsVisitor()).exec(soyTree);
+      (new MoveGoogMsgDefNodesEarlierVisitor()).exec(soyTree);
+
+      // Do the code generation.
+      optimizeBidiCodeGenVisitorProvider.get().exec(soyTree);
+      simplifyVisitor.exec(soyTree);
+      JsSrcWithMsgSlots jsSrcWithMsgSlots = new JsSrcWithMsgSlots();
+      genJsCodeVisitorProvider.get().execWithMsgSlots(soyTree, jsSrcWithMsgSlots);
+      return jsSrcWithMsgSlots;
+
+    } finally {
+      apiCallScope.exit();
+    }
+  }
+
+  /**
+   * Private helper for genJsFiles() and MsgSplicer to write the generated JS source
+   * files of one locale.
+   */
+  private void writeJsFiles(
+      SoyFileSetNode soyTree, List<String> jsFileContents, @Nullable String locale,
+      String outputPathFormat, String inputPathsPrefix)
+      throws IOException {
 
     ImmutableList<SoyFileNode> srcsToCompile = ImmutableList.copyOf(Iterables.filter(
         soyTree.getChildren(), SoyFileNode.MATCH_SRC_FILENODE));
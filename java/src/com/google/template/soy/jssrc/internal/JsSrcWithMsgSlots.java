@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.jssrc.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.template.soy.base.internal.BaseUtils;
+import com.google.template.soy.jssrc.restricted.JsExpr;
+import com.google.template.soy.jssrc.restricted.JsExprUtils;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.internal.MsgUtils;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import com.google.template.soy.soytree.MsgNode;
+import com.google.template.soy.soytree.jssrc.GoogMsgDefNode;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * JS source code generated once for any number of locales, with a slot in place of the content of
+ * each message. The JS source code of a locale is produced by splicing the code for the locale's
+ * translations into the slots, which doesn't require generating the code again.
+ *
+ * <p> The slots are added by GenJsCodeVisitorAssistantForMsgs while generating the code, as
+ * markers that can't otherwise appear in the generated code (which escapes control characters in
+ * string literals). Once the code is generated, it is split at the markers into chunks.
+ */
+class JsSrcWithMsgSlots {
+
+
+  /** The delimiter around the index of a slot in the generated code. */
+  private static final char SLOT_DELIMITER = '\u0000';
+
+
+  /** The message slots, in the order they were added. */
+  private final List<MsgSlot> msgSlots = Lists.newArrayList();
+
+  /** For each generated JS file, its code split at the slots (one more chunk than slots). */
+  private List<List<String>> jsFilesChunks;
+
+  /** For each generated JS file, the indices of the slots between its chunks. */
+  private List<List<Integer>> jsFilesSlotIndices;
+
+
+  /**
+   * Adds a slot for the content of the given message (which will be the first of the message's
+   * fallback messages that has a translation, otherwise the source of the first one).
+   *
+   * @param googMsgDefNode The message.
+   * @param childPlaceholderJsExprs For each child MsgNode, the map from its placeholder names to
+   *     the JS expressions of the placeholders' content.
+   * @return The marker of the slot, to generate in place of the message's content.
+   */
+  String addMsgSlot(
+      GoogMsgDefNode googMsgDefNode, List<Map<String, List<JsExpr>>> childPlaceholderJsExprs) {
+
+    List<Long> childMsgIds = Lists.newArrayListWithCapacity(googMsgDefNode.numChildren());
+    for (MsgNode msgNode : googMsgDefNode.getChildren()) {
+      childMsgIds.add(googMsgDefNode.getChildMsgId(msgNode));
+    }
+    msgSlots.add(new MsgSlot(
+        childMsgIds, MsgUtils.buildMsgParts(googMsgDefNode.getChild(0)), childPlaceholderJsExprs));
+    return SLOT_DELIMITER + Integer.toString(msgSlots.size() - 1) + SLOT_DELIMITER;
+  }
+
+
+  /**
+   * Sets the generated code (containing the slot markers), and splits it into chunks.
+   *
+   * @param jsFilesContents The contents of the generated JS files.
+   */
+  void setJsFilesContents(List<String> jsFilesContents) {
+
+    jsFilesChunks = Lists.newArrayListWithCapacity(jsFilesContents.size());
+    jsFilesSlotIndices = Lists.newArrayListWithCapacity(jsFilesContents.size());
+
+    for (String jsFileContent : jsFilesContents) {
+      List<String> chunks = Lists.newArrayList();
+      List<Integer> slotIndices = Lists.newArrayList();
+      int chunkStart = 0;
+      int markerStart;
+      while ((markerStart = jsFileContent.indexOf(SLOT_DELIMITER, chunkStart)) >= 0) {
+        int markerEnd = jsFileContent.indexOf(SLOT_DELIMITER, markerStart + 1);
+        Preconditions.checkState(markerEnd >= 0, "Unterminated message slot marker.");
+        chunks.add(jsFileContent.substring(chunkStart, markerStart));
+        slotIndices.add(Integer.parseInt(jsFileContent.substring(markerStart + 1, markerEnd)));
+        chunkStart = markerEnd + 1;
+      }
+      chunks.add(jsFileContent.substring(chunkStart));
+      jsFilesChunks.add(chunks);
+      jsFilesSlotIndices.add(slotIndices);
+    }
+  }
+
+
+  /**
+   * Produces the JS source code for the locale of the given bundle, by splicing the code for its
+   * translations into the slots.
+   *
+   * @param msgBundle The bundle of translated messages, or null to use the messages from the Soy
+   *     source.
+   * @return A list of strings where each string represents the JS source code that belongs in one
+   *     JS file.
+   */
+  List<String> spliceMsgs(@Nullable SoyMsgBundle msgBundle) {
+
+    Preconditions.checkState(jsFilesChunks != null, "The JS code has not been generated yet.");
+
+    // The code for each slot is only built the first time it's used.
+    String[] msgSlotsCode = new String[msgSlots.size()];
+
+    List<String> jsFilesContents = Lists.newArrayListWithCapacity(jsFilesChunks.size());
+    for (int i = 0; i < jsFilesChunks.size(); i++) {
+      List<String> chunks = jsFilesChunks.get(i);
+      List<Integer> slotIndices = jsFilesSlotIndices.get(i);
+      StringBuilder jsFileContentSb = new StringBuilder(chunks.get(0));
+      for (int j = 0; j < slotIndices.size(); j++) {
+        int slotIndex = slotIndices.get(j);
+        if (msgSlotsCode[slotIndex] == null) {
+          msgSlotsCode[slotIndex] = msgSlots.get(slotIndex).genJsExpr(msgBundle).getText();
+        }
+        jsFileContentSb.append(msgSlotsCode[slotIndex]).append(chunks.get(j + 1));
+      }
+      jsFilesContents.add(jsFileContentSb.toString());
+    }
+    return jsFilesContents;
+  }
+
+
+  /**
+   * The data needed to build the code for a message's content in any locale.
+   */
+  private static class MsgSlot {
+
+    /** The ids of the fallback messages, in order. */
+    private final List<Long> childMsgIds;
+
+    /** The parts of the source of the first fallback message. */
+    private final ImmutableList<SoyMsgPart> srcMsgParts;
+
+    /** For each fallback message, the JS expressions of its placeholders' content, by name. */
+    private final List<Map<String, List<JsExpr>>> childPlaceholderJsExprs;
+
+    MsgSlot(
+        List<Long> childMsgIds, ImmutableList<SoyMsgPart> srcMsgParts,
+        List<Map<String, List<JsExpr>>> childPlaceholderJsExprs) {
+      this.childMsgIds = childMsgIds;
+      this.srcMsgParts = srcMsgParts;
+      this.childPlaceholderJsExprs = childPlaceholderJsExprs;
+    }
+
+    /**
+     * Builds the JS expression for the message's content, from the first of the fallback messages
+     * that has a translation in the given bundle, otherwise from the source of the first one.
+     */
+    JsExpr genJsExpr(@Nullable SoyMsgBundle msgBundle) {
+
+      if (msgBundle != null) {
+        for (int i = 0; i < childMsgIds.size(); i++) {
+          SoyMsg translation = msgBundle.getMsg(childMsgIds.get(i));
+          if (translation != null) {
+            return genJsExprHelper(translation.getParts(), childPlaceholderJsExprs.get(i));
+          }
+        }
+      }
+      return genJsExprHelper(srcMsgParts, childPlaceholderJsExprs.get(0));
+    }
+
+    private static JsExpr genJsExprHelper(
+        List<SoyMsgPart> msgParts, Map<String, List<JsExpr>> placeholderJsExprs) {
+
+      List<JsExpr> partJsExprs = Lists.newArrayList();
+      for (SoyMsgPart msgPart : msgParts) {
+
+        if (msgPart instanceof SoyMsgRawTextPart) {
+          // Escape non-ASCII characters since browsers are inconsistent in how they interpret
+          // utf-8 in JS source files.
+          String rawText = ((SoyMsgRawTextPart) msgPart).getRawText();
+          partJsExprs.add(
+              new JsExpr(BaseUtils.escapeToSoyString(rawText, true), Integer.MAX_VALUE));
+
+        } else if (msgPart instanceof SoyMsgPlaceholderPart) {
+          String placeholderName = ((SoyMsgPlaceholderPart) msgPart).getPlaceholderName();
+          List<JsExpr> contentJsExprs = placeholderJsExprs.get(placeholderName);
+          Preconditions.checkState(
+              contentJsExprs != null, "Unknown placeholder %s in translation.", placeholderName);
+          partJsExprs.addAll(contentJsExprs);
+
+        } else {
+          throw new AssertionError();
+        }
+      }
+      return JsExprUtils.concatJsExprsForceString(partJsExprs);
+    }
+  }
+
+}
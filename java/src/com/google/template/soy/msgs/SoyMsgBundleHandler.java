@@ -22,10 +22,12 @@ import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import com.google.inject.Inject;
 import com.google.template.soy.base.internal.BaseUtils;
+import com.google.template.soy.msgs.restricted.SoyMsgBundleBinaryFormat;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.regex.Pattern;
 
 
@@ -36,6 +38,10 @@ import java.util.regex.Pattern;
  * <p> Uses a {@code SoyMsgPlugin} to do the actual generation of the output data and the actual
  * parsing of the input data. The {@code SoyMsgPlugin} implements the specific message file format.
  *
+ * <p> Files and resources in Soy's binary bundle format (see {@link #writeToBinaryMsgsFile}) are
+ * also recognized, whatever the plugin. Binary files are memory-mapped instead of being parsed, and
+ * their messages are only decoded when they're looked up.
+ *
  * @author Kai Huang
  */
 public class SoyMsgBundleHandler {
@@ -128,6 +134,11 @@ public class SoyMsgBundleHandler {
     }
 
     try {
+      // Only binary bundles are mapped (the mapping lasts until it's garbage collected).
+      if (SoyMsgBundleBinaryFormat.isBinaryFormat(inputFile)) {
+        return SoyMsgBundleBinaryFormat.read(Files.map(inputFile));
+      }
+
       String inputFileContent = Files.toString(inputFile, UTF_8);
       return msgPlugin.parseTranslatedMsgsFile(inputFileContent);
 
@@ -149,7 +160,13 @@ public class SoyMsgBundleHandler {
   public SoyMsgBundle createFromResource(URL inputResource) throws IOException, SoyMsgException {
 
     try {
-      String inputFileContent = Resources.toString(inputResource, UTF_8);
+      byte[] inputResourceBytes = Resources.toByteArray(inputResource);
+      ByteBuffer inputResourceBuffer = ByteBuffer.wrap(inputResourceBytes);
+      if (SoyMsgBundleBinaryFormat.isBinaryFormat(inputResourceBuffer)) {
+        return SoyMsgBundleBinaryFormat.read(inputResourceBuffer);
+      }
+
+      String inputFileContent = new String(inputResourceBytes, UTF_8);
       return msgPlugin.parseTranslatedMsgsFile(inputFileContent);
 
     } catch (SoyMsgException sme) {
@@ -214,4 +231,23 @@ public class SoyMsgBundleHandler {
     Files.write(cs, outputFile, UTF_8);
   }
 
+
+  /**
+   * Writes a message bundle to file in Soy's binary bundle format, which {@link #createFromFile}
+   * memory-maps (see {@link SoyMsgBundleBinaryFormat}). Only what's needed for rendering is
+   * written.
+   *
+   * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+   *
+   * @param msgBundle The message bundle to write to file.
+   * @param outputFile The output file to write to.
+   * @throws IOException If there's an error while accessing the file.
+   */
+  public void writeToBinaryMsgsFile(SoyMsgBundle msgBundle, File outputFile) throws IOException {
+
+    byte[] bytes = SoyMsgBundleBinaryFormat.write(msgBundle);
+    BaseUtils.ensureDirsExistInPath(outputFile.getPath());
+    Files.write(bytes, outputFile);
+  }
+
 }
@@ -16,28 +16,45 @@
 
 package com.google.template.soy.msgs.internal;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.template.soy.base.internal.BaseUtils;
 import com.google.template.soy.base.internal.IdGenerator;
+import com.google.template.soy.internal.base.Pair;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.msgs.restricted.SoyMsg;
 import com.google.template.soy.msgs.restricted.SoyMsgPart;
 import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralCaseSpec;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralRemainderPart;
 import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import com.google.template.soy.msgs.restricted.SoyMsgSelectPart;
 import com.google.template.soy.soytree.AbstractSoyNodeVisitor;
+import com.google.template.soy.soytree.CaseOrDefaultNode;
 import com.google.template.soy.soytree.MsgFallbackGroupNode;
 import com.google.template.soy.soytree.MsgHtmlTagNode;
 import com.google.template.soy.soytree.MsgNode;
 import com.google.template.soy.soytree.MsgPlaceholderNode;
+import com.google.template.soy.soytree.MsgPluralCaseNode;
+import com.google.template.soy.soytree.MsgPluralDefaultNode;
 import com.google.template.soy.soytree.MsgPluralNode;
+import com.google.template.soy.soytree.MsgPluralRemainderNode;
+import com.google.template.soy.soytree.MsgSelectCaseNode;
+import com.google.template.soy.soytree.MsgSelectDefaultNode;
 import com.google.template.soy.soytree.MsgSelectNode;
+import com.google.template.soy.soytree.PrintNode;
 import com.google.template.soy.soytree.RawTextNode;
 import com.google.template.soy.soytree.SoyFileSetNode;
 import com.google.template.soy.soytree.SoyNode;
 import com.google.template.soy.soytree.SoyNode.BlockNode;
 import com.google.template.soy.soytree.SoyNode.ParentSoyNode;
 import com.google.template.soy.soytree.SoyNode.StandaloneNode;
+import com.google.template.soy.soytree.SoytreeUtils;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -46,7 +63,8 @@ import javax.annotation.Nullable;
  * Visitor for inserting translated messages into Soy tree. This pass replaces the
  * MsgFallbackGroupNodes in the tree with sequences of RawTextNodes and other nodes. The only
  * exception is plural/select messages. This pass currently does not replace MsgFallbackGroupNodes
- * that contain plural/select messages.
+ * that contain plural/select messages (but it may insert their translations into them, see the
+ * constructor).
  *
  * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
  *
@@ -95,9 +113,12 @@ public class InsertMsgsVisitor extends AbstractSoyNodeVisitor<Void> {
    *     source.
    * @param dontErrorOnPlrselMsgs If set to true, then this pass won't report an error when
    *     encountering a plural or select message. Instead, plural and select messages will simply
-   *     not be replaced ({@code MsgNode} left in the tree as-is). If set to false, then this pass
-   *     will throw an {@link EncounteredPlrselMsgException} when encountering a plural or
-   *     select message.
+   *     not be replaced ({@code MsgFallbackGroupNode} left in the tree). If there's a translation
+   *     for such a message, then the translation is inserted into its {@code MsgFallbackGroupNode}
+   *     as the content of its only {@code MsgNode} (see
+   *     {@link MsgFallbackGroupNode#getTranslationLocaleString}), so that rendering it doesn't
+   *     need the bundle. If set to false, then this pass will throw an
+   *     {@link EncounteredPlrselMsgException} when encountering a plural or select message.
    */
   public InsertMsgsVisitor(@Nullable SoyMsgBundle msgBundle, boolean dontErrorOnPlrselMsgs) {
     this.msgBundle = msgBundle;
@@ -123,11 +144,15 @@ public class InsertMsgsVisitor extends AbstractSoyNodeVisitor<Void> {
 
   @Override protected void visitMsgFallbackGroupNode(MsgFallbackGroupNode node) {
 
-    // Check for plural or select message. Either report error or don't replace.
+    // Check for plural or select message. Either report error or don't replace (but insert the
+    // translation into the MsgFallbackGroupNode).
     for (MsgNode msg : node.getChildren()) {
       if (msg.numChildren() == 1 &&
           (msg.getChild(0) instanceof MsgSelectNode || msg.getChild(0) instanceof MsgPluralNode)) {
         if (dontErrorOnPlrselMsgs) {
+          if (msgBundle != null) {
+            insertPlrselMsgTranslation(node);
+          }
           return;
         } else {
           throw new EncounteredPlrselMsgException(msg);
@@ -196,6 +221,160 @@ public class InsertMsgsVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Private helper for visitMsgFallbackGroupNode() to insert the translation of a plural/select
+   * message (if any) into its MsgFallbackGroupNode. The MsgFallbackGroupNode is left with only the
+   * translated MsgNode, whose children are replaced by the nodes built from the translation.
+   */
+  private void insertPlrselMsgTranslation(MsgFallbackGroupNode node) {
+
+    for (MsgNode msg : node.getChildren()) {
+      SoyMsg translation = msgBundle.getMsg(MsgUtils.computeMsgIdForDualFormat(msg));
+      if (translation != null) {
+        List<StandaloneNode> translatedNodes = buildNodesFromTranslatedParts(
+            msg, translation.getParts(), null);
+        msg.clearChildren();
+        msg.addChildren(translatedNodes);
+        node.clearChildren();
+        node.addChild(msg);
+        node.setTranslationLocaleString(translation.getLocaleString());
+        return;
+      }
+    }
+  }
+
+
+  /**
+   * Private helper for insertPlrselMsgTranslation() to build the nodes for a list of translated
+   * parts, which may be nested in plural/select parts.
+   *
+   * @param msg The message being translated.
+   * @param msgParts The translated parts.
+   * @param pluralNode The translated MsgPluralNode that the parts are in, or null if none.
+   */
+  private List<StandaloneNode> buildNodesFromTranslatedParts(
+      MsgNode msg, List<SoyMsgPart> msgParts, MsgPluralNode pluralNode) {
+
+    List<StandaloneNode> translatedNodes = Lists.newArrayList();
+
+    for (SoyMsgPart msgPart : msgParts) {
+
+      if (msgPart instanceof SoyMsgRawTextPart) {
+        String rawText = ((SoyMsgRawTextPart) msgPart).getRawText();
+        translatedNodes.add(new RawTextNode(nodeIdGen.genId(), rawText));
+
+      } else if (msgPart instanceof SoyMsgPlaceholderPart) {
+        // Note: The same placeholder may be in several cases, so we insert copies of it.
+        String placeholderName = ((SoyMsgPlaceholderPart) msgPart).getPlaceholderName();
+        translatedNodes.add(
+            SoytreeUtils.cloneWithNewIds(msg.getRepPlaceholderNode(placeholderName), nodeIdGen));
+
+      } else if (msgPart instanceof SoyMsgPluralRemainderPart && pluralNode != null) {
+        translatedNodes.add(new MsgPluralRemainderNode(new PrintNode(
+            nodeIdGen.genId(), true,
+            "remainder(" + pluralNode.getExpr().toSourceString() + ")", null)));
+
+      } else if (msgPart instanceof SoyMsgPluralPart) {
+        translatedNodes.add(buildPluralNodeFromTranslation(msg, (SoyMsgPluralPart) msgPart));
+
+      } else if (msgPart instanceof SoyMsgSelectPart) {
+        translatedNodes.add(
+            buildSelectNodeFromTranslation(msg, (SoyMsgSelectPart) msgPart, pluralNode));
+
+      } else {
+        throw new AssertionError();
+      }
+    }
+
+    return translatedNodes;
+  }
+
+
+  /**
+   * Private helper for buildNodesFromTranslatedParts() to build a MsgPluralNode from a translated
+   * plural part. The cases are ordered the way the translation selects them: first the explicit
+   * cases, then the keyword cases (only if there's a keyword case besides 'other', since only
+   * then the plural rules of the locale are needed), then the 'other' case as the default.
+   */
+  private MsgPluralNode buildPluralNodeFromTranslation(MsgNode msg, SoyMsgPluralPart pluralPart) {
+
+    // Copy the source plural node for its expression and offset.
+    MsgPluralNode pluralNode = SoytreeUtils.cloneWithNewIds(
+        msg.getRepPluralNode(pluralPart.getPluralVarName()), nodeIdGen);
+    pluralNode.clearChildren();
+
+    for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : pluralPart.getCases()) {
+      if (case0.first.getType() == SoyMsgPluralCaseSpec.Type.EXPLICIT) {
+        addCaseFromTranslation(msg, pluralNode, new MsgPluralCaseNode(
+            nodeIdGen.genId(), Integer.toString(case0.first.getExplicitValue())), case0.second,
+            pluralNode);
+      }
+    }
+
+    if (pluralPart.hasKeywordCases()) {
+      // Note: Only the first case of each keyword can be selected.
+      Set<SoyMsgPluralCaseSpec.Type> seenTypes = EnumSet.of(SoyMsgPluralCaseSpec.Type.EXPLICIT);
+      for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : pluralPart.getCases()) {
+        if (seenTypes.add(case0.first.getType())) {
+          addCaseFromTranslation(msg, pluralNode, MsgPluralCaseNode.forKeyword(
+              nodeIdGen.genId(), case0.first.toString()), case0.second, pluralNode);
+        }
+      }
+    }
+
+    ImmutableList<SoyMsgPart> otherCaseParts = pluralPart.getOtherCaseParts();
+    if (otherCaseParts != null) {
+      addCaseFromTranslation(msg, pluralNode, new MsgPluralDefaultNode(nodeIdGen.genId()),
+          otherCaseParts, pluralNode);
+    }
+
+    return pluralNode;
+  }
+
+
+  /**
+   * Private helper for buildNodesFromTranslatedParts() to build a MsgSelectNode from a translated
+   * select part. The default case (the last one, as the translation selects it) comes last.
+   */
+  private MsgSelectNode buildSelectNodeFromTranslation(
+      MsgNode msg, SoyMsgSelectPart selectPart, MsgPluralNode pluralNode) {
+
+    // Copy the source select node for its expression.
+    MsgSelectNode selectNode = SoytreeUtils.cloneWithNewIds(
+        msg.getRepSelectNode(selectPart.getSelectVarName()), nodeIdGen);
+    selectNode.clearChildren();
+
+    ImmutableList<SoyMsgPart> defaultParts = null;
+    for (Pair<String, ImmutableList<SoyMsgPart>> case0 : selectPart.getCases()) {
+      if (case0.first == null) {
+        defaultParts = case0.second;
+      } else {
+        addCaseFromTranslation(msg, selectNode, new MsgSelectCaseNode(
+            nodeIdGen.genId(), BaseUtils.escapeToSoyString(case0.first, false)), case0.second,
+            pluralNode);
+      }
+    }
+    if (defaultParts != null) {
+      addCaseFromTranslation(msg, selectNode, new MsgSelectDefaultNode(nodeIdGen.genId()),
+          defaultParts, pluralNode);
+    }
+
+    return selectNode;
+  }
+
+
+  /**
+   * Private helper for building plural/select nodes from a translation: adds a case node, along
+   * with the nodes built from its translated parts.
+   */
+  private void addCaseFromTranslation(
+      MsgNode msg, ParentSoyNode<CaseOrDefaultNode> plrselNode, CaseOrDefaultNode caseNode,
+      List<SoyMsgPart> caseParts, MsgPluralNode pluralNode) {
+    caseNode.addChildren(buildNodesFromTranslatedParts(msg, caseParts, pluralNode));
+    plrselNode.addChild(caseNode);
+  }
+
+
   /**
    * Private helper for visitMsgFallbackGroupNode() to build the list of replacement nodes for a
    * message from its source.
@@ -36,8 +36,10 @@ import com.google.template.soy.soytree.MsgSelectCaseNode;
 import com.google.template.soy.soytree.MsgSelectDefaultNode;
 import com.google.template.soy.soytree.MsgSelectNode;
 import com.google.template.soy.soytree.RawTextNode;
+import com.google.template.soy.soytree.SoyNode;
 import com.google.template.soy.soytree.SoyNode.BlockNode;
 import com.google.template.soy.soytree.SoyNode.StandaloneNode;
+import com.google.template.soy.soytree.SoytreeUtils;
 
 
 /**
@@ -97,7 +99,30 @@ public class MsgUtils {
    * @return The message id, assuming a specific dual format.
    */
   public static long computeMsgIdForDualFormat(MsgNode msgNode) {
-    return msgNode.isPlrselMsg() ? computeMsgIdUsingBracedPhs(msgNode) : computeMsgId(msgNode);
+    if (msgNode.isPlrselMsg()) {
+      long storedMsgId = msgNode.getMsgIdUsingBracedPhs();
+      return (storedMsgId != -1L) ? storedMsgId : computeMsgIdUsingBracedPhs(msgNode);
+    } else {
+      long storedMsgId = msgNode.getMsgId();
+      return (storedMsgId != -1L) ? storedMsgId : computeMsgId(msgNode);
+    }
+  }
+
+
+  /**
+   * Computes the message ids (both unbraced and braced forms) of all the messages in the given
+   * subtree, and stores them on the MsgNodes, so that {@code computeMsgIdForDualFormat()} (and
+   * the copies made by cloning) don't need to recompute them.
+   *
+   * <p> The messages must not be modified afterwards.
+   *
+   * @param node The root of the subtree (usually a SoyFileSetNode or SoyFileNode).
+   */
+  public static void computeAndStoreMsgIds(SoyNode node) {
+    for (MsgNode msgNode : SoytreeUtils.getAllNodesOfType(node, MsgNode.class)) {
+      MsgPartsAndIds mpai = buildMsgPartsAndComputeMsgIds(msgNode, true);
+      msgNode.setMsgIds(mpai.id, mpai.idUsingBracedPhs);
+    }
   }
 
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.msgs.internal;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralCaseSpec;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralRemainderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import com.google.template.soy.msgs.restricted.SoyMsgSelectPart;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Static methods to compute a fingerprint of the content of a message bundle.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> Two bundles with the same locale and the same messages (in the same order) have the same
+ * fingerprint, even if they are different instances (e.g. because the bundle was loaded again).
+ * The fingerprint is a 128-bit hash, so bundles with different content practically never share
+ * a fingerprint.
+ */
+public class SoyMsgBundleFingerprinter {
+
+
+  /** Cache of the fingerprints of the bundles seen so far (bundles are immutable). */
+  private static final ConcurrentMap<SoyMsgBundle, HashCode> fingerprintCache =
+      new MapMaker().weakKeys().makeMap();
+
+
+  private SoyMsgBundleFingerprinter() {}
+
+
+  /**
+   * Gets the fingerprint of the given message bundle. The fingerprint is computed the first time
+   * this is called with a bundle instance, and then remembered for as long as the bundle is.
+   *
+   * @param msgBundle The bundle to fingerprint.
+   * @return The fingerprint of the bundle's content.
+   */
+  public static HashCode getFingerprint(SoyMsgBundle msgBundle) {
+
+    HashCode fingerprint = fingerprintCache.get(msgBundle);
+    if (fingerprint == null) {
+      fingerprint = computeFingerprint(msgBundle);
+      fingerprintCache.put(msgBundle, fingerprint);
+    }
+    return fingerprint;
+  }
+
+
+  /**
+   * Private helper for {@code getFingerprint()} to compute the fingerprint of a bundle.
+   */
+  private static HashCode computeFingerprint(SoyMsgBundle msgBundle) {
+
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    putNullableString(hasher, msgBundle.getLocaleString());
+    hasher.putInt(msgBundle.getNumMsgs());
+    for (SoyMsg msg : msgBundle) {
+      hasher.putLong(msg.getId());
+      hasher.putLong(msg.getAltId());
+      hasher.putBoolean(msg.isPlrselMsg());
+      putParts(hasher, msg.getParts());
+    }
+    return hasher.hash();
+  }
+
+
+  /**
+   * Private helper to add a list of message parts to a hash, recursing into plural/select cases.
+   */
+  private static void putParts(Hasher hasher, List<SoyMsgPart> parts) {
+
+    hasher.putInt(parts.size());
+    for (SoyMsgPart part : parts) {
+
+      if (part instanceof SoyMsgRawTextPart) {
+        hasher.putByte((byte) 'R');
+        putNullableString(hasher, ((SoyMsgRawTextPart) part).getRawText());
+
+      } else if (part instanceof SoyMsgPlaceholderPart) {
+        hasher.putByte((byte) 'P');
+        putNullableString(hasher, ((SoyMsgPlaceholderPart) part).getPlaceholderName());
+
+      } else if (part instanceof SoyMsgPluralRemainderPart) {
+        hasher.putByte((byte) '#');
+        putNullableString(hasher, ((SoyMsgPluralRemainderPart) part).getPluralVarName());
+
+      } else if (part instanceof SoyMsgPluralPart) {
+        SoyMsgPluralPart pluralPart = (SoyMsgPluralPart) part;
+        hasher.putByte((byte) 'L');
+        putNullableString(hasher, pluralPart.getPluralVarName());
+        hasher.putInt(pluralPart.getOffset());
+        hasher.putInt(pluralPart.getCases().size());
+        for (Pair<SoyMsgPluralCaseSpec, ? extends List<SoyMsgPart>> pluralCase :
+             pluralPart.getCases()) {
+          hasher.putInt(pluralCase.first.getType().ordinal());
+          hasher.putInt(pluralCase.first.getExplicitValue());
+          putParts(hasher, pluralCase.second);
+        }
+
+      } else if (part instanceof SoyMsgSelectPart) {
+        SoyMsgSelectPart selectPart = (SoyMsgSelectPart) part;
+        hasher.putByte((byte) 'S');
+        putNullableString(hasher, selectPart.getSelectVarName());
+        hasher.putInt(selectPart.getCases().size());
+        for (Pair<String, ? extends List<SoyMsgPart>> selectCase : selectPart.getCases()) {
+          putNullableString(hasher, selectCase.first);
+          putParts(hasher, selectCase.second);
+        }
+
+      } else {
+        // Unknown part type: fall back to its own notion of equality.
+        hasher.putByte((byte) '?');
+        putNullableString(hasher, part.getClass().getName());
+        hasher.putInt(part.hashCode());
+      }
+    }
+  }
+
+
+  /**
+   * Private helper to add a string (which may be null) to a hash, unambiguously.
+   */
+  private static void putNullableString(Hasher hasher, String s) {
+    if (s == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(s.length());
+      hasher.putString(s);
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.msgs.restricted;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.SoyMsgException;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * Represents all renderable messages in a locale, read from a binary bundle (usually
+ * memory-mapped). See {@link SoyMsgBundleBinaryFormat} for the format.
+ *
+ * <p> Like RenderOnlySoyMsgBundleImpl, this doesn't store details like message descriptions, and
+ * constructs the messages on the fly. Unlike it, the messages take no heap until they're looked
+ * up: looking up a message binary-searches the index of the buffer and decodes the message's parts.
+ *
+ * <p> This class is thread safe (it only does absolute reads of the buffer, which it never
+ * modifies).
+ */
+final class MappedSoyMsgBundleImpl implements SoyMsgBundle {
+
+
+  /** The plural case specs of the non-explicit types, indexed by type ordinal. */
+  private static final SoyMsgPluralCaseSpec[] NON_EXPLICIT_CASE_SPECS;
+  static {
+    SoyMsgPluralCaseSpec.Type[] types = SoyMsgPluralCaseSpec.Type.values();
+    NON_EXPLICIT_CASE_SPECS = new SoyMsgPluralCaseSpec[types.length];
+    for (SoyMsgPluralCaseSpec.Type type : types) {
+      if (type != SoyMsgPluralCaseSpec.Type.EXPLICIT) {
+        NON_EXPLICIT_CASE_SPECS[type.ordinal()] = new SoyMsgPluralCaseSpec(type.name());
+      }
+    }
+  }
+
+
+  /** The binary bundle (starting at position 0). */
+  private final ByteBuffer buffer;
+
+  /** The language/locale string of this bundle's messages. */
+  private final String localeString;
+
+  /** The number of messages. */
+  private final int numMsgs;
+
+  /** The offset of the string table's data offsets. */
+  private final int stringOffsetsOffset;
+
+  /** The offset of the string table's data. */
+  private final int stringDataOffset;
+
+
+  /**
+   * @param buffer The binary bundle (starting at position 0).
+   * @throws SoyMsgException If the buffer doesn't hold a binary bundle of a supported version.
+   */
+  MappedSoyMsgBundleImpl(ByteBuffer buffer) throws SoyMsgException {
+
+    this.buffer = buffer;
+
+    if (! SoyMsgBundleBinaryFormat.isBinaryFormat(buffer)) {
+      throw new SoyMsgException("Not a binary message bundle.");
+    }
+    int version = buffer.getInt(4);
+    if (version != SoyMsgBundleBinaryFormat.VERSION) {
+      throw new SoyMsgException("Unsupported binary message bundle version " + version + ".");
+    }
+    numMsgs = buffer.getInt(8);
+    int stringTableOffset = buffer.getInt(20);
+    stringOffsetsOffset = stringTableOffset + 4;
+    stringDataOffset = stringOffsetsOffset + 4 * (buffer.getInt(stringTableOffset) + 1);
+
+    int localeStringIndex = buffer.getInt(12);
+    localeString = (localeStringIndex >= 0) ? readString(localeStringIndex) : null;
+  }
+
+
+  @Override public String getLocaleString() {
+    return localeString;
+  }
+
+
+  @Override public SoyMsg getMsg(long msgId) {
+
+    // Binary search the index.
+    int low = 0;
+    int high = numMsgs - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midMsgId = buffer.getLong(indexEntryOffset(mid));
+      if (midMsgId < msgId) {
+        low = mid + 1;
+      } else if (midMsgId > msgId) {
+        high = mid - 1;
+      } else {
+        return readMsg(mid);
+      }
+    }
+    return null;
+  }
+
+
+  @Override public int getNumMsgs() {
+    return numMsgs;
+  }
+
+
+  @Override public Iterator<SoyMsg> iterator() {
+    return new Iterator<SoyMsg>() {
+      int index = 0;
+
+      @Override public boolean hasNext() {
+        return index < numMsgs;
+      }
+
+      @Override public SoyMsg next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return readMsg(index++);
+      }
+
+      @Override public void remove() {
+        throw new UnsupportedOperationException("Iterator is immutable");
+      }
+    };
+  }
+
+
+  /** Returns the offset of the given entry of the index. */
+  private static int indexEntryOffset(int index) {
+    return SoyMsgBundleBinaryFormat.HEADER_SIZE +
+        index * SoyMsgBundleBinaryFormat.INDEX_ENTRY_SIZE;
+  }
+
+
+  /**
+   * Decodes the message of the given entry of the index.
+   */
+  private SoyMsg readMsg(int index) {
+    int entryOffset = indexEntryOffset(index);
+    long msgId = buffer.getLong(entryOffset);
+    ImmutableList<SoyMsgPart> parts = (new PartsReader(buffer.getInt(entryOffset + 8))).readParts();
+    return new SoyMsg(msgId, localeString, MsgPartUtils.hasPlrselPart(parts), parts);
+  }
+
+
+  /**
+   * Decodes the string of the given index in the string table.
+   */
+  private String readString(int stringIndex) {
+    int startOffset = buffer.getInt(stringOffsetsOffset + 4 * stringIndex);
+    int endOffset = buffer.getInt(stringOffsetsOffset + 4 * (stringIndex + 1));
+    // Note: Decodes from a duplicate so as not to change the shared buffer's position and limit.
+    ByteBuffer stringBytes = buffer.duplicate();
+    stringBytes.limit(stringDataOffset + endOffset);
+    stringBytes.position(stringDataOffset + startOffset);
+    return UTF_8.decode(stringBytes).toString();
+  }
+
+
+  /**
+   * Decoder for the parts list of a message (sequentially, from a given offset).
+   */
+  private class PartsReader {
+
+    /** The offset of the next thing to read. */
+    private int offset;
+
+    PartsReader(int offset) {
+      this.offset = offset;
+    }
+
+    private int readInt() {
+      int value = buffer.getInt(offset);
+      offset += 4;
+      return value;
+    }
+
+    @Nullable private String readStringRef() {
+      int stringIndex = readInt();
+      return (stringIndex >= 0) ? readString(stringIndex) : null;
+    }
+
+    ImmutableList<SoyMsgPart> readParts() {
+
+      int numParts = readInt();
+      ImmutableList.Builder<SoyMsgPart> parts = ImmutableList.builder();
+      for (int i = 0; i < numParts; i++) {
+        byte tag = buffer.get(offset++);
+        switch (tag) {
+          case SoyMsgBundleBinaryFormat.RAW_TEXT_TAG:
+            parts.add(SoyMsgRawTextPart.of(readStringRef()));
+            break;
+          case SoyMsgBundleBinaryFormat.PLACEHOLDER_TAG:
+            parts.add(new SoyMsgPlaceholderPart(readStringRef()));
+            break;
+          case SoyMsgBundleBinaryFormat.PLURAL_REMAINDER_TAG:
+            parts.add(new SoyMsgPluralRemainderPart(readStringRef()));
+            break;
+          case SoyMsgBundleBinaryFormat.PLURAL_TAG:
+            parts.add(readPluralPart());
+            break;
+          case SoyMsgBundleBinaryFormat.SELECT_TAG:
+            parts.add(readSelectPart());
+            break;
+          default:
+            throw new SoyMsgException("Corrupt binary message bundle (part tag " + tag + ").");
+        }
+      }
+      return parts.build();
+    }
+
+    private SoyMsgPluralPart readPluralPart() {
+
+      String pluralVarName = readStringRef();
+      int pluralOffset = readInt();
+      int numCases = readInt();
+      ImmutableList.Builder<Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>>> cases =
+          ImmutableList.builder();
+      for (int i = 0; i < numCases; i++) {
+        // Note: Explicit values are nonnegative, and the other types are minus their ordinals.
+        int caseSpecCode = readInt();
+        SoyMsgPluralCaseSpec caseSpec = (caseSpecCode >= 0) ?
+            new SoyMsgPluralCaseSpec(caseSpecCode) : NON_EXPLICIT_CASE_SPECS[-caseSpecCode];
+        cases.add(Pair.of(caseSpec, readParts()));
+      }
+      return new SoyMsgPluralPart(pluralVarName, pluralOffset, cases.build());
+    }
+
+    private SoyMsgSelectPart readSelectPart() {
+
+      String selectVarName = readStringRef();
+      int numCases = readInt();
+      ImmutableList.Builder<Pair<String, ImmutableList<SoyMsgPart>>> cases =
+          ImmutableList.builder();
+      for (int i = 0; i < numCases; i++) {
+        String caseValue = readStringRef();  // null for the default case
+        cases.add(Pair.of(caseValue, readParts()));
+      }
+      return new SoyMsgSelectPart(selectVarName, cases.build());
+    }
+  }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.msgs.restricted;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.SoyMsgException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+
+/**
+ * Reads and writes the binary format of message bundles, which is meant to be memory-mapped.
+ *
+ * <p> Important: Only use this class from message plugins and Soy tools!
+ *
+ * <p> A binary bundle only holds what's needed for rendering (like the bundles created by
+ * {@link SoyMsgBundleCompactor}). Reading one doesn't parse anything up front: the returned
+ * bundle binary-searches the sorted message id index of the buffer, and only decodes the parts of
+ * the messages that are looked up. So the messages take no heap until they're used.
+ *
+ * <p> The format (all numbers big-endian):
+ * <pre>
+ *   header:       int magic ("SOYM"), int version, int numMsgs, int localeStringIndex (-1 if
+ *                 null), int partsOffset, int stringTableOffset
+ *   index:        numMsgs x (long msgId, int msgOffset), sorted by msgId
+ *   parts:        for each msg: its parts list
+ *   string table: int numStrings, (numStrings + 1) x int stringDataOffset, UTF-8 string data
+ * </pre>
+ * A parts list is an int number of parts followed by the parts, each a one-byte tag followed by
+ * its fields (strings are stored as indices into the string table, so each distinct string is only
+ * stored once).
+ */
+public final class SoyMsgBundleBinaryFormat {
+
+
+  /** The magic number at the start of a binary bundle ("SOYM"). */
+  static final int MAGIC = 0x534f594d;
+
+  /** The version of the format. */
+  static final int VERSION = 1;
+
+  /** The size of the header. */
+  static final int HEADER_SIZE = 24;
+
+  /** The size of an entry of the index. */
+  static final int INDEX_ENTRY_SIZE = 12;
+
+  // The tags of the different kinds of parts.
+  static final byte RAW_TEXT_TAG = 0;
+  static final byte PLACEHOLDER_TAG = 1;
+  static final byte PLURAL_REMAINDER_TAG = 2;
+  static final byte PLURAL_TAG = 3;
+  static final byte SELECT_TAG = 4;
+
+
+  private SoyMsgBundleBinaryFormat() {}
+
+
+  /**
+   * Checks whether the given buffer starts like a binary bundle. Doesn't change the buffer's
+   * position.
+   * @param buffer The buffer to check.
+   */
+  public static boolean isBinaryFormat(ByteBuffer buffer) {
+    return buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+  }
+
+
+  /**
+   * Checks whether the given file starts like a binary bundle. Only reads the file's header (so
+   * it's cheap to call on other kinds of message files).
+   * @param file The file to check.
+   * @throws IOException If there's an error while reading the file.
+   */
+  public static boolean isBinaryFormat(File file) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    int headerSize;
+    InputStream in = new FileInputStream(file);
+    try {
+      headerSize = ByteStreams.read(in, header, 0, HEADER_SIZE);
+    } finally {
+      in.close();
+    }
+    return isBinaryFormat(ByteBuffer.wrap(header, 0, headerSize));
+  }
+
+
+  /**
+   * Creates a bundle that reads its messages from the given binary bundle (from its position).
+   * The buffer (usually a {@code MappedByteBuffer}) must not be modified afterwards.
+   *
+   * @param buffer The buffer holding the binary bundle.
+   * @return The bundle.
+   * @throws SoyMsgException If the buffer doesn't hold a binary bundle of a supported version.
+   */
+  public static SoyMsgBundle read(ByteBuffer buffer) throws SoyMsgException {
+    return new MappedSoyMsgBundleImpl(buffer.slice());
+  }
+
+
+  /**
+   * Writes a message bundle in the binary format. Only the parts of the messages are written (not
+   * their descriptions etc).
+   *
+   * @param msgBundle The bundle to write. Alternate message ids and duplicate messages are not
+   *     permitted.
+   * @return The binary bundle.
+   */
+  public static byte[] write(SoyMsgBundle msgBundle) {
+
+    String localeString = msgBundle.getLocaleString();
+
+    // Sort the messages by id, for binary searching the index.
+    SortedMap<Long, SoyMsg> msgsMap = Maps.newTreeMap();
+    for (SoyMsg msg : msgBundle) {
+      checkArgument(Objects.equal(msg.getLocaleString(), localeString));
+      checkArgument(msg.getAltId() < 0, "The binary format doesn't support alternate ID's.");
+      checkArgument(msgsMap.put(msg.getId(), msg) == null,
+          "Duplicate messages are not permitted in the binary format.");
+    }
+
+    StringTableBuilder stringTable = new StringTableBuilder();
+    int localeStringIndex = (localeString != null) ? stringTable.indexOf(localeString) : -1;
+
+    try {
+      // Write the parts of the messages, remembering their offsets in the parts section.
+      ByteArrayOutputStream partsBytes = new ByteArrayOutputStream();
+      DataOutputStream partsOut = new DataOutputStream(partsBytes);
+      int[] msgOffsets = new int[msgsMap.size()];
+      int msgIndex = 0;
+      for (SoyMsg msg : msgsMap.values()) {
+        msgOffsets[msgIndex++] = partsOut.size();
+        writeParts(msg.getParts(), partsOut, stringTable);
+      }
+      partsOut.flush();
+
+      int partsOffset = HEADER_SIZE + msgsMap.size() * INDEX_ENTRY_SIZE;
+      int stringTableOffset = partsOffset + partsBytes.size();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(msgsMap.size());
+      out.writeInt(localeStringIndex);
+      out.writeInt(partsOffset);
+      out.writeInt(stringTableOffset);
+      msgIndex = 0;
+      for (long msgId : msgsMap.keySet()) {
+        out.writeLong(msgId);
+        out.writeInt(partsOffset + msgOffsets[msgIndex++]);
+      }
+      partsBytes.writeTo(out);
+      stringTable.writeTo(out);
+      out.flush();
+      return bytes.toByteArray();
+
+    } catch (IOException e) {
+      throw new AssertionError(e);  // not possible when writing to a ByteArrayOutputStream
+    }
+  }
+
+
+  /**
+   * Private helper for write() to write a list of parts.
+   */
+  private static void writeParts(
+      List<SoyMsgPart> parts, DataOutputStream out, StringTableBuilder stringTable)
+      throws IOException {
+
+    out.writeInt(parts.size());
+    for (SoyMsgPart part : parts) {
+
+      if (part instanceof SoyMsgRawTextPart) {
+        out.writeByte(RAW_TEXT_TAG);
+        out.writeInt(stringTable.indexOf(((SoyMsgRawTextPart) part).getRawText()));
+
+      } else if (part instanceof SoyMsgPlaceholderPart) {
+        out.writeByte(PLACEHOLDER_TAG);
+        out.writeInt(stringTable.indexOf(((SoyMsgPlaceholderPart) part).getPlaceholderName()));
+
+      } else if (part instanceof SoyMsgPluralRemainderPart) {
+        out.writeByte(PLURAL_REMAINDER_TAG);
+        out.writeInt(stringTable.indexOf(((SoyMsgPluralRemainderPart) part).getPluralVarName()));
+
+      } else if (part instanceof SoyMsgPluralPart) {
+        SoyMsgPluralPart pluralPart = (SoyMsgPluralPart) part;
+        out.writeByte(PLURAL_TAG);
+        out.writeInt(stringTable.indexOf(pluralPart.getPluralVarName()));
+        out.writeInt(pluralPart.getOffset());
+        out.writeInt(pluralPart.getCases().size());
+        for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 :
+            pluralPart.getCases()) {
+          // Note: Explicit values are nonnegative, so the other case types are encoded as minus
+          // their (positive) ordinals.
+          SoyMsgPluralCaseSpec.Type caseType = case0.first.getType();
+          out.writeInt((caseType == SoyMsgPluralCaseSpec.Type.EXPLICIT) ?
+              case0.first.getExplicitValue() : -caseType.ordinal());
+          writeParts(case0.second, out, stringTable);
+        }
+
+      } else if (part instanceof SoyMsgSelectPart) {
+        SoyMsgSelectPart selectPart = (SoyMsgSelectPart) part;
+        out.writeByte(SELECT_TAG);
+        out.writeInt(stringTable.indexOf(selectPart.getSelectVarName()));
+        out.writeInt(selectPart.getCases().size());
+        for (Pair<String, ImmutableList<SoyMsgPart>> case0 : selectPart.getCases()) {
+          // Note: The default case has a null case value.
+          out.writeInt((case0.first != null) ? stringTable.indexOf(case0.first) : -1);
+          writeParts(case0.second, out, stringTable);
+        }
+
+      } else {
+        throw new SoyMsgException("Unsupported message part " + part.getClass().getName() + ".");
+      }
+    }
+  }
+
+
+  /**
+   * Builder for the string table of a binary bundle, which stores each distinct string once.
+   */
+  private static final class StringTableBuilder {
+
+    /** Map from string to its index in the table. */
+    private final Map<String, Integer> indicesMap = Maps.newHashMap();
+
+    /** The encoded strings, in index order. */
+    private final List<byte[]> encodedStrings = Lists.newArrayList();
+
+    /** Returns the index of the given string in the table (adding it if needed). */
+    int indexOf(String string) {
+      Integer index = indicesMap.get(string);
+      if (index == null) {
+        index = encodedStrings.size();
+        indicesMap.put(string, index);
+        encodedStrings.add(string.getBytes(UTF_8));
+      }
+      return index;
+    }
+
+    /** Writes the table. */
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeInt(encodedStrings.size());
+      int stringDataOffset = 0;
+      out.writeInt(stringDataOffset);
+      for (byte[] encodedString : encodedStrings) {
+        stringDataOffset += encodedString.length;
+        out.writeInt(stringDataOffset);
+      }
+      for (byte[] encodedString : encodedStrings) {
+        out.write(encodedString);
+      }
+    }
+  }
+
+}
@@ -18,8 +18,13 @@ package com.google.template.soy.msgs.restricted;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.template.soy.internal.base.Pair;
 
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
 /**
  * Represents a plural statement within a message.
  *
@@ -37,6 +42,21 @@ public final class SoyMsgPluralPart extends SoyMsgPart {
   /** The various cases for this plural statement. The default statement has a null key. */
   private final ImmutableList<Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>>> cases;
 
+  /** The values of the explicit cases, in order (precomputed for selecting a case). */
+  private final int[] explicitValues;
+
+  /** The parts of the explicit cases, in the same order as explicitValues. */
+  private final ImmutableList<ImmutableList<SoyMsgPart>> explicitCasesParts;
+
+  /** Map from non-explicit case type to the parts of its first case. */
+  private final Map<SoyMsgPluralCaseSpec.Type, ImmutableList<SoyMsgPart>> keywordCasesMap;
+
+  /** The parts of the (last) 'other' case, or null if none. */
+  private final ImmutableList<SoyMsgPart> otherCaseParts;
+
+  /** Whether there are non-explicit cases besides 'other'. */
+  private final boolean hasKeywordCases;
+
 
   /**
    * @param pluralVarName The plural variable name.
@@ -49,6 +69,39 @@ public final class SoyMsgPluralPart extends SoyMsgPart {
     this.pluralVarName = pluralVarName;
     this.offset = offset;
     this.cases = cases;
+
+    int numExplicitCases = 0;
+    for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : cases) {
+      if (case0.first.getType() == SoyMsgPluralCaseSpec.Type.EXPLICIT) {
+        numExplicitCases++;
+      }
+    }
+    explicitValues = new int[numExplicitCases];
+    ImmutableList.Builder<ImmutableList<SoyMsgPart>> explicitCasesPartsBuilder =
+        ImmutableList.builder();
+    keywordCasesMap = Maps.newEnumMap(SoyMsgPluralCaseSpec.Type.class);
+    ImmutableList<SoyMsgPart> otherCaseParts = null;
+    boolean hasKeywordCases = false;
+    int explicitIndex = 0;
+    for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : cases) {
+      SoyMsgPluralCaseSpec.Type caseType = case0.first.getType();
+      if (caseType == SoyMsgPluralCaseSpec.Type.EXPLICIT) {
+        explicitValues[explicitIndex++] = case0.first.getExplicitValue();
+        explicitCasesPartsBuilder.add(case0.second);
+        continue;
+      }
+      if (! keywordCasesMap.containsKey(caseType)) {
+        keywordCasesMap.put(caseType, case0.second);
+      }
+      if (caseType == SoyMsgPluralCaseSpec.Type.OTHER) {
+        otherCaseParts = case0.second;
+      } else {
+        hasKeywordCases = true;
+      }
+    }
+    this.explicitCasesParts = explicitCasesPartsBuilder.build();
+    this.otherCaseParts = otherCaseParts;
+    this.hasKeywordCases = hasKeywordCases;
   }
 
 
@@ -70,6 +123,48 @@ public final class SoyMsgPluralPart extends SoyMsgPart {
   }
 
 
+  /**
+   * Returns the parts of the first explicit case for the given value, or null if none.
+   * @param value The value of the plural variable (before the offset is subtracted).
+   */
+  @Nullable public ImmutableList<SoyMsgPart> getExplicitCaseParts(double value) {
+    for (int i = 0; i < explicitValues.length; i++) {
+      if (explicitValues[i] == value) {
+        return explicitCasesParts.get(i);
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Returns whether there are non-explicit cases besides 'other', i.e. whether selecting a case
+   * needs the plural rules of the locale (when no explicit case matches).
+   */
+  public boolean hasKeywordCases() {
+    return hasKeywordCases;
+  }
+
+
+  /**
+   * Returns the parts of the first case of the given non-explicit type, or of the 'other' case if
+   * there's no such case.
+   * @param caseType The non-explicit case type selected by the plural rules of the locale.
+   * @return The parts of the case, or null if there's neither a matching case nor an 'other' case.
+   */
+  @Nullable public ImmutableList<SoyMsgPart> getKeywordCaseParts(
+      SoyMsgPluralCaseSpec.Type caseType) {
+    ImmutableList<SoyMsgPart> caseParts = keywordCasesMap.get(caseType);
+    return (caseParts != null) ? caseParts : otherCaseParts;
+  }
+
+
+  /** Returns the parts of the (last) 'other' case, or null if none. */
+  @Nullable public ImmutableList<SoyMsgPart> getOtherCaseParts() {
+    return otherCaseParts;
+  }
+
+
   @Override public boolean equals(Object other) {
     if (!(other instanceof SoyMsgPluralPart)) {
       return false;
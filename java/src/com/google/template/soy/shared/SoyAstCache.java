@@ -17,16 +17,40 @@
 
 package com.google.template.soy.shared;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.inject.Inject;
 import com.google.template.soy.base.internal.IdGenerator;
 import com.google.template.soy.base.internal.IncrementingIdGenerator;
 import com.google.template.soy.base.internal.SoyFileSupplier;
 import com.google.template.soy.base.internal.SoyFileSupplier.Version;
+import com.google.template.soy.basetree.SyntaxVersion;
 import com.google.template.soy.internal.base.Pair;
 import com.google.template.soy.soytree.SoyFileNode;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
 
 /**
  * Cache for the soy tree respecting file versions.
@@ -37,22 +61,76 @@ import java.util.Map;
  * This does not help in a production startup-compilation setup; instead, this will just use more
  * memory.
  *
+ * <p> Optionally, the cache also has an on-disk tier, which outlives the JVM (e.g. to speed up
+ * restarting dev servers, or builds on CI workers that keep a cache directory). Each entry holds
+ * the serialized tree of one file after the single-file passes, and is keyed by a hash of the file
+ * content, path and kind, of the declared syntax version, and of the compiler version, so stale
+ * entries are never used. The least recently used entries are deleted when the total size of the
+ * directory exceeds the given maximum. Files whose trees cannot be serialized are simply not
+ * stored on disk. The on-disk tier isn't used at all when the type registry has custom type
+ * providers, since their types aren't part of the keys.
+ *
  * <p> Please treat the internals as Soy superpackage-private.
  *
  * @author Garrett Boyer
  */
 public class SoyAstCache {
 
+  /** Version of the format of the on-disk tier, to change whenever it changes incompatibly. */
+  private static final String DISK_CACHE_FORMAT_VERSION = "1";
+
+  /** Suffix of the entry files of the on-disk tier. */
+  private static final String DISK_ENTRY_SUFFIX = ".ast";
+
+  /** Suffix of the files being written in the on-disk tier. */
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  /** Age after which a temporary file in the on-disk tier is considered left over by a crash. */
+  private static final long STALE_TEMP_FILE_AGE_MILLIS = 60 * 60 * 1000;
+
   /** Cache mapping file path to the result of the last parse. */
   private final Map<String, Pair<SoyFileNode, Version>> cache;
 
   /** An ID generator to ensure all versions of all files have unique ID's. */
   private final IdGenerator idGenerator;
 
+  /** The directory of the on-disk tier, or null if this cache is in memory only. */
+  @Nullable private final File diskCacheDir;
+
+  /** The maximum total size in bytes of the entries in the on-disk tier. */
+  private final long diskCacheMaxSize;
+
+  /** The approximate total size in bytes of the entries in the on-disk tier. */
+  private final AtomicLong diskCacheSize;
+
   @Inject
   public SoyAstCache() {
     cache = Maps.<String, Pair<SoyFileNode, Version>>newHashMap();
     idGenerator = new IncrementingIdGenerator();
+    diskCacheDir = null;
+    diskCacheMaxSize = 0;
+    diskCacheSize = new AtomicLong(0);
+  }
+
+  /**
+   * Creates a cache with an on-disk tier.
+   *
+   * @param diskCacheDir The directory of the on-disk tier, which is created if needed. It should
+   *     not be used for anything else, and may be shared by several processes.
+   * @param diskCacheMaxSize The maximum total size in bytes of the entries in the on-disk tier.
+   * @throws IOException If the directory cannot be created.
+   */
+  public SoyAstCache(File diskCacheDir, long diskCacheMaxSize) throws IOException {
+    Preconditions.checkArgument(diskCacheMaxSize > 0);
+    cache = Maps.<String, Pair<SoyFileNode, Version>>newHashMap();
+    idGenerator = new IncrementingIdGenerator();
+    if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) {
+      throw new IOException("Could not create the Soy AST cache directory " + diskCacheDir);
+    }
+    this.diskCacheDir = diskCacheDir;
+    this.diskCacheMaxSize = diskCacheMaxSize;
+    this.diskCacheSize = new AtomicLong(0);
+    removeLeastRecentlyUsedDiskEntries();
   }
 
   /**
@@ -97,8 +175,8 @@ public class SoyAstCache {
    * Returns an ID generator that must be used for all files in this cache.
    *
    * <p> If this ID generator is not used, nodes in the cache will have conflicting ID's. It is
-   * important to use a manual synchronized block over this cache while using the ID generator
-   * since the ID generator is not guaranteed to be thread-safe!
+   * important to use a manual synchronized block over this ID generator while parsing a file, so
+   * that the file's nodes get consecutive ID's even if other threads are parsing too.
    *
    * <p> Please treat this as superpackage-private for Soy internals.
    */
@@ -106,10 +184,222 @@ public class SoyAstCache {
     return idGenerator;
   }
 
+  /**
+   * Returns whether this cache has an on-disk tier.
+   *
+   * <p> Please treat this as superpackage-private for Soy internals.
+   */
+  public boolean hasDiskCache() {
+    return diskCacheDir != null;
+  }
+
+  /**
+   * Computes the key of a file in the on-disk tier.
+   *
+   * <p> Please treat this as superpackage-private for Soy internals.
+   *
+   * @param supplier The supplier of the file.
+   * @param content The content of the file.
+   * @param declaredSyntaxVersion The user-declared syntax version for the file set.
+   * @return The key, a hex string.
+   */
+  public static String getDiskCacheKey(
+      SoyFileSupplier supplier, String content, SyntaxVersion declaredSyntaxVersion) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (String keyPart : new String[] {
+             DISK_CACHE_FORMAT_VERSION, CompilerVersionHolder.COMPILER_VERSION,
+             declaredSyntaxVersion.name(), supplier.getSoyFileKind().name(),
+             supplier.getFilePath(), content}) {
+      hasher.putInt(keyPart.length()).putString(keyPart);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Retrieves a file from the on-disk tier.
+   *
+   * <p> Please treat this as superpackage-private for Soy internals.
+   *
+   * @param diskCacheKey The key of the file (see {@link #getDiskCacheKey}).
+   * @return The tree of the file, with the ids it had when stored (which the caller should
+   *     replace), or null if there is no usable entry.
+   */
+  @Nullable public SoyFileNode getFromDisk(String diskCacheKey) {
+    Preconditions.checkState(diskCacheDir != null);
+    File entryFile = new File(diskCacheDir, diskCacheKey + DISK_ENTRY_SUFFIX);
+    if (!entryFile.isFile()) {
+      return null;
+    }
+    try {
+      ObjectInputStream in = new ObjectInputStream(
+          new GZIPInputStream(new BufferedInputStream(new FileInputStream(entryFile))));
+      SoyFileNode soyFile;
+      try {
+        soyFile = (SoyFileNode) in.readObject();
+      } finally {
+        in.close();
+      }
+      // Mark the entry as recently used.
+      entryFile.setLastModified(System.currentTimeMillis());
+      return soyFile;
+    } catch (IOException e) {
+      // Corrupt or incompatible entry (or concurrently deleted): parse the file again.
+    } catch (ClassNotFoundException e) {
+      // Incompatible entry: parse the file again.
+    } catch (ClassCastException e) {
+      // Incompatible entry: parse the file again.
+    }
+    entryFile.delete();
+    return null;
+  }
+
+  /**
+   * Stores a file in the on-disk tier, unless its tree cannot be serialized.
+   *
+   * <p> Please treat this as superpackage-private for Soy internals.
+   *
+   * @param diskCacheKey The key of the file (see {@link #getDiskCacheKey}).
+   * @param soyFile The tree of the file after the single-file passes. Must not have a parent.
+   */
+  public void putOnDisk(String diskCacheKey, SoyFileNode soyFile) {
+    Preconditions.checkState(diskCacheDir != null);
+    Preconditions.checkArgument(soyFile.getParent() == null);
+    File entryFile = new File(diskCacheDir, diskCacheKey + DISK_ENTRY_SUFFIX);
+    File tempFile = null;
+    try {
+      // Write to a temporary file first, so that other processes never see a partial entry.
+      tempFile = File.createTempFile(diskCacheKey, TEMP_FILE_SUFFIX, diskCacheDir);
+      ObjectOutputStream out = new ObjectOutputStream(
+          new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))));
+      try {
+        out.writeObject(soyFile);
+      } finally {
+        out.close();
+      }
+      long entrySize = tempFile.length();
+      if (tempFile.renameTo(entryFile)) {
+        tempFile = null;
+        if (diskCacheSize.addAndGet(entrySize) > diskCacheMaxSize) {
+          removeLeastRecentlyUsedDiskEntries();
+        }
+      }
+    } catch (IOException e) {
+      // Not serializable, or the directory is not writable: the file just won't be cached on disk.
+    } finally {
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries of the on-disk tier until their total size is at most
+   * three quarters of the maximum (so that this doesn't need to run again for a while), along with
+   * temporary files left over by crashed writers.
+   */
+  private synchronized void removeLeastRecentlyUsedDiskEntries() {
+
+    File[] files = diskCacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    List<File> entryFiles = Lists.newArrayList();
+    long totalSize = 0;
+    for (File file : files) {
+      if (file.getName().endsWith(DISK_ENTRY_SUFFIX)) {
+        entryFiles.add(file);
+        totalSize += file.length();
+      } else if (file.getName().endsWith(TEMP_FILE_SUFFIX) &&
+                 file.lastModified() < now - STALE_TEMP_FILE_AGE_MILLIS) {
+        file.delete();
+      }
+    }
+
+    if (totalSize > diskCacheMaxSize) {
+      final Map<File, Long> lastModifiedTimes = Maps.newHashMap();
+      for (File entryFile : entryFiles) {
+        lastModifiedTimes.put(entryFile, entryFile.lastModified());
+      }
+      Collections.sort(entryFiles, new Comparator<File>() {
+        @Override public int compare(File file1, File file2) {
+          return lastModifiedTimes.get(file1).compareTo(lastModifiedTimes.get(file2));
+        }
+      });
+      long targetSize = diskCacheMaxSize / 4 * 3;
+      for (File entryFile : entryFiles) {
+        if (totalSize <= targetSize) {
+          break;
+        }
+        long entrySize = entryFile.length();
+        if (entryFile.delete()) {
+          totalSize -= entrySize;
+        }
+      }
+    }
+
+    diskCacheSize.set(totalSize);
+  }
+
   private static String getCacheKey(SoyFileSupplier supplier) {
     // NOTE: We're using pathname because:
     // - The client code might re-create SoyFileSuppliers instead of reusing them.
     // - We don't want to prevent SoyFileSuppliers from getting garbage collected.
     return supplier.getFilePath();
   }
+
+  /**
+   * Lazy holder of the compiler version used in keys of the on-disk tier.
+   */
+  private static class CompilerVersionHolder {
+
+    /**
+     * A string identifying the build of the compiler: the size and modification time of the jar
+     * containing it, or the number and latest modification time of the class files in its
+     * directory. If the compiler cannot be located, a random string, so that entries are never
+     * shared with another process.
+     */
+    static final String COMPILER_VERSION = computeCompilerVersion();
+
+    private static String computeCompilerVersion() {
+      try {
+        CodeSource codeSource = SoyAstCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation().getProtocol().equals("file")) {
+          File location = new File(codeSource.getLocation().toURI());
+          if (location.isFile()) {
+            return "jar:" + location.length() + ":" + location.lastModified();
+          } else if (location.isDirectory()) {
+            long[] numAndLastModified = new long[2];
+            addClassFiles(location, numAndLastModified);
+            return "dir:" + numAndLastModified[0] + ":" + numAndLastModified[1];
+          }
+        }
+      } catch (URISyntaxException e) {
+        // Fall through.
+      } catch (SecurityException e) {
+        // Fall through.
+      }
+      return "unknown:" + UUID.randomUUID();
+    }
+
+    /**
+     * Adds the number and latest modification time of the class files in a directory tree to the
+     * given pair.
+     */
+    private static void addClassFiles(File dir, long[] numAndLastModified) {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        return;
+      }
+      for (File file : files) {
+        if (file.isDirectory()) {
+          addClassFiles(file, numAndLastModified);
+        } else if (file.getName().endsWith(".class")) {
+          numAndLastModified[0]++;
+          numAndLastModified[1] = Math.max(numAndLastModified[1], file.lastModified());
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.shared;
+
+
+/**
+ * A listener for the templates rendered by a Java render (e.g. set on a
+ * {@code SoyTofu.Renderer}), to find out which templates cost time in production.
+ *
+ * <p> The render is only timed when {@link #shouldProfileRender} returns true, so a listener can
+ * profile only a sample of the renders to keep the overhead low (see {@link SoyRenderMetrics}).
+ *
+ * <p> Implementations must be thread safe if they are used by concurrent renders.
+ */
+public interface SoyRenderListener {
+
+
+  /**
+   * Called at the start of each render, to decide whether to profile it. Renders that are not
+   * profiled don't call this listener again, and don't pay for the profiling.
+   *
+   * @param templateName The full name of the template being rendered.
+   * @return Whether to profile this render.
+   */
+  public boolean shouldProfileRender(String templateName);
+
+
+  /**
+   * Called each time a template (the main template, or a template it calls, directly or
+   * indirectly) is done rendering, in a profiled render.
+   *
+   * @param templateName The full name of the template (for a delegate template, the name of the
+   *     delegate, i.e. all its implementations share a name).
+   * @param inclusiveNanos The time spent rendering the template, including its callees.
+   * @param exclusiveNanos The time spent rendering the template, excluding its callees.
+   * @param numCharsWritten The number of chars written by the template, including its callees.
+   */
+  public void onTemplateRendered(
+      String templateName, long inclusiveNanos, long exclusiveNanos, long numCharsWritten);
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.shared;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A {@link SoyRenderListener} that aggregates per-template metrics (call count, time and chars
+ * written) over the renders it profiles, along with histograms of the time per call, e.g. to be
+ * exported to a monitoring system.
+ *
+ * <p> To keep the overhead low in production, it can profile only one render in N.
+ *
+ * <p> This class is thread safe.
+ */
+public final class SoyRenderMetrics implements SoyRenderListener {
+
+
+  /**
+   * The number of buckets of the histograms. Bucket 0 counts the durations under 2 nanoseconds,
+   * bucket {@code i} counts the durations in {@code [2^i, 2^(i+1))} nanoseconds, and the last
+   * bucket also counts all the longer durations (over 18 minutes).
+   */
+  public static final int NUM_HISTOGRAM_BUCKETS = 40;
+
+
+  /** One render in this many is profiled. */
+  private final int sampleEveryN;
+
+  /** The number of renders seen (profiled or not). */
+  private final AtomicLong numRenders;
+
+  /** Map from template name to the metrics of the template. */
+  private final ConcurrentMap<String, TemplateMetrics> templateMetricsMap;
+
+
+  /**
+   * Creates metrics that profile every render.
+   */
+  public SoyRenderMetrics() {
+    this(1);
+  }
+
+
+  /**
+   * Creates metrics that profile one render in {@code sampleEveryN}.
+   * @param sampleEveryN The sampling interval, at least 1.
+   */
+  public SoyRenderMetrics(int sampleEveryN) {
+    Preconditions.checkArgument(sampleEveryN >= 1, "sampleEveryN must be at least 1");
+    this.sampleEveryN = sampleEveryN;
+    this.numRenders = new AtomicLong();
+    this.templateMetricsMap = Maps.newConcurrentMap();
+  }
+
+
+  @Override public boolean shouldProfileRender(String templateName) {
+    return numRenders.getAndIncrement() % sampleEveryN == 0;
+  }
+
+
+  @Override public void onTemplateRendered(
+      String templateName, long inclusiveNanos, long exclusiveNanos, long numCharsWritten) {
+
+    TemplateMetrics templateMetrics = templateMetricsMap.get(templateName);
+    if (templateMetrics == null) {
+      TemplateMetrics newTemplateMetrics = new TemplateMetrics(templateName);
+      templateMetrics = templateMetricsMap.putIfAbsent(templateName, newTemplateMetrics);
+      if (templateMetrics == null) {
+        templateMetrics = newTemplateMetrics;
+      }
+    }
+    templateMetrics.record(inclusiveNanos, exclusiveNanos, numCharsWritten);
+  }
+
+
+  /**
+   * Returns a snapshot of the metrics of all the templates rendered so far, sorted by name. The
+   * snapshot is not affected by later renders.
+   */
+  public ImmutableSortedMap<String, TemplateMetrics> getTemplateMetrics() {
+    ImmutableSortedMap.Builder<String, TemplateMetrics> snapshot =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, TemplateMetrics> entry : templateMetricsMap.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().copy());
+    }
+    return snapshot.build();
+  }
+
+
+  /**
+   * Clears the metrics of all templates, e.g. after exporting them.
+   */
+  public void reset() {
+    templateMetricsMap.clear();
+  }
+
+
+  /**
+   * Returns the index of the histogram bucket that counts the given duration.
+   * @param nanos A duration, in nanoseconds.
+   */
+  public static int getHistogramBucket(long nanos) {
+    if (nanos < 2) {
+      return 0;
+    }
+    return Math.min(63 - Long.numberOfLeadingZeros(nanos), NUM_HISTOGRAM_BUCKETS - 1);
+  }
+
+
+  /**
+   * The metrics of one template.
+   */
+  public static final class TemplateMetrics {
+
+    private final String templateName;
+    private long numCalls;
+    private long totalInclusiveNanos;
+    private long totalExclusiveNanos;
+    private long totalCharsWritten;
+    private final long[] inclusiveNanosHistogram;
+    private final long[] exclusiveNanosHistogram;
+
+    private TemplateMetrics(String templateName) {
+      this.templateName = templateName;
+      this.inclusiveNanosHistogram = new long[NUM_HISTOGRAM_BUCKETS];
+      this.exclusiveNanosHistogram = new long[NUM_HISTOGRAM_BUCKETS];
+    }
+
+    private synchronized void record(
+        long inclusiveNanos, long exclusiveNanos, long numCharsWritten) {
+      numCalls++;
+      totalInclusiveNanos += inclusiveNanos;
+      totalExclusiveNanos += exclusiveNanos;
+      totalCharsWritten += numCharsWritten;
+      inclusiveNanosHistogram[getHistogramBucket(inclusiveNanos)]++;
+      exclusiveNanosHistogram[getHistogramBucket(exclusiveNanos)]++;
+    }
+
+    private synchronized TemplateMetrics copy() {
+      TemplateMetrics copy = new TemplateMetrics(templateName);
+      copy.numCalls = numCalls;
+      copy.totalInclusiveNanos = totalInclusiveNanos;
+      copy.totalExclusiveNanos = totalExclusiveNanos;
+      copy.totalCharsWritten = totalCharsWritten;
+      System.arraycopy(inclusiveNanosHistogram, 0, copy.inclusiveNanosHistogram, 0,
+          NUM_HISTOGRAM_BUCKETS);
+      System.arraycopy(exclusiveNanosHistogram, 0, copy.exclusiveNanosHistogram, 0,
+          NUM_HISTOGRAM_BUCKETS);
+      return copy;
+    }
+
+    /** Returns the full name of the template. */
+    public String getTemplateName() {
+      return templateName;
+    }
+
+    /** Returns the number of times the template was rendered, in the profiled renders. */
+    public long getNumCalls() {
+      return numCalls;
+    }
+
+    /** Returns the total time spent rendering the template, including its callees. */
+    public long getTotalInclusiveNanos() {
+      return totalInclusiveNanos;
+    }
+
+    /** Returns the total time spent rendering the template, excluding its callees. */
+    public long getTotalExclusiveNanos() {
+      return totalExclusiveNanos;
+    }
+
+    /** Returns the total number of chars written by the template, including its callees. */
+    public long getTotalCharsWritten() {
+      return totalCharsWritten;
+    }
+
+    /**
+     * Returns the histogram of the time per call, including callees (see
+     * {@link #NUM_HISTOGRAM_BUCKETS} for the buckets).
+     */
+    public long[] getInclusiveNanosHistogram() {
+      return inclusiveNanosHistogram.clone();
+    }
+
+    /**
+     * Returns the histogram of the time per call, excluding callees (see
+     * {@link #NUM_HISTOGRAM_BUCKETS} for the buckets).
+     */
+    public long[] getExclusiveNanosHistogram() {
+      return exclusiveNanosHistogram.clone();
+    }
+
+    @Override public String toString() {
+      return templateName + ": " + numCalls + " calls, " + totalInclusiveNanos + " ns inclusive, " +
+          totalExclusiveNanos + " ns exclusive, " + totalCharsWritten + " chars";
+    }
+  }
+
+}
@@ -143,6 +143,12 @@ public final class EscapingConventions {
     private final String[] nonAsciiEscapes;
     /** @see #getNonAsciiPrefix */
     private final @Nullable String nonAsciiPrefix;
+    /**
+     * A bitset of the ASCII code units that need escaping, i.e. bit {@code c & 0x3f} of element
+     * {@code c >>> 6} is set iff {@code escapesByCodeUnit[c] != null}, for a quick scan of inputs
+     * that most often need no escaping at all.
+     */
+    private final long[] asciiEscapeBits = new long[2];
 
     /**
      * @param valueFilter {@code null} if the directive accepts all strings as inputs.  Otherwise
@@ -168,11 +174,12 @@ public final class EscapingConventions {
       while (numAsciiEscapes > 0 && escapes.get(numAsciiEscapes - 1).plainText >= 0x80) {
         --numAsciiEscapes;
       }
-      // Create the dense ASCII map.
+      // Create the dense ASCII map, and the bitset mirroring it.
       if (numAsciiEscapes != 0) {
         escapesByCodeUnit = new String[escapes.get(numAsciiEscapes - 1).plainText + 1];
         for (Escape escape : escapes.subList(0, numAsciiEscapes)) {
           escapesByCodeUnit[escape.plainText] = escape.escaped;
+          asciiEscapeBits[escape.plainText >>> 6] |= 1L << escape.plainText;
         }
       } else {
         escapesByCodeUnit = new String[0];
@@ -300,6 +307,37 @@ public final class EscapingConventions {
       };
     }
 
+    /**
+     * Escapes the given char sequence directly onto the given output. If the char sequence contains
+     * no characters that need to be escaped (the common case), it is appended as is, without any
+     * copy.
+     *
+     * @param s The char sequence to escape.
+     * @param out The output to append the escaped char sequence to.
+     * @throws IOException If the output throws one.
+     */
+    public final void escapeOnto(CharSequence s, Appendable out) throws IOException {
+      maybeEscapeOnto(s, out, 0, s.length());
+    }
+
+    /**
+     * Returns the index of the first code unit that needs escaping in the given range of the given
+     * sequence, or -1 if there is none.
+     */
+    private int indexOfFirstEscape(CharSequence s, int start, int end) {
+      for (int i = start; i < end; ++i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          if ((asciiEscapeBits[c >>> 6] & (1L << c)) != 0) {
+            return i;
+          }
+        } else if (nonAsciiPrefix != null || Arrays.binarySearch(nonAsciiCodeUnits, c) >= 0) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
     /**
      * Escapes the given char sequence onto the given buffer iff it contains characters that need to
      * be escaped.
@@ -324,8 +362,21 @@ public final class EscapingConventions {
     private @Nullable Appendable maybeEscapeOnto(
         CharSequence s, @Nullable Appendable out, int start, int end)
         throws IOException {
+      int firstEscape = indexOfFirstEscape(s, start, end);
+      if (firstEscape < 0) {
+        // Nothing to escape: don't allocate anything (and don't make the output copy a
+        // subsequence when appending the whole sequence).
+        if (out != null) {
+          if (start == 0 && end == s.length()) {
+            out.append(s);
+          } else {
+            out.append(s, start, end);
+          }
+        }
+        return out;
+      }
       int pos = start;
-      for (int i = start; i < end; ++i) {
+      for (int i = firstEscape; i < end; ++i) {
         char c = s.charAt(i);
         if (c < escapesByCodeUnit.length) {  // Use the dense map.
           String esc = escapesByCodeUnit[c];
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.shared.restricted;
+
+import com.google.template.soy.data.SanitizedContent.ContentKind;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * Interface for a Soy print directive implemented for Java runtime rendering that can also be
+ * applied to content as it is being rendered, one piece at a time, instead of to the whole rendered
+ * value. Tofu uses this to escape the output of a template call (e.g. at a strict template
+ * boundary) without first rendering it into a temporary buffer.
+ *
+ * <p> Important: This may only be used in implementing print directive plugins.
+ */
+public interface SoyJavaStreamingPrintDirective extends SoyJavaPrintDirective {
+
+
+  /**
+   * Returns an Appendable that applies this directive (without arguments) to the content appended
+   * to it, and writes the result to the given Appendable. Appending the whole content to it must
+   * write the same as the result of {@code applyForJava()} on that content.
+   *
+   * @param out The Appendable to write the result to.
+   * @param contentKind The kind of the content, or null if the content is a plain string.
+   * @return The Appendable to append the content to (possibly {@code out} itself, if this directive
+   *     leaves content of this kind unchanged), or null if this directive can only be applied to
+   *     the whole content (e.g. if it filters the content).
+   */
+  @Nullable public Appendable applyForJavaStreaming(
+      Appendable out, @Nullable ContentKind contentKind);
+
+}
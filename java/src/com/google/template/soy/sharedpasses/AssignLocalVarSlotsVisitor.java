@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.template.soy.exprtree.AbstractExprNodeVisitor;
+import com.google.template.soy.exprtree.ExprNode;
+import com.google.template.soy.exprtree.ExprNode.ParentExprNode;
+import com.google.template.soy.exprtree.VarRefNode;
+import com.google.template.soy.soytree.AbstractSoyNodeVisitor;
+import com.google.template.soy.soytree.ExprUnion;
+import com.google.template.soy.soytree.ForNode;
+import com.google.template.soy.soytree.ForeachNonemptyNode;
+import com.google.template.soy.soytree.LetNode;
+import com.google.template.soy.soytree.SoyFileNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoyNode.BlockNode;
+import com.google.template.soy.soytree.SoyNode.ExprHolderNode;
+import com.google.template.soy.soytree.SoyNode.ParentSoyNode;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.defn.LocalVar;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+
+/**
+ * Visitor for assigning each local variable a slot in the render-time environment (see
+ * {@link LocalVar#setSlot}), and for pointing each reference to a local variable at the
+ * declaration that is in scope.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> This visitor must be called on a SoyFileSetNode, SoyFileNode, or TemplateNode (i.e. template
+ * or ancestor of a template). It must be rerun on a tree after the tree is cloned, because cloned
+ * references still point at the declarations in the original tree.
+ *
+ * <p> Slots are numbered from 0 within each template. A slot is reused once the scope of the
+ * variable occupying it has ended, so the number of slots a template needs is the maximum number
+ * of local variables in scope at once.
+ *
+ * <p> Note: Expressions not in V1 syntax will not have expression trees, so this pass doesn't
+ * handle them.
+ */
+public class AssignLocalVarSlotsVisitor extends AbstractSoyNodeVisitor<Void> {
+
+
+  /** Stack of frames mapping the names of the local vars currently in scope to their defns. */
+  private Deque<Map<String, LocalVar>> localVarFrames;
+
+  /** The next free slot in the current template. */
+  private int nextSlot;
+
+  /** The associated expr visitor instance. */
+  private ResolveLocalVarRefsInExprVisitor resolveLocalVarRefsInExprVisitor;
+
+
+  @Override public Void exec(SoyNode node) {
+
+    Preconditions.checkArgument(
+        node instanceof SoyFileSetNode || node instanceof SoyFileNode ||
+        node instanceof TemplateNode);
+
+    return super.exec(node);
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Implementations for specific nodes.
+
+
+  @Override protected void visitTemplateNode(TemplateNode node) {
+
+    localVarFrames = new ArrayDeque<Map<String, LocalVar>>();
+    nextSlot = 0;
+    resolveLocalVarRefsInExprVisitor = new ResolveLocalVarRefsInExprVisitor(localVarFrames);
+
+    visitSoyNode(node);
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Fallback implementation.
+
+
+  @Override protected void visitSoyNode(SoyNode node) {
+
+    // Note: A node's expressions are evaluated before the variable it declares (if any) is bound.
+    if (node instanceof ExprHolderNode) {
+      visitExprHolderHelper((ExprHolderNode) node);
+    }
+
+    if (node instanceof ParentSoyNode<?>) {
+
+      if (node instanceof BlockNode) {
+        int savedNextSlot = nextSlot;
+        localVarFrames.push(Maps.<String, LocalVar>newHashMap());
+        LocalVar blockVar = (node instanceof ForNode) ? ((ForNode) node).getVar() :
+            (node instanceof ForeachNonemptyNode) ? ((ForeachNonemptyNode) node).getVar() : null;
+        if (blockVar != null) {
+          declare(blockVar);
+        }
+        visitChildren((BlockNode) node);
+        localVarFrames.pop();
+        nextSlot = savedNextSlot;
+
+      } else {
+        visitChildren((ParentSoyNode<?>) node);
+      }
+    }
+
+    // Note: The scope of a 'let' comprises its younger siblings (not its own content).
+    if (node instanceof LetNode) {
+      declare(((LetNode) node).getVar());
+    }
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Helpers.
+
+
+  /**
+   * Assigns the next free slot to the given local var and adds it to the innermost frame.
+   * @param localVar The local var being declared.
+   */
+  private void declare(LocalVar localVar) {
+    localVar.setSlot(nextSlot++);
+    localVarFrames.peek().put(localVar.name(), localVar);
+  }
+
+
+  /**
+   * Helper for visiting a node that holds one or more expressions.
+   * @param exprHolder The node holding the expressions to be visited.
+   */
+  private void visitExprHolderHelper(ExprHolderNode exprHolder) {
+    for (ExprUnion exprUnion : exprHolder.getAllExprUnions()) {
+      if (exprUnion.getExpr() != null) {
+        resolveLocalVarRefsInExprVisitor.exec(exprUnion.getExpr());
+      }
+    }
+  }
+
+
+  /**
+   * Helper visitor to point the local var refs within an expression at the declarations in scope.
+   */
+  private static class ResolveLocalVarRefsInExprVisitor extends AbstractExprNodeVisitor<Void> {
+
+    /** Stack of frames mapping the names of the local vars currently in scope to their defns. */
+    private final Deque<Map<String, LocalVar>> localVarFrames;
+
+    /**
+     * @param localVarFrames Stack of frames mapping the names of the local vars currently in scope
+     *     to their defns.
+     */
+    public ResolveLocalVarRefsInExprVisitor(Deque<Map<String, LocalVar>> localVarFrames) {
+      this.localVarFrames = localVarFrames;
+    }
+
+    // ------ Implementations for specific nodes. ------
+
+    @Override protected void visitVarRefNode(VarRefNode node) {
+
+      if (node.isInjected()) {
+        return;
+      }
+      for (Map<String, LocalVar> localVarFrame : localVarFrames) {
+        LocalVar localVar = localVarFrame.get(node.getName());
+        if (localVar != null) {
+          node.setDefn(localVar);
+          return;
+        }
+      }
+    }
+
+    // ------ Fallback implementation. ------
+
+    @Override protected void visitExprNode(ExprNode node) {
+      if (node instanceof ParentExprNode) {
+        visitChildren((ParentExprNode) node);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.opti;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.template.soy.base.internal.IdGenerator;
+import com.google.template.soy.basetree.SyntaxVersion;
+import com.google.template.soy.data.internalutils.NodeContentKinds;
+import com.google.template.soy.exprtree.AbstractExprNodeVisitor;
+import com.google.template.soy.exprtree.ExprNode;
+import com.google.template.soy.exprtree.ExprNode.ParentExprNode;
+import com.google.template.soy.exprtree.VarDefn;
+import com.google.template.soy.exprtree.VarRefNode;
+import com.google.template.soy.soytree.AbstractSoyNodeVisitor;
+import com.google.template.soy.soytree.CallBasicNode;
+import com.google.template.soy.soytree.CallNode;
+import com.google.template.soy.soytree.CallParamContentNode;
+import com.google.template.soy.soytree.CallParamNode;
+import com.google.template.soy.soytree.CallParamValueNode;
+import com.google.template.soy.soytree.ExprUnion;
+import com.google.template.soy.soytree.IfElseNode;
+import com.google.template.soy.soytree.IfNode;
+import com.google.template.soy.soytree.LetContentNode;
+import com.google.template.soy.soytree.LetNode;
+import com.google.template.soy.soytree.LetValueNode;
+import com.google.template.soy.soytree.MsgFallbackGroupNode;
+import com.google.template.soy.soytree.MsgPlaceholderNode;
+import com.google.template.soy.soytree.SoyFileNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoyNode.BlockNode;
+import com.google.template.soy.soytree.SoyNode.ExprHolderNode;
+import com.google.template.soy.soytree.SoyNode.StandaloneNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.soytree.TemplateBasicNode;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.defn.LocalVar;
+import com.google.template.soy.soytree.defn.TemplateParam;
+import com.google.template.soy.types.SoyType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Visitor for inlining the calls to small templates into their callers, so that rendering such a
+ * call doesn't need a new visitor and param store. An inlined call is replaced by a new scope (an
+ * 'if' with only an 'else' block) in which the params are bound to local variables with unique
+ * names, followed by a copy of the callee's content that refers to those variables instead of its
+ * params.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> {@link #exec} should be called on a full Soy tree, before the local variables are resolved
+ * (see {@code AssignLocalVarSlotsVisitor}), and the result should only be used for rendering in
+ * Java: an error in an inlined callee is reported as an error in its caller.
+ *
+ * <p> A call is inlined if and only if it:
+ * (a) could be in V2 syntax,
+ * (b) is not a placeholder of a message,
+ * (c) doesn't pass data, and has no escaping directives,
+ * (d) calls a non-recursive basic template in the same file (so that the inlined copy is
+ *     recompiled along with the callee), which is small enough (after its own calls have been
+ *     inlined) and can be inlined (see {@code computeInlinableInfo()}),
+ * (e) passes all the params that the callee refers to.
+ */
+public class InlineCallsVisitor extends AbstractSoyNodeVisitor<Void> {
+
+
+  /** The maximum size of the callees to inline, in number of nodes (excluding the template). */
+  private final int maxCalleeSize;
+
+  /** The node id generator for the tree being modified. */
+  private IdGenerator nodeIdGen;
+
+  /** Map from the name of each basic template in the current file to the template. */
+  private Map<String, TemplateBasicNode> basicTemplatesInFile;
+
+  /** The templates whose calls are currently being inlined (a call to one of them is recursive). */
+  private Set<TemplateNode> templatesInProgress;
+
+  /** Map from each template whose calls have been inlined to the params it refers to if it can be
+   *  inlined, or to null otherwise. */
+  private Map<TemplateNode, Set<String>> inlinableTemplatesMap;
+
+
+  /**
+   * @param maxCalleeSize The maximum size of the callees to inline, in number of nodes (excluding
+   *     the template node).
+   */
+  public InlineCallsVisitor(int maxCalleeSize) {
+    Preconditions.checkArgument(maxCalleeSize >= 0);
+    this.maxCalleeSize = maxCalleeSize;
+  }
+
+
+  @Override public Void exec(SoyNode node) {
+    Preconditions.checkArgument(node instanceof SoyFileSetNode);
+    templatesInProgress = Sets.newHashSet();
+    inlinableTemplatesMap = Maps.newHashMap();
+    super.exec(node);
+    return null;
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Implementations for specific nodes.
+
+
+  @Override protected void visitSoyFileSetNode(SoyFileSetNode node) {
+    nodeIdGen = node.getNodeIdGenerator();
+    visitChildren(node);
+  }
+
+
+  @Override protected void visitSoyFileNode(SoyFileNode node) {
+
+    basicTemplatesInFile = Maps.newHashMap();
+    for (TemplateNode template : node.getChildren()) {
+      if (template instanceof TemplateBasicNode) {
+        basicTemplatesInFile.put(template.getTemplateName(), (TemplateBasicNode) template);
+      }
+    }
+
+    visitChildren(node);
+  }
+
+
+  @Override protected void visitTemplateNode(TemplateNode node) {
+
+    if (inlinableTemplatesMap.containsKey(node)) {
+      return;  // already done (as a callee)
+    }
+
+    templatesInProgress.add(node);
+    for (CallBasicNode call : SoytreeUtils.getAllNodesOfType(node, CallBasicNode.class)) {
+      TemplateBasicNode callee = basicTemplatesInFile.get(call.getCalleeName());
+      if (callee == null || templatesInProgress.contains(callee)) {
+        continue;  // don't inline
+      }
+      visitTemplateNode(callee);
+      Set<String> referencedParams = inlinableTemplatesMap.get(callee);
+      if (referencedParams != null && isInlinableCall(call, referencedParams)) {
+        inlineCall(call, callee);
+      }
+    }
+    templatesInProgress.remove(node);
+
+    inlinableTemplatesMap.put(node, computeInlinableInfo(node));
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Helpers.
+
+
+  /**
+   * Private helper for visitTemplateNode() to determine whether a call to an inlinable callee may
+   * be inlined.
+   * @param call The call.
+   * @param referencedParams The names of the params that the callee refers to.
+   */
+  private static boolean isInlinableCall(CallBasicNode call, Set<String> referencedParams) {
+
+    if (! call.couldHaveSyntaxVersionAtLeast(SyntaxVersion.V2_0) ||
+        call.getParent() instanceof MsgPlaceholderNode ||
+        call.isPassingData() ||
+        ! call.getEscapingDirectiveNames().isEmpty()) {
+      return false;
+    }
+
+    Set<String> passedParams = Sets.newHashSet();
+    for (CallParamNode param : call.getChildren()) {
+      if (param instanceof CallParamValueNode &&
+          ((CallParamValueNode) param).getValueExprUnion().getExpr() == null) {
+        return false;
+      }
+      passedParams.add(param.getKey());
+    }
+    return passedParams.containsAll(referencedParams);
+  }
+
+
+  /**
+   * Private helper for visitTemplateNode() to determine whether calls to the given template (whose
+   * own calls have been inlined) may be inlined. The template must be small enough, its params
+   * must not be type checked when rendering, and its content must not have messages (whose
+   * placeholder names and ids would change), calls that pass all data, V1 expressions, or
+   * references to undeclared variables.
+   *
+   * @param template The template.
+   * @return The names of the params that the template refers to if it may be inlined, or null
+   *     otherwise.
+   */
+  private Set<String> computeInlinableInfo(TemplateNode template) {
+
+    if (! (template instanceof TemplateBasicNode) || template.getParams() == null) {
+      return null;
+    }
+    for (TemplateParam param : template.getParams()) {
+      SoyType.Kind paramKind = param.type().getKind();
+      if (paramKind != SoyType.Kind.UNKNOWN && paramKind != SoyType.Kind.ANY) {
+        return null;
+      }
+    }
+
+    List<SoyNode> descendants = SoytreeUtils.getAllNodesOfType(template, SoyNode.class);
+    if (descendants.size() - 1 > maxCalleeSize) {
+      return null;
+    }
+
+    Set<String> referencedParams = Sets.newHashSet();
+    for (SoyNode descendant : descendants) {
+      if (descendant instanceof MsgFallbackGroupNode ||
+          (descendant instanceof CallNode && ((CallNode) descendant).isPassingAllData())) {
+        return null;
+      }
+      if (descendant instanceof ExprHolderNode) {
+        for (ExprUnion exprUnion : ((ExprHolderNode) descendant).getAllExprUnions()) {
+          if (exprUnion.getExpr() == null) {
+            return null;
+          }
+        }
+      }
+    }
+    for (VarRefNode varRef : collectVarRefs(template)) {
+      if (varRef.isInjected()) {
+        continue;
+      }
+      VarDefn defn = varRef.getDefnDecl();
+      if (defn == null ||
+          (defn.kind() != VarDefn.Kind.PARAM && defn.kind() != VarDefn.Kind.LOCAL_VAR)) {
+        return null;
+      }
+      if (defn.kind() == VarDefn.Kind.PARAM) {
+        referencedParams.add(varRef.getName());
+      }
+    }
+    return ImmutableSet.copyOf(referencedParams);
+  }
+
+
+  /**
+   * Private helper for visitTemplateNode() to replace a call by a new scope containing the bindings
+   * of the params and a copy of the callee's content.
+   * @param call The call to inline.
+   * @param callee The called template.
+   */
+  private void inlineCall(CallBasicNode call, TemplateNode callee) {
+
+    IfNode scopeNode = new IfNode(nodeIdGen.genId());
+    IfElseNode scopeBlock = new IfElseNode(nodeIdGen.genId());
+    scopeNode.addChild(scopeBlock);
+
+    // Bind the params to local vars with unique names. The params are evaluated in order, before
+    // rendering the callee's content, as when rendering the call.
+    Map<String, LocalVar> paramVars = Maps.newHashMap();
+    for (CallParamNode param : call.getChildren()) {
+      String varName = param.getKey() + "__inlined" + call.getId();
+      LetNode letNode;
+      if (param instanceof CallParamValueNode) {
+        LetValueNode letValueNode =
+            new LetValueNode(nodeIdGen.genId(), true, "$" + varName + ": null");
+        letValueNode.getValueExpr().replaceChild(
+            0, ((CallParamValueNode) param).getValueExprUnion().getExpr().getChild(0));
+        letNode = letValueNode;
+      } else {
+        CallParamContentNode paramContentNode = (CallParamContentNode) param;
+        String commandText = "$" + varName;
+        if (paramContentNode.getContentKind() != null) {
+          commandText += " kind=\"" +
+              NodeContentKinds.toAttributeValue(paramContentNode.getContentKind()) + "\"";
+        }
+        LetContentNode letContentNode =
+            new LetContentNode(nodeIdGen.genId(), true, commandText);
+        List<StandaloneNode> contentNodes = Lists.newArrayList(paramContentNode.getChildren());
+        paramContentNode.clearChildren();
+        letContentNode.addChildren(contentNodes);
+        letNode = letContentNode;
+      }
+      scopeBlock.addChild(letNode);
+      paramVars.put(param.getKey(), letNode.getVar());
+    }
+
+    // Copy the callee's content, referring to the local vars instead of the params.
+    for (StandaloneNode calleeChild : callee.getChildren()) {
+      StandaloneNode contentNode = SoytreeUtils.cloneWithNewIds(calleeChild, nodeIdGen);
+      for (VarRefNode varRef : collectVarRefs(contentNode)) {
+        VarDefn defn = varRef.getDefnDecl();
+        if (! varRef.isInjected() && defn.kind() == VarDefn.Kind.PARAM) {
+          LocalVar paramVar = paramVars.get(varRef.getName());
+          varRef.getParent().replaceChild(
+              varRef, new VarRefNode(paramVar.name(), false, false, paramVar));
+        }
+      }
+      scopeBlock.addChild(contentNode);
+    }
+
+    call.getParent().replaceChild(call, scopeNode);
+  }
+
+
+  /**
+   * Private helper to collect the variable references in the expressions of the given subtree.
+   * @param node The root of the subtree.
+   */
+  private static List<VarRefNode> collectVarRefs(SoyNode node) {
+    final List<VarRefNode> varRefs = Lists.newArrayList();
+    SoytreeUtils.execOnAllV2Exprs(node, new AbstractExprNodeVisitor<Void>() {
+      @Override protected void visitVarRefNode(VarRefNode node) {
+        varRefs.add(node);
+      }
+      @Override protected void visitExprNode(ExprNode node) {
+        if (node instanceof ParentExprNode) {
+          visitChildren((ParentExprNode) node);
+        }
+      }
+    });
+    return varRefs;
+  }
+
+}
@@ -17,11 +17,13 @@
 package com.google.template.soy.sharedpasses.opti;
 
 import com.google.template.soy.data.SoyRecord;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyPureForLocalePrintDirective;
 import com.google.template.soy.shared.restricted.SoyPurePrintDirective;
+import com.google.template.soy.sharedpasses.render.Environment;
 import com.google.template.soy.sharedpasses.render.RenderException;
 import com.google.template.soy.sharedpasses.render.RenderVisitor;
+import com.google.template.soy.soytree.CallBasicNode;
 import com.google.template.soy.soytree.CallDelegateNode;
 import com.google.template.soy.soytree.CssNode;
 import com.google.template.soy.soytree.DebuggerNode;
@@ -34,7 +36,6 @@ import com.google.template.soy.soytree.TemplateRegistry;
 import com.google.template.soy.soytree.jssrc.GoogMsgDefNode;
 import com.google.template.soy.soytree.jssrc.GoogMsgRefNode;
 
-import java.util.Deque;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -53,6 +54,11 @@ import javax.annotation.Nullable;
 class PrerenderVisitor extends RenderVisitor {
 
 
+  /** Whether the tree is specialized for the locale in the current apiCallScope, so that the
+   *  directives that are pure for a given locale can be prerendered too. */
+  private final boolean isSpecializedForLocale;
+
+
   /**
    * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to
    *     directive).
@@ -61,16 +67,19 @@ class PrerenderVisitor extends RenderVisitor {
    * @param templateRegistry A registry of all templates.
    * @param data The current template data.
    * @param env The current environment, or null if this is the initial call.
+   * @param isSpecializedForLocale Whether the tree is specialized for the locale in the current
+   *     apiCallScope, so that the directives that are pure for a given locale can be prerendered.
    */
   PrerenderVisitor(
       Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap,
       PreevalVisitorFactory preevalVisitorFactory, Appendable outputBuf,
       @Nullable TemplateRegistry templateRegistry, SoyRecord data,
-      @Nullable Deque<Map<String, SoyValue>> env) {
+      @Nullable Environment env, boolean isSpecializedForLocale) {
 
     super(
         soyJavaDirectivesMap, preevalVisitorFactory, outputBuf,
-        templateRegistry, data, null, env, null, null, null, null);
+        templateRegistry, data, null, env, null, null, null, null, null, null);
+    this.isSpecializedForLocale = isSpecializedForLocale;
   }
 
 
@@ -78,7 +87,7 @@ class PrerenderVisitor extends RenderVisitor {
 
     return new PrerenderVisitor(
         soyJavaDirectivesMap, (PreevalVisitorFactory) evalVisitorFactory, outputBuf,
-        templateRegistry, data, null);
+        templateRegistry, data, null, isSpecializedForLocale);
   }
 
 
@@ -123,6 +132,16 @@ class PrerenderVisitor extends RenderVisitor {
   }
 
 
+  @Override protected void visitCallBasicNode(CallBasicNode node) {
+    for (String directiveName : node.getEscapingDirectiveNames()) {
+      if (!isSoyPurePrintDirective(directiveName)) {
+        throw new RenderException("Cannot prerender a call with some impure escaping directive.");
+      }
+    }
+    super.visitCallBasicNode(node);
+  }
+
+
   @Override protected void visitCallDelegateNode(CallDelegateNode node) {
     throw new RenderException("Cannot prerender CallDelegateNode.");
   }
@@ -140,7 +159,7 @@ class PrerenderVisitor extends RenderVisitor {
 
   @Override protected void visitPrintNode(PrintNode node) {
     for (PrintDirectiveNode directiveNode : node.getChildren()) {
-      if (!isSoyPurePrintDirective(directiveNode)) {
+      if (!isSoyPurePrintDirective(directiveNode.getName())) {
         throw new RenderException("Cannot prerender a node with some impure print directive.");
       }
     }
@@ -149,17 +168,19 @@ class PrerenderVisitor extends RenderVisitor {
 
 
   @Override protected void visitPrintDirectiveNode(PrintDirectiveNode node) {
-    if (!isSoyPurePrintDirective(node)) {
+    if (!isSoyPurePrintDirective(node.getName())) {
       throw new RenderException("Cannot prerender impure print directive.");
     }
     super.visitPrintDirectiveNode(node);
   }
 
 
-  private boolean isSoyPurePrintDirective(PrintDirectiveNode node) {
-    SoyJavaPrintDirective directive = soyJavaDirectivesMap.get(node.getName());
+  private boolean isSoyPurePrintDirective(String directiveName) {
+    SoyJavaPrintDirective directive = soyJavaDirectivesMap.get(directiveName);
     return directive != null &&
-        directive.getClass().isAnnotationPresent(SoyPurePrintDirective.class);
+        (directive.getClass().isAnnotationPresent(SoyPurePrintDirective.class) ||
+         (isSpecializedForLocale &&
+          directive.getClass().isAnnotationPresent(SoyPureForLocalePrintDirective.class)));
   }
 
 }
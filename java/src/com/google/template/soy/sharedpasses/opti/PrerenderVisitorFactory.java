@@ -18,12 +18,11 @@ package com.google.template.soy.sharedpasses.opti;
 
 import com.google.inject.Inject;
 import com.google.template.soy.data.SoyRecord;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.shared.internal.SharedModule.Shared;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.render.Environment;
 import com.google.template.soy.soytree.TemplateRegistry;
 
-import java.util.Deque;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -68,10 +67,29 @@ public class PrerenderVisitorFactory {
    */
   public PrerenderVisitor create(
       Appendable outputBuf, TemplateRegistry templateRegistry, SoyRecord data,
-      @Nullable Deque<Map<String, SoyValue>> env) {
+      @Nullable Environment env) {
+    return create(outputBuf, templateRegistry, data, env, false);
+  }
+
+
+  /**
+   * Creates a PrerenderVisitor.
+   *
+   * @param outputBuf The Appendable to append the output to.
+   * @param templateRegistry A registry of all templates.
+   * @param data The current template data.
+   * @param env The current environment, or null if this is the initial call.
+   * @param isSpecializedForLocale Whether the tree is specialized for the locale in the current
+   *     apiCallScope, so that the directives that are pure for a given locale can be prerendered.
+   * @return The newly created PrerenderVisitor instance.
+   */
+  public PrerenderVisitor create(
+      Appendable outputBuf, TemplateRegistry templateRegistry, SoyRecord data,
+      @Nullable Environment env, boolean isSpecializedForLocale) {
 
     return new PrerenderVisitor(
-        soyJavaDirectivesMap, preevalVisitorFactory, outputBuf, templateRegistry, data, env);
+        soyJavaDirectivesMap, preevalVisitorFactory, outputBuf, templateRegistry, data, env,
+        isSpecializedForLocale);
   }
 
 }
@@ -18,6 +18,7 @@ package com.google.template.soy.sharedpasses.opti;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.template.soy.base.internal.IdGenerator;
 import com.google.template.soy.basetree.SyntaxVersion;
 import com.google.template.soy.data.SoyValue;
@@ -34,14 +35,21 @@ import com.google.template.soy.exprtree.ExprRootNode;
 import com.google.template.soy.exprtree.FloatNode;
 import com.google.template.soy.exprtree.IntegerNode;
 import com.google.template.soy.exprtree.StringNode;
+import com.google.template.soy.sharedpasses.AssignLocalVarSlotsVisitor;
 import com.google.template.soy.sharedpasses.render.RenderException;
 import com.google.template.soy.soytree.AbstractSoyNodeVisitor;
+import com.google.template.soy.soytree.CallBasicNode;
+import com.google.template.soy.soytree.CallParamContentNode;
+import com.google.template.soy.soytree.CallParamNode;
+import com.google.template.soy.soytree.CallParamValueNode;
 import com.google.template.soy.soytree.IfCondNode;
 import com.google.template.soy.soytree.IfElseNode;
 import com.google.template.soy.soytree.IfNode;
+import com.google.template.soy.soytree.MsgPlaceholderNode;
 import com.google.template.soy.soytree.PrintDirectiveNode;
 import com.google.template.soy.soytree.PrintNode;
 import com.google.template.soy.soytree.RawTextNode;
+import com.google.template.soy.soytree.SoyFileNode;
 import com.google.template.soy.soytree.SoyFileSetNode;
 import com.google.template.soy.soytree.SoyNode;
 import com.google.template.soy.soytree.SoyNode.BlockNode;
@@ -52,9 +60,11 @@ import com.google.template.soy.soytree.SoytreeUtils;
 import com.google.template.soy.soytree.SwitchCaseNode;
 import com.google.template.soy.soytree.SwitchDefaultNode;
 import com.google.template.soy.soytree.SwitchNode;
+import com.google.template.soy.soytree.TemplateNode;
 import com.google.template.soy.soytree.TemplateRegistry;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -82,6 +92,12 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
   /** A registry of all templates in the Soy tree. */
   private TemplateRegistry templateRegistry;
 
+  /** Map from template to whether calls to the template may be prerendered (lazily filled). */
+  private Map<TemplateNode, Boolean> prerenderableCalleesMap;
+
+  /** Whether the tree is specialized for the locale in the current apiCallScope. */
+  private boolean isSpecializedForLocale = false;
+
 
   @Inject
   public SimplifyVisitor(
@@ -91,6 +107,19 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Sets whether the tree is specialized for the locale seeded in the current apiCallScope (e.g. a
+   * tree whose messages were replaced by the translations of a message bundle), in which case the
+   * print directives that are pure for a given locale (like formatNum) are prerendered too.
+   * @param isSpecializedForLocale Whether the tree is specialized for the current locale.
+   * @return This object.
+   */
+  public SimplifyVisitor setSpecializedForLocale(boolean isSpecializedForLocale) {
+    this.isSpecializedForLocale = isSpecializedForLocale;
+    return this;
+  }
+
+
   @Override public Void exec(SoyNode node) {
 
     Preconditions.checkArgument(node instanceof SoyFileSetNode);
@@ -99,9 +128,14 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
     // First simplify all expressions in the subtree.
     SoytreeUtils.execOnAllV2Exprs(nodeAsRoot, simplifyExprVisitor);
 
+    // Prerendering binds local variables in their slots, so assign the slots of this tree first
+    // (they are reassigned if the tree is later prepared for rendering).
+    (new AssignLocalVarSlotsVisitor()).exec(nodeAsRoot);
+
     // Setup.
     nodeIdGen = nodeAsRoot.getNodeIdGenerator();
     templateRegistry = new TemplateRegistry(nodeAsRoot);
+    prerenderableCalleesMap = Maps.newHashMap();
 
     // Simpify the subtree.
     super.exec(nodeAsRoot);
@@ -148,7 +182,8 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
     StringBuilder prerenderOutputSb = new StringBuilder();
     try {
       prerenderVisitorFactory.create(
-          prerenderOutputSb, templateRegistry, ParamStore.EMPTY_INSTANCE, null)
+          prerenderOutputSb, templateRegistry, ParamStore.EMPTY_INSTANCE, null,
+          isSpecializedForLocale)
           .exec(node);
     } catch (RenderException pe) {
       return;  // cannot prerender for some other reason not checked above
@@ -276,9 +311,65 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
-  // Note (Sep-2012): We removed prerendering of calls (visitCallBasicNode) due to development
-  // issues. We decided it was better to remove it than to add another rarely-used option to the Soy
-  // compiler.
+  @Override protected void visitCallBasicNode(CallBasicNode node) {
+
+    // Recurse (simplifies the content of the params).
+    visitSoyNode(node);
+
+    // We attempt to prerender this node if and only if it:
+    // (a) could be in V2 syntax,
+    // (b) is not a placeholder of a message,
+    // (c) doesn't pass data, and has constant params (constant expressions, or raw text content),
+    // (d) calls a template that can be prerendered (see isPrerenderableCallee()).
+    // The prerender attempt may fail due to other reasons not checked above (e.g. the callee uses
+    // injected data, impure functions, or params that are not passed).
+
+    if (! node.couldHaveSyntaxVersionAtLeast(SyntaxVersion.V2_0)) {
+      return;
+    }
+
+    BlockNode parent = node.getParent();
+    if (parent instanceof MsgPlaceholderNode) {
+      return;  // don't prerender
+    }
+
+    if (node.isPassingData()) {
+      return;  // don't prerender
+    }
+
+    for (CallParamNode param : node.getChildren()) {
+      if (param instanceof CallParamValueNode) {
+        if (! isConstant(((CallParamValueNode) param).getValueExprUnion().getExpr())) {
+          return;  // don't prerender
+        }
+      } else {
+        for (StandaloneNode child : ((CallParamContentNode) param).getChildren()) {
+          if (! (child instanceof RawTextNode)) {
+            return;  // don't prerender
+          }
+        }
+      }
+    }
+
+    TemplateNode callee = templateRegistry.getBasicTemplate(node.getCalleeName());
+    if (callee == null || callee.getParent() != node.getNearestAncestor(SoyFileNode.class) ||
+        ! isPrerenderableCallee(callee)) {
+      return;  // don't prerender
+    }
+
+    StringBuilder prerenderOutputSb = new StringBuilder();
+    try {
+      prerenderVisitorFactory.create(
+          prerenderOutputSb, templateRegistry, ParamStore.EMPTY_INSTANCE, null,
+          isSpecializedForLocale)
+          .exec(node);
+    } catch (RenderException pe) {
+      return;  // cannot prerender for some other reason not checked above
+    }
+
+    // Replace this node with a RawTextNode.
+    parent.replaceChild(node, new RawTextNode(nodeIdGen.genId(), prerenderOutputSb.toString()));
+  }
 
 
   // -----------------------------------------------------------------------------------------------
@@ -339,6 +430,37 @@ public class SimplifyVisitor extends AbstractSoyNodeVisitor<Void> {
   // Helpers.
 
 
+  /**
+   * Private helper for visitCallBasicNode() to determine whether calls to the given template may be
+   * prerendered (in the template's file): all the templates that it calls (transitively) must be in
+   * the same file, so that the prerendered output is recompiled along with them, and none of them
+   * may be recursive, so that prerendering terminates.
+   *
+   * @param callee The called template.
+   */
+  private boolean isPrerenderableCallee(TemplateNode callee) {
+
+    Boolean isPrerenderable = prerenderableCalleesMap.get(callee);
+    if (isPrerenderable != null) {
+      return isPrerenderable;
+    }
+
+    // Note: A template that is reached again while checking its own calls is recursive.
+    prerenderableCalleesMap.put(callee, false);
+    isPrerenderable = true;
+    for (CallBasicNode call : SoytreeUtils.getAllNodesOfType(callee, CallBasicNode.class)) {
+      TemplateNode nestedCallee = templateRegistry.getBasicTemplate(call.getCalleeName());
+      if (nestedCallee == null || nestedCallee.getParent() != callee.getParent() ||
+          ! isPrerenderableCallee(nestedCallee)) {
+        isPrerenderable = false;
+        break;
+      }
+    }
+    prerenderableCalleesMap.put(callee, isPrerenderable);
+    return isPrerenderable;
+  }
+
+
   private static boolean isConstant(ExprRootNode<?> exprRoot) {
     return exprRoot != null && exprRoot.getChild(0) instanceof ConstantNode;
   }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.soytree.TemplateNode;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * The compiled forms of the templates in one Soy tree. When given to a {@link RenderVisitor},
+ * template bodies are rendered by executing their compiled form instead of by walking the tree.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> Each template is compiled the first time it is rendered, and the compiled form is then
+ * shared by all later renders (including concurrent ones). The tree must not be modified after
+ * an instance has been created for it. An instance should have the same lifetime as its tree.
+ *
+ * <p> When some templates are shared by several trees, their compiled forms can be shared too: an
+ * instance can be given the shared templates and the instance for them, to which it then defers
+ * for the shared templates.
+ */
+public final class CompiledTemplates {
+
+
+  /** Map of all SoyJavaPrintDirectives (name to directive). */
+  private final Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap;
+
+  /** Map from template to its compiled body. */
+  private final ConcurrentMap<TemplateNode, RenderOp> compiledBodies;
+
+  /** The templates shared with other trees, or null if none. */
+  @Nullable private final Set<TemplateNode> sharedTemplates;
+
+  /** The compiled forms of the sharedTemplates, or null if none. */
+  @Nullable private final CompiledTemplates sharedCompiledTemplates;
+
+
+  /**
+   * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to directive).
+   */
+  public CompiledTemplates(Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap) {
+    this(soyJavaDirectivesMap, null, null);
+  }
+
+
+  /**
+   * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to directive).
+   * @param sharedTemplates The templates shared with other trees, or null if none. Should have a
+   *     fast contains() (e.g. an ImmutableSet).
+   * @param sharedCompiledTemplates The compiled forms of the sharedTemplates (shared with the other
+   *     trees), or null if none.
+   */
+  public CompiledTemplates(
+      Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap,
+      @Nullable Set<TemplateNode> sharedTemplates,
+      @Nullable CompiledTemplates sharedCompiledTemplates) {
+    Preconditions.checkArgument((sharedTemplates == null) == (sharedCompiledTemplates == null));
+    this.soyJavaDirectivesMap = soyJavaDirectivesMap;
+    this.compiledBodies = new MapMaker().makeMap();
+    this.sharedTemplates = sharedTemplates;
+    this.sharedCompiledTemplates = sharedCompiledTemplates;
+  }
+
+
+  /**
+   * Gets the compiled body of the given template, compiling it if necessary.
+   * @param template The template (must belong to the tree of this instance).
+   * @return The compiled body.
+   */
+  RenderOp getCompiledBody(TemplateNode template) {
+
+    if (sharedTemplates != null && sharedTemplates.contains(template)) {
+      return sharedCompiledTemplates.getCompiledBody(template);
+    }
+
+    RenderOp body = compiledBodies.get(template);
+    if (body == null) {
+      // Benign race: two threads may compile the same template, but the results are equivalent.
+      body = new TemplateCompiler(soyJavaDirectivesMap).exec(template);
+      RenderOp prevBody = compiledBodies.putIfAbsent(template, body);
+      if (prevBody != null) {
+        body = prevBody;
+      }
+    }
+    return body;
+  }
+}
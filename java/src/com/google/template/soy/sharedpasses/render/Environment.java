@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.template.soy.data.SoyValue;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * The local variables of one template call during rendering, stored in slots assigned at compile
+ * time by {@code AssignLocalVarSlotsVisitor}.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> Foreach loop variables additionally keep their current index and the last index of the list
+ * being iterated (used by the functions isFirst(), isLast() and index()) as primitive ints in the
+ * same slot, so iterating allocates nothing.
+ */
+public final class Environment {
+
+
+  /** The initial number of slots (grown as needed). */
+  private static final int INITIAL_NUM_SLOTS = 8;
+
+
+  /** The values of the local variables, by slot. */
+  private SoyValue[] values;
+
+  /** The current loop index of each foreach loop variable, by slot. */
+  private int[] loopIndices;
+
+  /** The last loop index of each foreach loop variable, by slot. */
+  private int[] loopLastIndices;
+
+
+  public Environment() {
+    values = new SoyValue[INITIAL_NUM_SLOTS];
+    loopIndices = new int[INITIAL_NUM_SLOTS];
+    loopLastIndices = new int[INITIAL_NUM_SLOTS];
+  }
+
+
+  /**
+   * Binds a local variable.
+   * @param slot The slot of the local variable.
+   * @param value The value to bind.
+   */
+  public void bind(int slot, SoyValue value) {
+    ensureCapacity(slot);
+    values[slot] = value;
+  }
+
+
+  /**
+   * Binds a foreach loop variable for one iteration.
+   * @param slot The slot of the loop variable.
+   * @param value The current list item.
+   * @param loopIndex The index of the current list item.
+   * @param loopLastIndex The last index of the list.
+   */
+  public void bindLoopVar(int slot, SoyValue value, int loopIndex, int loopLastIndex) {
+    ensureCapacity(slot);
+    values[slot] = value;
+    loopIndices[slot] = loopIndex;
+    loopLastIndices[slot] = loopLastIndex;
+  }
+
+
+  /**
+   * Gets the value of a local variable.
+   * @param slot The slot of the local variable.
+   * @return The value, or null if nothing has been bound to the slot.
+   */
+  @Nullable public SoyValue get(int slot) {
+    return (slot >= 0 && slot < values.length) ? values[slot] : null;
+  }
+
+
+  /**
+   * Gets the current index of a foreach loop variable.
+   * @param slot The slot of the loop variable.
+   */
+  public int getLoopIndex(int slot) {
+    checkBound(slot);
+    return loopIndices[slot];
+  }
+
+
+  /**
+   * Gets the last index of the list iterated by a foreach loop variable.
+   * @param slot The slot of the loop variable.
+   */
+  public int getLoopLastIndex(int slot) {
+    checkBound(slot);
+    return loopLastIndices[slot];
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Private helpers.
+
+
+  private void ensureCapacity(int slot) {
+
+    if (slot < 0) {
+      throw new IllegalStateException(
+          "Local variable has no slot (template was not prepared for rendering).");
+    }
+    if (slot >= values.length) {
+      int newLength = Math.max(values.length * 2, slot + 1);
+      values = Arrays.copyOf(values, newLength);
+      loopIndices = Arrays.copyOf(loopIndices, newLength);
+      loopLastIndices = Arrays.copyOf(loopLastIndices, newLength);
+    }
+  }
+
+
+  private void checkBound(int slot) {
+    if (get(slot) == null) {
+      throw new IllegalStateException("Loop variable is not bound.");
+    }
+  }
+
+}
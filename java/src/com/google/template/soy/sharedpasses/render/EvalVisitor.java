@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import com.google.template.soy.data.SanitizedContent;
 import com.google.template.soy.data.SoyAbstractValue;
 import com.google.template.soy.data.SoyEasyDict;
+import com.google.template.soy.data.SoyFutureValueProvider.FutureNotDoneException;
 import com.google.template.soy.data.SoyMap;
 import com.google.template.soy.data.SoyRecord;
 import com.google.template.soy.data.SoyValue;
@@ -65,8 +66,8 @@ import com.google.template.soy.exprtree.VarDefn;
 import com.google.template.soy.exprtree.VarRefNode;
 import com.google.template.soy.shared.internal.NonpluginFunction;
 import com.google.template.soy.shared.restricted.SoyJavaFunction;
+import com.google.template.soy.soytree.defn.LocalVar;
 
-import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
@@ -101,7 +102,7 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
      * @return The newly created EvalVisitor instance.
      */
     public EvalVisitor create(
-        SoyRecord data, @Nullable SoyRecord ijData, Deque<Map<String, SoyValue>> env);
+        SoyRecord data, @Nullable SoyRecord ijData, Environment env);
   }
 
 
@@ -111,14 +112,14 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
   /** Map of all SoyJavaFunctions (name to function). */
   private final Map<String, SoyJavaFunction> soyJavaFunctionsMap;
 
-  /** The current template data. */
-  private final SoyRecord data;
+  /** The current template data (replaced when the RenderVisitor using this instance is reused). */
+  private SoyRecord data;
 
   /** The current injected data. */
   private final SoyRecord ijData;
 
   /** The current environment. */
-  private final Deque<Map<String, SoyValue>> env;
+  private final Environment env;
 
   /**
    * @param soyJavaFunctionsMap Map of all SoyJavaFunctions (name to function). Can be
@@ -130,7 +131,7 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
    */
   protected EvalVisitor(
       SoyValueHelper valueHelper, @Nullable Map<String, SoyJavaFunction> soyJavaFunctionsMap,
-      SoyRecord data, @Nullable SoyRecord ijData, Deque<Map<String, SoyValue>> env) {
+      SoyRecord data, @Nullable SoyRecord ijData, Environment env) {
 
     this.valueHelper = valueHelper;
     this.soyJavaFunctionsMap = soyJavaFunctionsMap;
@@ -140,6 +141,16 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
   }
 
 
+  /**
+   * Replaces the current template data, when the RenderVisitor using this instance is reused to
+   * render another template (with the same injected data and environment).
+   * @param data The new template data.
+   */
+  void resetData(SoyRecord data) {
+    this.data = data;
+  }
+
+
   // -----------------------------------------------------------------------------------------------
   // Implementation for a dummy root node.
 
@@ -308,24 +319,17 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
       VarDefn var = varRef.getDefnDecl();
       VarDefn.Kind varKind = var != null ? var.kind() : VarDefn.Kind.UNDECLARED;
 
-      // Retrieve from the environment. Do this when (a) we know it's a local var data ref or
-      // (b) we don't know either way.
-      if (varKind == VarDefn.Kind.LOCAL_VAR || varKind == VarDefn.Kind.UNDECLARED) {
+      // Retrieve from the environment when we know it's a local var data ref. (References to local
+      // vars that are in scope are always resolved to their defns before rendering.)
+      if (varKind == VarDefn.Kind.LOCAL_VAR) {
         if (env != null) {
-          for (Map<String, SoyValue> envFrame : env) {
-            result = envFrame.get(varRef.getName());
-            if (result != null) {
-              return result;
-            }
-          }
+          result = env.get(((LocalVar) var).slot());
         }
       }
 
       // Retrieve from the data. Do this when (a) we know it's not a local var data ref or
-      // (b) we don't know either way, but we failed to retrieve a nonnull value from the
-      // environment.
-      if (varKind == VarDefn.Kind.PARAM ||
-          (varKind == VarDefn.Kind.UNDECLARED && result == null)) {
+      // (b) we don't know either way.
+      if (varKind == VarDefn.Kind.PARAM || varKind == VarDefn.Kind.UNDECLARED) {
         if (data != null) {
           result = data.getField(varRef.getName());
         }
@@ -663,6 +667,8 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
 
     try {
       return fn.computeForJava(args);
+    } catch (FutureNotDoneException e) {
+      throw e;  // the render stops (see RenderVisitor.setContinuable())
     } catch (Exception e) {
       throw new RenderException(
           "While computing function \"" + fnNode.toSourceString() + "\": " + e.getMessage(), e);
@@ -674,9 +680,7 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
 
     int localVarIndex;
     try {
-      VarRefNode dataRef = (VarRefNode) node.getChild(0);
-      String localVarName = dataRef.getName();
-      localVarIndex = getLocalVar(localVarName + "__index").integerValue();
+      localVarIndex = env.getLoopIndex(getLoopVarSlot(node));
     } catch (Exception e) {
       throw new RenderException(
           "Failed to evaluate function call " + node.toSourceString() + ".",
@@ -690,10 +694,9 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
 
     int localVarIndex, localVarLastIndex;
     try {
-      VarRefNode dataRef = (VarRefNode) node.getChild(0);
-      String localVarName = dataRef.getName();
-      localVarIndex = getLocalVar(localVarName + "__index").integerValue();
-      localVarLastIndex = getLocalVar(localVarName + "__lastIndex").integerValue();
+      int slot = getLoopVarSlot(node);
+      localVarIndex = env.getLoopIndex(slot);
+      localVarLastIndex = env.getLoopLastIndex(slot);
     } catch (Exception e) {
       throw new RenderException(
           "Failed to evaluate function call " + node.toSourceString() + ".",
@@ -707,9 +710,7 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
 
     int localVarIndex;
     try {
-      VarRefNode dataRef = (VarRefNode) node.getChild(0);
-      String localVarName = dataRef.getName();
-      localVarIndex = getLocalVar(localVarName + "__index").integerValue();
+      localVarIndex = env.getLoopIndex(getLoopVarSlot(node));
     } catch (Exception e) {
       throw new RenderException(
           "Failed to evaluate function call " + node.toSourceString() + ".",
@@ -760,21 +761,15 @@ public class EvalVisitor extends AbstractReturningExprNodeVisitor<SoyValue> {
 
 
   /**
-   * Private helper to get the value of a local variable (from the environment).
-   * Note: Throws an AssertionError if the given name is not defined in the environment.
-   * @param localVarName The name of the local var to retrieve.
-   * @return The value of the local var.
+   * Private helper to get the environment slot of the foreach loop variable that is the argument of
+   * a call to isFirst(), isLast() or index().
+   * Note: Throws a ClassCastException if the argument is not a reference to a local variable.
+   * @param fnNode The function call node.
+   * @return The slot of the loop variable.
    */
-  private SoyValue getLocalVar(String localVarName) {
-
-    for (Map<String, SoyValue> envFrame : env) {
-      SoyValue value = envFrame.get(localVarName);
-      if (value != null) {
-        return value;
-      }
-    }
-
-    throw new AssertionError();
+  private static int getLoopVarSlot(FunctionNode fnNode) {
+    VarRefNode dataRef = (VarRefNode) fnNode.getChild(0);
+    return ((LocalVar) dataRef.getDefnDecl()).slot();
   }
 
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralCaseSpec;
+
+import com.ibm.icu.text.PluralRules;
+import com.ibm.icu.util.ULocale;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * The plural rules of a locale, for selecting the cases of translated plural messages. Instances
+ * are cached by locale string, so that rendering a plural message doesn't create a ULocale or
+ * look up the ICU plural rules.
+ *
+ * <p> This class is thread safe.
+ */
+final class MsgPluralRules {
+
+
+  /** Map from plural keyword (as returned by ICU) to the corresponding case type. */
+  private static final ImmutableMap<String, SoyMsgPluralCaseSpec.Type> KEYWORD_TO_TYPE_MAP;
+  static {
+    ImmutableMap.Builder<String, SoyMsgPluralCaseSpec.Type> keywordToTypeMapBuilder =
+        ImmutableMap.builder();
+    for (SoyMsgPluralCaseSpec.Type type : SoyMsgPluralCaseSpec.Type.values()) {
+      if (type != SoyMsgPluralCaseSpec.Type.EXPLICIT) {
+        keywordToTypeMapBuilder.put(type.name().toLowerCase(Locale.ENGLISH), type);
+      }
+    }
+    KEYWORD_TO_TYPE_MAP = keywordToTypeMapBuilder.build();
+  }
+
+  /** Map from locale string to the plural rules of the locale. */
+  private static final ConcurrentMap<String, MsgPluralRules> CACHE = Maps.newConcurrentMap();
+
+
+  /** The ICU plural rules of the locale. */
+  private final PluralRules pluralRules;
+
+
+  private MsgPluralRules(String localeString) {
+    this.pluralRules = PluralRules.forLocale(new ULocale(localeString));
+  }
+
+
+  /**
+   * Gets the plural rules of the given locale.
+   * @param localeString The locale string of the translated messages.
+   */
+  static MsgPluralRules forLocaleString(String localeString) {
+
+    MsgPluralRules msgPluralRules = CACHE.get(localeString);
+    if (msgPluralRules == null) {
+      MsgPluralRules newMsgPluralRules = new MsgPluralRules(localeString);
+      msgPluralRules = CACHE.putIfAbsent(localeString, newMsgPluralRules);
+      if (msgPluralRules == null) {
+        msgPluralRules = newMsgPluralRules;
+      }
+    }
+    return msgPluralRules;
+  }
+
+
+  /**
+   * Selects the type of plural case that matches the given value in this locale.
+   * @param value The value (after the offset is subtracted).
+   * @return The matching case type (never EXPLICIT).
+   */
+  SoyMsgPluralCaseSpec.Type select(double value) {
+    String keyword = selectKeyword(value);
+    SoyMsgPluralCaseSpec.Type type = KEYWORD_TO_TYPE_MAP.get(keyword);
+    // Note: ICU only returns known keywords, but report any other keyword as before.
+    return (type != null) ? type : new SoyMsgPluralCaseSpec(keyword).getType();
+  }
+
+
+  /**
+   * Selects the plural keyword that matches the given value in this locale.
+   * @param value The value (after the offset is subtracted).
+   * @return The matching keyword (e.g. "few").
+   */
+  String selectKeyword(double value) {
+    return pluralRules.select(value);
+  }
+
+}
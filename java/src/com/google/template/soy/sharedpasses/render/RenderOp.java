@@ -0,0 +1,501 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.template.soy.data.SanitizedContent.ContentKind;
+import com.google.template.soy.data.SoyFutureValueProvider;
+import com.google.template.soy.data.SoyFutureValueProvider.FutureNotDoneException;
+import com.google.template.soy.data.SoyList;
+import com.google.template.soy.data.SoyValue;
+import com.google.template.soy.data.UnsafeSanitizedContentOrdainer;
+import com.google.template.soy.data.restricted.IntegerData;
+import com.google.template.soy.data.restricted.StringData;
+import com.google.template.soy.exprtree.ExprNode;
+import com.google.template.soy.exprtree.ExprRootNode;
+import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.soytree.CallBasicNode;
+import com.google.template.soy.soytree.CallDelegateNode;
+import com.google.template.soy.soytree.CallNode;
+import com.google.template.soy.soytree.ForNode;
+import com.google.template.soy.soytree.ForeachNode;
+import com.google.template.soy.soytree.LetContentNode;
+import com.google.template.soy.soytree.LetValueNode;
+import com.google.template.soy.soytree.PrintDirectiveNode;
+import com.google.template.soy.soytree.PrintNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SwitchCaseNode;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * A compiled piece of a template, produced once by {@link TemplateCompiler} and then executed for
+ * every render of the template.
+ *
+ * <p> Ops are immutable and may be shared by concurrent renders. All per-render state (data, env,
+ * output buffers) lives in the {@link RenderVisitor} passed to {@link #render}.
+ *
+ * <p> A render that can be continued (see {@link RenderVisitor#setContinuable}) stops when it needs
+ * the value of a future that is not yet done. As the FutureNotDoneException propagates, each op
+ * that has started rendering its children saves the state it needs to continue (e.g. the index of
+ * the child being rendered) with {@link RenderVisitor#saveFrame}. When the render continues, the
+ * op takes back its frame with {@link RenderVisitor#takeFrame} and goes straight back to that
+ * child. Leaf ops save nothing, and simply render again.
+ */
+abstract class RenderOp {
+
+
+  /**
+   * Renders this op.
+   * @param rv The RenderVisitor holding the state of the current render.
+   */
+  abstract void render(RenderVisitor rv);
+
+
+  /**
+   * Renders a list of ops in order, flushing the output when advised after each op.
+   */
+  static void renderAll(RenderOp[] ops, RenderVisitor rv) {
+    Integer savedIndex = (Integer) rv.takeFrame();
+    int i = (savedIndex != null) ? savedIndex : 0;
+    try {
+      for (; i < ops.length; i++) {
+        ops[i].render(rv);
+        rv.flushIfSoftLimitReached();
+      }
+    } catch (FutureNotDoneException e) {
+      rv.saveFrame(i);
+      throw e;
+    }
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Op implementations.
+
+
+  /** Appends constant text (possibly the concatenation of several adjacent raw text nodes). */
+  static final class RawTextOp extends RenderOp {
+
+    final String text;
+
+    RawTextOp(String text) {
+      this.text = text;
+    }
+
+    @Override void render(RenderVisitor rv) {
+      RenderVisitor.append(rv.getCurrOutputBufForUseByAssistants(), text);
+    }
+  }
+
+
+  /** Renders the children of a block. */
+  static final class BlockOp extends RenderOp {
+
+    final RenderOp[] children;
+
+    BlockOp(RenderOp[] children) {
+      this.children = children;
+    }
+
+    @Override void render(RenderVisitor rv) {
+      renderAll(children, rv);
+    }
+
+    StringData renderToString(RenderVisitor rv) {
+      StringBuilder sb = (StringBuilder) rv.takeFrame();
+      if (sb == null) {
+        sb = new StringBuilder();
+      }
+      rv.pushOutputBuf(sb);
+      try {
+        render(rv);
+      } catch (FutureNotDoneException e) {
+        rv.popOutputBuf();
+        rv.saveFrame(sb);
+        throw e;
+      }
+      rv.popOutputBuf();
+      return StringData.forValue(sb.toString());
+    }
+  }
+
+
+  /**
+   * Delegates to the RenderVisitor for nodes that are not worth compiling (e.g. msgs, css, log),
+   * so that the compiled form always produces exactly the output of the interpreter.
+   *
+   * <p> The interpreter can't continue a node where it stopped, so in a render that can be
+   * continued, the node is rendered into a temporary buffer and rendered again from the start when
+   * the render continues. A node that contains calls waits for its data instead, since its callees
+   * would otherwise be rendered (and e.g. reported to the render listener) more than once.
+   */
+  static final class InterpretOp extends RenderOp {
+
+    final SoyNode node;
+    /** Whether the node contains calls. */
+    final boolean hasCalls;
+
+    InterpretOp(SoyNode node, boolean hasCalls) {
+      this.node = node;
+      this.hasCalls = hasCalls;
+    }
+
+    @Override void render(RenderVisitor rv) {
+
+      if (!rv.isContinuable()) {
+        rv.visitForUseByAssistants(node);
+
+      } else if (hasCalls) {
+        boolean prevNonBlocking = SoyFutureValueProvider.setNonBlockingForCurrentThread(false);
+        try {
+          rv.visitForUseByAssistants(node);
+        } finally {
+          SoyFutureValueProvider.setNonBlockingForCurrentThread(prevNonBlocking);
+        }
+
+      } else {
+        StringBuilder sb = new StringBuilder();
+        rv.pushOutputBuf(sb);
+        try {
+          rv.visitForUseByAssistants(node);
+        } finally {
+          rv.popOutputBuf();
+        }
+        RenderVisitor.append(rv.getCurrOutputBufForUseByAssistants(), sb);
+      }
+    }
+  }
+
+
+  /** Calls a template, rendering the content params with their compiled forms. */
+  static final class CallOp extends RenderOp {
+
+    final CallNode node;
+    /** The compiled content params, parallel to the params (null for a value param). */
+    final BlockOp[] paramContents;
+
+    CallOp(CallNode node, BlockOp[] paramContents) {
+      this.node = node;
+      this.paramContents = paramContents;
+    }
+
+    @Override void render(RenderVisitor rv) {
+      if (node instanceof CallBasicNode) {
+        rv.renderCallBasic((CallBasicNode) node, paramContents);
+      } else {
+        rv.renderCallDelegate((CallDelegateNode) node, paramContents);
+      }
+    }
+  }
+
+
+  /** Prints an expression, applying print directives that were resolved at compile time. */
+  static final class PrintOp extends RenderOp {
+
+    final PrintNode node;
+    final ExprNode expr;
+    /** The resolved directives, parallel to the directive nodes (null where not found). */
+    final SoyJavaPrintDirective[] directives;
+
+    PrintOp(PrintNode node, Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap) {
+      this.node = node;
+      this.expr = node.getExprUnion().getExpr();
+      List<PrintDirectiveNode> directiveNodes = node.getChildren();
+      this.directives = new SoyJavaPrintDirective[directiveNodes.size()];
+      for (int i = 0; i < directives.length; i++) {
+        directives[i] = soyJavaDirectivesMap.get(directiveNodes.get(i).getName());
+      }
+    }
+
+    @Override void render(RenderVisitor rv) {
+      rv.appendPrintResult(node, rv.evalForUseByAssistants(expr, node), directives);
+    }
+  }
+
+
+  /** Binds a 'let' variable to the value of an expression. */
+  static final class LetValueOp extends RenderOp {
+
+    final LetValueNode node;
+    final int slot;
+
+    LetValueOp(LetValueNode node) {
+      this.node = node;
+      this.slot = node.getVar().slot();
+    }
+
+    @Override void render(RenderVisitor rv) {
+      rv.env.bind(slot, rv.evalForUseByAssistants(node.getValueExpr(), node));
+    }
+  }
+
+
+  /** Binds a 'let' variable to the rendering of a block. */
+  static final class LetContentOp extends RenderOp {
+
+    final int slot;
+    @Nullable final ContentKind contentKind;
+    final BlockOp body;
+
+    LetContentOp(LetContentNode node, BlockOp body) {
+      this.slot = node.getVar().slot();
+      this.contentKind = node.getContentKind();
+      this.body = body;
+    }
+
+    @Override void render(RenderVisitor rv) {
+      SoyValue renderedBlock = body.renderToString(rv);
+      if (contentKind != null) {
+        renderedBlock = UnsafeSanitizedContentOrdainer.ordainAsSafe(
+            renderedBlock.stringValue(), contentKind);
+      }
+      rv.env.bind(slot, renderedBlock);
+    }
+  }
+
+
+  /** Renders the first branch whose condition holds, else the 'else' branch (if any). */
+  static final class IfOp extends RenderOp {
+
+    final SoyNode node;
+    final ExprNode[] conds;
+    final RenderOp[] branches;
+    @Nullable final RenderOp elseBranch;
+
+    IfOp(SoyNode node, ExprNode[] conds, RenderOp[] branches, @Nullable RenderOp elseBranch) {
+      this.node = node;
+      this.conds = conds;
+      this.branches = branches;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override void render(RenderVisitor rv) {
+
+      Integer savedBranchIndex = (Integer) rv.takeFrame();
+      int branchIndex;
+      if (savedBranchIndex != null) {
+        branchIndex = savedBranchIndex;
+      } else {
+        branchIndex = conds.length;  // the 'else' branch, unless a condition holds
+        for (int i = 0; i < conds.length; i++) {
+          if (rv.evalForUseByAssistants(conds[i], node).coerceToBoolean()) {
+            branchIndex = i;
+            break;
+          }
+        }
+      }
+
+      RenderOp branch = (branchIndex < branches.length) ? branches[branchIndex] : elseBranch;
+      if (branch != null) {
+        try {
+          branch.render(rv);
+        } catch (FutureNotDoneException e) {
+          rv.saveFrame(branchIndex);
+          throw e;
+        }
+      }
+    }
+  }
+
+
+  /** Renders the first case matching the switch value, else the default (if any). */
+  static final class SwitchOp extends RenderOp {
+
+    final SoyNode node;
+    final ExprNode expr;
+    final SwitchCaseNode[] caseNodes;
+    final RenderOp[] cases;
+    @Nullable final RenderOp defaultCase;
+
+    SwitchOp(
+        SoyNode node, ExprNode expr, SwitchCaseNode[] caseNodes, RenderOp[] cases,
+        @Nullable RenderOp defaultCase) {
+      this.node = node;
+      this.expr = expr;
+      this.caseNodes = caseNodes;
+      this.cases = cases;
+      this.defaultCase = defaultCase;
+    }
+
+    @Override void render(RenderVisitor rv) {
+
+      Integer savedCaseIndex = (Integer) rv.takeFrame();
+      int caseIndex;
+      if (savedCaseIndex != null) {
+        caseIndex = savedCaseIndex;
+      } else {
+        caseIndex = findCase(rv);
+      }
+
+      RenderOp matchingCase = (caseIndex < cases.length) ? cases[caseIndex] : defaultCase;
+      if (matchingCase != null) {
+        try {
+          matchingCase.render(rv);
+        } catch (FutureNotDoneException e) {
+          rv.saveFrame(caseIndex);
+          throw e;
+        }
+      }
+    }
+
+    /**
+     * Returns the index of the first case matching the switch value, or the number of cases if
+     * none matches.
+     */
+    private int findCase(RenderVisitor rv) {
+      SoyValue switchValue = rv.evalForUseByAssistants(expr, node);
+      for (int i = 0; i < caseNodes.length; i++) {
+        for (ExprNode caseExpr : caseNodes[i].getExprList()) {
+          if (switchValue.equals(rv.evalForUseByAssistants(caseExpr, caseNodes[i]))) {
+            return i;
+          }
+        }
+      }
+      return caseNodes.length;
+    }
+  }
+
+
+  /** Iterates over a list. */
+  static final class ForeachOp extends RenderOp {
+
+    final ForeachNode node;
+    final int slot;
+    final RenderOp[] body;
+    @Nullable final RenderOp ifEmpty;
+
+    ForeachOp(ForeachNode node, RenderOp[] body, @Nullable RenderOp ifEmpty) {
+      this.node = node;
+      this.slot = node.getVar().slot();
+      this.body = body;
+      this.ifEmpty = ifEmpty;
+    }
+
+    @Override void render(RenderVisitor rv) {
+
+      ForeachFrame frame = (ForeachFrame) rv.takeFrame();
+      SoyList foreachList;
+      int i;
+      if (frame != null) {
+        foreachList = frame.list;
+        i = frame.index;
+      } else {
+        SoyValue dataRefValue = rv.evalForUseByAssistants(node.getExpr(), node);
+        if (!(dataRefValue instanceof SoyList)) {
+          throw new RenderException(
+              "In 'foreach' command " + node.toSourceString() +
+              ", the data reference does not resolve to a SoyList " +
+              "(encountered type " + dataRefValue.getClass().getName() + ").");
+        }
+        foreachList = (SoyList) dataRefValue;
+        i = 0;
+      }
+      int length = foreachList.length();
+
+      try {
+        if (length > 0) {
+          for (; i < length; ++i) {
+            rv.env.bindLoopVar(slot, foreachList.get(i), i, length - 1);
+            renderAll(body, rv);
+          }
+
+        } else if (ifEmpty != null) {
+          ifEmpty.render(rv);
+        }
+      } catch (FutureNotDoneException e) {
+        rv.saveFrame(new ForeachFrame(foreachList, i));
+        throw e;
+      }
+    }
+  }
+
+
+  /** Iterates over an integer range. */
+  static final class ForOp extends RenderOp {
+
+    final ForNode node;
+    final int slot;
+    final RenderOp[] body;
+
+    ForOp(ForNode node, RenderOp[] body) {
+      this.node = node;
+      this.slot = node.getVar().slot();
+      this.body = body;
+    }
+
+    @Override void render(RenderVisitor rv) {
+
+      // The frame of a stopped ForOp holds the current value, the limit and the increment.
+      int[] frame = (int[]) rv.takeFrame();
+      if (frame != null) {
+        renderRange(rv, frame[0], frame[1], frame[2]);
+        return;
+      }
+
+      List<ExprRootNode<?>> rangeArgs = node.getRangeArgs();
+      int[] rangeArgValues = new int[rangeArgs.size()];
+      for (int i = 0; i < rangeArgValues.length; i++) {
+        ExprNode rangeArg = rangeArgs.get(i);
+        SoyValue rangeArgValue = rv.evalForUseByAssistants(rangeArg, node);
+        if (!(rangeArgValue instanceof IntegerData)) {
+          throw new RenderException(
+              "In 'for' command " + node.toSourceString() + ", the expression \"" +
+              rangeArg.toSourceString() + "\" does not resolve to an integer.");
+        }
+        rangeArgValues[i] = ((IntegerData) rangeArgValue).integerValue();
+      }
+
+      int increment = (rangeArgValues.length == 3) ? rangeArgValues[2] : 1 /* default */;
+      int init = (rangeArgValues.length >= 2) ? rangeArgValues[0] : 0 /* default */;
+      int limit = (rangeArgValues.length >= 2) ? rangeArgValues[1] : rangeArgValues[0];
+      renderRange(rv, init, limit, increment);
+    }
+
+    /**
+     * Renders the body for each value of the range.
+     */
+    private void renderRange(RenderVisitor rv, int init, int limit, int increment) {
+      int i = init;
+      try {
+        for (; i < limit; i += increment) {
+          rv.env.bind(slot, IntegerData.forValue(i));
+          renderAll(body, rv);
+        }
+      } catch (FutureNotDoneException e) {
+        rv.saveFrame(new int[] {i, limit, increment});
+        throw e;
+      }
+    }
+  }
+
+
+  /** The frame of a stopped ForeachOp: the list, and the index of the current iteration. */
+  private static final class ForeachFrame {
+
+    final SoyList list;
+    final int index;
+
+    ForeachFrame(SoyList list, int index) {
+      this.list = list;
+      this.index = index;
+    }
+  }
+}
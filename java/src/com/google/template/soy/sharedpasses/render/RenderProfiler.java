@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.common.base.Preconditions;
+import com.google.template.soy.data.AdvisingAppendable;
+import com.google.template.soy.shared.SoyRenderListener;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Times the templates rendered by one profiled render, and reports them to a
+ * {@link SoyRenderListener}.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> An instance is created for each profiled render, and shared by all the RenderVisitors of
+ * the render (so it is not thread safe). Renders that are not profiled have no RenderProfiler, so
+ * they don't pay for the timing.
+ */
+public final class RenderProfiler {
+
+
+  /** The listener to report the rendered templates to. */
+  private final SoyRenderListener renderListener;
+
+  /** The stack of the templates being rendered (the innermost template is on top). */
+  private final Deque<Frame> frameStack;
+
+
+  /**
+   * @param renderListener The listener to report the rendered templates to.
+   */
+  public RenderProfiler(SoyRenderListener renderListener) {
+    this.renderListener = Preconditions.checkNotNull(renderListener);
+    this.frameStack = new ArrayDeque<Frame>();
+  }
+
+
+  /**
+   * Starts timing a template.
+   *
+   * @param outputBuf The Appendable the template renders to.
+   * @return The frame of the template, which is also the Appendable the template must render to
+   *     (to count the chars it writes).
+   */
+  Frame enterTemplate(Appendable outputBuf) {
+    Frame frame = new Frame(outputBuf);
+    frameStack.push(frame);
+    return frame;
+  }
+
+
+  /**
+   * Stops timing the template that is on top of the stack, and reports it to the listener.
+   *
+   * @param frame The frame returned by the matching call to {@code enterTemplate()}.
+   * @param templateName The name to report the template under.
+   */
+  void exitTemplate(Frame frame, String templateName) {
+
+    long inclusiveNanos = System.nanoTime() - frame.startNanos;
+    Preconditions.checkState(frameStack.pop() == frame);
+    Frame parentFrame = frameStack.peek();
+    if (parentFrame != null) {
+      parentFrame.childNanos += inclusiveNanos;
+    }
+    renderListener.onTemplateRendered(
+        templateName, inclusiveNanos, inclusiveNanos - frame.childNanos, frame.numChars);
+  }
+
+
+  /**
+   * Stops timing the template that is on top of the stack, because the render stopped to wait for
+   * data (see {@link RenderVisitor#setContinuable}). The template is timed again from
+   * {@code resumeTemplate()}, so the wait is not part of its time.
+   *
+   * @param frame The frame of the template.
+   */
+  void suspendTemplate(Frame frame) {
+    Preconditions.checkState(frameStack.pop() == frame);
+    frame.suspendNanos = System.nanoTime();
+  }
+
+
+  /**
+   * Times a template again when the render continues, after {@code suspendTemplate()}.
+   *
+   * @param frame The frame of the template.
+   */
+  void resumeTemplate(Frame frame) {
+    frame.startNanos += System.nanoTime() - frame.suspendNanos;
+    frameStack.push(frame);
+  }
+
+
+  /**
+   * The state of a template being rendered. Also the Appendable that the template renders to,
+   * which counts the chars written and passes them on to the template's real output.
+   */
+  static final class Frame implements AdvisingAppendable {
+
+    private final Appendable outputBuf;
+    /** The start time, moved forward by the time spent waiting while the render was stopped. */
+    private long startNanos;
+    /** The time at which the render stopped, if it did. */
+    private long suspendNanos;
+    /** The time spent rendering the callees that are done. */
+    private long childNanos;
+    /** The number of chars written so far. */
+    private long numChars;
+
+    private Frame(Appendable outputBuf) {
+      this.outputBuf = outputBuf;
+      this.startNanos = System.nanoTime();
+    }
+
+    @Override public Frame append(CharSequence csq) throws IOException {
+      numChars += (csq == null) ? 4 /* "null" */ : csq.length();
+      outputBuf.append(csq);
+      return this;
+    }
+
+    @Override public Frame append(CharSequence csq, int start, int end) throws IOException {
+      numChars += end - start;
+      outputBuf.append(csq, start, end);
+      return this;
+    }
+
+    @Override public Frame append(char c) throws IOException {
+      numChars++;
+      outputBuf.append(c);
+      return this;
+    }
+
+    @Override public boolean softLimitReached() {
+      return outputBuf instanceof AdvisingAppendable &&
+          ((AdvisingAppendable) outputBuf).softLimitReached();
+    }
+
+    @Override public void flush() throws IOException {
+      if (outputBuf instanceof Flushable) {
+        ((Flushable) outputBuf).flush();
+      }
+    }
+  }
+
+}
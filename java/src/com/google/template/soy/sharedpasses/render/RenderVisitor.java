@@ -19,8 +19,11 @@ package com.google.template.soy.sharedpasses.render;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.template.soy.data.AdvisingAppendable;
+import com.google.template.soy.data.SanitizedContent;
+import com.google.template.soy.data.SanitizedContent.ContentKind;
 import com.google.template.soy.data.SoyDataException;
+import com.google.template.soy.data.SoyFutureValueProvider.FutureNotDoneException;
 import com.google.template.soy.data.SoyList;
 import com.google.template.soy.data.SoyRecord;
 import com.google.template.soy.data.SoyValue;
@@ -38,7 +41,9 @@ import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyJavaStreamingPrintDirective;
 import com.google.template.soy.sharedpasses.render.EvalVisitor.EvalVisitorFactory;
+import com.google.template.soy.sharedpasses.render.RenderOp.BlockOp;
 import com.google.template.soy.soytree.AbstractSoyNodeVisitor;
 import com.google.template.soy.soytree.CallBasicNode;
 import com.google.template.soy.soytree.CallDelegateNode;
@@ -75,6 +80,7 @@ import com.google.template.soy.soytree.TemplateRegistry;
 import com.google.template.soy.soytree.TemplateRegistry.DelegateTemplateConflictException;
 import com.google.template.soy.soytree.XidNode;
 import com.google.template.soy.soytree.defn.TemplateParam;
+import com.google.template.soy.types.SoyType;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
@@ -106,14 +112,14 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   /** The bundle containing all the templates that may be rendered. */
   protected final TemplateRegistry templateRegistry;
 
-  /** The current template data. */
-  protected final SoyRecord data;
+  /** The current template data (replaced when this instance is reused, see reset()). */
+  protected SoyRecord data;
 
   /** The current injected data. */
   protected final SoyRecord ijData;
 
   /** The current environment. */
-  protected final Deque<Map<String, SoyValue>> env;
+  protected final Environment env;
 
   /** The set of active delegate package names. */
   protected final Set<String> activeDelPackageNames;
@@ -127,6 +133,12 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   /** CSS renaming map. */
   protected final SoyCssRenamingMap cssRenamingMap;
 
+  /** The compiled forms of the templates, or null to interpret the templates. */
+  protected final CompiledTemplates compiledTemplates;
+
+  /** The profiler of the current render, or null if the render is not profiled. */
+  protected final RenderProfiler renderProfiler;
+
   /** The EvalVisitor for this instance (can reuse since 'data' and 'env' references stay same). */
   // Note: Don't use directly. Call eval() instead.
   private EvalVisitor evalVisitor;
@@ -134,12 +146,22 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   /** The assistant visitor for msgs (lazily initialized). */
   private RenderVisitorAssistantForMsgs assistantForMsgs;
 
+  /** The helper instance that renders the callees of this instance (lazily initialized). Reused
+   *  for all the calls, since they are rendered one at a time, so that a render only creates one
+   *  instance per level of calls. */
+  private RenderVisitor helperInstance;
+
   /** The stack of output Appendables (current output buffer is top of stack). */
   protected Deque<Appendable> outputBufStack;
 
   /** The current Appendable to append the output to. Equals the top element of outputStack. */
   private Appendable currOutputBuf;
 
+  /** The frames saved by the ops and calls of the render when it stopped, outermost first, or null
+   *  if the render can't be continued (see setContinuable()). Shared by all the visitors of the
+   *  render. */
+  private Deque<Object> savedFrames;
+
 
   /**
    * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to directive).
@@ -156,14 +178,19 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
    *     source.
    * @param cssRenamingMap The CSS renaming map, or null if not applicable.
    * @param xidRenamingMap The 'xid' renaming map, or null if not applicable.
+   * @param compiledTemplates The compiled forms of the templates in templateRegistry, or null to
+   *     interpret the templates.
+   * @param renderProfiler The profiler of the current render, or null if the render is not
+   *     profiled.
    */
   protected RenderVisitor(
       Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap,
       EvalVisitorFactory evalVisitorFactory, Appendable outputBuf,
       @Nullable TemplateRegistry templateRegistry, SoyRecord data,
-      @Nullable SoyRecord ijData, @Nullable Deque<Map<String, SoyValue>> env,
+      @Nullable SoyRecord ijData, @Nullable Environment env,
       @Nullable Set<String> activeDelPackageNames, @Nullable SoyMsgBundle msgBundle,
-      @Nullable SoyIdRenamingMap xidRenamingMap, @Nullable SoyCssRenamingMap cssRenamingMap) {
+      @Nullable SoyIdRenamingMap xidRenamingMap, @Nullable SoyCssRenamingMap cssRenamingMap,
+      @Nullable CompiledTemplates compiledTemplates, @Nullable RenderProfiler renderProfiler) {
 
     Preconditions.checkNotNull(data);
 
@@ -172,14 +199,17 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
     this.templateRegistry = templateRegistry;
     this.data = data;
     this.ijData = ijData;
-    this.env = (env != null) ? env : new ArrayDeque<Map<String, SoyValue>>();
+    this.env = (env != null) ? env : new Environment();
     this.activeDelPackageNames = activeDelPackageNames;
     this.msgBundle = msgBundle;
     this.xidRenamingMap = xidRenamingMap;
     this.cssRenamingMap = cssRenamingMap;
+    this.compiledTemplates = compiledTemplates;
+    this.renderProfiler = renderProfiler;
 
     this.evalVisitor = null;  // lazily initialized
     this.assistantForMsgs = null;  // lazily initialized
+    this.helperInstance = null;  // lazily initialized
 
     this.outputBufStack = new ArrayDeque<Appendable>();
     pushOutputBuf(outputBuf);
@@ -197,7 +227,93 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
     return new RenderVisitor(
         soyJavaDirectivesMap, evalVisitorFactory, outputBuf, templateRegistry,
-        data, ijData, null, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap);
+        data, ijData, null, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap,
+        compiledTemplates, renderProfiler);
+  }
+
+
+  /**
+   * Gets the helper instance for rendering a callee, reusing the one of the previous call if any
+   * (it is done rendering by then).
+   *
+   * @param outputBuf The Appendable to append the output to.
+   * @param data The template data.
+   * @return The helper RenderVisitor instance.
+   */
+  private RenderVisitor getHelperInstance(Appendable outputBuf, SoyRecord data) {
+
+    if (helperInstance == null) {
+      helperInstance = createHelperInstance(outputBuf, data);
+    } else {
+      helperInstance.reset(outputBuf, data);
+    }
+    helperInstance.savedFrames = savedFrames;
+    return helperInstance;
+  }
+
+
+  /**
+   * Prepares this helper instance for rendering another callee. The environment is kept, since a
+   * template binds its local variables before using them.
+   *
+   * @param outputBuf The Appendable to append the output to.
+   * @param data The template data.
+   */
+  private void reset(Appendable outputBuf, SoyRecord data) {
+
+    Preconditions.checkNotNull(data);
+
+    this.data = data;
+    if (evalVisitor != null) {
+      evalVisitor.resetData(data);
+    }
+
+    // Note: The stack is not empty if the previous callee failed to render.
+    outputBufStack.clear();
+    pushOutputBuf(outputBuf);
+  }
+
+
+  /**
+   * Makes the render of this visitor able to stop when it needs the value of a future that is not
+   * yet done (see {@code SoyFutureValueProvider.setNonBlockingForCurrentThread()}), and continue
+   * later from where it stopped: when exec() throws a FutureNotDoneException, the position of the
+   * render is saved, and the next call to exec() on the same template continues from there (once
+   * the future is done). Only compiled templates can be continued, so this requires
+   * compiledTemplates.
+   */
+  public void setContinuable() {
+    Preconditions.checkState(compiledTemplates != null);
+    savedFrames = new ArrayDeque<Object>();
+  }
+
+
+  /**
+   * Returns whether the render of this visitor can stop and be continued later.
+   */
+  public boolean isContinuable() {
+    return savedFrames != null;
+  }
+
+
+  /**
+   * Saves the state that an op or call needs to continue after the render stopped. Called as the
+   * FutureNotDoneException propagates, by each op or call that has started rendering its children
+   * (so the innermost one is called first).
+   */
+  void saveFrame(Object frame) {
+    if (savedFrames != null) {
+      savedFrames.push(frame);
+    }
+  }
+
+
+  /**
+   * Takes back the frame saved by {@link #saveFrame} when continuing a render (outermost first).
+   * @return The frame, or null if the render is not continuing (anymore).
+   */
+  @Nullable Object takeFrame() {
+    return (savedFrames != null) ? savedFrames.poll() : null;
   }
 
 
@@ -215,9 +331,48 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
 
   @Override protected void visitTemplateNode(TemplateNode node) {
+
+    if (renderProfiler == null) {
+      renderTemplateHelper(node);
+      return;
+    }
+
+    // Note: If the template fails to render, the whole render fails, so nothing is reported.
+    RenderProfiler.Frame frame = (RenderProfiler.Frame) takeFrame();
+    if (frame == null) {
+      frame = renderProfiler.enterTemplate(currOutputBuf);
+    } else {
+      renderProfiler.resumeTemplate(frame);
+    }
+    pushOutputBuf(frame);
+    try {
+      renderTemplateHelper(node);
+    } catch (FutureNotDoneException e) {
+      popOutputBuf();
+      renderProfiler.suspendTemplate(frame);
+      saveFrame(frame);
+      throw e;
+    }
+    popOutputBuf();
+    renderProfiler.exitTemplate(
+        frame,
+        (node instanceof TemplateDelegateNode) ?
+            ((TemplateDelegateNode) node).getDelTemplateName() : node.getTemplateName());
+  }
+
+
+  /**
+   * Private helper for visitTemplateNode() to render a template.
+   * @param node The template to render.
+   */
+  private void renderTemplateHelper(TemplateNode node) {
     try {
       checkStrictParamTypes(node);
-      visitBlockHelper(node);
+      if (compiledTemplates != null) {
+        compiledTemplates.getCompiledBody(node).render(this);
+      } else {
+        visitBlockHelper(node);
+      }
     } catch (RenderException re) {
       // This will complete one single StackTraceElement, and rethrow.
       throw re.completeStackTraceElement(node);
@@ -232,7 +387,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
   @Override protected void visitMsgFallbackGroupNode(MsgFallbackGroupNode node) {
     if (assistantForMsgs == null) {
-      assistantForMsgs = new RenderVisitorAssistantForMsgs(this, env, msgBundle);
+      assistantForMsgs = new RenderVisitorAssistantForMsgs(this, msgBundle);
     }
     assistantForMsgs.visitForUseByMaster(node);
   }
@@ -244,31 +399,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
 
   @Override protected void visitPrintNode(PrintNode node) {
-
-    SoyValue result = eval(node.getExprUnion().getExpr(), node);
-    if (result instanceof UndefinedData) {
-      throw new RenderException(
-          "In 'print' tag, expression \"" + node.getExprText() + "\" evaluates to undefined.")
-          .addPartialStackTraceElement(node.getSourceLocation());
-    }
-
-    // Process directives.
-    for (PrintDirectiveNode directiveNode : node.getChildren()) {
-
-      // Evaluate directive args.
-      List<ExprRootNode<?>> argsExprs = directiveNode.getArgs();
-      List<SoyValue> argsSoyDatas = Lists.newArrayListWithCapacity(argsExprs.size());
-      for (ExprRootNode<?> argExpr : argsExprs) {
-        argsSoyDatas.add(eval(argExpr, directiveNode));
-      }
-
-      // Apply directive.
-      result = applyDirective(directiveNode.getName(), result, argsSoyDatas, node);
-    }
-
-    // Important: Use coerceToString to make sure we are using the value's preferred way of being
-    // converted to string.
-    append(currOutputBuf, result.coerceToString());
+    appendPrintResult(node, eval(node.getExprUnion().getExpr(), node), null);
   }
 
 
@@ -308,7 +439,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
 
   @Override protected void visitLetValueNode(LetValueNode node) {
-    env.peek().put(node.getVarName(), eval(node.getValueExpr(), node));
+    env.bind(node.getVar().slot(), eval(node.getValueExpr(), node));
   }
 
 
@@ -325,7 +456,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
           renderedBlock.stringValue(), node.getContentKind());
     }
 
-    env.peek().put(node.getVarName(), renderedBlock);
+    env.bind(node.getVar().slot(), renderedBlock);
   }
 
 
@@ -388,23 +519,15 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
     }
     SoyList foreachList = (SoyList) dataRefValue;
 
-    if (foreachList.length() > 0) {
+    int length = foreachList.length();
+    if (length > 0) {
       // Case 1: Nonempty list.
-      String varName = node.getVarName();
-
-      Map<String, SoyValue> newEnvFrame = Maps.newHashMap();
-      // Note: No need to save firstIndex as it's always 0.
-      newEnvFrame.put(varName + "__lastIndex", IntegerData.forValue(foreachList.length() - 1));
-      env.push(newEnvFrame);
-
-      for (int i = 0; i < foreachList.length(); ++i) {
-        newEnvFrame.put(varName + "__index", IntegerData.forValue(i));
-        newEnvFrame.put(varName, foreachList.get(i));
-        visitChildren((ForeachNonemptyNode) node.getChild(0));
+      int slot = node.getVar().slot();
+      for (int i = 0; i < length; ++i) {
+        env.bindLoopVar(slot, foreachList.get(i), i, length - 1);
+        renderChildren((ForeachNonemptyNode) node.getChild(0));
       }
 
-      env.pop();
-
     } else {
       // Case 2: Empty list. If the 'ifempty' node exists, visit it.
       if (node.numChildren() == 2) {
@@ -432,20 +555,26 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
     int init = (rangeArgValues.size() == 2) ? rangeArgValues.remove(0) : 0 /* default */;
     int limit = rangeArgValues.get(0);
 
-    String localVarName = node.getVarName();
-    Map<String, SoyValue> newEnvFrame = Maps.newHashMap();
-    env.push(newEnvFrame);
-
+    int slot = node.getVar().slot();
     for (int i = init; i < limit; i += increment) {
-      newEnvFrame.put(localVarName, IntegerData.forValue(i));
-      visitChildren(node);
+      env.bind(slot, IntegerData.forValue(i));
+      renderChildren(node);
     }
-
-    env.pop();
   }
 
 
   @Override protected void visitCallBasicNode(CallBasicNode node) {
+    renderCallBasic(node, null);
+  }
+
+
+  /**
+   * Renders a basic call.
+   * @param node The call node.
+   * @param paramContents The compiled content params (see {@link #visitCallNodeHelper}), or null
+   *     to interpret them.
+   */
+  void renderCallBasic(CallBasicNode node, @Nullable BlockOp[] paramContents) {
 
     TemplateNode callee = templateRegistry.getBasicTemplate(node.getCalleeName());
     if (callee == null) {
@@ -454,11 +583,22 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
           .addPartialStackTraceElement(node.getSourceLocation());
     }
 
-    visitCallNodeHelper(node, callee);
+    visitCallNodeHelper(node, callee, paramContents);
   }
 
 
   @Override protected void visitCallDelegateNode(CallDelegateNode node) {
+    renderCallDelegate(node, null);
+  }
+
+
+  /**
+   * Renders a delegate call.
+   * @param node The call node.
+   * @param paramContents The compiled content params (see {@link #visitCallNodeHelper}), or null
+   *     to interpret them.
+   */
+  void renderCallDelegate(CallDelegateNode node, @Nullable BlockOp[] paramContents) {
 
     ExprRootNode<?> variantExpr = node.getDelCalleeVariantExpr();
     String variant;
@@ -494,7 +634,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
     }
 
     if (callee != null) {
-      visitCallNodeHelper(node, callee);
+      visitCallNodeHelper(node, callee, paramContents);
 
     } else if (node.allowsEmptyDefault()) {
       return;  // no active delegate implementation, so the call output is empty string
@@ -508,51 +648,75 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Private helper for rendering a call.
+   *
+   * <p> If the render stops within the call, the call saves a {@link CallFrame}, so that it
+   * continues with the same call data and output buffer instead of building them again.
+   *
+   * @param node The call node.
+   * @param callee The callee template.
+   * @param paramContents The compiled content params, parallel to the children of the call node
+   *     (an element is null for a value param), or null to interpret them.
+   */
   @SuppressWarnings("ConstantConditions")  // for IntelliJ
-  private void visitCallNodeHelper(CallNode node, TemplateNode callee) {
+  private void visitCallNodeHelper(
+      CallNode node, TemplateNode callee, @Nullable BlockOp[] paramContents) {
 
-    // ------ Build the call data. ------
-    SoyRecord dataToPass;
-    if (node.isPassingAllData()) {
-      dataToPass = data;
-    } else if (node.isPassingData()) {
-      SoyValue dataRefValue = eval(node.getDataExpr(), node);
-      if (!(dataRefValue instanceof SoyRecord)) {
-        throw new RenderException(
-            "In 'call' command " + node.toSourceString() +
-            ", the data reference does not resolve to a SoyRecord.")
-            .addPartialStackTraceElement(node.getSourceLocation());
-      }
-      dataToPass = (SoyRecord) dataRefValue;
-    } else {
-      dataToPass = null;
-    }
+    CallFrame frame = (CallFrame) takeFrame();
 
+    // ------ Build the call data. ------
     SoyRecord callData;
+    int numParamsSet = 0;
 
-    if (node.numChildren() == 0) {
-      // --- Cases 1 and 2: Not passing params. ---
-      if (dataToPass == null) {
-        // Case 1: Not passing data and not passing params.
-        callData = ParamStore.EMPTY_INSTANCE;
+    if (frame != null) {
+      // Continuing the call: the call data is built up to the param where the render stopped.
+      callData = frame.callData;
+      numParamsSet = frame.numParamsSet;
+
+    } else {
+      SoyRecord dataToPass;
+      if (node.isPassingAllData()) {
+        dataToPass = data;
+      } else if (node.isPassingData()) {
+        SoyValue dataRefValue = eval(node.getDataExpr(), node);
+        if (!(dataRefValue instanceof SoyRecord)) {
+          throw new RenderException(
+              "In 'call' command " + node.toSourceString() +
+              ", the data reference does not resolve to a SoyRecord.")
+              .addPartialStackTraceElement(node.getSourceLocation());
+        }
+        dataToPass = (SoyRecord) dataRefValue;
       } else {
-        // Case 2: Passing data and not passing params.
-        callData = dataToPass;
+        dataToPass = null;
       }
 
-    } else {
-      // --- Cases 3 and 4: Passing params. ---
-      ParamStore mutableCallData;
+      if (node.numChildren() == 0) {
+        // --- Cases 1 and 2: Not passing params. ---
+        if (dataToPass == null) {
+          // Case 1: Not passing data and not passing params.
+          callData = ParamStore.EMPTY_INSTANCE;
+        } else {
+          // Case 2: Passing data and not passing params.
+          callData = dataToPass;
+        }
 
-      if (dataToPass == null) {
-        // Case 3: Not passing data and passing params.
-        mutableCallData = new BasicParamStore();
       } else {
-        // Case 4: Passing data and passing params.
-        mutableCallData = new AugmentedParamStore(dataToPass);
+        // --- Cases 3 and 4: Passing params (set below). ---
+        if (dataToPass == null) {
+          // Case 3: Not passing data and passing params.
+          callData = new BasicParamStore();
+        } else {
+          // Case 4: Passing data and passing params.
+          callData = new AugmentedParamStore(dataToPass);
+        }
       }
+    }
 
-      for (CallParamNode child : node.getChildren()) {
+    try {
+      for (; numParamsSet < node.numChildren(); numParamsSet++) {
+        CallParamNode child = node.getChild(numParamsSet);
+        ParamStore mutableCallData = (ParamStore) callData;
 
         if (child instanceof CallParamValueNode) {
           mutableCallData.setField(
@@ -561,7 +725,8 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
         } else if (child instanceof CallParamContentNode) {
           CallParamContentNode childCpcn = (CallParamContentNode) child;
-          SoyValue renderedBlock = renderBlock(childCpcn);
+          SoyValue renderedBlock = (paramContents != null) ?
+              paramContents[numParamsSet].renderToString(this) : renderBlock(childCpcn);
 
           // If the param node has a content kind attribute, it will have been autoescaped in the
           // corresponding context by the strict contextual autoescaper. Hence, the result of
@@ -577,37 +742,45 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
           throw new AssertionError();
         }
       }
-
-      callData = mutableCallData;
+    } catch (FutureNotDoneException e) {
+      saveFrame(new CallFrame(callData, numParamsSet, null, null));
+      throw e;
     }
 
     // ------ Render the callee template with the callData built above. ------
 
-    if (node.getEscapingDirectiveNames().isEmpty()) {
+    Appendable calleeOutputBuf;
+    StringBuilder calleeBuilder = null;
+    if (frame != null && frame.calleeOutputBuf != null) {
+      // Continuing the callee, which renders into the same output buffer as before it stopped.
+      calleeOutputBuf = frame.calleeOutputBuf;
+      calleeBuilder = frame.calleeBuilder;
+    } else if (node.getEscapingDirectiveNames().isEmpty()) {
       // No escaping at the call site -- render directly into the output buffer.
-      RenderVisitor rv = createHelperInstance(currOutputBuf, callData);
-      try {
-        rv.exec(callee);
-      } catch (RenderException re) {
-        // The {call .XXX} failed to render - a new partial stack trace element is added to capture
-        // this template call.
-        throw re.addPartialStackTraceElement(node.getSourceLocation());
-      }
-    } else {
-      // Escaping the call site's result, such as at a strict template boundary.
-      // TODO: Some optimization is needed here before Strict Soy can be widely used:
-      // - Only create this temporary buffer when contexts mismatch. We could run a pre-pass that
-      // eliminates escaping directives when all callers are known.
-      // - Instead of creating a temporary buffer and copying, wrap with an escaping StringBuilder.
-      StringBuilder calleeBuilder = new StringBuilder();
-      RenderVisitor rv = createHelperInstance(calleeBuilder, callData);
-      try {
-        rv.exec(callee);
-      } catch (RenderException re) {
-        // The {call .XXX} failed to render - a new partial stack trace element is added to capture
-        // this template call.
-        throw re.addPartialStackTraceElement(node.getSourceLocation());
-      }
+      calleeOutputBuf = currOutputBuf;
+    } else if ((calleeOutputBuf = getStreamingEscapingOutputBuf(node, callee)) == null) {
+      // Escaping the call site's result, such as at a strict template boundary, when the escaping
+      // needs the whole result (e.g. filters, or several directives).
+      calleeBuilder = new StringBuilder();
+      calleeOutputBuf = calleeBuilder;
+    }
+    // Otherwise, escaping the call site's result one piece at a time, as it is rendered (note that
+    // call sites where the callee's content kind matches the context don't get escaping
+    // directives).
+
+    RenderVisitor rv = getHelperInstance(calleeOutputBuf, callData);
+    try {
+      rv.exec(callee);
+    } catch (RenderException re) {
+      // The {call .XXX} failed to render - a new partial stack trace element is added to capture
+      // this template call.
+      throw re.addPartialStackTraceElement(node.getSourceLocation());
+    } catch (FutureNotDoneException e) {
+      saveFrame(new CallFrame(callData, numParamsSet, calleeOutputBuf, calleeBuilder));
+      throw e;
+    }
+
+    if (calleeBuilder != null) {
       SoyValue resultData = (callee.getContentKind() != null) ?
           UnsafeSanitizedContentOrdainer.ordainAsSafe(
               calleeBuilder.toString(), callee.getContentKind()) :
@@ -620,6 +793,30 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Private helper for visitCallNodeHelper to get the Appendable that escapes the callee's output
+   * (as it is rendered) into the current output buffer, if the call site's escaping allows it.
+   *
+   * @param node The call node, which must have escaping directives.
+   * @param callee The callee template.
+   * @return The escaping Appendable, or null if the callee's output must be escaped as a whole.
+   */
+  @Nullable private Appendable getStreamingEscapingOutputBuf(CallNode node, TemplateNode callee) {
+
+    List<String> escapingDirectiveNames = node.getEscapingDirectiveNames();
+    if (escapingDirectiveNames.size() != 1) {
+      return null;
+    }
+    SoyJavaPrintDirective directive = soyJavaDirectivesMap.get(escapingDirectiveNames.get(0));
+    if (!(directive instanceof SoyJavaStreamingPrintDirective) ||
+        !directive.getValidArgsSizes().contains(0)) {
+      return null;  // errors are reported by applyDirective()
+    }
+    return ((SoyJavaStreamingPrintDirective) directive).applyForJavaStreaming(
+        currOutputBuf, callee.getContentKind());
+  }
+
+
   @Override protected void visitCallParamNode(CallParamNode node) {
     // In this visitor, we never directly visit a CallParamNode.
     throw new AssertionError();
@@ -662,7 +859,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   /**
    * Pushes the given output buffer onto the stack (it becomes the current output buffer).
    */
-  private void pushOutputBuf(Appendable outputBuf) {
+  void pushOutputBuf(Appendable outputBuf) {
     outputBufStack.push(outputBuf);
     currOutputBuf = outputBuf;
   }
@@ -671,7 +868,7 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   /**
    * Pops the top output buffer off the stack and returns it (changes the current output buffer).
    */
-  private Appendable popOutputBuf() {
+  Appendable popOutputBuf() {
     Appendable poppedOutputBuf = outputBufStack.pop();
     currOutputBuf = outputBufStack.peek();
     return poppedOutputBuf;
@@ -687,19 +884,45 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
   }
 
 
+  /**
+   * Flushes the current output buffer if it is an AdvisingAppendable (i.e. the output of the whole
+   * render, since temporary buffers are plain StringBuilders) that advises flushing. Called after
+   * each statement, so that a long template body or loop is flushed as it renders.
+   */
+  void flushIfSoftLimitReached() {
+
+    if (currOutputBuf instanceof AdvisingAppendable) {
+      AdvisingAppendable advisingOutputBuf = (AdvisingAppendable) currOutputBuf;
+      if (advisingOutputBuf.softLimitReached()) {
+        try {
+          advisingOutputBuf.flush();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+
   /**
    * Helper for recursing on a block.
    * @param node The BlockNode to recurse on.
    */
   private void visitBlockHelper(BlockNode node) {
+    // Note: Local vars are bound in slots assigned at compile time, so no env frame is needed.
+    renderChildren(node);
+  }
 
-    if (node.needsEnvFrameDuringInterp() != Boolean.FALSE /*true or unknown*/) {
-      env.push(Maps.<String, SoyValue>newHashMap());
-      visitChildren(node);
-      env.pop();
 
-    } else {
-      visitChildren(node);
+  /**
+   * Helper for rendering the children of a node in order, flushing the output when advised after
+   * each child.
+   * @param node The node whose children are to be rendered.
+   */
+  private void renderChildren(ParentSoyNode<?> node) {
+    for (SoyNode child : node.getChildren()) {
+      visit(child);
+      flushIfSoftLimitReached();
     }
   }
 
@@ -737,6 +960,8 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
     try {
       return evalVisitor.exec(expr);
+    } catch (FutureNotDoneException e) {
+      throw e;  // the render stops (see setContinuable())
     } catch (Exception e) {
       throw new RenderException(
           "When evaluating \"" + expr.toSourceString() + "\": " + e.getMessage(), e)
@@ -767,7 +992,94 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
 
   /**
-   * Protected helper to apply a print directive.
+   * Helper for printing: applies the directives of a print tag to the value of its expression, and
+   * appends the result to the current output buffer.
+   *
+   * @param node The print node.
+   * @param result The value of the print node's expression.
+   * @param directives The directives, parallel to the directive nodes (an element is null if not
+   *     found), or null to look them up by name.
+   */
+  void appendPrintResult(
+      PrintNode node, SoyValue result, @Nullable SoyJavaPrintDirective[] directives) {
+
+    if (result instanceof UndefinedData) {
+      throw new RenderException(
+          "In 'print' tag, expression \"" + node.getExprText() + "\" evaluates to undefined.")
+          .addPartialStackTraceElement(node.getSourceLocation());
+    }
+
+    // Process directives.
+    List<PrintDirectiveNode> directiveNodes = node.getChildren();
+    int numDirectives = directiveNodes.size();
+    for (int i = 0; i < numDirectives; i++) {
+      PrintDirectiveNode directiveNode = directiveNodes.get(i);
+      SoyJavaPrintDirective directive = (directives != null) ?
+          directives[i] : soyJavaDirectivesMap.get(directiveNode.getName());
+
+      // Evaluate directive args.
+      List<ExprRootNode<?>> argsExprs = directiveNode.getArgs();
+      if (i == numDirectives - 1 && argsExprs.isEmpty()) {
+        // The last directive (typically the escaping directive) can escape directly into the
+        // output buffer.
+        appendWithDirective(directive, directiveNode.getName(), result, node);
+        return;
+      }
+      List<SoyValue> argsSoyDatas;
+      if (argsExprs.isEmpty()) {
+        argsSoyDatas = ImmutableList.of();
+      } else {
+        argsSoyDatas = Lists.newArrayListWithCapacity(argsExprs.size());
+        for (ExprRootNode<?> argExpr : argsExprs) {
+          argsSoyDatas.add(eval(argExpr, directiveNode));
+        }
+      }
+
+      // Apply directive.
+      result = applyDirective(directive, directiveNode.getName(), result, argsSoyDatas, node);
+    }
+
+    // Important: Use coerceToString to make sure we are using the value's preferred way of being
+    // converted to string.
+    append(currOutputBuf, result.coerceToString());
+  }
+
+
+  /**
+   * Helper to apply a print directive (without arguments) and append the result to the current
+   * output buffer. If the directive supports it, the value is escaped directly into the output
+   * buffer, so that no intermediate string is created (and a value that needs no escaping is
+   * appended as is).
+   *
+   * @param directive The directive, or null if no directive with the given name exists.
+   * @param directiveName The name of the directive.
+   * @param value The value to apply the directive on.
+   * @param node The node with the directive. Only used for error reporting.
+   */
+  void appendWithDirective(
+      @Nullable SoyJavaPrintDirective directive, String directiveName, SoyValue value,
+      SoyNode node) {
+
+    if (directive instanceof SoyJavaStreamingPrintDirective &&
+        directive.getValidArgsSizes().contains(0)) {
+      ContentKind contentKind = (value instanceof SanitizedContent) ?
+          ((SanitizedContent) value).getContentKind() : null;
+      Appendable escapingOutputBuf = ((SoyJavaStreamingPrintDirective) directive)
+          .applyForJavaStreaming(currOutputBuf, contentKind);
+      if (escapingOutputBuf != null) {
+        append(escapingOutputBuf, value.coerceToString());
+        return;
+      }
+    }
+
+    SoyValue result =
+        applyDirective(directive, directiveName, value, ImmutableList.<SoyValue>of(), node);
+    append(currOutputBuf, result.coerceToString());
+  }
+
+
+  /**
+   * Private helper to apply a print directive.
    *
    * @param directiveName The name of the directive.
    * @param value The value to apply the directive on.
@@ -777,9 +1089,24 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
    */
   private SoyValue applyDirective(
       String directiveName, SoyValue value, List<SoyValue> args, SoyNode node) {
+    return applyDirective(soyJavaDirectivesMap.get(directiveName), directiveName, value, args, node);
+  }
+
+
+  /**
+   * Helper to apply a print directive that has already been looked up (e.g. at compile time).
+   *
+   * @param directive The directive, or null if no directive with the given name exists.
+   * @param directiveName The name of the directive.
+   * @param value The value to apply the directive on.
+   * @param args The arguments to the directive.
+   * @param node The node with the escaping. Only used for error reporting.
+   * @return The result of applying the directive with the given arguments to the given value.
+   */
+  SoyValue applyDirective(
+      @Nullable SoyJavaPrintDirective directive, String directiveName, SoyValue value,
+      List<SoyValue> args, SoyNode node) {
 
-    // Get directive.
-    SoyJavaPrintDirective directive = soyJavaDirectivesMap.get(directiveName);
     if (directive == null) {
       throw new RenderException(
           "Failed to find Soy print directive with name '" + directiveName + "'" +
@@ -797,6 +1124,8 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
     try {
       return directive.applyForJava(value, args);
+    } catch (FutureNotDoneException e) {
+      throw e;  // the render stops (see setContinuable())
     } catch (RuntimeException e) {
       throw new RenderException(String.format(
           "Failed in applying directive '%s' in tag \"%s\" due to exception: %s",
@@ -807,6 +1136,11 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
 
   private void checkStrictParamTypes(TemplateNode node) {
     for (TemplateParam param : node.getParams()) {
+      SoyType.Kind paramKind = param.type().getKind();
+      if (paramKind == SoyType.Kind.UNKNOWN || paramKind == SoyType.Kind.ANY) {
+        // Every value is an instance, so don't resolve the value before it's needed.
+        continue;
+      }
       SoyValue paramValue = data.getField(param.name());
       if (paramValue == null) {
         paramValue = NullData.INSTANCE;
@@ -821,4 +1155,27 @@ public class RenderVisitor extends AbstractSoyNodeVisitor<Void> {
       }
     }
   }
+
+
+  /** The frame of a call whose render stopped (see {@link #visitCallNodeHelper}). */
+  private static final class CallFrame {
+
+    /** The call data, with the params before numParamsSet set. */
+    final SoyRecord callData;
+    /** The number of params set, which is all of them once the callee is rendering. */
+    final int numParamsSet;
+    /** The output buffer of the callee, or null if the callee has not started rendering. */
+    @Nullable final Appendable calleeOutputBuf;
+    /** The buffer of the callee's whole output, or null if it is not escaped as a whole. */
+    @Nullable final StringBuilder calleeBuilder;
+
+    CallFrame(
+        SoyRecord callData, int numParamsSet, @Nullable Appendable calleeOutputBuf,
+        @Nullable StringBuilder calleeBuilder) {
+      this.callData = callData;
+      this.numParamsSet = numParamsSet;
+      this.calleeOutputBuf = calleeOutputBuf;
+      this.calleeBuilder = calleeBuilder;
+    }
+  }
 }
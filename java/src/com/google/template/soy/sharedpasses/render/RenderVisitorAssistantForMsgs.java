@@ -17,9 +17,8 @@
 package com.google.template.soy.sharedpasses.render;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 import com.google.template.soy.data.SoyDataException;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.exprtree.ExprRootNode;
 import com.google.template.soy.internal.base.Pair;
 import com.google.template.soy.msgs.SoyMsgBundle;
@@ -27,7 +26,6 @@ import com.google.template.soy.msgs.internal.MsgUtils;
 import com.google.template.soy.msgs.restricted.SoyMsg;
 import com.google.template.soy.msgs.restricted.SoyMsgPart;
 import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
-import com.google.template.soy.msgs.restricted.SoyMsgPluralCaseSpec;
 import com.google.template.soy.msgs.restricted.SoyMsgPluralPart;
 import com.google.template.soy.msgs.restricted.SoyMsgPluralRemainderPart;
 import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
@@ -47,12 +45,8 @@ import com.google.template.soy.soytree.MsgSelectDefaultNode;
 import com.google.template.soy.soytree.MsgSelectNode;
 import com.google.template.soy.soytree.SoyNode;
 
-import com.ibm.icu.text.PluralRules;
-import com.ibm.icu.util.ULocale;
-
-import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -63,29 +57,38 @@ import java.util.Map;
 class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
 
 
+  /** Map from bundle to its table of the translations resolved so far, from fallback group to its
+   *  translation. The keys are weak in both maps, since neither the bundles nor the Soy trees are
+   *  owned by the render code. Note: The maps are keyed by identity, not by node id, since node
+   *  ids are only unique within a tree. */
+  private static final ConcurrentMap<
+      SoyMsgBundle, ConcurrentMap<MsgFallbackGroupNode, ResolvedTranslation>>
+      resolvedTranslationsCache = new MapMaker().weakKeys().makeMap();
+
+  /** The resolved translation of a fallback group that has no translation in the bundle. */
+  private static final ResolvedTranslation NO_TRANSLATION = new ResolvedTranslation(-1, null);
+
+
   /** Master instance of RenderVisitor. */
   private final RenderVisitor master;
 
-  /** The current environment. */
-  private final Deque<Map<String, SoyValue>> env;
-
   /** The bundle of translated messages, or null to use the messages from the Soy source. */
   private final SoyMsgBundle msgBundle;
 
   /** Holds the value of the remainder for the current enclosing plural node. */
   private double currPluralRemainderValue;
 
+  /** The locale string of the inserted translation being rendered, or null if none. */
+  private String currTranslationLocaleString;
+
 
   /**
    * @param master The master RenderVisitor instance.
-   * @param env The current environment.
    * @param msgBundle The bundle of translated messages, or null to use the messages from the Soy
    *     source.
    */
-  RenderVisitorAssistantForMsgs(
-      RenderVisitor master, Deque<Map<String, SoyValue>> env, SoyMsgBundle msgBundle) {
+  RenderVisitorAssistantForMsgs(RenderVisitor master, SoyMsgBundle msgBundle) {
     this.master = master;
-    this.env = env;
     this.msgBundle = msgBundle;
     this.currPluralRemainderValue = -1;
   }
@@ -110,29 +113,59 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
 
   @Override protected void visitMsgFallbackGroupNode(MsgFallbackGroupNode node) {
 
-    boolean doAddEnvFrame = node.needsEnvFrameDuringInterp() != Boolean.FALSE /*true or unknown*/;
-    if (doAddEnvFrame) {
-      env.push(Maps.<String, SoyValue>newHashMap());
+    // If the translation was inserted into the tree, then it's rendered like a source message.
+    String translationLocaleString = node.getTranslationLocaleString();
+    if (translationLocaleString != null) {
+      currTranslationLocaleString = translationLocaleString;
+      renderMsgFromSource(node.getChild(0));
+      currTranslationLocaleString = null;
+      return;
+    }
+
+    ResolvedTranslation resolvedTranslation =
+        (msgBundle != null) ? getResolvedTranslation(msgBundle, node) : NO_TRANSLATION;
+    if (resolvedTranslation.translation != null) {
+      renderMsgFromTranslation(
+          node.getChild(resolvedTranslation.msgIndex), resolvedTranslation.translation);
+    } else {
+      renderMsgFromSource(node.getChild(0));
+    }
+  }
+
+
+  /**
+   * Private helper for visitMsgFallbackGroupNode() to get the translation of a fallback group from
+   * the given bundle. The translation is looked up the first time the group is rendered with the
+   * bundle instance, and then remembered in the bundle's table of resolved translations.
+   */
+  private static ResolvedTranslation getResolvedTranslation(
+      SoyMsgBundle msgBundle, MsgFallbackGroupNode node) {
+
+    ConcurrentMap<MsgFallbackGroupNode, ResolvedTranslation> resolvedTranslations =
+        resolvedTranslationsCache.get(msgBundle);
+    if (resolvedTranslations == null) {
+      resolvedTranslations = new MapMaker().weakKeys().makeMap();
+      ConcurrentMap<MsgFallbackGroupNode, ResolvedTranslation> existing =
+          resolvedTranslationsCache.putIfAbsent(msgBundle, resolvedTranslations);
+      if (existing != null) {
+        resolvedTranslations = existing;
+      }
     }
 
-    boolean foundTranslation = false;
-    if (msgBundle != null) {
-      for (MsgNode msg : node.getChildren()) {
-        SoyMsg translation = msgBundle.getMsg(MsgUtils.computeMsgIdForDualFormat(msg));
+    ResolvedTranslation resolvedTranslation = resolvedTranslations.get(node);
+    if (resolvedTranslation == null) {
+      resolvedTranslation = NO_TRANSLATION;
+      for (int i = 0; i < node.numChildren(); i++) {
+        SoyMsg translation =
+            msgBundle.getMsg(MsgUtils.computeMsgIdForDualFormat(node.getChild(i)));
         if (translation != null) {
-          renderMsgFromTranslation(msg, translation);
-          foundTranslation = true;
+          resolvedTranslation = new ResolvedTranslation(i, translation);
           break;
         }
       }
+      resolvedTranslations.put(node, resolvedTranslation);
     }
-    if (! foundTranslation) {
-      renderMsgFromSource(node.getChild(0));
-    }
-
-    if (doAddEnvFrame) {
-      env.pop();
-    }
+    return resolvedTranslation;
   }
 
 
@@ -147,11 +180,11 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
       SoyMsgPart firstPart = msgParts.get(0);
 
       if (firstPart instanceof SoyMsgPluralPart) {
-        (new PlrselMsgPartsVisitor(msg, new ULocale(translation.getLocaleString())))
+        (new PlrselMsgPartsVisitor(msg, translation.getLocaleString()))
             .visitPart((SoyMsgPluralPart) firstPart);
 
       } else if (firstPart instanceof SoyMsgSelectPart) {
-        (new PlrselMsgPartsVisitor(msg, new ULocale(translation.getLocaleString())))
+        (new PlrselMsgPartsVisitor(msg, translation.getLocaleString()))
             .visitPart((SoyMsgSelectPart) firstPart);
 
       } else {
@@ -203,21 +236,42 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
 
     currPluralRemainderValue = pluralValue - node.getOffset();
 
-    // Check each case.
+    // Check each case. First check the number cases, then the keyword cases (which only inserted
+    // translations have) according to the plural rules of the translation's locale.
+    CaseOrDefaultNode matchingChild = null;
+    CaseOrDefaultNode defaultChild = null;
+    boolean hasKeywordCases = false;
     for (CaseOrDefaultNode child : node.getChildren()) {
       if (child instanceof MsgPluralDefaultNode) {
-        // This means it didn't match any other case.
-        visitChildren(child);
+        defaultChild = child;
         break;
 
-      } else {
-        if (((MsgPluralCaseNode) child).getCaseNumber() == pluralValue) {
-          visitChildren(child);
-          break;
+      } else if (((MsgPluralCaseNode) child).getCaseKeyword() != null) {
+        hasKeywordCases = true;
 
+      } else if (((MsgPluralCaseNode) child).getCaseNumber() == pluralValue) {
+        matchingChild = child;
+        break;
+      }
+    }
+    if (matchingChild == null && hasKeywordCases) {
+      String keyword = MsgPluralRules.forLocaleString(currTranslationLocaleString)
+          .selectKeyword(currPluralRemainderValue);
+      for (CaseOrDefaultNode child : node.getChildren()) {
+        if (child instanceof MsgPluralCaseNode &&
+            keyword.equals(((MsgPluralCaseNode) child).getCaseKeyword())) {
+          matchingChild = child;
+          break;
         }
       }
     }
+    if (matchingChild == null) {
+      // This means it didn't match any other case.
+      matchingChild = defaultChild;
+    }
+    if (matchingChild != null) {
+      visitChildren(matchingChild);
+    }
 
     currPluralRemainderValue = -1;
   }
@@ -290,8 +344,12 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
     /** The parent message node for the parts dealt here. */
     private final MsgNode msgNode;
 
-    /** The locale for the translated message considered. */
-    private final ULocale locale;
+    /** The locale string of the translated message considered. */
+    private final String localeString;
+
+    /** The plural rules of the locale (lazily initialized, since select messages don't need them,
+     *  and neither do plural messages that match an explicit case). */
+    private MsgPluralRules pluralRules;
 
     /** Holds the value of the remainder for the current enclosing plural part. */
     private double currentPluralRemainderValue;
@@ -300,11 +358,11 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
     /**
      * Constructor.
      * @param msgNode The parent message node for the parts dealt here.
-     * @param locale The locale of the Soy message.
+     * @param localeString The locale string of the Soy message.
      */
-    public PlrselMsgPartsVisitor(MsgNode msgNode, ULocale locale) {
+    public PlrselMsgPartsVisitor(MsgNode msgNode, String localeString) {
       this.msgNode = msgNode;
-      this.locale = locale;
+      this.localeString = localeString;
     }
 
 
@@ -401,54 +459,22 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
 
       currentPluralRemainderValue = correctPluralValue - repPluralNode.getOffset();
 
-      // Handle cases.
-      List<SoyMsgPart> caseParts = null;
-
-      // Check whether the plural value matches any explicit numeric value.
-      boolean hasNonExplicitCases = false;
-      List<SoyMsgPart> otherCaseParts = null;
-      for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : pluralPart.getCases()) {
-
-        SoyMsgPluralCaseSpec pluralCaseSpec = case0.first;
-        SoyMsgPluralCaseSpec.Type caseType = pluralCaseSpec.getType();
-        if (caseType == SoyMsgPluralCaseSpec.Type.EXPLICIT) {
-          if (pluralCaseSpec.getExplicitValue() == correctPluralValue) {
-            caseParts = case0.second;
-            break;
+      // Handle cases. First check whether the plural value matches any explicit numeric value,
+      // then which plural rule it matches.
+      List<SoyMsgPart> caseParts = pluralPart.getExplicitCaseParts(correctPluralValue);
+      if (caseParts == null) {
+        if (pluralPart.hasKeywordCases()) {
+          if (pluralRules == null) {
+            pluralRules = MsgPluralRules.forLocaleString(localeString);
           }
-
-        } else if (caseType == SoyMsgPluralCaseSpec.Type.OTHER) {
-          otherCaseParts = case0.second;
-
+          // Note: Falls back to the "other" case if there is not the non-specific case we need.
+          caseParts = pluralPart.getKeywordCaseParts(
+              pluralRules.select(currentPluralRemainderValue));
         } else {
-          hasNonExplicitCases = true;
-
+          caseParts = pluralPart.getOtherCaseParts();
         }
       }
 
-      if (caseParts == null && hasNonExplicitCases) {
-        // Didn't match any numeric value.  Check which plural rule it matches.
-        String pluralKeyword = PluralRules.forLocale(locale).select(currentPluralRemainderValue);
-        SoyMsgPluralCaseSpec.Type correctCaseType =
-            new SoyMsgPluralCaseSpec(pluralKeyword).getType();
-
-
-        // Iterate the cases once again for non-numeric keywords.
-        for (Pair<SoyMsgPluralCaseSpec, ImmutableList<SoyMsgPart>> case0 : pluralPart.getCases()) {
-
-          if (case0.first.getType() == correctCaseType) {
-            caseParts = case0.second;
-            break;
-          }
-        }
-      }
-
-      if (caseParts == null) {
-        // Fall back to the "other" case. This can happen either if there aren't any non-specific
-        // cases, or there is not the non-specific case that we need.
-        caseParts = otherCaseParts;
-      }
-
       for (SoyMsgPart casePart : caseParts) {
 
         if (casePart instanceof SoyMsgPlaceholderPart) {
@@ -516,4 +542,22 @@ class RenderVisitorAssistantForMsgs extends AbstractSoyNodeVisitor<Void> {
     master.visitForUseByAssistants(node);
   }
 
+
+  /**
+   * The translation of a fallback group in a bundle, i.e. the index of the first message of the
+   * group that has a translation, along with the translation (null if none of the messages has
+   * one). Note: Doesn't reference the message node, which would keep the group (the weak key)
+   * reachable.
+   */
+  private static final class ResolvedTranslation {
+
+    final int msgIndex;
+    final SoyMsg translation;
+
+    ResolvedTranslation(int msgIndex, SoyMsg translation) {
+      this.msgIndex = msgIndex;
+      this.translation = translation;
+    }
+  }
+
 }
@@ -18,7 +18,6 @@ package com.google.template.soy.sharedpasses.render;
 
 import com.google.inject.Inject;
 import com.google.template.soy.data.SoyRecord;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
@@ -27,7 +26,6 @@ import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
 import com.google.template.soy.sharedpasses.render.EvalVisitor.EvalVisitorFactory;
 import com.google.template.soy.soytree.TemplateRegistry;
 
-import java.util.Deque;
 import java.util.Map;
 import java.util.Set;
 
@@ -81,13 +79,14 @@ public class RenderVisitorFactory {
    */
   public RenderVisitor create(
       Appendable outputBuf, TemplateRegistry templateRegistry, SoyRecord data,
-      @Nullable SoyRecord ijData, @Nullable Deque<Map<String, SoyValue>> env,
+      @Nullable SoyRecord ijData, @Nullable Environment env,
       @Nullable Set<String> activeDelPackageNames, @Nullable SoyMsgBundle msgBundle,
       @Nullable SoyIdRenamingMap xidRenamingMap, @Nullable SoyCssRenamingMap cssRenamingMap) {
 
     return new RenderVisitor(
         soyJavaDirectivesMap, evalVisitorFactory, outputBuf, templateRegistry, data, ijData,
-        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap);
+        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap, null,
+        null);
   }
 
 }
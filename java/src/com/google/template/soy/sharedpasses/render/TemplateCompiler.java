@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.common.collect.Lists;
+import com.google.template.soy.exprtree.ExprNode;
+import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.render.RenderOp.BlockOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.CallOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.ForOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.ForeachOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.IfOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.InterpretOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.LetContentOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.LetValueOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.PrintOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.RawTextOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.SwitchOp;
+import com.google.template.soy.soytree.AbstractReturningSoyNodeVisitor;
+import com.google.template.soy.soytree.CallNode;
+import com.google.template.soy.soytree.CallParamContentNode;
+import com.google.template.soy.soytree.ForNode;
+import com.google.template.soy.soytree.ForeachNode;
+import com.google.template.soy.soytree.ForeachNonemptyNode;
+import com.google.template.soy.soytree.IfCondNode;
+import com.google.template.soy.soytree.IfElseNode;
+import com.google.template.soy.soytree.IfNode;
+import com.google.template.soy.soytree.LetContentNode;
+import com.google.template.soy.soytree.LetValueNode;
+import com.google.template.soy.soytree.PrintNode;
+import com.google.template.soy.soytree.RawTextNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoyNode.BlockNode;
+import com.google.template.soy.soytree.SoyNode.ParentSoyNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.soytree.SwitchCaseNode;
+import com.google.template.soy.soytree.SwitchDefaultNode;
+import com.google.template.soy.soytree.SwitchNode;
+import com.google.template.soy.soytree.TemplateNode;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Visitor for compiling the body of a template into a tree of {@link RenderOp}s.
+ *
+ * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+ *
+ * <p> {@link #exec} should be called on a {@code TemplateNode}. The tree must already have been
+ * through the passes that prepare it for rendering (in particular, local var slots must be
+ * assigned).
+ *
+ * <p> Control flow, prints, local variables and the content params of calls are compiled.
+ * Everything else (msgs, css, xid, log, debugger) is compiled into an op that hands the node back
+ * to the RenderVisitor, so that behavior is identical to the interpreter.
+ */
+class TemplateCompiler extends AbstractReturningSoyNodeVisitor<RenderOp> {
+
+
+  /** Map of all SoyJavaPrintDirectives (name to directive). */
+  private final Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap;
+
+
+  /**
+   * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to directive).
+   */
+  TemplateCompiler(Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap) {
+    this.soyJavaDirectivesMap = soyJavaDirectivesMap;
+  }
+
+
+  @Override public RenderOp exec(SoyNode node) {
+    return visit(node);
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Implementations for specific nodes.
+
+
+  @Override protected RenderOp visitTemplateNode(TemplateNode node) {
+    return compileBlock(node);
+  }
+
+
+  @Override protected RenderOp visitRawTextNode(RawTextNode node) {
+    return new RawTextOp(node.getRawText());
+  }
+
+
+  @Override protected RenderOp visitPrintNode(PrintNode node) {
+    return new PrintOp(node, soyJavaDirectivesMap);
+  }
+
+
+  @Override protected RenderOp visitLetValueNode(LetValueNode node) {
+    return new LetValueOp(node);
+  }
+
+
+  @Override protected RenderOp visitLetContentNode(LetContentNode node) {
+    return new LetContentOp(node, compileBlock(node));
+  }
+
+
+  @Override protected RenderOp visitIfNode(IfNode node) {
+
+    List<ExprNode> conds = Lists.newArrayList();
+    List<RenderOp> branches = Lists.newArrayList();
+    RenderOp elseBranch = null;
+
+    for (SoyNode child : node.getChildren()) {
+      if (child instanceof IfCondNode) {
+        IfCondNode icn = (IfCondNode) child;
+        if (icn.getExprUnion().getExpr() == null) {
+          // V1 expressions can't be evaluated; keep the interpreter's error reporting.
+          return newInterpretOp(node);
+        }
+        conds.add(icn.getExprUnion().getExpr());
+        branches.add(compileBlock(icn));
+      } else if (child instanceof IfElseNode) {
+        elseBranch = compileBlock((IfElseNode) child);
+        break;
+      } else {
+        throw new AssertionError();
+      }
+    }
+
+    return new IfOp(
+        node, conds.toArray(new ExprNode[conds.size()]),
+        branches.toArray(new RenderOp[branches.size()]), elseBranch);
+  }
+
+
+  @Override protected RenderOp visitSwitchNode(SwitchNode node) {
+
+    List<SwitchCaseNode> caseNodes = Lists.newArrayList();
+    List<RenderOp> cases = Lists.newArrayList();
+    RenderOp defaultCase = null;
+
+    for (SoyNode child : node.getChildren()) {
+      if (child instanceof SwitchCaseNode) {
+        caseNodes.add((SwitchCaseNode) child);
+        cases.add(compileBlock((SwitchCaseNode) child));
+      } else if (child instanceof SwitchDefaultNode) {
+        defaultCase = compileBlock((SwitchDefaultNode) child);
+        break;
+      } else {
+        throw new AssertionError();
+      }
+    }
+
+    return new SwitchOp(
+        node, node.getExpr(), caseNodes.toArray(new SwitchCaseNode[caseNodes.size()]),
+        cases.toArray(new RenderOp[cases.size()]), defaultCase);
+  }
+
+
+  @Override protected RenderOp visitForeachNode(ForeachNode node) {
+    RenderOp[] body = compileChildren((ForeachNonemptyNode) node.getChild(0));
+    RenderOp ifEmpty = (node.numChildren() == 2) ? visit(node.getChild(1)) : null;
+    return new ForeachOp(node, body, ifEmpty);
+  }
+
+
+  @Override protected RenderOp visitForNode(ForNode node) {
+    return new ForOp(node, compileChildren(node));
+  }
+
+
+  @Override protected RenderOp visitCallNode(CallNode node) {
+    BlockOp[] paramContents = new BlockOp[node.numChildren()];
+    for (int i = 0; i < paramContents.length; i++) {
+      if (node.getChild(i) instanceof CallParamContentNode) {
+        paramContents[i] = compileBlock((CallParamContentNode) node.getChild(i));
+      }
+    }
+    return new CallOp(node, paramContents);
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Fallback implementation.
+
+
+  @Override protected RenderOp visitSoyNode(SoyNode node) {
+    if (node instanceof BlockNode && !isInterpreted(node)) {
+      return compileBlock((BlockNode) node);
+    }
+    return newInterpretOp(node);
+  }
+
+
+  // -----------------------------------------------------------------------------------------------
+  // Helpers.
+
+
+  /**
+   * Returns whether a block node must be handed to the RenderVisitor as a whole (rather than
+   * compiled as a plain block), because the RenderVisitor gives it special treatment.
+   */
+  private static boolean isInterpreted(SoyNode node) {
+    switch (node.getKind()) {
+      case MSG_FALLBACK_GROUP_NODE:
+      case MSG_NODE:
+      case MSG_HTML_TAG_NODE:
+      case CALL_PARAM_CONTENT_NODE:
+      case LOG_NODE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+
+  /**
+   * Creates the op that hands a node back to the RenderVisitor.
+   */
+  private static InterpretOp newInterpretOp(SoyNode node) {
+    return new InterpretOp(
+        node, !SoytreeUtils.getAllNodesOfType(node, CallNode.class, false).isEmpty());
+  }
+
+
+  /**
+   * Compiles a block.
+   */
+  private BlockOp compileBlock(BlockNode node) {
+    return new BlockOp(compileChildren(node));
+  }
+
+
+  /**
+   * Compiles the children of a node, merging adjacent constant text into a single op.
+   */
+  private RenderOp[] compileChildren(ParentSoyNode<?> node) {
+
+    List<RenderOp> ops = Lists.newArrayListWithCapacity(node.numChildren());
+    StringBuilder pendingText = null;
+
+    for (SoyNode child : node.getChildren()) {
+      RenderOp op = visit(child);
+      if (op instanceof RawTextOp) {
+        if (pendingText == null) {
+          pendingText = new StringBuilder();
+        }
+        pendingText.append(((RawTextOp) op).text);
+      } else {
+        if (pendingText != null) {
+          ops.add(new RawTextOp(pendingText.toString()));
+          pendingText = null;
+        }
+        ops.add(op);
+      }
+    }
+    if (pendingText != null) {
+      ops.add(new RawTextOp(pendingText.toString()));
+    }
+
+    return ops.toArray(new RenderOp[ops.size()]);
+  }
+}
@@ -17,8 +17,12 @@
 package com.google.template.soy.soyparse;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.template.soy.base.SoySyntaxException;
 import com.google.template.soy.base.internal.IdGenerator;
 import com.google.template.soy.base.internal.IncrementingIdGenerator;
@@ -45,13 +49,20 @@ import com.google.template.soy.sharedpasses.ResolveExpressionTypesVisitor;
 import com.google.template.soy.sharedpasses.ResolveNamesVisitor;
 import com.google.template.soy.soytree.SoyFileNode;
 import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoytreeUtils;
 import com.google.template.soy.types.SoyTypeRegistry;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nullable;
 
@@ -87,6 +98,9 @@ public class SoyFileSetParser {
   /** Whether to check overrides. */
   private boolean doCheckOverrides;
 
+  /** The executor on which to parse the files in parallel, or null to parse them sequentially. */
+  @Nullable private Executor executor;
+
 
   /**
    * @param typeRegistry The type registry to resolve type names.
@@ -121,6 +135,7 @@ public class SoyFileSetParser {
     this.doRunInitialParsingPasses = true;
     this.doRunCheckingPasses = true;
     this.doCheckOverrides = true;
+    this.executor = null;
   }
 
 
@@ -163,6 +178,21 @@ public class SoyFileSetParser {
   }
 
 
+  /**
+   * Sets the executor on which to parse the files and run the single-file passes in parallel.
+   * Returns self.
+   *
+   * <p> The resulting tree is the same as when parsing sequentially, including the node ids. The
+   * type registry must be safe to use from multiple threads.
+   *
+   * @param executor The executor to use, or null to parse the files sequentially.
+   */
+  public SoyFileSetParser setExecutor(@Nullable Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+
   /**
    * Parses a set of Soy files and returns the parse tree.
    *
@@ -201,29 +231,59 @@ public class SoyFileSetParser {
             "caching inconsistent versions");
     IdGenerator nodeIdGen =
         (cache != null) ? cache.getNodeIdGenerator() : new IncrementingIdGenerator();
-    SoyFileSetNode soyTree = new SoyFileSetNode(nodeIdGen.genId(), nodeIdGen);
+    // With a cache, the files get new ids from a generator of this file set (in the order of the
+    // files), so that the ids (and the names generated from them) don't depend on which files
+    // were parsed by previous users of the cache.
+    IdGenerator fileSetNodeIdGen = (cache != null) ? new IncrementingIdGenerator() : nodeIdGen;
+    SoyFileSetNode soyTree = new SoyFileSetNode(fileSetNodeIdGen.genId(), fileSetNodeIdGen);
     ImmutableList.Builder<SoyFileSupplier.Version> versions = ImmutableList.builder();
 
-    for (SoyFileSupplier soyFileSupplier : soyFileSuppliers) {
-      Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion =
-          (cache != null) ? cache.get(soyFileSupplier) : null;
-      if (fileAndVersion == null) {
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
-        synchronized (nodeIdGen) {  // Avoid using the same ID generator in multiple threads.
-          fileAndVersion = parseSoyFileHelper(soyFileSupplier, nodeIdGen, typeRegistry);
-          if (doRunInitialParsingPasses) {
-            // Run passes that are considered part of initial parsing.
-            runSingleFileParsingPasses(fileAndVersion.first, nodeIdGen);
+    List<FutureTask<ParsedFile>> parseTasks = (executor != null) ? startParseTasks() : null;
+
+    for (int i = 0; i < soyFileSuppliers.size(); i++) {
+      SoyFileSupplier soyFileSupplier = soyFileSuppliers.get(i);
+      Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion;
+      if (parseTasks != null) {
+        ParsedFile parsedFile = getParseTaskResult(parseTasks, i);
+        fileAndVersion = parsedFile.fileAndVersion;
+        if (parsedFile.numTemporaryIds >= 0) {
+          // Assign the ids that sequential parsing would have assigned, in the order of the files.
+          //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+          synchronized (nodeIdGen) {
+            replaceTemporaryIds(fileAndVersion.first, parsedFile.numTemporaryIds, nodeIdGen);
+          }
+          if (cache != null) {
+            cache.put(soyFileSupplier, fileAndVersion.second, fileAndVersion.first);
           }
         }
-        if (doRunCheckingPasses) {
-          // Run passes that check the tree.
-          runSingleFileCheckingPasses(fileAndVersion.first);
+      } else {
+        fileAndVersion = (cache != null) ? getFromCache(soyFileSupplier) : null;
+      }
+      if (fileAndVersion == null) {
+        if (useDiskCache()) {
+          fileAndVersion = getFromDiskCacheOrParse(soyFileSupplier, nodeIdGen);
+        } else {
+          //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+          synchronized (nodeIdGen) {  // Avoid using the same ID generator in multiple threads.
+            fileAndVersion = parseSoyFileHelper(
+                soyFileSupplier, openSoyFile(soyFileSupplier), nodeIdGen, typeRegistry);
+            if (doRunInitialParsingPasses) {
+              // Run passes that are considered part of initial parsing.
+              runSingleFileParsingPasses(fileAndVersion.first, nodeIdGen);
+            }
+          }
+          if (doRunCheckingPasses) {
+            // Run passes that check the tree.
+            runSingleFileCheckingPasses(fileAndVersion.first);
+          }
         }
         if (cache != null) {
           cache.put(soyFileSupplier, fileAndVersion.second, fileAndVersion.first);
         }
       }
+      if (cache != null) {
+        SoytreeUtils.genNewIds(fileAndVersion.first, fileSetNodeIdGen);
+      }
       soyTree.addChild(fileAndVersion.first);
       versions.add(fileAndVersion.second);
     }
@@ -238,29 +298,246 @@ public class SoyFileSetParser {
 
 
   /**
-   * Private helper for {@code parseWithVersions()} to parse one Soy file.
+   * Private helper for {@code parseWithVersions()} to get a file from the in-memory tier of the
+   * cache, unless it was cached as another kind of file (e.g. a file that is a dep in this file set
+   * may have been a src in the previous one).
+   */
+  @Nullable private Pair<SoyFileNode, SoyFileSupplier.Version> getFromCache(
+      SoyFileSupplier soyFileSupplier) {
+    Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion = cache.get(soyFileSupplier);
+    return (fileAndVersion != null &&
+            fileAndVersion.first.getSoyFileKind() == soyFileSupplier.getSoyFileKind()) ?
+        fileAndVersion : null;
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to start parsing all the files on the executor.
+   *
+   * <p> Each task returns the file from the cache if possible. Otherwise, it parses the file and
+   * runs the single-file passes, using a generator of temporary ids local to the file so that the
+   * final ids can later be assigned in the order of the files.
+   *
+   * @return The tasks, in the order of the files.
+   */
+  private List<FutureTask<ParsedFile>> startParseTasks() {
+
+    List<FutureTask<ParsedFile>> parseTasks =
+        Lists.newArrayListWithCapacity(soyFileSuppliers.size());
+    try {
+      for (final SoyFileSupplier soyFileSupplier : soyFileSuppliers) {
+        FutureTask<ParsedFile> parseTask = new FutureTask<ParsedFile>(new Callable<ParsedFile>() {
+          @Override public ParsedFile call() {
+            Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion =
+                (cache != null) ? getFromCache(soyFileSupplier) : null;
+            if (fileAndVersion != null) {
+              return new ParsedFile(fileAndVersion, -1);
+            }
+            IdGenerator localNodeIdGen = new IncrementingIdGenerator();
+            if (useDiskCache()) {
+              fileAndVersion = getFromDiskCacheOrParse(soyFileSupplier, localNodeIdGen);
+            } else {
+              fileAndVersion = parseSoyFileHelper(
+                  soyFileSupplier, openSoyFile(soyFileSupplier), localNodeIdGen, typeRegistry);
+              if (doRunInitialParsingPasses) {
+                runSingleFileParsingPasses(fileAndVersion.first, localNodeIdGen);
+              }
+              if (doRunCheckingPasses) {
+                runSingleFileCheckingPasses(fileAndVersion.first);
+              }
+            }
+            // Note: The next id to generate is the number of ids generated so far.
+            return new ParsedFile(fileAndVersion, localNodeIdGen.genId());
+          }
+        });
+        parseTasks.add(parseTask);
+        executor.execute(parseTask);
+      }
+    } catch (RuntimeException e) {
+      cancelAll(parseTasks);
+      throw e;
+    }
+    return parseTasks;
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to wait for the result of a parse task. If the
+   * task failed, the remaining tasks are cancelled and its exception is rethrown.
+   *
+   * @param parseTasks The parse tasks, in the order of the files.
+   * @param index The index of the task whose result to get.
+   * @return The result of the task.
+   */
+  private static ParsedFile getParseTaskResult(List<FutureTask<ParsedFile>> parseTasks, int index) {
+
+    try {
+      return Uninterruptibles.getUninterruptibly(parseTasks.get(index));
+    } catch (ExecutionException e) {
+      cancelAll(parseTasks);
+      throw Throwables.propagate(e.getCause());
+    } catch (RuntimeException e) {
+      cancelAll(parseTasks);
+      throw e;
+    }
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to cancel the parse tasks (those already done
+   * are not affected).
+   */
+  private static void cancelAll(List<FutureTask<ParsedFile>> parseTasks) {
+    for (FutureTask<ParsedFile> parseTask : parseTasks) {
+      parseTask.cancel(false);
+    }
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to replace the temporary ids in a file parsed by
+   * a parse task. The new ids are generated in the order of the temporary ids, i.e. in the order in
+   * which sequential parsing would have generated them.
+   *
+   * @param fileNode The file parsed by a parse task.
+   * @param numTemporaryIds The number of temporary ids generated while parsing the file.
+   * @param nodeIdGen The generator of the new node ids.
+   */
+  private static void replaceTemporaryIds(
+      SoyFileNode fileNode, int numTemporaryIds, IdGenerator nodeIdGen) {
+
+    int[] newIds = new int[numTemporaryIds];
+    for (int i = 0; i < numTemporaryIds; i++) {
+      newIds[i] = nodeIdGen.genId();
+    }
+    for (SoyNode node : SoytreeUtils.getAllNodesOfType(fileNode, SoyNode.class)) {
+      node.setId(newIds[node.getId()]);
+    }
+  }
+
+
+  /**
+   * The result of a parse task: a file with its version, either from the cache or newly parsed.
+   */
+  private static class ParsedFile {
+
+    /** The file node and the version from which it was parsed. */
+    final Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion;
+
+    /** The number of temporary ids in the newly parsed file, or -1 if it came from the cache. */
+    final int numTemporaryIds;
+
+    ParsedFile(Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion, int numTemporaryIds) {
+      this.fileAndVersion = fileAndVersion;
+      this.numTemporaryIds = numTemporaryIds;
+    }
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to determine whether to use the on-disk tier of
+   * the cache. It isn't used when the type registry has type providers, since the trees hold the
+   * resolved types, and the types of a plugin can change without the compiler changing (so they
+   * would be missing from the keys of the entries).
+   */
+  private boolean useDiskCache() {
+    return cache != null && cache.hasDiskCache() && !typeRegistry.hasTypeProviders();
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to get one Soy file from the on-disk tier of the
+   * cache, or else to parse it, run the single-file passes, and store it in the on-disk tier.
    *
    * @param soyFileSupplier Supplier of the Soy file content and path.
    * @param nodeIdGen The generator of node ids.
-   * @return The resulting parse tree for one Soy file and the version from which it was parsed.
+   * @return The parse tree for the Soy file and the version of the file read.
    * @throws SoySyntaxException If there is an error reading the file or a syntax error is found.
    */
-  private static Pair<SoyFileNode, SoyFileSupplier.Version> parseSoyFileHelper(
-      SoyFileSupplier soyFileSupplier, IdGenerator nodeIdGen, SoyTypeRegistry typeRegistry)
-      throws SoySyntaxException {
+  private Pair<SoyFileNode, SoyFileSupplier.Version> getFromDiskCacheOrParse(
+      SoyFileSupplier soyFileSupplier, IdGenerator nodeIdGen) throws SoySyntaxException {
 
-    String filePath = soyFileSupplier.getFilePath();
+    // Read the content first, since it is part of the key.
+    Pair<Reader, SoyFileSupplier.Version> readerAndVersion = openSoyFile(soyFileSupplier);
+    String content;
+    try {
+      content = CharStreams.toString(readerAndVersion.first);
+    } catch (IOException ioe) {
+      throw SoySyntaxException.createWithoutMetaInfo(
+          "Error reading Soy file " + soyFileSupplier.getFilePath() + ": " + ioe);
+    } finally {
+      try {
+        readerAndVersion.first.close();
+      } catch (IOException ioe) {
+        //noinspection ThrowFromFinallyBlock IntelliJ
+        throw SoySyntaxException.createWithoutMetaInfo(
+            "Error closing Soy file " + soyFileSupplier.getFilePath() + ": " + ioe);
+      }
+    }
+
+    String diskCacheKey =
+        SoyAstCache.getDiskCacheKey(soyFileSupplier, content, declaredSyntaxVersion);
+    SoyFileNode soyFile = cache.getFromDisk(diskCacheKey);
+    if (soyFile != null) {
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+      synchronized (nodeIdGen) {
+        SoytreeUtils.genNewIds(soyFile, nodeIdGen);
+      }
+      return Pair.of(soyFile, readerAndVersion.second);
+    }
+
+    // Note: The AST cache requires all parsing and checking passes to be run.
+    Pair<SoyFileNode, SoyFileSupplier.Version> fileAndVersion;
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter IntelliJ
+    synchronized (nodeIdGen) {
+      fileAndVersion = parseSoyFileHelper(
+          soyFileSupplier, Pair.<Reader, SoyFileSupplier.Version>of(
+              new StringReader(content), readerAndVersion.second),
+          nodeIdGen, typeRegistry);
+      runSingleFileParsingPasses(fileAndVersion.first, nodeIdGen);
+    }
+    runSingleFileCheckingPasses(fileAndVersion.first);
+    cache.putOnDisk(diskCacheKey, fileAndVersion.first);
+    return fileAndVersion;
+  }
+
+
+  /**
+   * Private helper to open one Soy file.
+   *
+   * @param soyFileSupplier Supplier of the Soy file content and path.
+   * @return A reader for the Soy file content and the version of the file.
+   * @throws SoySyntaxException If there is an error opening the file.
+   */
+  private static Pair<Reader, SoyFileSupplier.Version> openSoyFile(
+      SoyFileSupplier soyFileSupplier) throws SoySyntaxException {
 
-    Reader soyFileReader;
-    SoyFileSupplier.Version version;
     try {
-      Pair<Reader, SoyFileSupplier.Version> readerAndVersion = soyFileSupplier.open();
-      soyFileReader = readerAndVersion.first;
-      version = readerAndVersion.second;
+      return soyFileSupplier.open();
     } catch (IOException ioe) {
       throw SoySyntaxException.createWithoutMetaInfo(
-          "Error opening Soy file " + filePath + ": " + ioe);
+          "Error opening Soy file " + soyFileSupplier.getFilePath() + ": " + ioe);
     }
+  }
+
+
+  /**
+   * Private helper for {@code parseWithVersions()} to parse one Soy file.
+   *
+   * @param soyFileSupplier Supplier of the Soy file content and path.
+   * @param readerAndVersion The opened Soy file (see {@code openSoyFile()}), closed by this method.
+   * @param nodeIdGen The generator of node ids.
+   * @return The resulting parse tree for one Soy file and the version from which it was parsed.
+   * @throws SoySyntaxException If there is an error reading the file or a syntax error is found.
+   */
+  private static Pair<SoyFileNode, SoyFileSupplier.Version> parseSoyFileHelper(
+      SoyFileSupplier soyFileSupplier, Pair<Reader, SoyFileSupplier.Version> readerAndVersion,
+      IdGenerator nodeIdGen, SoyTypeRegistry typeRegistry)
+      throws SoySyntaxException {
+
+    String filePath = soyFileSupplier.getFilePath();
+    Reader soyFileReader = readerAndVersion.first;
+    SoyFileSupplier.Version version = readerAndVersion.second;
 
     try {
       SoyFileNode soyFile = (new SoyFileParser(
@@ -80,7 +80,7 @@ public class CssNode extends AbstractCommandNode
    * Also in production only one of the maps should really be used, so that cache hit rate
    * approaches 100%.
    */
-  Pair<SoyCssRenamingMap, String> renameCache;
+  transient Pair<SoyCssRenamingMap, String> renameCache;
 
 
   /**
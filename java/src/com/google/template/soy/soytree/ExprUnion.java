@@ -19,6 +19,7 @@ package com.google.template.soy.soytree;
 import com.google.common.collect.Lists;
 import com.google.template.soy.exprtree.ExprRootNode;
 
+import java.io.Serializable;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -35,7 +36,7 @@ import javax.annotation.Nullable;
  *
  * @author Kai Huang
  */
-public class ExprUnion {
+public class ExprUnion implements Serializable {
 
 
   /**
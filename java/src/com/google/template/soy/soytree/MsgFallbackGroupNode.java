@@ -20,6 +20,8 @@ import com.google.template.soy.soytree.SoyNode.SplitLevelTopNode;
 import com.google.template.soy.soytree.SoyNode.StandaloneNode;
 import com.google.template.soy.soytree.SoyNode.StatementNode;
 
+import javax.annotation.Nullable;
+
 
 /**
  * Represents a group of one or more messages. If more than one message, then they form a fallback
@@ -37,6 +39,10 @@ public class MsgFallbackGroupNode extends AbstractParentSoyNode<MsgNode>
     implements StandaloneNode, SplitLevelTopNode<MsgNode>, StatementNode {
 
 
+  /** The locale string of the translation inserted into this group, or null if none. */
+  @Nullable private String translationLocaleString;
+
+
   /**
    * @param id The id for this node.
    */
@@ -51,6 +57,7 @@ public class MsgFallbackGroupNode extends AbstractParentSoyNode<MsgNode>
    */
   protected MsgFallbackGroupNode(MsgFallbackGroupNode orig) {
     super(orig);
+    this.translationLocaleString = orig.translationLocaleString;
   }
 
 
@@ -59,6 +66,27 @@ public class MsgFallbackGroupNode extends AbstractParentSoyNode<MsgNode>
   }
 
 
+  /**
+   * Marks this group as holding an inserted translation, i.e. as having a single message whose
+   * content is already the translation (which must be rendered as is, without looking up the
+   * message in a bundle).
+   * @param translationLocaleString The locale string of the translation (whose plural rules select
+   *     the keyword cases of plural messages).
+   */
+  public void setTranslationLocaleString(String translationLocaleString) {
+    this.translationLocaleString = translationLocaleString;
+  }
+
+
+  /**
+   * Returns the locale string of the translation inserted into this group, or null if this group
+   * holds the messages from the Soy source.
+   */
+  @Nullable public String getTranslationLocaleString() {
+    return translationLocaleString;
+  }
+
+
   @Override public String toSourceString() {
     StringBuilder sb = new StringBuilder();
     // Note: The first MsgNode takes care of generating the 'msg' tag.
@@ -29,6 +29,7 @@ import com.google.template.soy.soytree.CommandTextAttributesParser.Attribute;
 import com.google.template.soy.soytree.SoyNode.ExprHolderNode;
 import com.google.template.soy.soytree.SoyNode.MsgBlockNode;
 
+import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.List;
@@ -48,7 +49,7 @@ import javax.annotation.Nullable;
 public class MsgNode extends AbstractBlockCommandNode implements ExprHolderNode, MsgBlockNode {
 
 
-  private static class SubstUnitInfo {
+  private static class SubstUnitInfo implements Serializable {
 
     /**
      * The generated map from substitution unit var name to representative node.
@@ -103,6 +104,12 @@ public class MsgNode extends AbstractBlockCommandNode implements ExprHolderNode,
   /** The substitution unit info (var name mappings, or null if not yet generated. */
   private SubstUnitInfo substUnitInfo = null;
 
+  /** The message id (using unbraced placeholders), or -1 if not yet computed. */
+  private long msgId = -1L;
+
+  /** The alternate message id using braced placeholders, or -1 if not yet computed. */
+  private long msgIdUsingBracedPhs = -1L;
+
 
   /**
    * @param id The id for this node.
@@ -155,6 +162,8 @@ public class MsgNode extends AbstractBlockCommandNode implements ExprHolderNode,
     this.meaning = orig.meaning;
     this.desc = orig.desc;
     this.isHidden = orig.isHidden;
+    this.msgId = orig.msgId;
+    this.msgIdUsingBracedPhs = orig.msgIdUsingBracedPhs;
     // The only reason we don't run genSubstUnitInfo from the other constructors is because the
     // children haven't been added yet. But for cloning, the children already exist, so there's no
     // reason not to run genSubstUnitInfo now.
@@ -219,6 +228,29 @@ public class MsgNode extends AbstractBlockCommandNode implements ExprHolderNode,
   }
 
 
+  /**
+   * Stores the message ids computed for this message, so that they don't need to be recomputed
+   * (e.g. on every render). The ids must be computed from the current content of this message, and
+   * this message must not be modified afterwards.
+   * @param msgId The message id (using unbraced placeholders).
+   * @param msgIdUsingBracedPhs The alternate message id using braced placeholders.
+   */
+  public void setMsgIds(long msgId, long msgIdUsingBracedPhs) {
+    this.msgId = msgId;
+    this.msgIdUsingBracedPhs = msgIdUsingBracedPhs;
+  }
+
+  /** Returns the stored message id (using unbraced placeholders), or -1 if not stored. */
+  public long getMsgId() {
+    return msgId;
+  }
+
+  /** Returns the stored alternate message id using braced placeholders, or -1 if not stored. */
+  public long getMsgIdUsingBracedPhs() {
+    return msgIdUsingBracedPhs;
+  }
+
+
   /**
    * Gets the representative placeholder node for a given placeholder name.
    * @param placeholderName The placeholder name.
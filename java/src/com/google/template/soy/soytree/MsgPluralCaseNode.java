@@ -19,6 +19,8 @@ package com.google.template.soy.soytree;
 import com.google.template.soy.base.SoySyntaxException;
 import com.google.template.soy.soytree.SoyNode.MsgBlockNode;
 
+import javax.annotation.Nullable;
+
 /**
  * Node representing a 'case' block in a 'plural' block.
  *
@@ -30,9 +32,12 @@ import com.google.template.soy.soytree.SoyNode.MsgBlockNode;
 public class MsgPluralCaseNode extends CaseOrDefaultNode implements MsgBlockNode {
 
   // A plural 'case' can only have a number in the command text.
-  /** The number for this case */
+  /** The number for this case (-1 for a keyword case). */
   private final int caseNumber;
 
+  /** The plural keyword for this case (e.g. 'few'), or null for a number case. */
+  @Nullable private final String caseKeyword;
+
 
   /**
    * @param id The id for this node.
@@ -40,18 +45,54 @@ public class MsgPluralCaseNode extends CaseOrDefaultNode implements MsgBlockNode
    * @throws SoySyntaxException If a syntax error is found.
    */
   public MsgPluralCaseNode(int id, String commandText) throws SoySyntaxException {
+    this(id, commandText, parseCaseNumber(commandText), null);
+  }
+
+
+  /**
+   * @param id The id for this node.
+   * @param commandText The command text.
+   * @param caseNumber The number for this case (-1 for a keyword case).
+   * @param caseKeyword The plural keyword for this case, or null for a number case.
+   */
+  private MsgPluralCaseNode(
+      int id, String commandText, int caseNumber, @Nullable String caseKeyword) {
     super(id, "case", commandText);
+    this.caseNumber = caseNumber;
+    this.caseKeyword = caseKeyword;
+  }
 
+
+  /**
+   * Private helper for the constructor to parse the number in the command text.
+   */
+  private static int parseCaseNumber(String commandText) throws SoySyntaxException {
+
+    int caseNumber;
     try {
       caseNumber = Integer.parseInt(commandText);
-      if (caseNumber < 0) {
-        throw SoySyntaxException.createWithoutMetaInfo(
-            "Plural cases must be nonnegative integers.");
-      }
     } catch (NumberFormatException nfe) {
       throw SoySyntaxException.createCausedWithoutMetaInfo(
-          "Invalid number in 'plural case' command text \"" + getCommandText() + "\".", nfe);
+          "Invalid number in 'plural case' command text \"" + commandText + "\".", nfe);
+    }
+    if (caseNumber < 0) {
+      throw SoySyntaxException.createWithoutMetaInfo(
+          "Plural cases must be nonnegative integers.");
     }
+    return caseNumber;
+  }
+
+
+  /**
+   * Creates a case for a plural keyword (e.g. 'few'), which is selected by the plural rules of the
+   * locale. The Soy syntax has no such cases: they only come from translated plural messages
+   * inserted into the tree for rendering (see InsertMsgsVisitor).
+   *
+   * @param id The id for this node.
+   * @param caseKeyword The plural keyword for this case, as returned by the ICU plural rules.
+   */
+  public static MsgPluralCaseNode forKeyword(int id, String caseKeyword) {
+    return new MsgPluralCaseNode(id, caseKeyword, -1, caseKeyword);
   }
 
 
@@ -62,6 +103,7 @@ public class MsgPluralCaseNode extends CaseOrDefaultNode implements MsgBlockNode
   protected MsgPluralCaseNode(MsgPluralCaseNode orig) {
     super(orig);
     this.caseNumber = orig.caseNumber;
+    this.caseKeyword = orig.caseKeyword;
   }
 
 
@@ -70,12 +112,18 @@ public class MsgPluralCaseNode extends CaseOrDefaultNode implements MsgBlockNode
   }
 
 
-  /** Returns the case number. */
+  /** Returns the case number, or -1 if this is a keyword case. */
   public int getCaseNumber() {
     return caseNumber;
   }
 
 
+  /** Returns the plural keyword of this case, or null if this is a number case. */
+  @Nullable public String getCaseKeyword() {
+    return caseKeyword;
+  }
+
+
   @Override public MsgPluralCaseNode clone() {
     return new MsgPluralCaseNode(this);
   }
@@ -234,6 +234,17 @@ public class SoytreeUtils {
   }
 
 
+  /**
+   * Generates and sets new ids on all the nodes of the given subtree, in depth-first order.
+   *
+   * @param rootNode The root of the subtree.
+   * @param nodeIdGen The generator of the new node ids.
+   */
+  public static void genNewIds(SoyNode rootNode, IdGenerator nodeIdGen) {
+    (new GenNewIdsVisitor(nodeIdGen)).exec(rootNode);
+  }
+
+
   /**
    * Clones the given list of nodes and then generates and sets new ids on all the cloned nodes (by
    * default, SoyNode.clone() creates cloned nodes with the same ids as the original nodes).
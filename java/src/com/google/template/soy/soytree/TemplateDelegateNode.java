@@ -31,6 +31,7 @@ import com.google.template.soy.exprtree.StringNode;
 import com.google.template.soy.soytree.SoyNode.ExprHolderNode;
 import com.google.template.soy.soytree.defn.TemplateParam;
 
+import java.io.Serializable;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -51,7 +52,7 @@ public class TemplateDelegateNode extends TemplateNode implements ExprHolderNode
    *
    * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
    */
-  public static final class DelTemplateKey {
+  public static final class DelTemplateKey implements Serializable {
 
     public final String name;
     public final String variant;
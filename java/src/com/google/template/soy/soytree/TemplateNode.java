@@ -26,6 +26,7 @@ import com.google.template.soy.soytree.defn.HeaderParam;
 import com.google.template.soy.soytree.defn.TemplateParam;
 import com.google.template.soy.soytree.defn.TemplateParam.DeclLoc;
 
+import java.io.Serializable;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -56,7 +57,7 @@ public abstract class TemplateNode extends AbstractBlockCommandNode implements R
    * these default priority values.
    */
   @Immutable
-  public static class SoyFileHeaderInfo {
+  public static class SoyFileHeaderInfo implements Serializable {
 
     @Nullable public final String delPackageName;
     public final int defaultDelPriority;
@@ -20,12 +20,14 @@ import com.google.common.base.Preconditions;
 import com.google.template.soy.exprtree.VarDefn;
 import com.google.template.soy.types.SoyType;
 
+import java.io.Serializable;
+
 /**
  * Implementation of common features of {@link VarDefn}.
  *
  * @author Talin
  */
-public abstract class AbstractVarDefn implements VarDefn {
+public abstract class AbstractVarDefn implements VarDefn, Serializable {
 
   /** The name of the value. */
   private final String name;
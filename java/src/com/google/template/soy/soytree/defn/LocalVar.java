@@ -28,6 +28,9 @@ public final class LocalVar extends AbstractVarDefn {
 
   private final SoyNode declaringNode;
 
+  /** The index of this variable's slot in the render-time environment, or -1 if unassigned. */
+  private int slot;
+
   /**
    * @param name The variable name.
    * @param declaringNode The statement in which this variable is defined.
@@ -36,6 +39,7 @@ public final class LocalVar extends AbstractVarDefn {
   public LocalVar(String name, SoyNode declaringNode, SoyType type) {
     super(name, type);
     this.declaringNode = declaringNode;
+    this.slot = -1;
   }
 
 
@@ -60,4 +64,21 @@ public final class LocalVar extends AbstractVarDefn {
   public void setType(SoyType type) {
     this.type = type;
   }
+
+  /**
+   * @return The index of this variable's slot in the render-time environment, or -1 if no slot has
+   *     been assigned yet.
+   */
+  public int slot() {
+    return slot;
+  }
+
+  /**
+   * Sets the index of this variable's slot in the render-time environment. Slots are assigned by
+   * {@code AssignLocalVarSlotsVisitor}.
+   * @param slot The slot index.
+   */
+  public void setSlot(int slot) {
+    this.slot = slot;
+  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.tofu;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Future;
+
+
+/**
+ * The result of one step of an asynchronous render (see {@link SoyTofu.Renderer#renderAsync}):
+ * either the render is done, or it must be continued once a future is done.
+ */
+public final class RenderResult {
+
+
+  /** The result for a render that is done. */
+  private static final RenderResult DONE = new RenderResult(null);
+
+
+  /** Returns the result for a render that is done. */
+  public static RenderResult done() {
+    return DONE;
+  }
+
+
+  /**
+   * Returns the result for a render that must be continued once the given future is done.
+   * @param future The future the render is waiting for.
+   */
+  public static RenderResult continueAfter(Future<?> future) {
+    return new RenderResult(Preconditions.checkNotNull(future));
+  }
+
+
+  /** The future the render is waiting for, or null if the render is done. */
+  private final Future<?> future;
+
+
+  private RenderResult(Future<?> future) {
+    this.future = future;
+  }
+
+
+  /** Returns whether the render is done. */
+  public boolean isDone() {
+    return future == null;
+  }
+
+
+  /**
+   * Returns the future the render is waiting for.
+   * @throws IllegalStateException If the render is done.
+   */
+  public Future<?> future() {
+    Preconditions.checkState(future != null, "The render is done.");
+    return future;
+  }
+
+
+  @Override public String toString() {
+    return isDone() ? "RenderResult.done()" : "RenderResult.continueAfter(" + future + ")";
+  }
+
+}
@@ -16,16 +16,21 @@
 
 package com.google.template.soy.tofu;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.template.soy.data.AdvisingAppendable;
 import com.google.template.soy.data.SanitizedContent;
 import com.google.template.soy.data.SoyRecord;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.parseinfo.SoyTemplateInfo;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
+import com.google.template.soy.shared.SoyRenderListener;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -87,6 +92,35 @@ public interface SoyTofu {
       @Nullable SoyMsgBundle msgBundle, @Nullable SoyCssRenamingMap cssRenamingMap);
 
 
+  /**
+   * Primes the cache with the combinations of each of the given SoyMsgBundles with the given
+   * SoyCssRenamingMap, building the cache entries in parallel on the given executor (e.g. a
+   * ForkJoinPool). Returns once all the entries have been built. If building an entry fails, the
+   * entries not yet started are cancelled and the failure is rethrown.
+   *
+   * <p> The calling thread only waits, so it must not be the only thread of the executor.
+   *
+   * Only applicable when {@code isCaching()} is true.
+   *
+   * @param msgBundles The message bundles to prime the cache with.
+   * @param cssRenamingMap The CSS renaming map to prime the cache with.
+   * @param executor The executor to build the cache entries on.
+   * @param listener The listener to notify as each entry is built, or null if not needed.
+   */
+  public void addToCache(
+      Collection<? extends SoyMsgBundle> msgBundles, @Nullable SoyCssRenamingMap cssRenamingMap,
+      Executor executor, @Nullable AddToCacheListener listener);
+
+
+  /**
+   * Returns statistics about the cache of intermediate Soy trees (hits, misses, evictions, and the
+   * time spent building entries). Only applicable when {@code isCaching()} is true.
+   *
+   * @return The statistics of the cache since this SoyTofu instance was created.
+   */
+  public CacheStats getCacheStats();
+
+
   /**
    * Gets a new Renderer for a template.
    *
@@ -139,6 +173,27 @@ public interface SoyTofu {
   public ImmutableSortedSet<String> getUsedIjParamsForTemplate(String templateName);
 
 
+  // -----------------------------------------------------------------------------------------------
+  // AddToCacheListener interface.
+
+
+  /**
+   * Listener for the progress of priming the cache of a SoyTofu with many message bundles.
+   */
+  public static interface AddToCacheListener {
+
+    /**
+     * Called after the cache entry for one message bundle has been built. May be called
+     * concurrently from the threads of the executor building the entries.
+     *
+     * @param msgBundle The message bundle whose entry was built.
+     * @param numAdded The number of entries built so far (including this one).
+     * @param numTotal The total number of entries to build.
+     */
+    public void onAddedToCache(@Nullable SoyMsgBundle msgBundle, int numAdded, int numTotal);
+  }
+
+
   // -----------------------------------------------------------------------------------------------
   // Renderer interface.
 
@@ -231,6 +286,15 @@ public interface SoyTofu {
      */
     public Renderer setContentKind(SanitizedContent.ContentKind contentKind);
 
+    /**
+     * Sets the listener to report the rendered templates to (e.g. a {@code SoyRenderMetrics}), or
+     * null to not profile the render. The listener decides whether each render is profiled, so it
+     * can profile only a sample of the renders.
+     *
+     * <p> Note: Each step of an asynchronous render is reported as a separate render.
+     */
+    public Renderer setRenderListener(SoyRenderListener renderListener);
+
     /**
      * Renders the template using the data, injected data, and message bundle previously set.
      *
@@ -262,6 +326,44 @@ public interface SoyTofu {
      * of unescaped kind="text" in contexts where that could XSS.
      */
     public void render(Appendable out);
+
+    /**
+     * Renders the template using the data, injected data, and message bundle previously set
+     * into the given AdvisingAppendable, flushing it whenever it advises so between two pieces of
+     * output (e.g. after a print, a block of raw text, or a template call).
+     * This lets the beginning of a large page (e.g. the head) be sent to the client while the rest
+     * of the page is still being rendered. See {@code Utf8StreamAppendable} for rendering to an
+     * OutputStream or a WritableByteChannel.
+     *
+     * <p> The output is not flushed or closed at the end of the render; that is up to the caller.
+     *
+     * <p>Checks the content kind of the template. Non-strict and kind="html" templates are
+     * allowed, unless setContentKind was called. The goal is to prevent accidental rendering
+     * of unescaped kind="text" in contexts where that could XSS.
+     */
+    public void render(AdvisingAppendable out);
+
+    /**
+     * Renders the template like {@link #render(AdvisingAppendable)}, except that the render does
+     * not block on data that is not yet available. If the template reads a value provided by a
+     * Future that is not yet done, the render stops and returns
+     * {@link RenderResult#continueAfter} with that future. Once the future is done, call this
+     * method again on the same renderer with the same output to continue the render, until it
+     * returns {@link RenderResult#done}. This way a few threads can serve many renders that wait
+     * on backend data.
+     *
+     * <p> Continuing a render picks it up where it stopped, so nothing is rendered twice (and
+     * e.g. the render listener hears of each template once). There are a few exceptions, where
+     * the render waits for the future instead of stopping: templates rendered without compiled
+     * templates (see {@link SoyTofuOptions#setUseCompiledTemplates}), and msgs, logs and
+     * deprecated V1 'if' tags that contain calls. Msgs, logs and V1 'if' tags without calls are
+     * rendered again from their start when the render continues.
+     *
+     * <p>Checks the content kind of the template. Non-strict and kind="html" templates are
+     * allowed, unless setContentKind was called. The goal is to prevent accidental rendering
+     * of unescaped kind="text" in contexts where that could XSS.
+     */
+    public RenderResult renderAsync(AdvisingAppendable out);
   }
 
 
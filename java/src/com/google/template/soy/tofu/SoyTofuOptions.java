@@ -16,6 +16,8 @@
 
 package com.google.template.soy.tofu;
 
+import com.google.common.base.Preconditions;
+
 
 /**
  * Compilation options for the Tofu backend.
@@ -29,9 +31,25 @@ public class SoyTofuOptions implements Cloneable {
    *  from the SoyMsgBundle and the SoyCssRenamingMap. */
   private boolean useCaching;
 
+  /** Whether the resulting SoyTofu instance should compile templates before rendering them. */
+  private boolean useCompiledTemplates;
+
+  /** The maximum total weight of the cached intermediate results (see setCacheMaxWeight()). */
+  private long cacheMaxWeight;
+
+  /** Whether the cached intermediate results should share the templates they have in common. */
+  private boolean useSharedTemplates;
+
+  /** The maximum size of the callees whose calls are inlined (see setMaxInlinedCalleeSize()). */
+  private int maxInlinedCalleeSize;
+
 
   public SoyTofuOptions() {
     useCaching = false;
+    useCompiledTemplates = true;
+    cacheMaxWeight = Long.MAX_VALUE;
+    useSharedTemplates = true;
+    maxInlinedCalleeSize = 0;
   }
 
 
@@ -49,7 +67,8 @@ public class SoyTofuOptions implements Cloneable {
    * <p> The cache will use memory proportional to the number of distinct combinations of
    * SoyMsgBundle and SoyCssRenamingMap your app uses (note most apps have at most one
    * SoyCssRenamingMap). If you find memory usage to be a problem, you can manually control the
-   * contents of the cache. See {@link SoyTofu.Renderer#setDontAddToCache} for details.
+   * contents of the cache (see {@link SoyTofu.Renderer#setDontAddToCache} for details), or bound
+   * its size (see {@link #setCacheMaxWeight}).
    *
    * @param useCaching The value to set.
    */
@@ -67,6 +86,107 @@ public class SoyTofuOptions implements Cloneable {
   }
 
 
+  /**
+   * Sets the maximum total weight of the intermediate results cached by the resulting SoyTofu
+   * instance (only applicable when {@link #setUseCaching caching} is enabled). The weight of one
+   * cached result is the number of nodes in its Soy tree, which is roughly proportional to the
+   * memory it uses. When the limit is reached, the least recently used results are evicted (and
+   * rebuilt if they are needed again). Defaults to no limit.
+   *
+   * @param cacheMaxWeight The value to set.
+   */
+  public void setCacheMaxWeight(long cacheMaxWeight) {
+    Preconditions.checkArgument(cacheMaxWeight >= 0);
+    this.cacheMaxWeight = cacheMaxWeight;
+  }
+
+
+  /**
+   * Returns the maximum total weight of the intermediate results cached by the resulting SoyTofu
+   * instance.
+   */
+  public long getCacheMaxWeight() {
+    return cacheMaxWeight;
+  }
+
+
+  /**
+   * Sets whether the intermediate results cached by the resulting SoyTofu instance (only applicable
+   * when {@link #setUseCaching caching} is enabled) should share the templates that contain no
+   * messages or 'css' commands, since those templates are the same whatever the SoyMsgBundle and
+   * SoyCssRenamingMap. Otherwise, each cached result has its own copy of every template. Defaults
+   * to true.
+   *
+   * <p> Note: Shared templates are simplified without knowledge of the locale, so expressions that
+   * depend on it (e.g. bidi functions) are evaluated when rendering instead of when caching.
+   *
+   * @param useSharedTemplates The value to set.
+   */
+  public void setUseSharedTemplates(boolean useSharedTemplates) {
+    this.useSharedTemplates = useSharedTemplates;
+  }
+
+
+  /**
+   * Returns whether the intermediate results cached by the resulting SoyTofu instance should share
+   * the templates they have in common.
+   */
+  public boolean useSharedTemplates() {
+    return useSharedTemplates;
+  }
+
+
+  /**
+   * Sets whether the resulting SoyTofu instance should compile each template (the first time it is
+   * rendered) into a form that is faster to render than the original Soy tree. The output is the
+   * same either way. Defaults to true.
+   *
+   * <p> Compiled templates use memory proportional to the size of the templates rendered, for each
+   * tree the SoyTofu renders from (i.e. for each cache entry when {@link #setUseCaching caching}
+   * is enabled).
+   *
+   * @param useCompiledTemplates The value to set.
+   */
+  public void setUseCompiledTemplates(boolean useCompiledTemplates) {
+    this.useCompiledTemplates = useCompiledTemplates;
+  }
+
+
+  /**
+   * Returns whether the resulting SoyTofu instance should compile templates before rendering them.
+   */
+  public boolean useCompiledTemplates() {
+    return useCompiledTemplates;
+  }
+
+
+  /**
+   * Sets the maximum size (in Soy tree nodes) of the templates whose calls the resulting SoyTofu
+   * instance inlines into their callers, to save the cost of a call (a new visitor and param store)
+   * when rendering. Only calls to non-recursive templates in the same file, that don't pass data
+   * and that pass all the params the callee uses, are inlined. Defaults to 0 (no inlining).
+   *
+   * <p> Note: An error in an inlined callee is reported in the stack trace of its caller, and an
+   * inlined callee is not reported separately to a {@link SoyTofu.Renderer#setRenderListener
+   * render listener}. Inlining also makes the Soy trees (hence the caches) bigger.
+   *
+   * @param maxInlinedCalleeSize The value to set.
+   */
+  public void setMaxInlinedCalleeSize(int maxInlinedCalleeSize) {
+    Preconditions.checkArgument(maxInlinedCalleeSize >= 0);
+    this.maxInlinedCalleeSize = maxInlinedCalleeSize;
+  }
+
+
+  /**
+   * Returns the maximum size (in Soy tree nodes) of the templates whose calls the resulting SoyTofu
+   * instance inlines into their callers.
+   */
+  public int getMaxInlinedCalleeSize() {
+    return maxInlinedCalleeSize;
+  }
+
+
   @Override public SoyTofuOptions clone() {
     try {
       return (SoyTofuOptions) super.clone();
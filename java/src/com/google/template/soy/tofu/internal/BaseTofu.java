@@ -16,42 +16,86 @@
 
 package com.google.template.soy.tofu.internal;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import com.google.template.soy.base.internal.IdGenerator;
+import com.google.template.soy.base.internal.SoyFileSupplier;
+import com.google.template.soy.data.AdvisingAppendable;
 import com.google.template.soy.data.SanitizedContent;
+import com.google.template.soy.data.SoyFutureValueProvider;
+import com.google.template.soy.data.SoyFutureValueProvider.FutureNotDoneException;
 import com.google.template.soy.data.SoyRecord;
 import com.google.template.soy.data.SoyValueHelper;
 import com.google.template.soy.data.UnsafeSanitizedContentOrdainer;
 import com.google.template.soy.data.internalutils.NodeContentKinds;
-import com.google.template.soy.internal.base.Pair;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.msgs.internal.InsertMsgsVisitor;
+import com.google.template.soy.msgs.internal.MsgUtils;
+import com.google.template.soy.msgs.internal.SoyMsgBundleFingerprinter;
 import com.google.template.soy.parseinfo.SoyTemplateInfo;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
+import com.google.template.soy.shared.SoyRenderListener;
 import com.google.template.soy.shared.internal.ApiCallScopeUtils;
 import com.google.template.soy.shared.internal.GuiceSimpleScope;
 import com.google.template.soy.shared.restricted.ApiCallScopeBindingAnnotations.ApiCall;
+import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.AssignLocalVarSlotsVisitor;
 import com.google.template.soy.sharedpasses.FindIjParamsVisitor;
 import com.google.template.soy.sharedpasses.FindIjParamsVisitor.IjParamsInfo;
 import com.google.template.soy.sharedpasses.MarkLocalVarDataRefsVisitor;
 import com.google.template.soy.sharedpasses.RenameCssVisitor;
+import com.google.template.soy.sharedpasses.opti.InlineCallsVisitor;
 import com.google.template.soy.sharedpasses.opti.SimplifyVisitor;
+import com.google.template.soy.sharedpasses.render.CompiledTemplates;
 import com.google.template.soy.sharedpasses.render.RenderException;
+import com.google.template.soy.sharedpasses.render.RenderProfiler;
 import com.google.template.soy.sharedpasses.render.RenderVisitor;
+import com.google.template.soy.soytree.CssNode;
+import com.google.template.soy.soytree.MsgFallbackGroupNode;
+import com.google.template.soy.soytree.SoyFileNode;
 import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.soytree.TemplateDelegateNode;
 import com.google.template.soy.soytree.TemplateNode;
 import com.google.template.soy.soytree.TemplateRegistry;
+import com.google.template.soy.tofu.RenderResult;
 import com.google.template.soy.tofu.SoyTofu;
 import com.google.template.soy.tofu.SoyTofuException;
+import com.google.template.soy.tofu.SoyTofuOptions;
+import com.google.template.soy.tofu.internal.TofuModule.Tofu;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -75,10 +119,12 @@ public class BaseTofu implements SoyTofu {
 
     /**
      * @param soyTree The Soy parse tree containing all the files in the Soy file set.
-     * @param isCaching Whether this instance caches intermediate Soy trees after substitutions from
-     *     the msgBundle and the cssRenamingMap.
+     * @param fileVersions Map from file path to the version of the file in soyTree.
+     * @param tofuOptions The compilation options for the Tofu backend.
      */
-    public BaseTofu create(SoyFileSetNode soyTree, boolean isCaching);
+    public BaseTofu create(
+        SoyFileSetNode soyTree, Map<String, SoyFileSupplier.Version> fileVersions,
+        SoyTofuOptions tofuOptions);
   }
 
 
@@ -91,61 +137,80 @@ public class BaseTofu implements SoyTofu {
   /** Factory for creating an instance of TofuRenderVisitor. */
   private final TofuRenderVisitorFactory tofuRenderVisitorFactory;
 
-  /** The instanceof of SimplifyVisitor to use. */
-  private final SimplifyVisitor simplifyVisitor;
+  /** Map of all SoyJavaPrintDirectives (name to directive). */
+  private final Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap;
 
-  /** The Soy parse tree containing all the files in the Soy file set. */
-  private final SoyFileSetNode soyTree;
+  /** Provider for new instances of SimplifyVisitor (which are not thread-safe). */
+  private final Provider<SimplifyVisitor> simplifyVisitorProvider;
 
   /** Whether this instance caches intermediate Soy trees after substitutions from the msgBundle
    *  and the cssRenamingMap. */
   private final boolean isCaching;
 
-  /** Map of cached template registries. Only applicable when isCaching is true. */
-  private final
-  Map<Pair<SoyMsgBundle, SoyCssRenamingMap>, TemplateRegistry> cachedTemplateRegistries;
+  /** Whether this instance renders templates from their compiled forms. */
+  private final boolean isCompiling;
 
-  /** The template registry used for no-caching mode of rendering. Applicable when isCaching is
-   *  false or when isCaching is true but doAddToCache is false. */
-  private final TemplateRegistry templateRegistryForNoCaching;
+  /** Whether the cached template registries share the templates that don't contain messages or
+   *  css commands. Only applicable when isCaching is true. */
+  private final boolean isSharing;
 
-  /** Map from template node to injected params info for all templates. */
-  private final ImmutableMap<TemplateNode, IjParamsInfo> templateToIjParamsInfoMap;
+  /** The maximum size of the callees whose calls are inlined, or 0 if calls are not inlined. */
+  private final int maxInlinedCalleeSize;
+
+  /** Cache of template registries. Only applicable when isCaching is true. */
+  private final Cache<CacheKey, PreparedTemplates> cachedTemplateRegistries;
+
+  /** The current state of the Soy file set. Replaced as a whole when some files are replaced. */
+  private volatile FileSetState state;
 
 
   /**
    * @param valueHelper Instance of SoyValueHelper to use.
    * @param apiCallScope The scope object that manages the API call scope.
    * @param tofuRenderVisitorFactory Factory for creating an instance of TofuRenderVisitor.
-   * @param simplifyVisitor The instance of SimplifyVisitor to use.
+   * @param soyJavaDirectivesMap Map of all SoyJavaPrintDirectives (name to directive).
+   * @param simplifyVisitorProvider Provider for new instances of SimplifyVisitor.
    * @param soyTree The Soy parse tree containing all the files in the Soy file set.
-   * @param isCaching Whether this instance caches intermediate Soy trees after substitutions from
-   *     the msgBundle and the cssRenamingMap.
+   * @param fileVersions Map from file path to the version of the file in soyTree.
+   * @param tofuOptions The compilation options for the Tofu backend.
    */
   @AssistedInject
   public BaseTofu(
       SoyValueHelper valueHelper, @ApiCall GuiceSimpleScope apiCallScope,
-      TofuRenderVisitorFactory tofuRenderVisitorFactory, SimplifyVisitor simplifyVisitor,
-      @Assisted SoyFileSetNode soyTree, @Assisted boolean isCaching) {
+      TofuRenderVisitorFactory tofuRenderVisitorFactory,
+      @Tofu Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap,
+      Provider<SimplifyVisitor> simplifyVisitorProvider, @Assisted SoyFileSetNode soyTree,
+      @Assisted Map<String, SoyFileSupplier.Version> fileVersions,
+      @Assisted SoyTofuOptions tofuOptions) {
 
     this.valueHelper = valueHelper;
     this.apiCallScope = apiCallScope;
     this.tofuRenderVisitorFactory = tofuRenderVisitorFactory;
-    this.simplifyVisitor = simplifyVisitor;
-    this.soyTree = soyTree;
-    this.isCaching = isCaching;
+    this.soyJavaDirectivesMap = soyJavaDirectivesMap;
+    this.simplifyVisitorProvider = simplifyVisitorProvider;
+    this.isCaching = tofuOptions.useCaching();
+    this.isCompiling = tofuOptions.useCompiledTemplates();
+    this.isSharing = isCaching && tofuOptions.useSharedTemplates();
+    this.maxInlinedCalleeSize = tofuOptions.getMaxInlinedCalleeSize();
+
+    state = new FileSetState(
+        0, soyTree.getChildren(), fileVersions, soyTree.getNodeIdGenerator(), null,
+        ImmutableSet.<String>of());
 
     if (isCaching) {
-      cachedTemplateRegistries = Maps.newHashMap();
+      cachedTemplateRegistries = CacheBuilder.newBuilder()
+          .maximumWeight(tofuOptions.getCacheMaxWeight())
+          .weigher(new Weigher<CacheKey, PreparedTemplates>() {
+            @Override public int weigh(CacheKey key, PreparedTemplates templates) {
+              return templates.weight;
+            }
+          })
+          .recordStats()
+          .build();
       addToCache(null, null);
     } else {
       cachedTemplateRegistries = null;
     }
-    SoyFileSetNode soyTreeForNoCaching = soyTree.clone();
-    templateRegistryForNoCaching = buildTemplateRegistry(soyTreeForNoCaching);
-    templateToIjParamsInfoMap =
-        (new FindIjParamsVisitor(templateRegistryForNoCaching)).execOnAllTemplates(
-            soyTreeForNoCaching);
   }
 
 
@@ -179,13 +244,64 @@ public class BaseTofu implements SoyTofu {
     try {
       ApiCallScopeUtils.seedSharedParams(
           apiCallScope, msgBundle, 0 /*use msgBundle locale's direction, ltr if null*/);
-      getCachedTemplateRegistry(Pair.of(msgBundle, cssRenamingMap), true);
+      getCachedTemplateRegistry(state, msgBundle, cssRenamingMap, true);
     } finally {
       apiCallScope.exit();
     }
   }
 
 
+  @Override public void addToCache(
+      Collection<? extends SoyMsgBundle> msgBundles,
+      @Nullable final SoyCssRenamingMap cssRenamingMap, Executor executor,
+      @Nullable final AddToCacheListener listener) {
+    if (!isCaching) {
+      throw new SoyTofuException("Cannot addToCache() when isCaching is false.");
+    }
+
+    final int numTotal = msgBundles.size();
+    final AtomicInteger numAdded = new AtomicInteger();
+    List<FutureTask<Void>> tasks = Lists.newArrayListWithCapacity(numTotal);
+    for (final SoyMsgBundle msgBundle : msgBundles) {
+      FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+        @Override public Void call() {
+          addToCache(msgBundle, cssRenamingMap);
+          if (listener != null) {
+            listener.onAddedToCache(msgBundle, numAdded.incrementAndGet(), numTotal);
+          }
+          return null;
+        }
+      });
+      tasks.add(task);
+      executor.execute(task);
+    }
+
+    try {
+      for (FutureTask<Void> task : tasks) {
+        task.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SoyTofuException("Interrupted while adding to cache.", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      // Don't leave work behind after a failure.
+      for (FutureTask<Void> task : tasks) {
+        task.cancel(false);
+      }
+    }
+  }
+
+
+  @Override public CacheStats getCacheStats() {
+    if (!isCaching) {
+      throw new SoyTofuException("Cannot getCacheStats() when isCaching is false.");
+    }
+    return cachedTemplateRegistries.stats();
+  }
+
+
   @Override public Renderer newRenderer(SoyTemplateInfo templateInfo) {
     return new RendererImpl(this, templateInfo.getName());
   }
@@ -203,11 +319,12 @@ public class BaseTofu implements SoyTofu {
 
 
   @Override public ImmutableSortedSet<String> getUsedIjParamsForTemplate(String templateName) {
-    TemplateNode template = templateRegistryForNoCaching.getBasicTemplate(templateName);
+    FileSetState state = this.state;
+    TemplateNode template = state.templatesForNoCaching.registry.getBasicTemplate(templateName);
     if (template == null) {
       throw new SoyTofuException("Template '" + templateName + "' not found.");
     }
-    IjParamsInfo ijParamsInfo = templateToIjParamsInfoMap.get(template);
+    IjParamsInfo ijParamsInfo = state.templateToIjParamsInfoMap.get(template);
     // TODO: Ideally we'd check that there are no external calls, but we find that in practice many
     // users have written templates that conditionally call to undefined templates. Instead,
     // we'll return a best effor set of what we have here, and over time, we'll encourage users to
@@ -216,41 +333,244 @@ public class BaseTofu implements SoyTofu {
   }
 
 
+  /**
+   * Gets the versions of the files of the Soy file set.
+   *
+   * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+   *
+   * @return Map from file path to the version of the file, in the order of the files.
+   */
+  public ImmutableMap<String, SoyFileSupplier.Version> getFileVersions() {
+    return state.fileVersions;
+  }
+
+
+  /**
+   * Replaces some files of the Soy file set with new versions, e.g. after their source changed.
+   * Only the templates of the new files are prepared for rendering again, the other files keep
+   * their prepared templates. The cached template registries are rebuilt on demand. Renders that
+   * are in progress finish with the previous versions of the files.
+   *
+   * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
+   *
+   * @param soyTree A Soy tree containing the new versions of some files, after the same passes as
+   *     the tree this instance was created from. Must not be used afterwards.
+   * @param fileVersions Map from file path to the version of the file, for all the files of the
+   *     new Soy file set (in order). The files that are not in it are removed.
+   * @param changedFilePaths The paths of the files whose source changed. The other files in
+   *     soyTree keep their current templates that are missing from their new versions (e.g.
+   *     templates derived by the contextual autoescaper for callers that were not recompiled).
+   */
+  public synchronized void replaceFiles(
+      SoyFileSetNode soyTree, Map<String, SoyFileSupplier.Version> fileVersions,
+      Set<String> changedFilePaths) {
+
+    FileSetState prevState = state;
+    Map<String, SoyFileNode> prevSoyFiles = Maps.newHashMap();
+    for (SoyFileNode soyFile : prevState.soyFiles) {
+      prevSoyFiles.put(soyFile.getFilePath(), soyFile);
+    }
+    Map<String, SoyFileNode> newSoyFiles = Maps.newHashMap();
+    for (SoyFileNode soyFile : soyTree.getChildren()) {
+      newSoyFiles.put(soyFile.getFilePath(), soyFile);
+    }
+
+    List<SoyFileNode> soyFiles = Lists.newArrayList();
+    for (String filePath : fileVersions.keySet()) {
+      SoyFileNode prevSoyFile = prevSoyFiles.get(filePath);
+      SoyFileNode newSoyFile = newSoyFiles.get(filePath);
+      if (newSoyFile == null) {
+        Preconditions.checkArgument(
+            prevSoyFile != null && !changedFilePaths.contains(filePath),
+            "Missing new version of file " + filePath + ".");
+        soyFiles.add(prevSoyFile);
+        continue;
+      }
+      if (prevSoyFile != null && !changedFilePaths.contains(filePath)) {
+        Set<Object> newTemplateKeys = Sets.newHashSet();
+        for (TemplateNode template : newSoyFile.getChildren()) {
+          newTemplateKeys.add(getTemplateKey(template));
+        }
+        for (TemplateNode template : prevSoyFile.getChildren()) {
+          if (!newTemplateKeys.contains(getTemplateKey(template))) {
+            newSoyFile.addChild((TemplateNode) template.clone());
+          }
+        }
+      }
+      soyFiles.add(newSoyFile);
+    }
+
+    state = new FileSetState(
+        prevState.generation + 1, soyFiles, fileVersions, soyTree.getNodeIdGenerator(), prevState,
+        newSoyFiles.keySet());
+
+    if (isCaching) {
+      // Note: The registries built from the previous state can't be hit anymore (their keys have
+      // the previous generation), even if they are added concurrently with this invalidation.
+      cachedTemplateRegistries.invalidateAll();
+      addToCache(null, null);
+    }
+  }
+
+
   // -----------------------------------------------------------------------------------------------
   // Private methods.
 
 
   /**
-   * Builds a template registry for the given Soy tree.
-   * @param soyTree The Soy tree to build a template registry for.
-   * @return The newly built template registry.
+   * Prepares the given Soy tree for rendering, building its template registry.
+   * @param soyTree The Soy tree to prepare. Must not be modified afterwards.
+   * @param state The state of the Soy file set, whose shared templates (if any) are included in
+   *     the registry.
+   * @return The newly built template registry, along with the compiled forms of the templates if
+   *     this instance renders compiled templates.
    */
-  private TemplateRegistry buildTemplateRegistry(SoyFileSetNode soyTree) {
+  private PreparedTemplates prepareTemplates(SoyFileSetNode soyTree, FileSetState state) {
 
-    (new MarkParentNodesNeedingEnvFramesVisitor()).exec(soyTree);
+    prepareTree(soyTree);
+
+    TemplateRegistry registry;
+    CompiledTemplates compiledTemplates = null;
+    if (state.sharedTemplates == null) {
+      registry = new TemplateRegistry(soyTree);
+      if (isCompiling) {
+        compiledTemplates = new CompiledTemplates(soyJavaDirectivesMap);
+      }
+    } else {
+      registry = new TemplateRegistry(Iterables.concat(
+          state.sharedTemplates,
+          SoytreeUtils.getAllNodesOfType(soyTree, TemplateNode.class, false)));
+      if (isCompiling) {
+        compiledTemplates = new CompiledTemplates(
+            soyJavaDirectivesMap, state.sharedTemplates, state.sharedCompiledTemplates);
+      }
+    }
+
+    // Note: The shared templates don't count towards the weight, since evicting this entry doesn't
+    // free them.
+    return new PreparedTemplates(
+        registry, compiledTemplates, SoytreeUtils.getAllNodesOfType(soyTree, SoyNode.class).size());
+  }
+
+
+  /**
+   * Private helper to prepare the templates of a newly cloned Soy tree for rendering: inlines the
+   * calls to small templates (if enabled), then resolves the local variables.
+   * @param soyTree The Soy tree to prepare.
+   */
+  private void prepareTree(SoyFileSetNode soyTree) {
+    if (maxInlinedCalleeSize > 0) {
+      (new InlineCallsVisitor(maxInlinedCalleeSize)).exec(soyTree);
+    }
     (new MarkLocalVarDataRefsVisitor()).exec(soyTree);
-    return new TemplateRegistry(soyTree);
+    (new AssignLocalVarSlotsVisitor()).exec(soyTree);
+  }
+
+
+  /**
+   * Determines whether the version of the given template after substitutions from a SoyMsgBundle
+   * and a SoyCssRenamingMap differs from one combination to another, i.e. whether it contains
+   * messages or 'css' commands.
+   */
+  private static boolean isLocalizedTemplate(TemplateNode template) {
+    return !SoytreeUtils.getAllNodesOfType(template, MsgFallbackGroupNode.class, false).isEmpty() ||
+        !SoytreeUtils.getAllNodesOfType(template, CssNode.class, false).isEmpty();
+  }
+
+
+  /**
+   * Clones the given files into a new tree. If localizedTemplates is non-null, then only either the
+   * localized templates or the other templates are cloned, and the files that contain none of these
+   * templates are skipped.
+   * @param soyFiles The files to clone.
+   * @param nodeIdGen The node id generator whose clone the new tree uses.
+   * @param localizedTemplates The localized templates (see FileSetState), or null to clone all the
+   *     templates.
+   * @param localized Whether to clone the localized templates (else the other templates). Ignored
+   *     if localizedTemplates is null.
+   * @return The new tree.
+   */
+  private static SoyFileSetNode cloneTemplates(
+      Iterable<SoyFileNode> soyFiles, IdGenerator nodeIdGen,
+      @Nullable Set<TemplateNode> localizedTemplates, boolean localized) {
+
+    IdGenerator nodeIdGenClone = nodeIdGen.clone();
+    SoyFileSetNode soyTreeClone = new SoyFileSetNode(nodeIdGenClone.genId(), nodeIdGenClone);
+
+    for (SoyFileNode soyFile : soyFiles) {
+      if (localizedTemplates == null) {
+        soyTreeClone.addChild(soyFile.clone());
+        continue;
+      }
+
+      boolean hasTemplatesToClone = false;
+      for (TemplateNode template : soyFile.getChildren()) {
+        if (localizedTemplates.contains(template) == localized) {
+          hasTemplatesToClone = true;
+          break;
+        }
+      }
+      if (!hasTemplatesToClone) {
+        continue;
+      }
+
+      SoyFileNode soyFileClone = soyFile.clone();
+      for (int i = soyFile.numChildren() - 1; i >= 0; i--) {
+        if (localizedTemplates.contains(soyFile.getChild(i)) != localized) {
+          soyFileClone.removeChild(i);
+        }
+      }
+      soyTreeClone.addChild(soyFileClone);
+    }
+
+    return soyTreeClone;
+  }
+
+
+  /**
+   * Gets a key identifying the given template among the templates of its file. (The generated
+   * names of delegate templates are not stable from one compilation to another.)
+   */
+  private static Object getTemplateKey(TemplateNode template) {
+    return (template instanceof TemplateDelegateNode) ?
+        ((TemplateDelegateNode) template).getDelTemplateKey() : template.getTemplateName();
+  }
+
+
+  /**
+   * Gets all the templates of the given files.
+   */
+  private static List<TemplateNode> getAllTemplates(Iterable<SoyFileNode> soyFiles) {
+
+    List<TemplateNode> templates = Lists.newArrayList();
+    for (SoyFileNode soyFile : soyFiles) {
+      templates.addAll(soyFile.getChildren());
+    }
+    return templates;
   }
 
 
   /**
-   * Gets the template registry associated with the given key (a key is a pair of SoyMsgBundle and
-   * SoyCssRenamingMap), optionally adding the mapping to the cache if it's not already there.
+   * Gets the template registry associated with the given SoyMsgBundle and SoyCssRenamingMap,
+   * optionally adding the mapping to the cache if it's not already there.
    *
    * <p> Specifically, if doAddToCache is true, then the mapping will be added to the cache if it's
-   * not already there. Thus, after calling this method with doAddToCache set to true, the given key
-   * is guaranteed to be found in the cache. On the other hand, if doAddToCache is false and the key
-   * is not already in the cache, then this method simply returns null without modifying the cache.
+   * not already there. Concurrent requests for the same missing mapping build it only once (the
+   * others wait for the result). On the other hand, if doAddToCache is false and the mapping is not
+   * already in the cache, then this method simply returns null without modifying the cache.
    *
-   * @param key The pair of SoyMsgBundle and SoyCssRenamingMap for which to retrieve the
-   *     corresponding template registry.
+   * @param state The state of the Soy file set.
+   * @param msgBundle The bundle of translated messages, or null to use the messages from the Soy
+   *     source.
+   * @param cssRenamingMap Map for renaming selectors in 'css' tags, or null if not used.
    * @param doAddToCache Whether to add this combination to the cache in the case that it's not
    *     found in the cache.
    * @return The corresponding template registry, or null if not found in cache and doAddToCache is
    *     false.
    */
-  private TemplateRegistry getCachedTemplateRegistry(
-      Pair<SoyMsgBundle, SoyCssRenamingMap> key, boolean doAddToCache) {
+  private PreparedTemplates getCachedTemplateRegistry(
+      final FileSetState state, @Nullable final SoyMsgBundle msgBundle,
+      @Nullable final SoyCssRenamingMap cssRenamingMap, boolean doAddToCache) {
 
     // This precondition check is for SimplifyVisitor, which we use below after making substitutions
     // from the SoyMsgBundle and SoyCssRenamingMap. While SimplifyVisitor will work correctly
@@ -259,19 +579,31 @@ public class BaseTofu implements SoyTofu {
     // in scope.
     Preconditions.checkState(apiCallScope.isActive());
 
-    TemplateRegistry templateRegistry = cachedTemplateRegistries.get(key);
-    if (templateRegistry == null) {
-      if (!doAddToCache) {
-        return null;
-      }
-      SoyFileSetNode soyTreeClone = soyTree.clone();
-      (new InsertMsgsVisitor(key.first, true)).exec(soyTreeClone);
-      (new RenameCssVisitor(key.second)).exec(soyTreeClone);
-      simplifyVisitor.exec(soyTreeClone);
-      templateRegistry = buildTemplateRegistry(soyTreeClone);
-      cachedTemplateRegistries.put(key, templateRegistry);
+    CacheKey key = new CacheKey(state.generation, msgBundle, cssRenamingMap);
+    if (!doAddToCache) {
+      return cachedTemplateRegistries.getIfPresent(key);
+    }
+
+    try {
+      return cachedTemplateRegistries.get(key, new Callable<PreparedTemplates>() {
+        @Override public PreparedTemplates call() {
+          // Note: When sharing templates, only the localized templates are cloned.
+          SoyFileSetNode soyTreeClone = cloneTemplates(
+              state.soyFiles, state.nodeIdGen, state.localizedTemplates, true);
+          (new InsertMsgsVisitor(msgBundle, true)).exec(soyTreeClone);
+          (new RenameCssVisitor(cssRenamingMap)).exec(soyTreeClone);
+          // Note: The tree is specialized for the bundle's locale, which is seeded in the scope.
+          simplifyVisitorProvider.get().setSpecializedForLocale(true).exec(soyTreeClone);
+          return prepareTemplates(soyTreeClone, state);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (ExecutionError e) {
+      throw Throwables.propagate(e.getCause());
     }
-    return templateRegistry;
   }
 
 
@@ -288,19 +620,23 @@ public class BaseTofu implements SoyTofu {
    *     the cache if it's not already there. If set to false, then falls back to the no-caching
    *     mode of rendering when not found in cache. Only applicable if isCaching is true for this
    *     BaseTofu instance.
-   * @return The template that was rendered.
+   * @param renderListener The listener to report the rendered templates to, or null if not used.
+   * @param isAsync Whether the render may stop when it needs the value of a future that is not yet
+   *     done, to be continued by {@link #continueMain}.
+   * @return The render, which is done unless it stopped in an asynchronous render.
    */
-  private TemplateNode renderMain(
+  private MainRender renderMain(
       Appendable outputBuf, String templateName, @Nullable SoyRecord data,
       @Nullable SoyRecord ijData, @Nullable Set<String> activeDelPackageNames,
       @Nullable SoyMsgBundle msgBundle, @Nullable SoyIdRenamingMap idRenamingMap,
       @Nullable SoyCssRenamingMap cssRenamingMap,
-      boolean doAddToCache) {
+      boolean doAddToCache, @Nullable SoyRenderListener renderListener, boolean isAsync) {
 
     if (activeDelPackageNames == null) {
       activeDelPackageNames = Collections.emptySet();
     }
 
+    FileSetState state = this.state;
     apiCallScope.enter();
 
     try {
@@ -309,20 +645,25 @@ public class BaseTofu implements SoyTofu {
           apiCallScope, msgBundle, 0 /*use msgBundle locale's direction, ltr if null*/);
 
       // Do the rendering.
-      TemplateRegistry cachedTemplateRegistry = isCaching ?
-          getCachedTemplateRegistry(Pair.of(msgBundle, cssRenamingMap), doAddToCache) : null;
-      // Note: cachedTemplateRegistry may be null even when isCaching is true (specifically, if
+      PreparedTemplates cachedTemplates = isCaching ?
+          getCachedTemplateRegistry(state, msgBundle, cssRenamingMap, doAddToCache) : null;
+      // Note: cachedTemplates may be null even when isCaching is true (specifically, if
       // doAddToCache is false).
-      if (cachedTemplateRegistry != null) {
-        // Note: Still need to pass msgBundle because we currently don't cache plural/select msgs.
-        return renderMainHelper(
-            cachedTemplateRegistry, outputBuf, templateName, data, ijData, activeDelPackageNames,
-            msgBundle, null, null);
+      MainRender render;
+      if (cachedTemplates != null) {
+        // Note: The translations of plural/select msgs are also inserted into the cached tree, so
+        // rendering doesn't need msgBundle.
+        render = renderMainHelper(
+            cachedTemplates, outputBuf, templateName, data, ijData, activeDelPackageNames,
+            null, null, null, renderListener, isAsync);
       } else {
-        return renderMainHelper(
-            templateRegistryForNoCaching, outputBuf, templateName, data, ijData,
-            activeDelPackageNames, msgBundle, idRenamingMap, cssRenamingMap);
+        render = renderMainHelper(
+            state.templatesForNoCaching, outputBuf, templateName, data, ijData,
+            activeDelPackageNames, msgBundle, idRenamingMap, cssRenamingMap, renderListener,
+            isAsync);
       }
+      render.renderStep();
+      return render;
 
     } finally {
       apiCallScope.exit();
@@ -331,9 +672,30 @@ public class BaseTofu implements SoyTofu {
 
 
   /**
-   * Renders a template and appends the result to a StringBuilder.
+   * Continues an asynchronous render from where it stopped.
    *
-   * @param templateRegistry A registry of all templates.
+   * @param render The render, which must have stopped.
+   * @param msgBundle The bundle of translated messages that the render was started with.
+   */
+  private void continueMain(MainRender render, @Nullable SoyMsgBundle msgBundle) {
+
+    apiCallScope.enter();
+    try {
+      // Seed the scoped parameters.
+      ApiCallScopeUtils.seedSharedParams(
+          apiCallScope, msgBundle, 0 /*use msgBundle locale's direction, ltr if null*/);
+      render.renderStep();
+
+    } finally {
+      apiCallScope.exit();
+    }
+  }
+
+
+  /**
+   * Prepares the render of a template.
+   *
+   * @param templates A registry of all templates, along with their compiled forms (if any).
    * @param outputBuf The Appendable to append the rendered text to.
    * @param templateName The full name of the template to render.
    * @param data The data to call the template with. Can be null if the template has no parameters.
@@ -342,15 +704,19 @@ public class BaseTofu implements SoyTofu {
    * @param msgBundle The bundle of translated messages, or null to use the messages from the Soy
    *     source.
    * @param cssRenamingMap Map for renaming selectors in 'css' tags, or null if not used.
-   * @return The template that was rendered.
+   * @param renderListener The listener to report the rendered templates to, or null if not used.
+   * @param isAsync Whether the render may stop when it needs the value of a future that is not yet
+   *     done. Only renders of compiled templates can stop, so other renders wait for the future.
+   * @return The render, ready for its first step.
    */
-  private TemplateNode renderMainHelper(
-      TemplateRegistry templateRegistry, Appendable outputBuf, String templateName,
+  private MainRender renderMainHelper(
+      PreparedTemplates templates, Appendable outputBuf, String templateName,
       @Nullable SoyRecord data, @Nullable SoyRecord ijData, Set<String> activeDelPackageNames,
       @Nullable SoyMsgBundle msgBundle, @Nullable SoyIdRenamingMap idRenamingMap,
-      @Nullable SoyCssRenamingMap cssRenamingMap) {
+      @Nullable SoyCssRenamingMap cssRenamingMap, @Nullable SoyRenderListener renderListener,
+      boolean isAsync) {
 
-    TemplateNode template = templateRegistry.getBasicTemplate(templateName);
+    TemplateNode template = templates.registry.getBasicTemplate(templateName);
     if (template == null) {
       throw new SoyTofuException("Attempting to render undefined template '" + templateName + "'.");
     }
@@ -359,17 +725,297 @@ public class BaseTofu implements SoyTofu {
       data = SoyValueHelper.EMPTY_DICT;
     }
 
-    try {
-      RenderVisitor rv = tofuRenderVisitorFactory.create(
-          outputBuf, templateRegistry, data, ijData, null, activeDelPackageNames, msgBundle,
-          idRenamingMap, cssRenamingMap);
-      rv.exec(template);
+    // Note: Renders that are not profiled have no profiler, so they don't pay for the timing.
+    RenderProfiler renderProfiler =
+        (renderListener != null && renderListener.shouldProfileRender(templateName)) ?
+            new RenderProfiler(renderListener) : null;
+
+    RenderVisitor rv = tofuRenderVisitorFactory.create(
+        outputBuf, templates.registry, data, ijData, null, activeDelPackageNames, msgBundle,
+        idRenamingMap, cssRenamingMap, templates.compiledTemplates, renderProfiler);
+    if (isAsync && templates.compiledTemplates != null) {
+      rv.setContinuable();
+    }
+
+    return new MainRender(template, rv, outputBuf);
+  }
+
+
+  /**
+   * The render of a template. A render that can be continued (see
+   * {@link RenderVisitor#setContinuable}) may take several steps: it stops when it needs the value
+   * of a future that is not yet done, and the next step continues from where it stopped.
+   */
+  private static final class MainRender {
+
+    final TemplateNode template;
+    final RenderVisitor rv;
+    /** The output of the render, which every step must render to. */
+    final Appendable outputBuf;
+    /** The future the render stopped on, or null if it has not stopped. */
+    @Nullable Future<?> pendingFuture;
+
+    MainRender(TemplateNode template, RenderVisitor rv, Appendable outputBuf) {
+      this.template = template;
+      this.rv = rv;
+      this.outputBuf = outputBuf;
+    }
+
+    /**
+     * Renders the template, or continues rendering it if the render stopped, until it is done or
+     * stops.
+     */
+    void renderStep() {
+
+      boolean isContinuable = rv.isContinuable();
+      boolean prevNonBlocking =
+          isContinuable && SoyFutureValueProvider.setNonBlockingForCurrentThread(true);
+      pendingFuture = null;
+      try {
+        rv.exec(template);
+
+      } catch (FutureNotDoneException e) {
+        if (!isContinuable) {
+          throw e;
+        }
+        pendingFuture = e.getFuture();
+
+      } catch (RenderException re) {
+        throw new SoyTofuException(re);
+
+      } finally {
+        if (isContinuable) {
+          SoyFutureValueProvider.setNonBlockingForCurrentThread(prevNonBlocking);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * The template registry of a Soy tree that is ready for rendering, along with the compiled forms
+   * of its templates (when this BaseTofu renders compiled templates).
+   */
+  private static final class PreparedTemplates {
+
+    final TemplateRegistry registry;
+    @Nullable final CompiledTemplates compiledTemplates;
+    /** The weight of this entry in the cache: the number of nodes in the Soy tree. */
+    final int weight;
+
+    PreparedTemplates(
+        TemplateRegistry registry, @Nullable CompiledTemplates compiledTemplates, int weight) {
+      this.registry = registry;
+      this.compiledTemplates = compiledTemplates;
+      this.weight = weight;
+    }
+  }
+
+
+  /**
+   * The state of the Soy file set: its files, and their templates prepared for rendering. Built
+   * once, and never modified afterwards.
+   */
+  private final class FileSetState {
+
+    /** The number of times files were replaced before this state. Part of the keys of the cached
+     *  template registries, so that the registries built from a previous state are not used. */
+    final int generation;
+
+    /** The files of the Soy file set, from which the templates to render are cloned. */
+    final ImmutableList<SoyFileNode> soyFiles;
+
+    /** Map from file path to the version of the file, in the order of the files. */
+    final ImmutableMap<String, SoyFileSupplier.Version> fileVersions;
+
+    /** The node id generator whose clones the trees cloned from the files use. */
+    final IdGenerator nodeIdGen;
+
+    /** The templates containing messages or css commands, whose versions in the cached template
+     *  registries differ. Null unless the cached registries share the other templates. */
+    @Nullable final ImmutableSet<TemplateNode> localizedTemplates;
+
+    /** Map from file path to the clone of the file prepared for no-caching mode of rendering. */
+    final ImmutableMap<String, SoyFileNode> filesForNoCaching;
+
+    /** Map from file path to the clone of the file's templates shared by all the cached template
+     *  registries (i.e. the templates not in localizedTemplates), prepared for rendering, or null
+     *  if not sharing templates. The files without shared templates are absent. */
+    @Nullable final ImmutableMap<String, SoyFileNode> sharedFiles;
+
+    /** The templates in sharedFiles, or null if not sharing templates. */
+    @Nullable final ImmutableSet<TemplateNode> sharedTemplates;
+
+    /** The compiled forms of the shared templates, or null if not sharing templates or not
+     *  rendering compiled templates. */
+    @Nullable final CompiledTemplates sharedCompiledTemplates;
+
+    /** The template registry used for no-caching mode of rendering. Applicable when isCaching is
+     *  false or when isCaching is true but doAddToCache is false. */
+    final PreparedTemplates templatesForNoCaching;
+
+    /** Map from template node to injected params info for all templates. */
+    final ImmutableMap<TemplateNode, IjParamsInfo> templateToIjParamsInfoMap;
+
+    /**
+     * Builds a state, preparing the templates of the new files for rendering, and reusing the
+     * prepared templates of the other files from the previous state.
+     * @param generation The number of times files were replaced before this state.
+     * @param soyFiles The files of the Soy file set. Must not be modified afterwards.
+     * @param fileVersions Map from file path to the version of the file.
+     * @param nodeIdGen The node id generator whose clones the trees cloned from the files use.
+     * @param prevState The previous state, or null if none (then all the files are new).
+     * @param newFilePaths The paths of the new files (those not taken from prevState).
+     */
+    FileSetState(
+        int generation, List<SoyFileNode> soyFiles,
+        Map<String, SoyFileSupplier.Version> fileVersions, IdGenerator nodeIdGen,
+        @Nullable FileSetState prevState, Set<String> newFilePaths) {
+
+      this.generation = generation;
+      this.soyFiles = ImmutableList.copyOf(soyFiles);
+      this.fileVersions = ImmutableMap.copyOf(fileVersions);
+      this.nodeIdGen = nodeIdGen;
+
+      List<SoyFileNode> newSoyFiles = Lists.newArrayList();
+      Set<String> newSoyFilePaths = Sets.newHashSet();
+      for (SoyFileNode soyFile : soyFiles) {
+        if (prevState == null || newFilePaths.contains(soyFile.getFilePath())) {
+          // Compute the msg ids once, so that the clones of the file don't fingerprint their
+          // messages on every render.
+          MsgUtils.computeAndStoreMsgIds(soyFile);
+          newSoyFiles.add(soyFile);
+          newSoyFilePaths.add(soyFile.getFilePath());
+        }
+      }
+
+      SoyFileSetNode newTreeForNoCaching = cloneTemplates(newSoyFiles, nodeIdGen, null, false);
+      prepareTree(newTreeForNoCaching);
+      filesForNoCaching = mergePreparedFiles(
+          newTreeForNoCaching, newSoyFilePaths,
+          (prevState != null) ? prevState.filesForNoCaching : null);
+
+      if (isSharing) {
+        ImmutableSet.Builder<TemplateNode> localizedTemplatesBuilder = ImmutableSet.builder();
+        for (SoyFileNode soyFile : soyFiles) {
+          boolean isNew = newSoyFilePaths.contains(soyFile.getFilePath());
+          for (TemplateNode template : soyFile.getChildren()) {
+            if (isNew ?
+                isLocalizedTemplate(template) : prevState.localizedTemplates.contains(template)) {
+              localizedTemplatesBuilder.add(template);
+            }
+          }
+        }
+        localizedTemplates = localizedTemplatesBuilder.build();
+
+        SoyFileSetNode newSharedTree =
+            cloneTemplates(newSoyFiles, nodeIdGen, localizedTemplates, false);
+        // Simplify within a new occurrence of the apiCallScope in which nothing is seeded, so that
+        // the result does not depend on the locale (e.g. bidi functions are not preevaluated).
+        apiCallScope.enter();
+        try {
+          simplifyVisitorProvider.get().exec(newSharedTree);
+        } finally {
+          apiCallScope.exit();
+        }
+        prepareTree(newSharedTree);
+        sharedFiles = mergePreparedFiles(
+            newSharedTree, newSoyFilePaths, (prevState != null) ? prevState.sharedFiles : null);
+        sharedTemplates = ImmutableSet.copyOf(getAllTemplates(sharedFiles.values()));
+        sharedCompiledTemplates = isCompiling ? new CompiledTemplates(soyJavaDirectivesMap) : null;
+
+      } else {
+        localizedTemplates = null;
+        sharedFiles = null;
+        sharedTemplates = null;
+        sharedCompiledTemplates = null;
+      }
+
+      List<TemplateNode> templatesForNoCachingList = getAllTemplates(filesForNoCaching.values());
+      TemplateRegistry registry = new TemplateRegistry(templatesForNoCachingList);
+      // Note: The weight doesn't matter, since this registry is not cached.
+      templatesForNoCaching = new PreparedTemplates(
+          registry, isCompiling ? new CompiledTemplates(soyJavaDirectivesMap) : null, 0);
+
+      FindIjParamsVisitor findIjParamsVisitor = new FindIjParamsVisitor(registry);
+      ImmutableMap.Builder<TemplateNode, IjParamsInfo> templateToIjParamsInfoMapBuilder =
+          ImmutableMap.builder();
+      for (TemplateNode template : templatesForNoCachingList) {
+        templateToIjParamsInfoMapBuilder.put(template, findIjParamsVisitor.exec(template));
+      }
+      templateToIjParamsInfoMap = templateToIjParamsInfoMapBuilder.build();
+    }
+
+    /**
+     * Private helper for the constructor to get the prepared files of this state, in the order of
+     * the files: the new files come from the given tree, and the other files from the previous
+     * state.
+     * @param newPreparedTree The tree of the prepared new files (some may be absent).
+     * @param newSoyFilePaths The paths of the new files.
+     * @param prevPreparedFiles The corresponding prepared files of the previous state, or null if
+     *     none.
+     * @return Map from file path to the prepared file.
+     */
+    private ImmutableMap<String, SoyFileNode> mergePreparedFiles(
+        SoyFileSetNode newPreparedTree, Set<String> newSoyFilePaths,
+        @Nullable Map<String, SoyFileNode> prevPreparedFiles) {
+
+      Map<String, SoyFileNode> newPreparedFiles = Maps.newHashMap();
+      for (SoyFileNode preparedFile : newPreparedTree.getChildren()) {
+        newPreparedFiles.put(preparedFile.getFilePath(), preparedFile);
+      }
 
-    } catch (RenderException re) {
-      throw new SoyTofuException(re);
+      ImmutableMap.Builder<String, SoyFileNode> preparedFilesBuilder = ImmutableMap.builder();
+      for (SoyFileNode soyFile : soyFiles) {
+        String filePath = soyFile.getFilePath();
+        SoyFileNode preparedFile = newSoyFilePaths.contains(filePath) ?
+            newPreparedFiles.get(filePath) : prevPreparedFiles.get(filePath);
+        if (preparedFile != null) {
+          preparedFilesBuilder.put(filePath, preparedFile);
+        }
+      }
+      return preparedFilesBuilder.build();
     }
+  }
 
-    return template;
+
+  /**
+   * Key of the cache of template registries. Message bundles are identified by their locale and a
+   * fingerprint of their content (rather than by instance), so that reloading an unchanged bundle
+   * still hits the cache. Css renaming maps are compared with equals(). Registries built from
+   * different states of the Soy file set have different keys.
+   */
+  private static final class CacheKey {
+
+    final int generation;
+    @Nullable final String localeString;
+    @Nullable final HashCode msgBundleFingerprint;
+    @Nullable final SoyCssRenamingMap cssRenamingMap;
+
+    CacheKey(
+        int generation, @Nullable SoyMsgBundle msgBundle,
+        @Nullable SoyCssRenamingMap cssRenamingMap) {
+      this.generation = generation;
+      this.localeString = (msgBundle != null) ? msgBundle.getLocaleString() : null;
+      this.msgBundleFingerprint =
+          (msgBundle != null) ? SoyMsgBundleFingerprinter.getFingerprint(msgBundle) : null;
+      this.cssRenamingMap = cssRenamingMap;
+    }
+
+    @Override public boolean equals(Object other) {
+      if (!(other instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey otherKey = (CacheKey) other;
+      return generation == otherKey.generation &&
+          Objects.equal(localeString, otherKey.localeString) &&
+          Objects.equal(msgBundleFingerprint, otherKey.msgBundleFingerprint) &&
+          Objects.equal(cssRenamingMap, otherKey.cssRenamingMap);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode(generation, localeString, msgBundleFingerprint, cssRenamingMap);
+    }
   }
 
 
@@ -393,6 +1039,9 @@ public class BaseTofu implements SoyTofu {
     private boolean doAddToCache;
     private SanitizedContent.ContentKind expectedContentKind;
     private boolean contentKindExplicitlySet;
+    private SoyRenderListener renderListener;
+    /** The asynchronous render that stopped, to be continued by renderAsync(), or null if none. */
+    private MainRender asyncRender;
 
     /**
      * @param baseTofu The underlying BaseTofu object used to perform the rendering.
@@ -410,6 +1059,7 @@ public class BaseTofu implements SoyTofu {
       this.doAddToCache = true;
       this.expectedContentKind = SanitizedContent.ContentKind.HTML;
       this.contentKindExplicitlySet = false;
+      this.renderListener = null;
     }
 
     @Override public Renderer setData(Map<String, ?> data) {
@@ -466,6 +1116,11 @@ public class BaseTofu implements SoyTofu {
       return this;
     }
 
+    @Override public Renderer setRenderListener(SoyRenderListener renderListener) {
+      this.renderListener = renderListener;
+      return this;
+    }
+
     @Override public String render() {
       StringBuilder sb = new StringBuilder();
       render(sb);
@@ -473,29 +1128,60 @@ public class BaseTofu implements SoyTofu {
     }
 
     @Override public void render(Appendable out) {
-      TemplateNode template = baseTofu.renderMain(
+      MainRender render = baseTofu.renderMain(
           out, templateName, data, ijData, activeDelPackageNames, msgBundle, idRenamingMap,
-          cssRenamingMap, doAddToCache);
-      if (contentKindExplicitlySet || template.getContentKind() != null) {
-        // Enforce the content kind if:
-        // - The caller explicitly set a content kind to validate.
-        // - The template is strict. This avoids accidentally using a text strict template in a
-        // place where HTML was implicitly expected.
-        enforceContentKind(template);
+          cssRenamingMap, doAddToCache, renderListener, false);
+      checkContentKind(render.template);
+    }
+
+    @Override public void render(AdvisingAppendable out) {
+      // Note: The render visitor flushes the output whenever it is an AdvisingAppendable.
+      render((Appendable) out);
+    }
+
+    @Override public RenderResult renderAsync(AdvisingAppendable out) {
+
+      MainRender render = asyncRender;
+      asyncRender = null;  // until it stops again
+      if (render == null) {
+        render = baseTofu.renderMain(
+            out, templateName, data, ijData, activeDelPackageNames, msgBundle, idRenamingMap,
+            cssRenamingMap, doAddToCache, renderListener, true);
+      } else {
+        Preconditions.checkArgument(
+            out == render.outputBuf, "An asynchronous render must be continued with its output.");
+        baseTofu.continueMain(render, msgBundle);
+      }
+
+      if (render.pendingFuture != null) {
+        asyncRender = render;
+        return RenderResult.continueAfter(render.pendingFuture);
       }
+      checkContentKind(render.template);
+      return RenderResult.done();
     }
 
     @Override public SanitizedContent renderStrict() {
       StringBuilder sb = new StringBuilder();
       TemplateNode template = baseTofu.renderMain(
           sb, templateName, data, ijData, activeDelPackageNames, msgBundle, idRenamingMap,
-          cssRenamingMap, doAddToCache);
+          cssRenamingMap, doAddToCache, renderListener, false).template;
       enforceContentKind(template);
       // Use the expected instead of actual content kind; that way, if an HTML template is rendered
       // as TEXT, we will return TEXT.
       return UnsafeSanitizedContentOrdainer.ordainAsSafe(sb.toString(), expectedContentKind);
     }
 
+    private void checkContentKind(TemplateNode template) {
+      if (contentKindExplicitlySet || template.getContentKind() != null) {
+        // Enforce the content kind if:
+        // - The caller explicitly set a content kind to validate.
+        // - The template is strict. This avoids accidentally using a text strict template in a
+        // place where HTML was implicitly expected.
+        enforceContentKind(template);
+      }
+    }
+
     private void enforceContentKind(TemplateNode template) {
       if (expectedContentKind == SanitizedContent.ContentKind.TEXT) {
         // Allow any template to be called as text. This is consistent with the fact that
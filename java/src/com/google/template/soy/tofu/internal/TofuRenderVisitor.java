@@ -17,15 +17,16 @@
 package com.google.template.soy.tofu.internal;
 
 import com.google.template.soy.data.SoyRecord;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.render.CompiledTemplates;
+import com.google.template.soy.sharedpasses.render.Environment;
+import com.google.template.soy.sharedpasses.render.RenderProfiler;
 import com.google.template.soy.sharedpasses.render.RenderVisitor;
 import com.google.template.soy.soytree.TemplateRegistry;
 
-import java.util.Deque;
 import java.util.Map;
 import java.util.Set;
 
@@ -60,18 +61,24 @@ class TofuRenderVisitor extends RenderVisitor {
    *     Soy source.
    * @param xidRenamingMap The 'xid' renaming map, or null if not applicable.
    * @param cssRenamingMap The CSS renaming map, or null if not applicable.
+   * @param compiledTemplates The compiled forms of the templates in templateRegistry, or null to
+   *     interpret the templates.
+   * @param renderProfiler The profiler of the current render, or null if the render is not
+   *     profiled.
    */
   protected TofuRenderVisitor(
       Map<String, SoyJavaPrintDirective> soyJavaDirectivesMap,
       TofuEvalVisitorFactory tofuEvalVisitorFactory, Appendable outputBuf,
       @Nullable TemplateRegistry templateRegistry, SoyRecord data, @Nullable SoyRecord ijData,
-      @Nullable Deque<Map<String, SoyValue>> env, @Nullable Set<String> activeDelPackageNames,
+      @Nullable Environment env, @Nullable Set<String> activeDelPackageNames,
       @Nullable SoyMsgBundle msgBundle, @Nullable SoyIdRenamingMap xidRenamingMap,
-      @Nullable SoyCssRenamingMap cssRenamingMap) {
+      @Nullable SoyCssRenamingMap cssRenamingMap, @Nullable CompiledTemplates compiledTemplates,
+      @Nullable RenderProfiler renderProfiler) {
 
     super(
         soyJavaDirectivesMap, tofuEvalVisitorFactory, outputBuf, templateRegistry, data, ijData,
-        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap);
+        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap, compiledTemplates,
+        renderProfiler);
   }
 
 
@@ -80,7 +87,7 @@ class TofuRenderVisitor extends RenderVisitor {
     return new TofuRenderVisitor(
         soyJavaDirectivesMap, (TofuEvalVisitorFactory) evalVisitorFactory, outputBuf,
         templateRegistry, data, ijData, null, activeDelPackageNames, msgBundle,
-        xidRenamingMap, cssRenamingMap);
+        xidRenamingMap, cssRenamingMap, compiledTemplates, renderProfiler);
   }
 
 }
@@ -18,15 +18,16 @@ package com.google.template.soy.tofu.internal;
 
 import com.google.inject.Inject;
 import com.google.template.soy.data.SoyRecord;
-import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.shared.SoyCssRenamingMap;
 import com.google.template.soy.shared.SoyIdRenamingMap;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.render.CompiledTemplates;
+import com.google.template.soy.sharedpasses.render.Environment;
+import com.google.template.soy.sharedpasses.render.RenderProfiler;
 import com.google.template.soy.soytree.TemplateRegistry;
 import com.google.template.soy.tofu.internal.TofuModule.Tofu;
 
-import java.util.Deque;
 import java.util.Map;
 import java.util.Set;
 
@@ -74,17 +75,23 @@ class TofuRenderVisitorFactory {
    *     Soy source.
    * @param xidRenamingMap The 'xid' renaming map, or null if not applicable.
    * @param cssRenamingMap The CSS renaming map, or null if not applicable.
+   * @param compiledTemplates The compiled forms of the templates in templateRegistry, or null to
+   *     interpret the templates.
+   * @param renderProfiler The profiler of the current render, or null if the render is not
+   *     profiled.
    * @return The newly created TofuRenderVisitor instance.
    */
   public TofuRenderVisitor create(
       Appendable outputBuf, TemplateRegistry templateRegistry, SoyRecord data,
-      @Nullable SoyRecord ijData, @Nullable Deque<Map<String, SoyValue>> env,
+      @Nullable SoyRecord ijData, @Nullable Environment env,
       @Nullable Set<String> activeDelPackageNames, @Nullable SoyMsgBundle msgBundle,
-      @Nullable SoyIdRenamingMap xidRenamingMap, @Nullable SoyCssRenamingMap cssRenamingMap) {
+      @Nullable SoyIdRenamingMap xidRenamingMap, @Nullable SoyCssRenamingMap cssRenamingMap,
+      @Nullable CompiledTemplates compiledTemplates, @Nullable RenderProfiler renderProfiler) {
 
     return new TofuRenderVisitor(
         soyJavaDirectivesMap, tofuEvalVisitorFactory, outputBuf, templateRegistry, data, ijData,
-        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap);
+        env, activeDelPackageNames, msgBundle, xidRenamingMap, cssRenamingMap, compiledTemplates,
+        renderProfiler);
   }
 
 }
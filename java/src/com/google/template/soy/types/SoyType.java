@@ -18,6 +18,8 @@ package com.google.template.soy.types;
 
 import com.google.template.soy.data.SoyValue;
 
+import java.io.Serializable;
+
 
 /**
  * Interface for all classes that describe a data type in Soy. These types
@@ -37,7 +39,7 @@ import com.google.template.soy.data.SoyValue;
  *
  * @author Talin
  */
-public interface SoyType {
+public interface SoyType extends Serializable {
 
 
   /** Enum that identifies the kind of type this is. */
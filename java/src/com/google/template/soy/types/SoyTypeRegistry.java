@@ -48,6 +48,9 @@ import java.util.Set;
  *
  * <p> Important: Do not use outside of Soy code (treat as superpackage-private).
  *
+ * <p> This class is thread-safe (the interners are concurrent), provided that the type providers
+ * are, so that files may be parsed in parallel with the same registry.
+ *
  * @author Talin
  */
 @Singleton
@@ -89,6 +92,15 @@ public final class SoyTypeRegistry {
   }
 
 
+  /**
+   * Returns whether this registry has type providers (i.e. whether types may be looked up beyond
+   * the builtin ones). The types they provide can change independently of the Soy compiler.
+   */
+  public boolean hasTypeProviders() {
+    return !typeProviders.isEmpty();
+  }
+
+
   /**
    * Look up a type by name. Returns null if there is no such type.
    * @param typeName The fully-qualified name of the type.
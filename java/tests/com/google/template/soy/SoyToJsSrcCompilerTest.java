@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Map;
+
+public class SoyToJsSrcCompilerTest extends TestCase {
+  private File tmpDir;
+
+  @Override protected void setUp() throws Exception {
+    super.setUp();
+    tmpDir = Files.createTempDir();
+  }
+
+
+  @Override protected void tearDown() throws Exception {
+    super.tearDown();
+    for (File file : tmpDir.listFiles()) {
+      file.delete();
+    }
+    tmpDir.delete();
+    tmpDir = null;
+  }
+
+
+  public final void testNumThreadsFlag() throws Exception {
+    File soyFile = new File(tmpDir, "greeting.soy");
+    Files.write("{namespace ns}\n/***/\n{template .a}\n{msg desc=\"a\"}Hello{/msg}\n{/template}",
+                soyFile, UTF_8);
+    SoyMsg msg = SoyFileSet.builder().add(soyFile).build().extractMsgs().iterator().next();
+
+    Map<String, String> translations =
+        ImmutableMap.of("fr", "Bonjour", "de", "Hallo", "es", "Hola", "it", "Ciao");
+    for (Map.Entry<String, String> translation : translations.entrySet()) {
+      writeXliffFile(translation.getKey(), msg.getId(), "Hello", translation.getValue());
+    }
+
+    SoyToJsSrcCompiler.main(new String[] {
+        "--numThreads", "3",
+        "--locales", "fr,de,es,it",
+        "--messageFilePathFormat", tmpDir + "/msgs_{LOCALE}.xlf",
+        "--outputPathFormat", "{INPUT_DIRECTORY}/{INPUT_FILE_NAME_NO_EXT}_{LOCALE}.js",
+        soyFile.toString()});
+
+    for (Map.Entry<String, String> translation : translations.entrySet()) {
+      String jsContent = Files.toString(
+          new File(tmpDir, "greeting_" + translation.getKey() + ".js"), UTF_8);
+      assertTrue(jsContent, jsContent.contains(translation.getValue()));
+      assertFalse(jsContent, jsContent.contains("Hello"));
+    }
+  }
+
+
+  public final void testShouldSpliceLocalizedMsgsFlag() throws Exception {
+    File soyFile = new File(tmpDir, "greeting.soy");
+    Files.write(
+        "{namespace ns autoescape=\"strict\"}\n/** @param name */\n{template .a}\n" +
+        "{msg desc=\"a\"}Hello {$name}!{/msg} {bidiGlobalDir()}\n{/template}",
+        soyFile, UTF_8);
+    SoyMsg msg = SoyFileSet.builder().add(soyFile).build().extractMsgs().iterator().next();
+    writeXliffFile("fr", msg.getId(), "Hello <x id=\"NAME\"/>!", "Bonjour <x id=\"NAME\"/> !");
+    writeXliffFile("he", msg.getId(), "Hello <x id=\"NAME\"/>!", "<x id=\"NAME\"/> shalom!");
+    writeXliffFile("en", msg.getId() + 1, "Hi", "Hi");
+
+    // The locales are spliced the same way one after another and in parallel.
+    for (String numThreads : new String[] {"1", "3"}) {
+      SoyToJsSrcCompiler.main(new String[] {
+          "--shouldSpliceLocalizedMsgs",
+          "--numThreads", numThreads,
+          "--locales", "fr,he,en",
+          "--messageFilePathFormat", tmpDir + "/msgs_{LOCALE}.xlf",
+          "--outputPathFormat", "{INPUT_DIRECTORY}/{INPUT_FILE_NAME_NO_EXT}_{LOCALE}.js",
+          soyFile.toString()});
+
+      String frJsContent = Files.toString(new File(tmpDir, "greeting_fr.js"), UTF_8);
+      assertTrue(frJsContent, frJsContent.contains(
+          " = 'Bonjour ' + soy.$$escapeHtml(opt_data.name) + ' !';"));
+      assertTrue(frJsContent, frJsContent.contains("soy.$$escapeHtml(1);"));
+
+      String heJsContent = Files.toString(new File(tmpDir, "greeting_he.js"), UTF_8);
+      assertTrue(heJsContent, heJsContent.contains(
+          " = soy.$$escapeHtml(opt_data.name) + ' shalom!';"));
+      assertTrue(heJsContent, heJsContent.contains("soy.$$escapeHtml(-1);"));
+
+      // The English message file doesn't have the message, so the source message is used.
+      String enJsContent = Files.toString(new File(tmpDir, "greeting_en.js"), UTF_8);
+      assertTrue(enJsContent, enJsContent.contains(
+          " = 'Hello ' + soy.$$escapeHtml(opt_data.name) + '!';"));
+      assertTrue(enJsContent, enJsContent.contains("soy.$$escapeHtml(1);"));
+
+      for (String locale : new String[] {"fr", "he", "en"}) {
+        assertTrue(new File(tmpDir, "greeting_" + locale + ".js").delete());
+      }
+    }
+  }
+
+
+  public final void testPersistentWorker() throws Exception {
+    File depFile = new File(tmpDir, "dep.soy");
+    Files.write("{namespace dep}\n/***/\n{template .b}\nDep\n{/template}", depFile, UTF_8);
+    File soyFile = new File(tmpDir, "greeting.soy");
+    // The generated names of the foreach's local vars contain node ids.
+    String helloSoy =
+        "{namespace ns}\n/***/\n{template .a}\nHello {call dep.b /}\n{/template}\n" +
+        "/** @param xs */\n{template .c}\n{foreach $x in $xs}{$x}{/foreach}\n{/template}";
+    Files.write(helloSoy, soyFile, UTF_8);
+    File jsFile = new File(tmpDir, "greeting.js");
+
+    String request = Joiner.on('\t').join(
+        "--outputPathFormat", tmpDir + "/{INPUT_FILE_NAME_NO_EXT}.js",
+        "--srcs", soyFile.toString(), "--deps", depFile.toString());
+
+    // Run the worker with piped stdin and stdout, to send it requests one by one.
+    PipedOutputStream requestsOut = new PipedOutputStream();
+    PipedInputStream responsesIn = new PipedInputStream();
+    InputStream origIn = System.in;
+    PrintStream origOut = System.out;
+    System.setIn(new PipedInputStream(requestsOut));
+    System.setOut(new PrintStream(new PipedOutputStream(responsesIn), true, "UTF-8"));
+    final PrintStream workerOut = System.out;
+    Thread workerThread = new Thread() {
+      @Override public void run() {
+        try {
+          SoyToJsSrcCompiler.main(new String[] {"--persistentWorker", "--cacheAsts"});
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        } finally {
+          workerOut.close();
+        }
+      }
+    };
+    workerThread.start();
+    Writer requests = new OutputStreamWriter(requestsOut, UTF_8);
+    BufferedReader responses = new BufferedReader(new InputStreamReader(responsesIn, UTF_8));
+    try {
+      // The worker survives failing requests.
+      requests.write("--srcs\t" + soyFile + "\n");  // missing --outputPathFormat
+      requests.flush();
+      assertEquals("1", responses.readLine());
+
+      requests.write(request + "\n");
+      requests.flush();
+      assertEquals("0", responses.readLine());
+      String helloJsContent = Files.toString(jsFile, UTF_8);
+      assertTrue(helloJsContent, helloJsContent.contains("'Hello ' + dep.b(null)"));
+
+      // A changed file is reparsed even though it's cached, while the unchanged dep is served
+      // from the cache (its content is broken behind the worker's back, without changing its
+      // modification time, so the request would fail if it was reparsed).
+      long depLastModified = depFile.lastModified();
+      Files.write("{namespace dep}\n/***/\n{template .b}\n{if}\n{/template}", depFile, UTF_8);
+      depFile.setLastModified(depLastModified);
+      Files.write(helloSoy.replace("Hello", "Bye"), soyFile, UTF_8);
+      soyFile.setLastModified(soyFile.lastModified() + 10000);
+      requests.write(request + "\n");
+      requests.flush();
+      assertEquals("0", responses.readLine());
+      String jsContent = Files.toString(jsFile, UTF_8);
+      assertTrue(jsContent, jsContent.contains("'Bye ' + dep.b(null)"));
+
+      // The node ids, and so the generated code, don't depend on the files parsed before.
+      Files.write(helloSoy, soyFile, UTF_8);
+      soyFile.setLastModified(soyFile.lastModified() + 20000);
+      requests.write(request + "\n");
+      requests.flush();
+      assertEquals("0", responses.readLine());
+      assertEquals(helloJsContent, Files.toString(jsFile, UTF_8));
+
+      requests.close();
+      assertNull(responses.readLine());
+      workerThread.join();
+
+    } finally {
+      System.setIn(origIn);
+      System.setOut(origOut);
+    }
+  }
+
+
+  private void writeXliffFile(String locale, long msgId, String source, String target)
+      throws Exception {
+    Files.write(
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<xliff version=\"1.2\" xmlns=\"urn:oasis:names:tc:xliff:document:1.2\">\n" +
+        "<file original=\"SoyMsgBundle\" datatype=\"x-soy-msg-bundle\" xml:space=\"preserve\"" +
+        " source-language=\"en\" target-language=\"" + locale + "\"><body>\n" +
+        "<trans-unit id=\"" + msgId + "\" datatype=\"html\">" +
+        "<source>" + source + "</source><target>" + target + "</target></trans-unit>\n" +
+        "</body></file></xliff>\n",
+        new File(tmpDir, "msgs_" + locale + ".xlf"), UTF_8);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.data;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Unit tests for Utf8StreamAppendable.
+ */
+public class Utf8StreamAppendableTest extends TestCase {
+
+
+  public void testEncoding() throws Exception {
+
+    String text = "ascii éࠀ€ 😀 end";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8StreamAppendable appendable = new Utf8StreamAppendable(out);
+    appendable.append(text);
+    appendable.close();
+    assertEquals(text, new String(out.toByteArray(), "UTF-8"));
+  }
+
+
+  public void testSurrogatePairSplitAcrossAppends() throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8StreamAppendable appendable = new Utf8StreamAppendable(out);
+    appendable.append("a\ud83d");
+    appendable.flush();
+    appendable.append('\ude00');
+    appendable.append("b", 0, 1);
+    appendable.close();
+    assertEquals("a😀b", new String(out.toByteArray(), "UTF-8"));
+  }
+
+
+  public void testUnpairedSurrogates() throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8StreamAppendable appendable = new Utf8StreamAppendable(out);
+    appendable.append("\ude00a\ud83db\ud83d");
+    appendable.close();
+    assertEquals("?a?b?", new String(out.toByteArray(), "UTF-8"));
+  }
+
+
+  public void testSoftLimitAndChunking() throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8StreamAppendable appendable = new Utf8StreamAppendable(out, 10);
+    appendable.append("123456789");
+    assertFalse(appendable.softLimitReached());
+    assertEquals(0, out.size());
+    appendable.append('é');
+    assertTrue(appendable.softLimitReached());
+    appendable.flush();
+    assertFalse(appendable.softLimitReached());
+    assertEquals(11, out.size());
+
+    // Output larger than the buffer is written in chunks without waiting for a flush.
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      big.append("abcdefghij");
+    }
+    appendable.append(big);
+    assertTrue(out.size() > 11);
+    appendable.close();
+    assertEquals(11 + big.length(), out.size());
+  }
+
+
+  public void testClosed() throws Exception {
+
+    Utf8StreamAppendable appendable = new Utf8StreamAppendable(new ByteArrayOutputStream());
+    appendable.close();
+    appendable.close();  // closing twice is harmless
+    try {
+      appendable.append("a");
+      fail();
+    } catch (IOException expected) {
+      // Test passes.
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.msgs.restricted;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.SoyMsgBundleHandler;
+import com.google.template.soy.msgs.SoyMsgException;
+import com.google.template.soy.xliffmsgplugin.XliffMsgPlugin;
+import com.google.template.soy.xliffmsgplugin.XliffMsgPluginTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * Unit tests for SoyMsgBundleBinaryFormat.
+ */
+public class SoyMsgBundleBinaryFormatTest extends TestCase {
+
+
+  public void testWriteAndRead() {
+
+    SoyMsgPart pluralPart = new SoyMsgPluralPart("NUM", 1, ImmutableList.of(
+        Pair.of(new SoyMsgPluralCaseSpec(0), partsOf(SoyMsgRawTextPart.of("aucun"))),
+        Pair.of(new SoyMsgPluralCaseSpec("few"), partsOf(
+            new SoyMsgPlaceholderPart("NAME"), SoyMsgRawTextPart.of(" et quelques autres"))),
+        Pair.of(new SoyMsgPluralCaseSpec("other"), partsOf(
+            new SoyMsgPlaceholderPart("NAME"), SoyMsgRawTextPart.of(" et "),
+            new SoyMsgPluralRemainderPart("NUM"), SoyMsgRawTextPart.of(" autres")))));
+    SoyMsgPart selectPart = new SoyMsgSelectPart("GENDER", ImmutableList.of(
+        Pair.of("female", partsOf(SoyMsgRawTextPart.of("elle \u00e9crit"))),
+        Pair.of((String) null, partsOf(pluralPart))));
+    List<SoyMsg> msgs = ImmutableList.of(
+        new SoyMsg(3, "fr", false, partsOf(SoyMsgRawTextPart.of("Bonjour"))),
+        new SoyMsg(1L << 40, "fr", true, partsOf(selectPart)),
+        new SoyMsg(12, "fr", false, partsOf(
+            SoyMsgRawTextPart.of("Bonjour "), new SoyMsgPlaceholderPart("NAME"))),
+        new SoyMsg(5, "fr", true, partsOf(pluralPart)));
+    SoyMsgBundle msgBundle = new SoyMsgBundleImpl("fr", msgs);
+
+    SoyMsgBundle binaryMsgBundle =
+        SoyMsgBundleBinaryFormat.read(ByteBuffer.wrap(SoyMsgBundleBinaryFormat.write(msgBundle)));
+
+    assertEquals("fr", binaryMsgBundle.getLocaleString());
+    assertEquals(4, binaryMsgBundle.getNumMsgs());
+    assertMsgsEqual(msgBundle, binaryMsgBundle);
+    assertNull(binaryMsgBundle.getMsg(4));
+    assertNull(binaryMsgBundle.getMsg(Long.MAX_VALUE));
+
+    // The messages are iterated in id order.
+    List<Long> msgIds = Lists.newArrayList();
+    for (SoyMsg msg : binaryMsgBundle) {
+      msgIds.add(msg.getId());
+    }
+    assertEquals(ImmutableList.of(3L, 5L, 12L, 1L << 40), msgIds);
+  }
+
+
+  public void testReadInvalidBuffer() {
+
+    byte[] bytes = SoyMsgBundleBinaryFormat.write(new SoyMsgBundleImpl("fr", ImmutableList.of(
+        new SoyMsg(1, "fr", false, partsOf(SoyMsgRawTextPart.of("Bonjour"))))));
+
+    assertFalse(SoyMsgBundleBinaryFormat.isBinaryFormat(ByteBuffer.wrap("<?xml".getBytes(UTF_8))));
+    assertTrue(SoyMsgBundleBinaryFormat.isBinaryFormat(ByteBuffer.wrap(bytes)));
+
+    bytes[7] = 99;  // unsupported version
+    try {
+      SoyMsgBundleBinaryFormat.read(ByteBuffer.wrap(bytes));
+      fail();
+    } catch (SoyMsgException expected) {
+      // Test passes.
+    }
+  }
+
+
+  public void testCreateFromBinaryFile() throws Exception {
+
+    SoyMsgBundleHandler msgBundleHandler = new SoyMsgBundleHandler(new XliffMsgPlugin());
+    SoyMsgBundle xliffMsgBundle = msgBundleHandler.createFromResource(Resources.getResource(
+        XliffMsgPluginTest.class, "test_data/test-v2_translated_x-zz.xlf"));
+
+    File dir = Files.createTempDir();
+    try {
+      File binaryFile = new File(dir, "x-zz.soymsgs");
+      msgBundleHandler.writeToBinaryMsgsFile(xliffMsgBundle, binaryFile);
+      SoyMsgBundle binaryMsgBundle = msgBundleHandler.createFromFile(binaryFile);
+
+      assertEquals("x-zz", binaryMsgBundle.getLocaleString());
+      assertEquals(xliffMsgBundle.getNumMsgs(), binaryMsgBundle.getNumMsgs());
+      assertMsgsEqual(xliffMsgBundle, binaryMsgBundle);
+
+      // Binary resources are recognized too.
+      assertMsgsEqual(
+          xliffMsgBundle, msgBundleHandler.createFromResource(binaryFile.toURI().toURL()));
+
+      // Other files are only recognized as such from their header.
+      File xliffFile = new File(dir, "x-zz.xlf");
+      Files.write(Resources.toByteArray(Resources.getResource(
+          XliffMsgPluginTest.class, "test_data/test-v2_translated_x-zz.xlf")), xliffFile);
+      assertTrue(SoyMsgBundleBinaryFormat.isBinaryFormat(binaryFile));
+      assertFalse(SoyMsgBundleBinaryFormat.isBinaryFormat(xliffFile));
+      assertMsgsEqual(xliffMsgBundle, msgBundleHandler.createFromFile(xliffFile));
+
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+
+  private static ImmutableList<SoyMsgPart> partsOf(SoyMsgPart... parts) {
+    return ImmutableList.copyOf(parts);
+  }
+
+
+  private static void assertMsgsEqual(SoyMsgBundle expectedMsgBundle, SoyMsgBundle msgBundle) {
+    for (SoyMsg expectedMsg : expectedMsgBundle) {
+      SoyMsg msg = msgBundle.getMsg(expectedMsg.getId());
+      assertNotNull(msg);
+      assertEquals(expectedMsg.getParts(), msg.getParts());
+      assertEquals(expectedMsg.isPlrselMsg(), msg.isPlrselMsg());
+      assertEquals(expectedMsgBundle.getLocaleString(), msg.getLocaleString());
+    }
+  }
+
+}
@@ -20,12 +20,15 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.template.soy.data.SanitizedContent;
+import com.google.template.soy.data.SanitizedContent.ContentKind;
 import com.google.template.soy.data.SoyValue;
 import com.google.template.soy.data.SoyValueHelper;
 import com.google.template.soy.data.restricted.StringData;
 import com.google.template.soy.jssrc.restricted.JsExpr;
 import com.google.template.soy.jssrc.restricted.SoyJsSrcPrintDirective;
 import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.shared.restricted.SoyJavaStreamingPrintDirective;
 
 import junit.framework.TestCase;
 
@@ -80,10 +83,42 @@ public abstract class AbstractSoyPrintDirectiveTestCase extends TestCase {
     for (Object arg : args) {
       argsData.add(SoyValueHelper.UNCUSTOMIZED_INSTANCE.convert(arg).resolve());
     }
-    assertEquals(
-        expectedOutput,
-        directive.applyForJava(
-            SoyValueHelper.UNCUSTOMIZED_INSTANCE.convert(value).resolve(), argsData.build()));
+    SoyValue valueData = SoyValueHelper.UNCUSTOMIZED_INSTANCE.convert(value).resolve();
+    assertEquals(expectedOutput, directive.applyForJava(valueData, argsData.build()));
+
+    if (directive instanceof SoyJavaStreamingPrintDirective && args.length == 0) {
+      assertStreamingTofuOutput(
+          expectedOutput.coerceToString(), valueData, (SoyJavaStreamingPrintDirective) directive);
+    }
+  }
+
+
+  /**
+   * Checks that applying a streaming directive to the value, appended one piece at a time, gives
+   * the same output as applying it to the whole value (if the directive supports streaming for the
+   * value's content kind).
+   */
+  private static void assertStreamingTofuOutput(
+      String expectedOutput, SoyValue value, SoyJavaStreamingPrintDirective directive) {
+    ContentKind contentKind =
+        (value instanceof SanitizedContent) ? ((SanitizedContent) value).getContentKind() : null;
+    String valueString = value.coerceToString();
+    StringBuilder out = new StringBuilder();
+    Appendable streamingOut = directive.applyForJavaStreaming(out, contentKind);
+    if (streamingOut == null) {
+      return;  // the directive needs the whole value
+    }
+    try {
+      int half = valueString.length() / 2;
+      streamingOut.append(valueString, 0, half);
+      if (half < valueString.length()) {
+        streamingOut.append(valueString.charAt(half));
+        streamingOut.append(valueString.substring(half + 1));
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    assertEquals(expectedOutput, out.toString());
   }
 
 
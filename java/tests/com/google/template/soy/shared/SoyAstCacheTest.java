@@ -16,15 +16,28 @@
 
 package com.google.template.soy.shared;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.template.soy.base.SoySyntaxException;
+import com.google.template.soy.base.internal.SoyFileKind;
 import com.google.template.soy.base.internal.SoyFileSupplier;
 import com.google.template.soy.base.internal.SoyFileSupplier.Version;
+import com.google.template.soy.basetree.SyntaxVersion;
 import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.soyparse.SoyFileSetParser;
 import com.google.template.soy.soytree.SoyFileNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.types.SoyType;
+import com.google.template.soy.types.SoyTypeProvider;
+import com.google.template.soy.types.SoyTypeRegistry;
+import com.google.template.soy.types.primitive.StringType;
 
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
 
+import java.io.File;
+
 /**
  * Unit tests for SoyAstCache.
  *
@@ -77,4 +90,118 @@ public class SoyAstCacheTest extends TestCase {
     // Make sure it always returns the same generator.
     assertTrue(cache.getNodeIdGenerator() == cache.getNodeIdGenerator());
   }
+
+  public void testDiskCache() throws Exception {
+
+    File diskCacheDir = Files.createTempDir();
+    try {
+      String content = "" +
+          "{namespace ns}\n" +
+          "/** @param x */\n" +
+          "{template .foo}\n" +
+          "  {$x}{msg desc=\"\"}Hi{/msg}\n" +
+          "{/template}\n";
+      SoyFileSupplier supplier =
+          SoyFileSupplier.Factory.create(content, SoyFileKind.SRC, "foo.soy");
+      String diskCacheKey = SoyAstCache.getDiskCacheKey(supplier, content, SyntaxVersion.V2_0);
+
+      SoyAstCache diskCache = new SoyAstCache(diskCacheDir, 1 << 20);
+      SoyFileSetNode soyTree =
+          (new SoyFileSetParser(new SoyTypeRegistry(), diskCache, SyntaxVersion.V2_0, supplier))
+              .parse();
+      assertEquals(1, diskCacheDir.listFiles().length);
+
+      // A new cache (e.g. in a new process) finds the entry, and parsing gives the same tree.
+      SoyAstCache newDiskCache = new SoyAstCache(diskCacheDir, 1 << 20);
+      assertNotNull(newDiskCache.getFromDisk(diskCacheKey));
+      SoyFileSetNode newSoyTree =
+          (new SoyFileSetParser(new SoyTypeRegistry(), newDiskCache, SyntaxVersion.V2_0, supplier))
+              .parse();
+      assertEquals(soyTree.getChild(0).toSourceString(), newSoyTree.getChild(0).toSourceString());
+
+      // Different syntax versions use different entries.
+      assertFalse(diskCacheKey.equals(
+          SoyAstCache.getDiskCacheKey(supplier, content, SyntaxVersion.V2_2)));
+
+      // Corrupt entries are ignored and deleted.
+      Files.write(new byte[] {1, 2, 3}, new File(diskCacheDir, diskCacheKey + ".ast"));
+      assertNull(newDiskCache.getFromDisk(diskCacheKey));
+      assertEquals(0, diskCacheDir.listFiles().length);
+
+    } finally {
+      deleteDir(diskCacheDir);
+    }
+  }
+
+  public void testDiskCacheSizeBound() throws Exception {
+
+    File diskCacheDir = Files.createTempDir();
+    try {
+      SoyAstCache diskCache = new SoyAstCache(diskCacheDir, 1);
+      SoyFileSupplier supplier = SoyFileSupplier.Factory.create(
+          "{namespace ns}\n/** Foo. */\n{template .foo}\n  Hello\n{/template}\n",
+          SoyFileKind.SRC, "foo.soy");
+      (new SoyFileSetParser(new SoyTypeRegistry(), diskCache, SyntaxVersion.V2_0, supplier))
+          .parse();
+      // Every entry is larger than the maximum size, so it is removed right away.
+      assertEquals(0, diskCacheDir.listFiles().length);
+    } finally {
+      deleteDir(diskCacheDir);
+    }
+  }
+
+  public void testDiskCacheWithTypeProviders() throws Exception {
+
+    File diskCacheDir = Files.createTempDir();
+    try {
+      String content = "" +
+          "{namespace ns}\n" +
+          "/** Foo. */\n" +
+          "{template .foo}\n" +
+          "  {@param x: ns.Foo}\n" +
+          "  {$x}\n" +
+          "{/template}\n";
+      SoyFileSupplier supplier =
+          SoyFileSupplier.Factory.create(content, SoyFileKind.SRC, "foo.soy");
+      SoyAstCache diskCache = new SoyAstCache(diskCacheDir, 1 << 20);
+
+      SoyTypeRegistry typeRegistry = new SoyTypeRegistry(ImmutableSet.<SoyTypeProvider>of(
+          new SoyTypeProvider() {
+            @Override public SoyType getType(String typeName, SoyTypeRegistry typeRegistry) {
+              return typeName.equals("ns.Foo") ? StringType.getInstance() : null;
+            }
+          }));
+      (new SoyFileSetParser(typeRegistry, diskCache, SyntaxVersion.V2_0, supplier)).parse();
+      // The types of a type provider aren't part of the key, so the file isn't stored on disk.
+      assertEquals(0, diskCacheDir.listFiles().length);
+
+      // The same file content with a changed type provider (e.g. in a new process with another
+      // version of the plugin) is parsed again, so the type is no longer found.
+      SoyTypeRegistry changedTypeRegistry = new SoyTypeRegistry(ImmutableSet.<SoyTypeProvider>of(
+          new SoyTypeProvider() {
+            @Override public SoyType getType(String typeName, SoyTypeRegistry typeRegistry) {
+              return null;
+            }
+          }));
+      try {
+        (new SoyFileSetParser(
+            changedTypeRegistry, new SoyAstCache(diskCacheDir, 1 << 20), SyntaxVersion.V2_0,
+            supplier))
+            .parse();
+        fail();
+      } catch (SoySyntaxException sse) {
+        assertTrue(sse.getMessage(), sse.getMessage().contains("Unknown type 'ns.Foo'."));
+      }
+
+    } finally {
+      deleteDir(diskCacheDir);
+    }
+  }
+
+  private static void deleteDir(File dir) {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.shared;
+
+import com.google.template.soy.shared.SoyRenderMetrics.TemplateMetrics;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+
+/**
+ * Unit tests for SoyRenderMetrics.
+ */
+public class SoyRenderMetricsTest extends TestCase {
+
+
+  public void testSampling() {
+
+    SoyRenderMetrics metrics = new SoyRenderMetrics(3);
+    StringBuilder profiled = new StringBuilder();
+    for (int i = 0; i < 7; i++) {
+      profiled.append(metrics.shouldProfileRender("ns.foo") ? 'y' : 'n');
+    }
+    assertEquals("ynnynny", profiled.toString());
+
+    metrics = new SoyRenderMetrics();
+    assertTrue(metrics.shouldProfileRender("ns.foo"));
+    assertTrue(metrics.shouldProfileRender("ns.foo"));
+  }
+
+
+  public void testAggregation() {
+
+    SoyRenderMetrics metrics = new SoyRenderMetrics();
+    metrics.onTemplateRendered("ns.foo", 1000, 600, 20);
+    metrics.onTemplateRendered("ns.bar", 400, 400, 5);
+    metrics.onTemplateRendered("ns.foo", 3000, 1000, 30);
+
+    Map<String, TemplateMetrics> templateMetrics = metrics.getTemplateMetrics();
+    assertEquals(2, templateMetrics.size());
+
+    TemplateMetrics fooMetrics = templateMetrics.get("ns.foo");
+    assertEquals("ns.foo", fooMetrics.getTemplateName());
+    assertEquals(2, fooMetrics.getNumCalls());
+    assertEquals(4000, fooMetrics.getTotalInclusiveNanos());
+    assertEquals(1600, fooMetrics.getTotalExclusiveNanos());
+    assertEquals(50, fooMetrics.getTotalCharsWritten());
+    long[] histogram = fooMetrics.getInclusiveNanosHistogram();
+    assertEquals(SoyRenderMetrics.NUM_HISTOGRAM_BUCKETS, histogram.length);
+    assertEquals(1, histogram[9]);  // 1000 is in [512, 1024)
+    assertEquals(1, histogram[11]);  // 3000 is in [2048, 4096)
+    histogram = fooMetrics.getExclusiveNanosHistogram();
+    assertEquals(2, histogram[9]);  // 600 and 1000 are in [512, 1024)
+
+    TemplateMetrics barMetrics = templateMetrics.get("ns.bar");
+    assertEquals(1, barMetrics.getNumCalls());
+    assertEquals(5, barMetrics.getTotalCharsWritten());
+
+    // The snapshot is not affected by later renders.
+    metrics.onTemplateRendered("ns.bar", 400, 400, 5);
+    assertEquals(1, barMetrics.getNumCalls());
+    assertEquals(2, metrics.getTemplateMetrics().get("ns.bar").getNumCalls());
+
+    metrics.reset();
+    assertTrue(metrics.getTemplateMetrics().isEmpty());
+  }
+
+
+  public void testGetHistogramBucket() {
+
+    assertEquals(0, SoyRenderMetrics.getHistogramBucket(-1));
+    assertEquals(0, SoyRenderMetrics.getHistogramBucket(0));
+    assertEquals(0, SoyRenderMetrics.getHistogramBucket(1));
+    assertEquals(1, SoyRenderMetrics.getHistogramBucket(2));
+    assertEquals(1, SoyRenderMetrics.getHistogramBucket(3));
+    assertEquals(10, SoyRenderMetrics.getHistogramBucket(1024));
+    assertEquals(SoyRenderMetrics.NUM_HISTOGRAM_BUCKETS - 1,
+        SoyRenderMetrics.getHistogramBucket(Long.MAX_VALUE));
+  }
+
+}
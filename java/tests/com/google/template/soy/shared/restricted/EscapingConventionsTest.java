@@ -240,6 +240,44 @@ public class EscapingConventionsTest extends TestCase {
     assertEquals("Hi%0A%C2%85%E1%88%B4", sb.toString());
   }
 
+  public final void testEscapeOnto() throws Exception {
+    // Strings that need no escaping are not copied.
+    String clean = "Hello World";
+    assertSame(clean, EscapingConventions.EscapeHtml.INSTANCE.escape(clean));
+    assertSame(clean, EscapingConventions.EscapeJsString.INSTANCE.escape(clean));
+    // Non-ASCII code units are only escaped with a prefix or from the sparse map.
+    String nonAscii = "caf\u00e9";
+    assertSame(nonAscii, EscapingConventions.EscapeHtml.INSTANCE.escape(nonAscii));
+    assertEquals("caf%C3%A9", EscapingConventions.EscapeUri.INSTANCE.escape(nonAscii));
+    assertEquals("\\u2028", EscapingConventions.EscapeJsString.INSTANCE.escape("\u2028"));
+
+    // Clean strings are appended as is to the output.
+    final List<CharSequence> appended = Lists.newArrayList();
+    Appendable out = new Appendable() {
+      @Override public Appendable append(CharSequence csq) {
+        appended.add(csq);
+        return this;
+      }
+      @Override public Appendable append(CharSequence csq, int start, int end) {
+        throw new UnsupportedOperationException();
+      }
+      @Override public Appendable append(char c) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    EscapingConventions.EscapeHtml.INSTANCE.escapeOnto(clean, out);
+    assertEquals(1, appended.size());
+    assertSame(clean, appended.get(0));
+
+    // Others are escaped onto the output, keeping what was already there.
+    StringBuilder sb = new StringBuilder("Hello");
+    EscapingConventions.EscapeHtml.INSTANCE.escapeOnto(" <b>&amp;", sb);
+    assertEquals("Hello &lt;b&gt;&amp;amp;", sb.toString());
+    sb.setLength(0);
+    EscapingConventions.EscapeCssString.INSTANCE.escapeOnto("a\u2028'", sb);
+    assertEquals("a\\2028 \\27 ", sb.toString());
+  }
+
   private static final String SUBSTITUTION_POINT = "{$s}";
 
   /**
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses;
+
+import com.google.template.soy.exprtree.VarRefNode;
+import com.google.template.soy.shared.internal.SharedTestUtils;
+import com.google.template.soy.soytree.ForNode;
+import com.google.template.soy.soytree.ForeachNonemptyNode;
+import com.google.template.soy.soytree.LetNode;
+import com.google.template.soy.soytree.PrintNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for AssignLocalVarSlotsVisitor.
+ */
+public class AssignLocalVarSlotsVisitorTest extends TestCase {
+
+
+  private static final String SOY_CODE = "" +
+      "{@param booze: list<int>}\n" +
+      "{let $a: 1 /}\n" +
+      "{foreach $boo in $booze}\n" +
+      "  {let $b: $boo /}\n" +
+      "  {for $moo in range($b)}\n" +
+      "    {$a}{$moo}\n" +
+      "  {/for}\n" +
+      "{/foreach}\n" +
+      "{let $c: 2 /}\n" +
+      "{$c}\n";
+
+
+  public void testAssignSlots() {
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyCode(SOY_CODE);
+    (new AssignLocalVarSlotsVisitor()).exec(soyTree);
+
+    LetNode a = (LetNode) SharedTestUtils.getNode(soyTree, 0);
+    ForeachNonemptyNode boo = (ForeachNonemptyNode) SharedTestUtils.getNode(soyTree, 1, 0);
+    LetNode b = (LetNode) SharedTestUtils.getNode(soyTree, 1, 0, 0);
+    ForNode moo = (ForNode) SharedTestUtils.getNode(soyTree, 1, 0, 1);
+    LetNode c = (LetNode) SharedTestUtils.getNode(soyTree, 2);
+
+    assertEquals(0, a.getVar().slot());
+    assertEquals(1, boo.getVar().slot());
+    assertEquals(2, b.getVar().slot());
+    assertEquals(3, moo.getVar().slot());
+    // The slots of the loop's variables are free again after the loop.
+    assertEquals(1, c.getVar().slot());
+  }
+
+
+  public void testReferencesPointAtDefnsInClonedTree() {
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyCode(SOY_CODE).clone();
+    (new AssignLocalVarSlotsVisitor()).exec(soyTree);
+
+    LetNode a = (LetNode) SharedTestUtils.getNode(soyTree, 0);
+    ForNode moo = (ForNode) SharedTestUtils.getNode(soyTree, 1, 0, 1);
+    LetNode c = (LetNode) SharedTestUtils.getNode(soyTree, 2);
+    VarRefNode aRef = (VarRefNode) ((PrintNode) SharedTestUtils.getNode(soyTree, 1, 0, 1, 0))
+        .getExprUnion().getExpr().getChild(0);
+    VarRefNode mooRef = (VarRefNode) ((PrintNode) SharedTestUtils.getNode(soyTree, 1, 0, 1, 1))
+        .getExprUnion().getExpr().getChild(0);
+    VarRefNode cRef = (VarRefNode) ((PrintNode) SharedTestUtils.getNode(soyTree, 3))
+        .getExprUnion().getExpr().getChild(0);
+
+    assertSame(a.getVar(), aRef.getDefnDecl());
+    assertSame(moo.getVar(), mooRef.getDefnDecl());
+    assertSame(c.getVar(), cRef.getDefnDecl());
+  }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.opti;
+
+import com.google.template.soy.shared.internal.SharedTestUtils;
+import com.google.template.soy.soytree.CallBasicNode;
+import com.google.template.soy.soytree.IfElseNode;
+import com.google.template.soy.soytree.IfNode;
+import com.google.template.soy.soytree.LetContentNode;
+import com.google.template.soy.soytree.LetValueNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.TemplateRegistry;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for InlineCallsVisitor.
+ */
+public class InlineCallsVisitorTest extends TestCase {
+
+
+  private static final String BOLD_TEMPLATES = "" +
+      "/**\n" +
+      " * @param content\n" +
+      " * @param title\n" +
+      " */\n" +
+      "{template .bold}\n" +
+      "  <b title=\"{$title}\">{$content}{call .sep /}</b>\n" +
+      "{/template}\n" +
+      "\n" +
+      "/** A separator. */\n" +
+      "{template .sep}\n" +
+      "  |\n" +
+      "{/template}\n";
+
+
+  public void testInlineCall() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .caller}\n" +
+        "  {call .bold}\n" +
+        "    {param content}Hi {$name}{/param}\n" +
+        "    {param title: $name /}\n" +
+        "  {/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        BOLD_TEMPLATES;
+
+    TemplateNode caller = inlineAndGetTemplate("ns.caller", soyFileContent, 100);
+    assertEquals(0, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+    assertEquals(1, caller.numChildren());
+    IfNode scopeNode = (IfNode) caller.getChild(0);
+    IfElseNode scopeBlock = (IfElseNode) scopeNode.getChild(0);
+    assertTrue(scopeBlock.getChild(0) instanceof LetContentNode);
+    assertTrue(scopeBlock.getChild(1) instanceof LetValueNode);
+    String bodySourceString = scopeBlock.toSourceString();
+    assertTrue(bodySourceString.contains("{$content__inlined"));
+    assertTrue(bodySourceString.contains("{$title__inlined"));
+    assertFalse(bodySourceString.contains("{$title}"));
+    // The nested call was inlined into the callee first.
+    assertTrue(bodySourceString.contains("|"));
+  }
+
+
+  public void testDontInlineLargeCallee() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .bold}{param content: 1 /}{param title: 2 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        BOLD_TEMPLATES;
+
+    // Only the nested call is small enough.
+    TemplateNode caller = inlineAndGetTemplate("ns.caller", soyFileContent, 3);
+    assertEquals(1, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+    TemplateNode bold = inlineAndGetTemplate("ns.bold", soyFileContent, 3);
+    assertEquals(0, SoytreeUtils.getAllNodesOfType(bold, CallBasicNode.class).size());
+  }
+
+
+  public void testDontInlineCall() {
+
+    // A param that the callee uses is not passed.
+    assertNotInlined("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .bold}{param content: 1 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        BOLD_TEMPLATES);
+
+    // The call passes data.
+    assertNotInlined("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param title */\n" +
+        "{template .caller}\n" +
+        "  {call .bold data=\"all\"}{param content: 1 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        BOLD_TEMPLATES);
+
+    // The call is a placeholder of a message.
+    assertNotInlined("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {msg desc=\"\"}Hi {call .bold}{param content: 1 /}{param title: 2 /}{/call}{/msg}\n" +
+        "{/template}\n" +
+        "\n" +
+        BOLD_TEMPLATES);
+
+    // The callee has typed params, which are checked when rendering.
+    assertNotInlined("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .text}{param text: 'x' /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "{template .text}\n" +
+        "  {@param text: string}\n" +
+        "  {$text}\n" +
+        "{/template}\n");
+
+    // The callee has a message.
+    assertNotInlined("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .hello /}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** Says hello. */\n" +
+        "{template .hello}\n" +
+        "  {msg desc=\"\"}Hello{/msg}\n" +
+        "{/template}\n");
+  }
+
+
+  public void testDontInlineRecursiveCall() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param n */\n" +
+        "{template .caller}\n" +
+        "  {if $n > 0}{call .caller}{param n: $n - 1 /}{/call}{/if}\n" +
+        "{/template}\n";
+
+    TemplateNode caller = inlineAndGetTemplate("ns.caller", soyFileContent, 100);
+    assertEquals(1, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+  }
+
+
+  public void testDontInlineCallOfTemplateInOtherFile() {
+
+    String callerFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call ns2.sep /}\n" +
+        "{/template}\n";
+    String calleeFileContent = "" +
+        "{namespace ns2}\n" +
+        "\n" +
+        "/** A separator. */\n" +
+        "{template .sep}\n" +
+        "  |\n" +
+        "{/template}\n";
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyFiles(callerFileContent, calleeFileContent);
+    (new InlineCallsVisitor(100)).exec(soyTree);
+    TemplateNode caller = (new TemplateRegistry(soyTree)).getBasicTemplate("ns.caller");
+    assertEquals(1, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+  }
+
+
+  private static TemplateNode inlineAndGetTemplate(
+      String templateName, String soyFileContent, int maxCalleeSize) {
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyFiles(soyFileContent);
+    (new InlineCallsVisitor(maxCalleeSize)).exec(soyTree);
+    return (new TemplateRegistry(soyTree)).getBasicTemplate(templateName);
+  }
+
+
+  private static void assertNotInlined(String soyFileContent) {
+    TemplateNode caller = inlineAndGetTemplate("ns.caller", soyFileContent, 100);
+    assertEquals(1, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+  }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.opti;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.template.soy.SoyModule;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgBundleImpl;
+import com.google.template.soy.shared.internal.GuiceSimpleScope;
+import com.google.template.soy.shared.internal.SharedTestUtils;
+import com.google.template.soy.soytree.CallBasicNode;
+import com.google.template.soy.soytree.PrintNode;
+import com.google.template.soy.soytree.RawTextNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.TemplateRegistry;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for SimplifyVisitor.
+ */
+public class SimplifyVisitorTest extends TestCase {
+
+
+  private static final Injector INJECTOR = Guice.createInjector(new SoyModule());
+
+
+  private static final String ICON_TEMPLATES = "" +
+      "/**\n" +
+      " * @param name\n" +
+      " * @param size\n" +
+      " */\n" +
+      "{template .icon}\n" +
+      "  <i class=\"icon-{$name}\" style=\"width:{$size}px\">{call .glyph /}</i>\n" +
+      "{/template}\n" +
+      "\n" +
+      "/** A star. */\n" +
+      "{template .glyph}\n" +
+      "  &#9733;\n" +
+      "{/template}\n";
+
+
+  public void testPrerenderCallWithConstantParams() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  <b>\n" +
+        "  {call .icon}\n" +
+        "    {param name: 'star' /}\n" +
+        "    {param size: 8 * 2 /}\n" +
+        "  {/call}\n" +
+        "  {call .icon}{param name}st{if true}ar{/if}{/param}{param size: 16 /}{/call}\n" +
+        "  </b>\n" +
+        "{/template}\n" +
+        "\n" +
+        ICON_TEMPLATES;
+
+    TemplateNode caller = simplifyAndGetTemplate("ns.caller", soyFileContent);
+    assertEquals(1, caller.numChildren());
+    assertEquals(
+        "<b><i class=\"icon-star\" style=\"width:16px\">&#9733;</i>" +
+            "<i class=\"icon-star\" style=\"width:16px\">&#9733;</i></b>",
+        ((RawTextNode) caller.getChild(0)).getRawText());
+  }
+
+
+  public void testPrerenderCallOfTemplateWithLoops() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .stars}{param n: 3 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param n */\n" +
+        "{template .stars}\n" +
+        "  {for $i in range($n)}\n" +
+        "    {foreach $size in ['s', 'l']}\n" +
+        "      {if not isFirst($size)}/{/if}{$i}{$size}\n" +
+        "    {/foreach}\n" +
+        "    {sp}\n" +
+        "  {/for}\n" +
+        "{/template}\n";
+
+    TemplateNode caller = simplifyAndGetTemplate("ns.caller", soyFileContent);
+    assertEquals(1, caller.numChildren());
+    assertEquals("0s/0l 1s/1l 2s/2l ", ((RawTextNode) caller.getChild(0)).getRawText());
+  }
+
+
+  public void testPrerenderCallOfTemplateWithLocalVars() {
+
+    // The callee binds local vars with 'let' and 'foreach', also around a nested call (whose own
+    // local vars are in the slots of another environment).
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .card}{param title: 'T' /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param title */\n" +
+        "{template .card}\n" +
+        "  {let $heading: $title + '!' /}\n" +
+        "  {let $list}\n" +
+        "    {foreach $item in ['a', 'b']}\n" +
+        "      {call .item}{param prefix: $heading /}{param item: $item /}{/call}\n" +
+        "    {/foreach}\n" +
+        "  {/let}\n" +
+        "  <h1>{$heading}</h1>{$list}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param prefix\n" +
+        " * @param item\n" +
+        " */\n" +
+        "{template .item}\n" +
+        "  {let $text: $prefix + $item /}\n" +
+        "  <i>{$text}</i>\n" +
+        "{/template}\n";
+
+    TemplateNode caller = simplifyAndGetTemplate("ns.caller", soyFileContent);
+    assertEquals(1, caller.numChildren());
+    assertEquals(
+        "<h1>T!</h1><i>T!a</i><i>T!b</i>", ((RawTextNode) caller.getChild(0)).getRawText());
+  }
+
+
+  public void testDontPrerenderCallWithNonconstantParams() {
+
+    // The param is not constant.
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .caller}\n" +
+        "  {call .icon}{param name: $name /}{param size: 16 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        ICON_TEMPLATES);
+
+    // The content param is not constant.
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .caller}\n" +
+        "  {call .icon}{param name}{$name}{/param}{param size: 16 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        ICON_TEMPLATES);
+
+    // The call passes data.
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .caller}\n" +
+        "  {call .icon data=\"all\"}{param size: 16 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        ICON_TEMPLATES);
+  }
+
+
+  public void testDontPrerenderCallOfNonconstantTemplate() {
+
+    // The callee uses injected data.
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .callee}{param name: 'star' /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .callee}\n" +
+        "  {$name}{$ij.suffix}\n" +
+        "{/template}\n");
+
+    // The callee uses an impure function.
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .callee}{param max: 10 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param max */\n" +
+        "{template .callee}\n" +
+        "  {randomInt($max)}\n" +
+        "{/template}\n");
+
+    // The callee is recursive (the prerender must not recurse forever, even in a dead branch).
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call .callee}{param n: 1 /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param n */\n" +
+        "{template .callee}\n" +
+        "  {if false}{call .callee}{param n: 1 /}{/call}{/if}\n" +
+        "{/template}\n");
+  }
+
+
+  public void testDontPrerenderCallOfTemplateInOtherFile() {
+
+    // The output of the callee could change without the caller's file being recompiled.
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyFiles(
+        "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {call ns2.glyph /}\n" +
+        "{/template}\n",
+        "" +
+        "{namespace ns2}\n" +
+        "\n" +
+        "/** A star. */\n" +
+      "{template .glyph}\n" +
+        "  &#9733;\n" +
+        "{/template}\n");
+    simplify(soyTree);
+    assertNotPrerendered(soyTree);
+  }
+
+
+  public void testDontPrerenderCallInMsg() {
+
+    assertNotPrerendered("" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {msg desc=\"\"}Rating: {call .icon}{param name: 'star' /}{param size: 16 /}{/call}" +
+        "{/msg}\n" +
+        "{/template}\n" +
+        "\n" +
+        ICON_TEMPLATES);
+  }
+
+
+  public void testPrerenderFormatNumOnlyWhenSpecializedForLocale() {
+
+    String soyFileContent = "" +
+        "{namespace ns}\n" +
+        "\n" +
+        "{template .caller}\n" +
+        "  {1234.5|formatNum}\n" +
+        "{/template}\n";
+    SoyMsgBundle deMsgBundle = new SoyMsgBundleImpl("de", ImmutableList.<SoyMsg>of());
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyFiles(soyFileContent);
+    simplify(soyTree, deMsgBundle, false);
+    TemplateNode caller = (new TemplateRegistry(soyTree)).getBasicTemplate("ns.caller");
+    assertTrue(caller.getChild(0) instanceof PrintNode);
+
+    soyTree = SharedTestUtils.parseSoyFiles(soyFileContent);
+    simplify(soyTree, deMsgBundle, true);
+    caller = (new TemplateRegistry(soyTree)).getBasicTemplate("ns.caller");
+    assertEquals(1, caller.numChildren());
+    assertEquals("1.234,5", ((RawTextNode) caller.getChild(0)).getRawText());
+  }
+
+
+  private static TemplateNode simplifyAndGetTemplate(String templateName, String soyFileContent) {
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyFiles(soyFileContent);
+    simplify(soyTree);
+    return (new TemplateRegistry(soyTree)).getBasicTemplate(templateName);
+  }
+
+
+  private static void assertNotPrerendered(String soyFileContent) {
+    assertNotPrerendered(simplifyAndGetTemplate("ns.caller", soyFileContent));
+  }
+
+
+  private static void assertNotPrerendered(SoyFileSetNode soyTree) {
+    assertNotPrerendered((new TemplateRegistry(soyTree)).getBasicTemplate("ns.caller"));
+  }
+
+
+  private static void assertNotPrerendered(TemplateNode caller) {
+    assertEquals(1, SoytreeUtils.getAllNodesOfType(caller, CallBasicNode.class).size());
+  }
+
+
+  private static void simplify(SoyFileSetNode soyTree) {
+    simplify(soyTree, null, false);
+  }
+
+
+  private static void simplify(
+      SoyFileSetNode soyTree, SoyMsgBundle msgBundle, boolean isSpecializedForLocale) {
+    GuiceSimpleScope apiCallScope = SharedTestUtils.simulateNewApiCall(INJECTOR, msgBundle, 0);
+    try {
+      INJECTOR.getInstance(SimplifyVisitor.class).setSpecializedForLocale(isSpecializedForLocale)
+          .exec(soyTree);
+    } finally {
+      apiCallScope.exit();
+    }
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.sharedpasses.render;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.template.soy.basicdirectives.ChangeNewlineToBrDirective;
+import com.google.template.soy.data.SoyRecord;
+import com.google.template.soy.data.SoyValueHelper;
+import com.google.template.soy.shared.internal.SharedTestUtils;
+import com.google.template.soy.shared.restricted.SoyJavaFunction;
+import com.google.template.soy.shared.restricted.SoyJavaPrintDirective;
+import com.google.template.soy.sharedpasses.AssignLocalVarSlotsVisitor;
+import com.google.template.soy.sharedpasses.render.RenderOp.BlockOp;
+import com.google.template.soy.sharedpasses.render.RenderOp.RawTextOp;
+import com.google.template.soy.soytree.RawTextNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.TemplateNode;
+import com.google.template.soy.soytree.TemplateRegistry;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+
+/**
+ * Unit tests for TemplateCompiler and rendering of compiled templates.
+ */
+public class TemplateCompilerTest extends TestCase {
+
+
+  private static final Map<String, SoyJavaPrintDirective> DIRECTIVES =
+      ImmutableMap.<String, SoyJavaPrintDirective>of(
+          "|changeNewlineToBr", new ChangeNewlineToBrDirective());
+
+
+  public void testMergesAdjacentRawText() {
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyCode("Blah{$goo}blah");
+    TemplateNode template = (TemplateNode) SharedTestUtils.getNode(soyTree);
+    template.addChild(new RawTextNode(0, "bleh"));
+
+    BlockOp body = (BlockOp) new TemplateCompiler(DIRECTIVES).exec(template);
+    assertEquals(3, body.children.length);
+    assertEquals("Blah", ((RawTextOp) body.children[0]).text);
+    assertEquals("blahbleh", ((RawTextOp) body.children[2]).text);
+  }
+
+
+  public void testCompiledOutputMatchesInterpretedOutput() {
+
+    String soyCode =
+        "{@param items: list<string>}\n" +
+        "{@param n: int}\n" +
+        "{@param s: string}\n" +
+        "{let $prefix}[{/let}\n" +
+        "{let $count: $n /}\n" +
+        "{foreach $item in $items}\n" +
+        "  {if isFirst($item)}first {elseif isLast($item)}last {else}{index($item)} {/if}\n" +
+        "  {$prefix}{$item}]\n" +
+        "{ifempty}\n" +
+        "  empty\n" +
+        "{/foreach}\n" +
+        "{for $i in range(1, $n, 2)}({$i}){/for}\n" +
+        "{switch $count}{case 0}zero{case 1, 2}few{default}many{/switch}\n" +
+        "{$s |changeNewlineToBr}\n";
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyCode(soyCode);
+    (new AssignLocalVarSlotsVisitor()).exec(soyTree);
+    TemplateNode template = (TemplateNode) SharedTestUtils.getNode(soyTree);
+
+    SoyRecord data = SoyValueHelper.UNCUSTOMIZED_INSTANCE.newEasyDict(
+        "items", SoyValueHelper.UNCUSTOMIZED_INSTANCE.newEasyList("a", "b", "c"),
+        "n", 6, "s", "x\ny");
+    assertEquals(
+        "first [a]1 [b]last [c](1)(3)(5)manyx<br>y",
+        render(soyTree, template, data, new CompiledTemplates(DIRECTIVES)));
+    assertEquals(
+        render(soyTree, template, data, null),
+        render(soyTree, template, data, new CompiledTemplates(DIRECTIVES)));
+
+    SoyRecord emptyData = SoyValueHelper.UNCUSTOMIZED_INSTANCE.newEasyDict(
+        "items", SoyValueHelper.UNCUSTOMIZED_INSTANCE.newEasyList(), "n", 0, "s", "");
+    assertEquals(
+        render(soyTree, template, emptyData, null),
+        render(soyTree, template, emptyData, new CompiledTemplates(DIRECTIVES)));
+  }
+
+
+  public void testCompiledErrors() {
+
+    SoyFileSetNode soyTree = SharedTestUtils.parseSoyCode(
+        "{@param s: string}\n" +
+        "{$s |noSuchDirective}\n");
+    TemplateNode template = (TemplateNode) SharedTestUtils.getNode(soyTree);
+    SoyRecord data = SoyValueHelper.UNCUSTOMIZED_INSTANCE.newEasyDict("s", "x");
+
+    try {
+      render(soyTree, template, data, new CompiledTemplates(DIRECTIVES));
+      fail();
+    } catch (RenderException re) {
+      assertTrue(re.getMessage().contains("Failed to find Soy print directive"));
+    }
+  }
+
+
+  private static String render(
+      SoyFileSetNode soyTree, TemplateNode template, SoyRecord data,
+      CompiledTemplates compiledTemplates) {
+
+    StringBuilder outputBuf = new StringBuilder();
+    RenderVisitor rv = new RenderVisitor(
+        DIRECTIVES,
+        new EvalVisitorFactoryImpl(
+            SoyValueHelper.UNCUSTOMIZED_INSTANCE, ImmutableMap.<String, SoyJavaFunction>of()),
+        outputBuf, new TemplateRegistry(soyTree), data, null, null, null, null, null, null,
+        compiledTemplates, null);
+    rv.exec(template);
+    return outputBuf.toString();
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.soyparse;
+
+import com.google.common.collect.Lists;
+import com.google.template.soy.base.SoySyntaxException;
+import com.google.template.soy.base.internal.SoyFileKind;
+import com.google.template.soy.base.internal.SoyFileSupplier;
+import com.google.template.soy.basetree.SyntaxVersion;
+import com.google.template.soy.shared.SoyAstCache;
+import com.google.template.soy.soytree.SoyFileNode;
+import com.google.template.soy.soytree.SoyFileSetNode;
+import com.google.template.soy.soytree.SoyNode;
+import com.google.template.soy.soytree.SoytreeUtils;
+import com.google.template.soy.types.SoyTypeRegistry;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Unit tests for SoyFileSetParser.
+ */
+public class SoyFileSetParserTest extends TestCase {
+
+
+  private ExecutorService executor;
+
+
+  @Override protected void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+
+  @Override protected void tearDown() {
+    executor.shutdown();
+  }
+
+
+  public void testParallelParsingMatchesSequentialParsing() {
+
+    List<SoyFileSupplier> soyFileSuppliers = newSoyFileSuppliers(20, null);
+
+    SoyFileSetNode sequentialTree = (new SoyFileSetParser(
+        new SoyTypeRegistry(), null, SyntaxVersion.V2_0, soyFileSuppliers)).parse();
+    SoyFileSetNode parallelTree = (new SoyFileSetParser(
+        new SoyTypeRegistry(), null, SyntaxVersion.V2_0, soyFileSuppliers))
+        .setExecutor(executor)
+        .parse();
+
+    assertSameTree(sequentialTree, parallelTree);
+  }
+
+
+  public void testParallelParsingWithCache() {
+
+    List<SoyFileSupplier> soyFileSuppliers = newSoyFileSuppliers(10, null);
+    SoyAstCache cache = new SoyAstCache();
+
+    SoyFileSetNode firstTree = (new SoyFileSetParser(
+        new SoyTypeRegistry(), cache, SyntaxVersion.V2_0, soyFileSuppliers))
+        .setExecutor(executor)
+        .parse();
+    // The second parse gets all the files from the cache, with the same ids (the file set node
+    // gets a new id).
+    SoyFileSetNode secondTree = (new SoyFileSetParser(
+        new SoyTypeRegistry(), cache, SyntaxVersion.V2_0, soyFileSuppliers))
+        .setExecutor(executor)
+        .parse();
+
+    assertEquals(firstTree.numChildren(), secondTree.numChildren());
+    for (int i = 0; i < firstTree.numChildren(); i++) {
+      assertSameTree(firstTree.getChild(i), secondTree.getChild(i));
+    }
+  }
+
+
+  public void testParallelParsingReportsFirstError() {
+
+    List<SoyFileSupplier> soyFileSuppliers = newSoyFileSuppliers(10, "{template .bad}{/template");
+    try {
+      (new SoyFileSetParser(new SoyTypeRegistry(), null, SyntaxVersion.V2_0, soyFileSuppliers))
+          .setExecutor(executor)
+          .parse();
+      fail();
+    } catch (SoySyntaxException sse) {
+      assertTrue(sse.getMessage().contains("file5.soy"));
+    }
+  }
+
+
+  /**
+   * Creates the suppliers of a set of Soy files, each with a few templates.
+   * @param numFiles The number of files.
+   * @param badTemplate If non-null, a template with a syntax error, to add to the files with an
+   *     index of 5 or more.
+   */
+  private static List<SoyFileSupplier> newSoyFileSuppliers(int numFiles, String badTemplate) {
+
+    List<SoyFileSupplier> soyFileSuppliers = Lists.newArrayList();
+    for (int i = 0; i < numFiles; i++) {
+      String soyFileContent = "" +
+          "{namespace ns" + i + "}\n" +
+          "\n" +
+          "/** @param name */\n" +
+          "{template .hello}\n" +
+          "  {msg desc=\"\"}Hello {$name}!<br>{/msg}\n" +
+          "  {foreach $i in [1, 2]}{$i ?: 0}{/foreach}\n" +
+          "  {call .bye data=\"all\" /}\n" +
+          "{/template}\n" +
+          "\n" +
+          "/** @param name */\n" +
+          "{template .bye}\n" +
+          "  Bye {$name}\n" +
+          "{/template}\n" +
+          ((badTemplate != null && i >= 5) ? badTemplate : "");
+      soyFileSuppliers.add(SoyFileSupplier.Factory.create(
+          soyFileContent, SoyFileKind.SRC, "file" + i + ".soy"));
+    }
+    return soyFileSuppliers;
+  }
+
+
+  private static void assertSameTree(SoyNode expected, SoyNode actual) {
+
+    List<SoyNode> expectedNodes = SoytreeUtils.getAllNodesOfType(expected, SoyNode.class);
+    List<SoyNode> actualNodes = SoytreeUtils.getAllNodesOfType(actual, SoyNode.class);
+    assertEquals(expectedNodes.size(), actualNodes.size());
+    for (int i = 0; i < expectedNodes.size(); i++) {
+      assertEquals(expectedNodes.get(i).getClass(), actualNodes.get(i).getClass());
+      assertEquals(expectedNodes.get(i).getId(), actualNodes.get(i).getId());
+      if (expectedNodes.get(i) instanceof SoyFileNode) {
+        assertEquals(expectedNodes.get(i).toSourceString(), actualNodes.get(i).toSourceString());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,889 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.template.soy.tofu.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.base.SoySyntaxException;
+import com.google.template.soy.data.AdvisingAppendable;
+import com.google.template.soy.internal.base.Pair;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgBundleImpl;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralCaseSpec;
+import com.google.template.soy.msgs.restricted.SoyMsgPluralPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import com.google.template.soy.msgs.restricted.SoyMsgSelectPart;
+import com.google.template.soy.shared.SoyAstCache;
+import com.google.template.soy.shared.SoyRenderListener;
+import com.google.template.soy.shared.SoyRenderMetrics;
+import com.google.template.soy.tofu.RenderResult;
+import com.google.template.soy.tofu.SoyTofu;
+import com.google.template.soy.tofu.SoyTofuOptions;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Unit tests for BaseTofu.
+ */
+public class BaseTofuTest extends TestCase {
+
+
+  private static final String SOY_FILE_CONTENT = "" +
+      "{namespace ns autoescape=\"strict\"}\n" +
+      "\n" +
+      "/**\n" +
+      " * @param title\n" +
+      " * @param body\n" +
+      " */\n" +
+      "{template .page}\n" +
+      "  <head>{$title}</head>\n" +
+      "  {call .body}{param body: $body /}{/call}\n" +
+      "{/template}\n" +
+      "\n" +
+      "/** @param body */\n" +
+      "{template .body}\n" +
+      "  <body>{$body}</body>\n" +
+      "{/template}\n";
+
+
+  private static final Map<String, ?> DATA = ImmutableMap.of("title", "T", "body", "B");
+
+
+  private SoyTofu tofu;
+
+
+  @Override protected void setUp() {
+    tofu = SoyFileSet.builder().add(SOY_FILE_CONTENT, "test.soy").build().compileToTofu();
+  }
+
+
+  public void testRenderFlushesAdvisingAppendable() {
+
+    RecordingAppendable out = new RecordingAppendable(true);
+    tofu.newRenderer("ns.page").setData(DATA).render(out);
+    assertEquals("<head>T</head><body>B</body>", out.sb.toString());
+    // Flushed after each statement that rendered directly into the output, including the
+    // statements of the callee .body.
+    assertEquals(
+        "[<head>][<head>T][<head>T</head>][<head>T</head><body>][<head>T</head><body>B]" +
+            "[<head>T</head><body>B</body>]",
+        out.flushedPrefixes);
+  }
+
+
+  public void testRenderFlushesWithinLoop() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param items */\n" +
+        "{template .list}\n" +
+        "  <ul>{foreach $item in $items}<li>{$item}{/foreach}</ul>\n" +
+        "{/template}\n";
+    Map<String, ?> data = ImmutableMap.of("items", ImmutableList.of("a", "b"));
+
+    for (boolean useCompiledTemplates : new boolean[] {true, false}) {
+      SoyTofuOptions tofuOptions = new SoyTofuOptions();
+      tofuOptions.setUseCompiledTemplates(useCompiledTemplates);
+      RecordingAppendable out = new RecordingAppendable(true);
+      SoyFileSet.builder().add(soyFileContent, "list.soy").build().compileToTofu(tofuOptions)
+          .newRenderer("ns.list").setData(data).render(out);
+      // A long loop is flushed as it renders, not only at the end of the template.
+      assertEquals(
+          "[<ul>][<ul><li>][<ul><li>a][<ul><li>a<li>][<ul><li>a<li>b][<ul><li>a<li>b</ul>]",
+          out.flushedPrefixes);
+    }
+  }
+
+
+  public void testRenderEscapesCallOfOtherKind() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param text */\n" +
+        "{template .page}\n" +
+        "  <p title=\"{call .text data=\"all\" /}\">{call .text data=\"all\" /}</p>\n" +
+        "  <a href=\"/x?q={call .text data=\"all\" /}\">x</a>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param text */\n" +
+        "{template .text kind=\"text\"}\n" +
+        "  {$text}<\"&\">\n" +
+        "{/template}\n";
+    SoyTofu textTofu = SoyFileSet.builder().add(soyFileContent, "test.soy").build()
+        .compileToTofu();
+
+    RecordingAppendable out = new RecordingAppendable(true);
+    textTofu.newRenderer("ns.page").setData(ImmutableMap.of("text", "a b")).render(out);
+    assertEquals(
+        "<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">a b&lt;&quot;&amp;&quot;&gt;</p>" +
+        "<a href=\"/x?q=a%20b%3C%22%26%22%3E\">x</a>",
+        out.sb.toString());
+    // The output was flushed after each statement of .page, including the calls (whose own
+    // statements render into the escaping of the call site, so they don't flush).
+    assertEquals(
+        "[<p title=\"]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">a b&lt;&quot;&amp;&quot;&gt;]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">a b&lt;&quot;&amp;&quot;&gt;</p>" +
+            "<a href=\"/x?q=]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">a b&lt;&quot;&amp;&quot;&gt;</p>" +
+            "<a href=\"/x?q=a%20b%3C%22%26%22%3E]" +
+        "[<p title=\"a b&lt;&quot;&amp;&quot;&gt;\">a b&lt;&quot;&amp;&quot;&gt;</p>" +
+            "<a href=\"/x?q=a%20b%3C%22%26%22%3E\">x</a>]",
+        out.flushedPrefixes);
+  }
+
+
+  public void testRenderReusesHelperVisitors() {
+
+    // Each visitor renders all its callees with one helper visitor, including a call in the content
+    // of another call's param (rendered before that call).
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param rows */\n" +
+        "{template .table}\n" +
+        "  {foreach $row in $rows}\n" +
+        "    {call .row}\n" +
+        "      {param cells: $row /}\n" +
+        "      {param label kind=\"html\"}\n" +
+        "        {call .cell}{param cell: index($row) /}{/call}\n" +
+        "      {/param}\n" +
+        "    {/call}\n" +
+        "  {/foreach}\n" +
+        "  {call .row}{param cells: [] /}{param label: 'end' /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param cells\n" +
+        " * @param label\n" +
+        " */\n" +
+        "{template .row}\n" +
+        "  <tr>{$label}:\n" +
+        "  {foreach $cell in $cells}{call .cell}{param cell: $cell /}{/call}{/foreach}\n" +
+        "  </tr>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param cell */\n" +
+        "{template .cell}\n" +
+        "  {let $text: '<' + $cell + '>' /}\n" +
+        "  <td>{$text}</td>\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    Map<String, ?> data = ImmutableMap.of(
+        "rows", ImmutableList.of(ImmutableList.of("a", "b"), ImmutableList.of("c")));
+
+    for (boolean useCompiledTemplates : new boolean[] {true, false}) {
+      SoyTofuOptions tofuOptions = new SoyTofuOptions();
+      tofuOptions.setUseCompiledTemplates(useCompiledTemplates);
+      assertEquals(
+          "<tr><td>&lt;0&gt;</td>:<td>&lt;a&gt;</td><td>&lt;b&gt;</td></tr>" +
+          "<tr><td>&lt;1&gt;</td>:<td>&lt;c&gt;</td></tr><tr>end:</tr>",
+          soyFileSet.compileToTofu(tofuOptions).newRenderer("ns.table").setData(data).render());
+    }
+  }
+
+
+  public void testRenderListener() {
+
+    // Profiles the first and third renders.
+    SoyRenderMetrics metrics = new SoyRenderMetrics(2);
+    for (int i = 0; i < 3; i++) {
+      RecordingAppendable out = new RecordingAppendable(true);
+      tofu.newRenderer("ns.page").setData(DATA).setRenderListener(metrics).render(out);
+      assertEquals("<head>T</head><body>B</body>", out.sb.toString());
+      // Profiling doesn't keep the output from being flushed.
+      assertEquals(
+          "[<head>][<head>T][<head>T</head>][<head>T</head><body>][<head>T</head><body>B]" +
+              "[<head>T</head><body>B</body>]",
+          out.flushedPrefixes);
+    }
+
+    Map<String, SoyRenderMetrics.TemplateMetrics> templateMetrics = metrics.getTemplateMetrics();
+    assertEquals(ImmutableList.of("ns.body", "ns.page"),
+        ImmutableList.copyOf(templateMetrics.keySet()));
+
+    SoyRenderMetrics.TemplateMetrics pageMetrics = templateMetrics.get("ns.page");
+    assertEquals(2, pageMetrics.getNumCalls());
+    assertEquals(2 * "<head>T</head><body>B</body>".length(), pageMetrics.getTotalCharsWritten());
+    SoyRenderMetrics.TemplateMetrics bodyMetrics = templateMetrics.get("ns.body");
+    assertEquals(2, bodyMetrics.getNumCalls());
+    assertEquals(2 * "<body>B</body>".length(), bodyMetrics.getTotalCharsWritten());
+
+    // The time of the callee is excluded from the exclusive time of the caller.
+    assertEquals(
+        pageMetrics.getTotalInclusiveNanos() - bodyMetrics.getTotalInclusiveNanos(),
+        pageMetrics.getTotalExclusiveNanos());
+    assertEquals(bodyMetrics.getTotalInclusiveNanos(), bodyMetrics.getTotalExclusiveNanos());
+  }
+
+
+  public void testRenderAsync() throws Exception {
+
+    SettableFuture<String> title = SettableFuture.create();
+    SettableFuture<String> body = SettableFuture.create();
+    SoyTofu.Renderer renderer = tofu.newRenderer("ns.page")
+        .setData(ImmutableMap.of("title", title, "body", body));
+    RecordingAppendable out = new RecordingAppendable(false);
+
+    RenderResult result = renderer.renderAsync(out);
+    assertFalse(result.isDone());
+    assertSame(title, result.future());
+    assertEquals("<head>", out.sb.toString());
+
+    title.set("T");
+    result = renderer.renderAsync(out);
+    assertFalse(result.isDone());
+    assertSame(body, result.future());
+    assertEquals("<head>T</head><body>", out.sb.toString());
+
+    body.set("B");
+    result = renderer.renderAsync(out);
+    assertTrue(result.isDone());
+    assertEquals("<head>T</head><body>B</body>", out.sb.toString());
+  }
+
+
+  public void testRenderAsyncContinuesWhereItStopped() throws Exception {
+
+    // The render stops in a loop of a callee, within the content param of another call, after the
+    // callees for the first group are done.
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param groups */\n" +
+        "{template .page}\n" +
+        "  {foreach $group in $groups}\n" +
+        "    {call .box}\n" +
+        "      {param content kind=\"html\"}\n" +
+        "        {call .list}{param items: $group /}{/call}\n" +
+        "      {/param}\n" +
+        "    {/call}\n" +
+        "  {/foreach}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param content */\n" +
+        "{template .box}\n" +
+        "  <div>{$content}</div>\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param items */\n" +
+        "{template .list}\n" +
+        "  {foreach $item in $items}\n" +
+        "    {let $label kind=\"html\"}<b>{$item}</b>{/let}\n" +
+        "    {if isFirst($item)}[{/if}{$label}\n" +
+        "  {/foreach}\n" +
+        "{/template}\n";
+    SoyTofu asyncTofu = SoyFileSet.builder().add(soyFileContent, "test.soy").build()
+        .compileToTofu();
+
+    SettableFuture<String> a = SettableFuture.create();
+    SettableFuture<String> b = SettableFuture.create();
+    final List<String> renderedTemplateNames = Lists.newArrayList();
+    SoyTofu.Renderer renderer = asyncTofu.newRenderer("ns.page")
+        .setData(ImmutableMap.of(
+            "groups", ImmutableList.of(ImmutableList.of("x", a), ImmutableList.of(b))))
+        .setRenderListener(new SoyRenderListener() {
+          @Override public boolean shouldProfileRender(String templateName) {
+            return true;
+          }
+          @Override public void onTemplateRendered(
+              String templateName, long inclusiveNanos, long exclusiveNanos,
+              long numCharsWritten) {
+            renderedTemplateNames.add(templateName);
+          }
+        });
+    RecordingAppendable out = new RecordingAppendable(false);
+
+    RenderResult result = renderer.renderAsync(out);
+    assertSame(a, result.future());
+    assertEquals("", out.sb.toString());
+    a.set("a");
+    result = renderer.renderAsync(out);
+    assertSame(b, result.future());
+    assertEquals("<div>[<b>x</b><b>a</b></div>", out.sb.toString());
+    assertEquals(ImmutableList.of("ns.list", "ns.box"), renderedTemplateNames);
+    b.set("b");
+    result = renderer.renderAsync(out);
+    assertTrue(result.isDone());
+
+    assertEquals("<div>[<b>x</b><b>a</b></div><div>[<b>b</b></div>", out.sb.toString());
+    // Each template is reported once, although the render took three steps.
+    assertEquals(
+        ImmutableList.of("ns.list", "ns.box", "ns.list", "ns.box", "ns.page"),
+        renderedTemplateNames);
+  }
+
+
+  public void testRenderAsyncRendersMsgAgain() throws Exception {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .greeting}\n" +
+        "  <p>{msg desc=\"\"}Hello {$name}!{/msg}</p>\n" +
+        "{/template}\n";
+    SoyTofu asyncTofu = SoyFileSet.builder().add(soyFileContent, "test.soy").build()
+        .compileToTofu();
+
+    SettableFuture<String> name = SettableFuture.create();
+    SoyTofu.Renderer renderer =
+        asyncTofu.newRenderer("ns.greeting").setData(ImmutableMap.of("name", name));
+    RecordingAppendable out = new RecordingAppendable(false);
+
+    RenderResult result = renderer.renderAsync(out);
+    assertSame(name, result.future());
+    // The msg is rendered from its start when the render continues, so none of it is written yet.
+    assertEquals("<p>", out.sb.toString());
+    name.set("N");
+    result = renderer.renderAsync(out);
+    assertTrue(result.isDone());
+    assertEquals("<p>Hello N!</p>", out.sb.toString());
+  }
+
+
+  public void testCacheKeyedByMsgBundleContent() {
+
+    SoyTofuOptions tofuOptions = new SoyTofuOptions();
+    tofuOptions.setUseCaching(true);
+    SoyTofu cachingTofu = SoyFileSet.builder().add(SOY_FILE_CONTENT, "test.soy").build()
+        .compileToTofu(tofuOptions);
+    // The constructor caches the tree for no msg bundle.
+    assertEquals(1, cachingTofu.getCacheStats().missCount());
+
+    cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(newMsgBundle("fr", "Bonjour")).render();
+    assertEquals(2, cachingTofu.getCacheStats().missCount());
+    // A different instance with the same content hits the cache.
+    cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(newMsgBundle("fr", "Bonjour")).render();
+    assertEquals(2, cachingTofu.getCacheStats().missCount());
+    assertEquals(1, cachingTofu.getCacheStats().hitCount());
+    // Different content or a different locale misses.
+    cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(newMsgBundle("fr", "Salut")).render();
+    cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(newMsgBundle("fr-CA", "Bonjour")).render();
+    assertEquals(4, cachingTofu.getCacheStats().missCount());
+  }
+
+
+  public void testCacheEviction() {
+
+    SoyTofuOptions tofuOptions = new SoyTofuOptions();
+    tofuOptions.setUseCaching(true);
+    tofuOptions.setUseSharedTemplates(false);
+    tofuOptions.setCacheMaxWeight(1);
+    SoyTofu cachingTofu = SoyFileSet.builder().add(SOY_FILE_CONTENT, "test.soy").build()
+        .compileToTofu(tofuOptions);
+
+    // Every tree weighs more than the limit, so nothing stays cached.
+    SoyMsgBundle msgBundle = newMsgBundle("fr", "Bonjour");
+    assertEquals("<head>T</head><body>B</body>",
+        cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(msgBundle).render());
+    cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(msgBundle).render();
+    assertEquals(3, cachingTofu.getCacheStats().missCount());
+    assertEquals(3, cachingTofu.getCacheStats().evictionCount());
+  }
+
+
+  public void testAddToCacheInParallel() {
+
+    SoyTofuOptions tofuOptions = new SoyTofuOptions();
+    tofuOptions.setUseCaching(true);
+    SoyTofu cachingTofu = SoyFileSet.builder().add(SOY_FILE_CONTENT, "test.soy").build()
+        .compileToTofu(tofuOptions);
+
+    List<SoyMsgBundle> msgBundles = Lists.newArrayList();
+    for (String localeString : new String[] {"de", "en", "es", "fr", "it", "ja"}) {
+      msgBundles.add(newMsgBundle(localeString, "Hello " + localeString));
+    }
+    final Set<Integer> numsAdded = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      cachingTofu.addToCache(msgBundles, null, executor, new SoyTofu.AddToCacheListener() {
+        @Override public void onAddedToCache(SoyMsgBundle msgBundle, int numAdded, int numTotal) {
+          assertEquals(6, numTotal);
+          numsAdded.add(numAdded);
+        }
+      });
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(ImmutableSet.of(1, 2, 3, 4, 5, 6), numsAdded);
+    assertEquals(7, cachingTofu.getCacheStats().missCount());
+    for (SoyMsgBundle msgBundle : msgBundles) {
+      cachingTofu.newRenderer("ns.page").setData(DATA).setMsgBundle(msgBundle)
+          .setDontAddToCache(true).render();
+    }
+    assertEquals(6, cachingTofu.getCacheStats().hitCount());
+  }
+
+
+  public void testSharedTemplates() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param name */\n" +
+        "{template .greeting}\n" +
+        "  {call .bold}{param content kind=\"html\"}{msg desc=\"\"}Hello{/msg}{/param}{/call}\n" +
+        "  {sp}{call .bold}{param content: $name /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/** @param content */\n" +
+        "{template .bold}\n" +
+        "  <b>{$content}</b>\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    long msgId = soyFileSet.extractMsgs().iterator().next().getId();
+    SoyMsgBundle frMsgBundle = new SoyMsgBundleImpl("fr", ImmutableList.of(new SoyMsg(
+        msgId, "fr", false, ImmutableList.<SoyMsgPart>of(SoyMsgRawTextPart.of("Bonjour")))));
+    Map<String, ?> data = ImmutableMap.of("name", "Tom");
+
+    for (boolean useSharedTemplates : new boolean[] {true, false}) {
+      for (boolean useCompiledTemplates : new boolean[] {true, false}) {
+        SoyTofuOptions tofuOptions = new SoyTofuOptions();
+        tofuOptions.setUseCaching(true);
+        tofuOptions.setUseSharedTemplates(useSharedTemplates);
+        tofuOptions.setUseCompiledTemplates(useCompiledTemplates);
+        SoyTofu cachingTofu = soyFileSet.compileToTofu(tofuOptions);
+        assertEquals("<b>Hello</b> <b>Tom</b>",
+            cachingTofu.newRenderer("ns.greeting").setData(data).render());
+        assertEquals("<b>Bonjour</b> <b>Tom</b>",
+            cachingTofu.newRenderer("ns.greeting").setData(data).setMsgBundle(frMsgBundle)
+                .render());
+        // The non-localized template can be rendered directly from any cached registry.
+        assertEquals("<b>Tom</b>",
+            cachingTofu.newRenderer("ns.bold").setData(ImmutableMap.of("content", "Tom"))
+                .setMsgBundle(frMsgBundle).render());
+      }
+    }
+  }
+
+
+  public void testInlineCalls() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param items\n" +
+        " * @param content\n" +
+        " */\n" +
+        "{template .list}\n" +
+        "  {let $wrapped: '(' + $content + ')' /}\n" +
+        "  <ul>\n" +
+        "    {foreach $item in $items}\n" +
+        "      {call .item}\n" +
+        "        {param content kind=\"html\"}{$wrapped}{$item}{/param}\n" +
+        "        {param title: $item + $ij.suffix /}\n" +
+        "      {/call}\n" +
+        "    {/foreach}\n" +
+        "  </ul>\n" +
+        "  {call .item}{param content: $wrapped /}{param title: '<>' /}{/call}\n" +
+        "{/template}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param content\n" +
+        " * @param title\n" +
+        " */\n" +
+        "{template .item}\n" +
+        "  {let $item: $title + '!' /}\n" +
+        "  <li title=\"{$item}\">{$content}</li>\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    Map<String, ?> data = ImmutableMap.of("items", ImmutableList.of("a", "<b>"), "content", "c");
+    Map<String, ?> ijData = ImmutableMap.of("suffix", "&");
+    String expectedOutput = "" +
+        "<ul><li title=\"a&amp;!\">(c)a</li><li title=\"&lt;b&gt;&amp;!\">(c)&lt;b&gt;</li></ul>" +
+        "<li title=\"&lt;&gt;!\">(c)</li>";
+
+    for (boolean useCaching : new boolean[] {true, false}) {
+      for (boolean useCompiledTemplates : new boolean[] {true, false}) {
+        SoyTofuOptions tofuOptions = new SoyTofuOptions();
+        tofuOptions.setUseCaching(useCaching);
+        tofuOptions.setUseCompiledTemplates(useCompiledTemplates);
+        tofuOptions.setMaxInlinedCalleeSize(100);
+        SoyTofu inliningTofu = soyFileSet.compileToTofu(tofuOptions);
+        assertEquals(expectedOutput,
+            inliningTofu.newRenderer("ns.list").setData(data).setIjData(ijData).render());
+
+        // The inlined callee is not reported separately.
+        SoyRenderMetrics metrics = new SoyRenderMetrics();
+        inliningTofu.newRenderer("ns.list").setData(data).setIjData(ijData)
+            .setRenderListener(metrics).render();
+        assertEquals(ImmutableSet.of("ns.list"), metrics.getTemplateMetrics().keySet());
+      }
+    }
+
+    // Same output without inlining.
+    assertEquals(expectedOutput,
+        soyFileSet.compileToTofu().newRenderer("ns.list").setData(data).setIjData(ijData)
+            .render());
+  }
+
+
+  public void testRenderPluralMsgFromTranslation() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** @param n */\n" +
+        "{template .items}\n" +
+        "  {msg desc=\"\"}\n" +
+        "    {plural $n}{case 0}no items{case 1}one item{default}some items{/plural}\n" +
+        "  {/msg}\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    SoyMsg msg = soyFileSet.extractMsgs().iterator().next();
+    String pluralVarName = ((SoyMsgPluralPart) msg.getParts().get(0)).getPluralVarName();
+    SoyMsgPart frPluralPart = new SoyMsgPluralPart(pluralVarName, 0, ImmutableList.of(
+        Pair.of(new SoyMsgPluralCaseSpec(0), partsOf("aucun article")),
+        Pair.of(new SoyMsgPluralCaseSpec("one"), partsOf("un article")),
+        Pair.of(new SoyMsgPluralCaseSpec("other"), partsOf("des articles"))));
+    SoyMsgBundle frMsgBundle = new SoyMsgBundleImpl("fr", ImmutableList.of(new SoyMsg(
+        msg.getId(), "fr", true, ImmutableList.of(frPluralPart))));
+
+    SoyTofu frTofu = soyFileSet.compileToTofu();
+    for (int i = 0; i < 2; i++) {
+      assertEquals("aucun article", frTofu.newRenderer("ns.items")
+          .setData(ImmutableMap.of("n", 0)).setMsgBundle(frMsgBundle).render());
+      assertEquals("un article", frTofu.newRenderer("ns.items")
+          .setData(ImmutableMap.of("n", 1)).setMsgBundle(frMsgBundle).render());
+      assertEquals("des articles", frTofu.newRenderer("ns.items")
+          .setData(ImmutableMap.of("n", 5)).setMsgBundle(frMsgBundle).render());
+    }
+  }
+
+
+  public void testRenderPlrselMsgFromCachedTranslation() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/**\n" +
+        " * @param gender\n" +
+        " * @param n\n" +
+        " * @param name\n" +
+        " */\n" +
+        "{template .notification}\n" +
+        "  {msg desc=\"\"}\n" +
+        "    {select $gender}\n" +
+        "      {case 'female'}\n" +
+        "        {plural $n}{case 1}{$name} has a message{default}{$name} has messages{/plural}\n" +
+        "      {default}\n" +
+        "        {plural $n}{case 1}{$name} has a message{default}{$name} has messages{/plural}\n" +
+        "    {/select}\n" +
+        "  {/msg}\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    SoyMsg msg = soyFileSet.extractMsgs().iterator().next();
+    SoyMsgSelectPart selectPart = (SoyMsgSelectPart) msg.getParts().get(0);
+    String pluralVarName =
+        ((SoyMsgPluralPart) selectPart.getCases().get(0).second.get(0)).getPluralVarName();
+    SoyMsgPart namePart = new SoyMsgPlaceholderPart("NAME");
+    SoyMsgPart frSelectPart = new SoyMsgSelectPart(selectPart.getSelectVarName(), ImmutableList.of(
+        Pair.of("female", ImmutableList.<SoyMsgPart>of(
+            new SoyMsgPluralPart(pluralVarName, 0, ImmutableList.of(
+                Pair.of(new SoyMsgPluralCaseSpec(0), partsOf("elle n'a aucun message")),
+                Pair.of(new SoyMsgPluralCaseSpec("one"), ImmutableList.of(
+                    namePart, SoyMsgRawTextPart.of(" a un message"))),
+                Pair.of(new SoyMsgPluralCaseSpec("other"), ImmutableList.of(
+                    namePart, SoyMsgRawTextPart.of(" a des messages"))))))),
+        Pair.of((String) null, ImmutableList.<SoyMsgPart>of(
+            new SoyMsgPluralPart(pluralVarName, 0, ImmutableList.of(
+                Pair.of(new SoyMsgPluralCaseSpec("other"), ImmutableList.of(
+                    namePart, SoyMsgRawTextPart.of(" a des messages")))))))));
+    CountingMsgBundle frMsgBundle = new CountingMsgBundle(new SoyMsgBundleImpl(
+        "fr", ImmutableList.of(new SoyMsg(
+            msg.getId(), "fr", true, ImmutableList.of(frSelectPart)))));
+
+    SoyTofu noCachingTofu = soyFileSet.compileToTofu();
+    SoyTofuOptions tofuOptions = new SoyTofuOptions();
+    tofuOptions.setUseCaching(true);
+    SoyTofu cachingTofu = soyFileSet.compileToTofu(tofuOptions);
+    cachingTofu.addToCache(frMsgBundle, null);
+
+    for (String gender : new String[] {"female", "male"}) {
+      for (int n : new int[] {0, 1, 5}) {
+        Map<String, ?> data = ImmutableMap.of("gender", gender, "n", n, "name", "Alex");
+        String expectedOutput = noCachingTofu.newRenderer("ns.notification").setData(data)
+            .setMsgBundle(frMsgBundle).render();
+        frMsgBundle.numGetMsgCalls = 0;
+        assertEquals(expectedOutput, cachingTofu.newRenderer("ns.notification").setData(data)
+            .setMsgBundle(frMsgBundle).render());
+        // The translation is in the cached tree, so rendering doesn't look up the message.
+        assertEquals(0, frMsgBundle.numGetMsgCalls);
+      }
+    }
+
+    Map<String, ?> data = ImmutableMap.of("gender", "female", "n", 0, "name", "Alex");
+    assertEquals("elle n'a aucun message", cachingTofu.newRenderer("ns.notification")
+        .setData(data).setMsgBundle(frMsgBundle).render());
+    data = ImmutableMap.of("gender", "female", "n", 1, "name", "Alex");
+    assertEquals("Alex a un message", cachingTofu.newRenderer("ns.notification")
+        .setData(data).setMsgBundle(frMsgBundle).render());
+    data = ImmutableMap.of("gender", "male", "n", 1, "name", "Alex");
+    assertEquals("Alex a des messages", cachingTofu.newRenderer("ns.notification")
+        .setData(data).setMsgBundle(frMsgBundle).render());
+  }
+
+
+  public void testRenderResolvesMsgTranslationsOncePerBundle() {
+
+    String soyFileContent = "" +
+        "{namespace ns autoescape=\"strict\"}\n" +
+        "\n" +
+        "/** */\n" +
+        "{template .greeting}\n" +
+        "  {msg desc=\"\"}Welcome back!{fallbackmsg desc=\"\"}Welcome!{/msg}\n" +
+        "{/template}\n";
+    SoyFileSet soyFileSet = SoyFileSet.builder().add(soyFileContent, "test.soy").build();
+    SoyMsg fallbackMsg = null;
+    for (SoyMsg msg : soyFileSet.extractMsgs()) {
+      if (msg.getParts().equals(partsOf("Welcome!"))) {
+        fallbackMsg = msg;
+      }
+    }
+    SoyMsgBundle delegate = new SoyMsgBundleImpl("fr", ImmutableList.of(
+        new SoyMsg(fallbackMsg.getId(), "fr", false, partsOf("Bienvenue !"))));
+    CountingMsgBundle frMsgBundle = new CountingMsgBundle(delegate);
+
+    SoyTofu tofu = soyFileSet.compileToTofu();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("Bienvenue !",
+          tofu.newRenderer("ns.greeting").setMsgBundle(frMsgBundle).render());
+    }
+    // The first render looks up both messages of the group, and the others reuse the result.
+    assertEquals(2, frMsgBundle.numGetMsgCalls);
+
+    // Another bundle instance resolves the translations again.
+    CountingMsgBundle otherFrMsgBundle = new CountingMsgBundle(delegate);
+    assertEquals("Bienvenue !",
+        tofu.newRenderer("ns.greeting").setMsgBundle(otherFrMsgBundle).render());
+    assertEquals(2, otherFrMsgBundle.numGetMsgCalls);
+  }
+
+
+  public void testRecompileChangedFiles() throws Exception {
+
+    File dir = Files.createTempDir();
+    try {
+      File aFile = writeSoyFile(dir, "a.soy", "" +
+          "{namespace a autoescape=\"contextual\"}\n" +
+          "\n" +
+          "/** @param x */\n" +
+          "{template .page}\n" +
+          "  <div title=\"{call b.item data=\"all\" /}\">{msg desc=\"\"}Hi{/msg}</div>\n" +
+          "{/template}\n");
+      File bFile = writeSoyFile(dir, "b.soy", "" +
+          "{namespace b autoescape=\"contextual\"}\n" +
+          "\n" +
+          "/** @param x */\n" +
+          "{template .item}\n" +
+          "  {$x}\n" +
+          "{/template}\n");
+      File cFile = writeSoyFile(dir, "c.soy", "" +
+          "{namespace c autoescape=\"contextual\"}\n" +
+          "\n" +
+          "/** @param x */\n" +
+          "{template .other}\n" +
+          "  <p>{call b.item data=\"all\" /}</p>\n" +
+          "{/template}\n");
+      Map<String, ?> data = ImmutableMap.of("x", "\"q\"");
+
+      for (boolean useCaching : new boolean[] {true, false}) {
+        SoyFileSet soyFileSet = SoyFileSet.builder()
+            .addVolatile(aFile).addVolatile(bFile).addVolatile(cFile)
+            .setSoyAstCache(new SoyAstCache())
+            .build();
+        SoyTofuOptions tofuOptions = new SoyTofuOptions();
+        tofuOptions.setUseCaching(useCaching);
+        SoyTofu tofu = soyFileSet.compileToTofu(tofuOptions);
+        assertEquals("<div title=\"&quot;q&quot;\">Hi</div>",
+            tofu.newRenderer("a.page").setData(data).render());
+        assertFalse(soyFileSet.recompileChangedFiles(tofu));
+
+        // Only c and its callee b are recompiled. The version of b.item derived for the attribute
+        // context of a.page (which is not recompiled) is kept.
+        rewriteSoyFile(cFile, "p>", "span>");
+        assertTrue(soyFileSet.recompileChangedFiles(tofu));
+        assertEquals("<span>&quot;q&quot;</span>",
+            tofu.newRenderer("c.other").setData(data).render());
+        assertEquals("<div title=\"&quot;q&quot;\">Hi</div>",
+            tofu.newRenderer("a.page").setData(data).render());
+
+        // Changing b recompiles its callers too.
+        rewriteSoyFile(bFile, "{$x}", "[{$x}]");
+        assertTrue(soyFileSet.recompileChangedFiles(tofu));
+        assertEquals("<div title=\"[&quot;q&quot;]\">Hi</div>",
+            tofu.newRenderer("a.page").setData(data).render());
+        assertEquals("<span>[&quot;q&quot;]</span>",
+            tofu.newRenderer("c.other").setData(data).render());
+
+        // After a syntax error, the SoyTofu is left unchanged.
+        rewriteSoyFile(bFile, "{/template}", "");
+        try {
+          soyFileSet.recompileChangedFiles(tofu);
+          fail();
+        } catch (SoySyntaxException expected) {
+          // Test passes.
+        }
+        assertEquals("<span>[&quot;q&quot;]</span>",
+            tofu.newRenderer("c.other").setData(data).render());
+        rewriteSoyFile(bFile, "[{$x}]\n", "[{$x}]\n{/template}");
+        assertTrue(soyFileSet.recompileChangedFiles(tofu));
+
+        // Restore c, for the next iteration.
+        rewriteSoyFile(cFile, "span>", "p>");
+        rewriteSoyFile(bFile, "[{$x}]", "{$x}");
+      }
+
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+
+  private static SoyMsgBundle newMsgBundle(String localeString, String text) {
+    return new SoyMsgBundleImpl(localeString, ImmutableList.of(new SoyMsg(
+        1L, localeString, false, ImmutableList.<SoyMsgPart>of(SoyMsgRawTextPart.of(text)))));
+  }
+
+
+  /** A SoyMsgBundle that counts the messages looked up in it. */
+  private static class CountingMsgBundle implements SoyMsgBundle {
+
+    private final SoyMsgBundle delegate;
+    int numGetMsgCalls;
+
+    CountingMsgBundle(SoyMsgBundle delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public String getLocaleString() {
+      return delegate.getLocaleString();
+    }
+
+    @Override public SoyMsg getMsg(long msgId) {
+      numGetMsgCalls++;
+      return delegate.getMsg(msgId);
+    }
+
+    @Override public int getNumMsgs() {
+      return delegate.getNumMsgs();
+    }
+
+    @Override public Iterator<SoyMsg> iterator() {
+      return delegate.iterator();
+    }
+  }
+
+
+  private static ImmutableList<SoyMsgPart> partsOf(String text) {
+    return ImmutableList.<SoyMsgPart>of(SoyMsgRawTextPart.of(text));
+  }
+
+
+  private static File writeSoyFile(File dir, String fileName, String content) throws IOException {
+    File file = new File(dir, fileName);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+
+  /**
+   * Replaces all occurrences of some text in a Soy file, making sure that its last modified time
+   * changes.
+   */
+  private static void rewriteSoyFile(File file, String target, String replacement)
+      throws IOException {
+    long lastModified = file.lastModified();
+    String content = Files.toString(file, Charsets.UTF_8);
+    assertTrue(content.contains(target));
+    Files.write(content.replace(target, replacement), file, Charsets.UTF_8);
+    file.setLastModified(lastModified + 2000);
+  }
+
+
+  /**
+   * AdvisingAppendable that records its output and the output at the time of each flush. If
+   * enabled, it advises a flush as soon as anything was appended since the last flush.
+   */
+  private static class RecordingAppendable implements AdvisingAppendable {
+
+    final StringBuilder sb = new StringBuilder();
+    final boolean isSoftLimitReached;
+    String flushedPrefixes = "";
+    int flushedLength = 0;
+
+    RecordingAppendable(boolean isSoftLimitReached) {
+      this.isSoftLimitReached = isSoftLimitReached;
+    }
+
+    @Override public Appendable append(CharSequence csq) {
+      sb.append(csq);
+      return this;
+    }
+
+    @Override public Appendable append(CharSequence csq, int start, int end) {
+      sb.append(csq, start, end);
+      return this;
+    }
+
+    @Override public Appendable append(char c) {
+      sb.append(c);
+      return this;
+    }
+
+    @Override public boolean softLimitReached() {
+      return isSoftLimitReached && sb.length() > flushedLength;
+    }
+
+    @Override public void flush() throws IOException {
+      flushedPrefixes += "[" + sb + "]";
+      flushedLength = sb.length();
+    }
+  }
+
+}